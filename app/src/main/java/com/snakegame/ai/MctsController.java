@@ -0,0 +1,327 @@
+package com.snakegame.ai;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GameLog;
+import com.snakegame.logic.Topology;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Picks the snake's next direction with a Monte Carlo tree search.
+ * <p>
+ * Every worker grows its own tree from the current position (root parallelization), and the
+ * root visit counts are summed once the time budget is spent. The trees are open loop: nodes
+ * stand for move sequences rather than states, so each iteration replays its moves from a
+ * fresh copy of the root with its own random spawns, and the tree learns what works whatever
+ * the food does next.
+ */
+public class MctsController {
+    private static final String TAG = MctsController.class.getSimpleName();
+
+    // actions relative to the current direction
+    private static final int STRAIGHT = 0, LEFT = 1, RIGHT = 2;
+    private static final int ACTION_COUNT = 3;
+
+    // moves simulated past the tree before a position is scored
+    private static final int ROLLOUT_DEPTH = 30;
+
+    // food eaten further ahead counts for less
+    private static final double DISCOUNT = 0.95;
+
+    // rewards are score gains divided by the best food score, so a food is worth at most 1. A
+    // game that ends in death scores minus the penalty alone, losing the food it ate on the way:
+    // dying always scores below surviving, and the penalty sets how much risk food is worth
+    private static final double DEATH_PENALTY = 0.5;
+
+    // tuned on the scale above, playing 20 x 30 boards with 2 ms searches
+    private static final double EXPLORATION = 0.25;
+
+    // nodes per tree, the search stops growing its tree once they are used up
+    private static final int MAX_NODES = 1 << 15;
+
+    private final GameLog log;
+    private final ForkJoinPool pool;
+    private final int treeCount;
+    private final SearchTree[] trees;
+    private final Random seeds = new Random();
+
+    private SimBoard board;
+
+    // stats of the last search
+    private volatile long lastIterations;
+    private volatile long lastSearchNanos;
+
+    public MctsController() {
+        this(GameLog.NONE);
+    }
+
+    public MctsController(GameLog log) {
+        this(Runtime.getRuntime().availableProcessors(), log);
+    }
+
+    public MctsController(int parallelism, GameLog log) {
+        this.log = log;
+        pool = new ForkJoinPool(parallelism);
+        treeCount = parallelism;
+        trees = new SearchTree[treeCount];
+    }
+
+    /**
+     * Searches the engine's current position for about the given time and returns the
+     * direction the snake should take on its next move.
+     */
+    public Direction chooseMove(GameEngine engine, long budgetNanos) {
+        long start = System.nanoTime();
+
+        if (board == null || !board.isBoardOf(engine)) {
+            board = SimBoard.of(engine);
+            for (int i = 0; i < treeCount; i++)
+                trees[i] = new SearchTree(board);
+        }
+
+        for (SearchTree tree : trees) {
+            tree.root.load(engine);
+            tree.seed = seeds.nextLong();
+        }
+
+        pool.invoke(new SearchTask(trees, 0, treeCount, start + budgetNanos));
+
+        // the action most visited over all trees is the most trusted one
+        long[] visits = new long[ACTION_COUNT];
+        long iterations = 0;
+        for (SearchTree tree : trees) {
+            iterations += tree.visits[0];
+            for (int action = 0; action < ACTION_COUNT; action++) {
+                int child = tree.firstChild[0];
+                if (child != 0)
+                    visits[action] += tree.visits[child + action];
+            }
+        }
+
+        int best = STRAIGHT;
+        for (int action = 1; action < ACTION_COUNT; action++)
+            if (visits[action] > visits[best])
+                best = action;
+
+        lastIterations = iterations;
+        lastSearchNanos = System.nanoTime() - start;
+
+        if (log.isLoggable())
+            log.v(TAG, "Searched " + iterations + " iterations in " + lastSearchNanos / 1000 + " us");
+
+        return Direction.values()[turn(trees[0].root.getDirection(), best)];
+    }
+
+    public long getLastIterations() {
+        return lastIterations;
+    }
+
+    public long getLastSearchNanos() {
+        return lastSearchNanos;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static int turn(int direction, int action) {
+        switch (action) {
+            case LEFT:
+                return (direction + 3) % 4;
+            case RIGHT:
+                return (direction + 1) % 4;
+            default:
+                return direction;
+        }
+    }
+
+    /**
+     * Splits the trees between workers until each has a single tree to grow.
+     */
+    private static class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SearchTree[] trees;
+        private final int from, to;
+        private final long deadline;
+
+        SearchTask(SearchTree[] trees, int from, int to, long deadline) {
+            this.trees = trees;
+            this.from = from;
+            this.to = to;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                trees[from].search(deadline);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new SearchTask(trees, from, middle, deadline),
+                    new SearchTask(trees, middle, to, deadline));
+        }
+    }
+
+    /**
+     * One worker's tree, kept in flat arrays and reused from one search to the next.
+     * Node 0 is the root, and the children of a node are stored next to each other.
+     */
+    private static class SearchTree {
+        final SimState root;
+        private final SimState state;
+        private final double rewardScale;
+        long seed;
+
+        final int[] firstChild = new int[MAX_NODES];
+        final int[] visits = new int[MAX_NODES];
+        private final double[] value = new double[MAX_NODES];
+        private int nodeCount;
+
+        // nodes visited by the current iteration
+        private final int[] path = new int[MAX_NODES];
+
+        SearchTree(SimBoard board) {
+            root = new SimState(board);
+            state = new SimState(board);
+            rewardScale = 1.0 / Math.max(1, board.maxFoodScore);
+        }
+
+        void search(long deadline) {
+            nodeCount = 1;
+            firstChild[0] = 0;
+            visits[0] = 0;
+            value[0] = 0;
+
+            long iteration = 0;
+            do {
+                // a few iterations between clock reads
+                for (int i = 0; i < 16; i++)
+                    iterate(seed + iteration++);
+            } while (System.nanoTime() < deadline);
+        }
+
+        private void iterate(long iterationSeed) {
+            state.copyFrom(root);
+            state.reseed(iterationSeed);
+
+            // select down the tree
+            int node = 0;
+            int depth = 0;
+            int score = state.getScore();
+            double reward = 0;
+            double weight = 1;
+            path[depth++] = node;
+
+            while (firstChild[node] != 0 && !state.isDead()) {
+                int action = select(node);
+                state.step(turn(state.getDirection(), action));
+                reward += weight * (state.getScore() - score) * rewardScale;
+                score = state.getScore();
+                weight *= DISCOUNT;
+                node = firstChild[node] + action;
+                path[depth++] = node;
+            }
+
+            // expand the leaf once it has been visited
+            if (!state.isDead() && visits[node] > 0 && nodeCount + ACTION_COUNT <= MAX_NODES) {
+                firstChild[node] = nodeCount;
+                for (int i = 0; i < ACTION_COUNT; i++) {
+                    firstChild[nodeCount + i] = 0;
+                    visits[nodeCount + i] = 0;
+                    value[nodeCount + i] = 0;
+                }
+                nodeCount += ACTION_COUNT;
+            }
+
+            double rolloutReward = rollout(score, weight);
+
+            // a game that ends in death scores the penalty alone, whatever it ate on the way
+            reward = state.isDead() ? rolloutReward : reward + rolloutReward;
+
+            for (int i = 0; i < depth; i++) {
+                visits[path[i]]++;
+                value[path[i]] += reward;
+            }
+        }
+
+        private int select(int node) {
+            int children = firstChild[node];
+            double logVisits = Math.log(visits[node] + 1);
+
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int action = 0; action < ACTION_COUNT; action++) {
+                int child = children + action;
+                if (visits[child] == 0)
+                    return action;
+
+                double score = value[child] / visits[child]
+                        + EXPLORATION * Math.sqrt(logVisits / visits[child]);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = action;
+                }
+            }
+
+            return best;
+        }
+
+        // plays safe moves leaning towards the food, returns the discounted food reward gained
+        // or, if the snake dies, the discounted death penalty
+        private double rollout(int score, double weight) {
+            double reward = 0;
+
+            for (int i = 0; i < ROLLOUT_DEPTH && !state.isDead(); i++) {
+                state.step(rolloutMove());
+                reward += weight * (state.getScore() - score) * rewardScale;
+                score = state.getScore();
+                weight *= DISCOUNT;
+            }
+
+            return state.isDead() ? -weight * DEATH_PENALTY : reward;
+        }
+
+        private int rolloutMove() {
+            int direction = state.getDirection();
+            int best = direction;
+            int bestDistance = Integer.MAX_VALUE;
+            int safeMoves = 0;
+
+            for (int action = 0; action < ACTION_COUNT; action++) {
+                int newDirection = turn(direction, action);
+                if (!state.isSafe(newDirection))
+                    continue;
+
+                // a little randomness so rollouts don't all follow the same path
+                int distance = foodDistance(newDirection) * 4 + state.nextInt(6);
+                if (safeMoves++ == 0 || distance < bestDistance) {
+                    best = newDirection;
+                    bestDistance = distance;
+                }
+            }
+
+            return best;
+        }
+
+        // manhattan distance to the food after a move, ignoring walls and wrapping
+        private int foodDistance(int direction) {
+            int food = state.getFoodCell();
+            if (food == Topology.NO_CELL)
+                return 0;
+
+            Topology topology = state.getBoard().topology;
+            int next = topology.neighbor(state.getHead(), Direction.values()[direction]);
+            if (next == Topology.NO_CELL)
+                return Integer.MAX_VALUE / 8;
+
+            return Math.abs(topology.getX(next) - topology.getX(food))
+                    + Math.abs(topology.getY(next) - topology.getY(food));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.snakegame.ai;
+
+import com.snakegame.logic.AliasTable;
+import com.snakegame.logic.Food;
+import com.snakegame.logic.GameElements;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.ItemRegistry;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.SpecialElements;
+import com.snakegame.logic.Topology;
+
+/**
+ * The parts of a game that never change while it is played: the board and the spawn tables.
+ * Shared by all the simulated states of a search.
+ */
+public class SimBoard {
+    public static final int NO_SPECIAL_ELEMENT = -1;
+
+    final Level level;
+    final Topology topology;
+    final int cellCount;
+
+    // food scores and the alias tables the engine picks them with, so that spawns draw the
+    // same random numbers as in the game
+    final int[] foodScores;
+    final double[] foodProbabilities;
+    final int[] foodAliases;
+
+    // best score a single food gives
+    final int maxFoodScore;
+
+    // special element types (GameElementType ordinals or NO_SPECIAL_ELEMENT), alias tables
+    // and lifetimes in moves
+    final int[] specialTypes;
+    final double[] specialProbabilities;
+    final int[] specialAliases;
+    final int[] specialDurations;
+
+    private SimBoard(GameEngine engine) {
+        level = engine.getLevel();
+        topology = engine.getTopology();
+        cellCount = topology.getCellCount();
+
+        ItemRegistry<Food> foods = engine.getFoodRegistry();
+        foodScores = new int[foods.size()];
+        int maxScore = 0;
+        for (int i = 0; i < foods.size(); i++) {
+            foodScores[i] = foods.getItem(i).getScore();
+            maxScore = Math.max(maxScore, foodScores[i]);
+        }
+        maxFoodScore = maxScore;
+
+        AliasTable foodTable = aliasTable(foods);
+        foodProbabilities = new double[foods.size()];
+        foodAliases = new int[foods.size()];
+        for (int i = 0; i < foods.size(); i++) {
+            foodProbabilities[i] = foodTable.getProbability(i);
+            foodAliases[i] = foodTable.getAlias(i);
+        }
+
+        ItemRegistry<SpecialElements> specials = engine.getSpecialElementsRegistry();
+        AliasTable specialTable = aliasTable(specials);
+        specialTypes = new int[specials.size()];
+        specialProbabilities = new double[specials.size()];
+        specialAliases = new int[specials.size()];
+        specialDurations = new int[specials.size()];
+        for (int i = 0; i < specials.size(); i++) {
+            SpecialElements item = specials.getItem(i);
+            specialTypes[i] = item == null ? NO_SPECIAL_ELEMENT : item.getType().ordinal();
+            specialDurations[i] = item == null ? 0 : item.getMaxDuration();
+            specialProbabilities[i] = specialTable.getProbability(i);
+            specialAliases[i] = specialTable.getAlias(i);
+        }
+    }
+
+    // the same table as the registry builds from the same weights
+    private static AliasTable aliasTable(ItemRegistry<?> registry) {
+        double[] weights = new double[registry.size()];
+        for (int i = 0; i < weights.length; i++)
+            weights[i] = registry.getWeight(i);
+        return new AliasTable(weights);
+    }
+
+    /**
+     * Captures the board of the engine's game.
+     */
+    public static SimBoard of(GameEngine engine) {
+        return new SimBoard(engine);
+    }
+
+    /**
+     * Returns true if the board is the one of the engine's game.
+     */
+    public boolean isBoardOf(GameEngine engine) {
+        return level == engine.getLevel() && topology == engine.getTopology();
+    }
+
+    static boolean isShield(int type) {
+        return type == GameElements.GameElementType.SHIELD.ordinal();
+    }
+
+    static boolean isClock(int type) {
+        return type == GameElements.GameElementType.CLOCK.ordinal();
+    }
+}
@@ -0,0 +1,457 @@
+package com.snakegame.ai;
+
+import com.snakegame.logic.Cell;
+import com.snakegame.logic.Clock;
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.Food;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GameRandom;
+import com.snakegame.logic.GridPoint;
+import com.snakegame.logic.Snake;
+import com.snakegame.logic.SpecialElements;
+import com.snakegame.logic.Topology;
+
+/**
+ * Compact copy of a game, advanced one snake move at a time.
+ * <p>
+ * The body is a ring of cell numbers plus a count of body cells per board cell, and the
+ * random generator is a single long, so copying a state costs O(snake length) whatever the
+ * board size. The rules follow {@link GameEngine} exactly: walls, shields, food, special
+ * elements, speed ups and the slowed time, with the engine's tick timing and its spawns, so
+ * that a state stepped with the moves of the game stays the same as the game. Rewind charges
+ * aren't kept, a search can't spend them.
+ */
+public class SimState {
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private static final int NO_DEADLINE = -1;
+
+    private final SimBoard board;
+
+    // body ring, bodyHead being the snake head
+    private final int[] body;
+    private int bodyHead;
+    private int length;
+    private final byte[] occupancy;
+
+    private int direction;
+    private int score;
+    private boolean dead;
+    private boolean shield;
+    private int moves;
+
+    // engine tick and snake speed, the snake moves on ticks that are multiples of its delay
+    private int tick;
+    private double moveDelay;
+    private boolean speedNeedsToBeIncremented;
+    private boolean timeSlowed;
+    private double savedDelay;
+    private int clockDeadline = NO_DEADLINE;
+
+    private int foodCell = Topology.NO_CELL;
+    private int foodScore;
+
+    private int specialCell = Topology.NO_CELL;
+    private int specialType = SimBoard.NO_SPECIAL_ELEMENT;
+    private int specialDeadline = NO_DEADLINE;
+
+    // java.util.Random compatible state
+    private long random;
+
+    // cells reached by the last spawn search, marked with the current stamp
+    private final int[] reached;
+    private final int[] queue;
+    private int stamp;
+
+    public SimState(SimBoard board) {
+        this.board = board;
+        body = new int[board.cellCount + 1];
+        occupancy = new byte[board.cellCount];
+        reached = new int[board.cellCount];
+        queue = new int[board.cellCount];
+    }
+
+    /**
+     * Copies the current game of the engine, which must be played on this state's board.
+     */
+    public void load(GameEngine engine) {
+        clearBody();
+
+        Topology topology = board.topology;
+        Snake snake = engine.getSnake();
+        for (Cell cell : snake.getCells()) {
+            GridPoint p = cell.getLocation();
+            addTail(topology.cell(p.x, p.y));
+        }
+
+        direction = snake.getDirection().ordinal();
+        score = snake.getScore();
+        dead = snake.isDead();
+        shield = snake.hasShield();
+        moves = 0;
+
+        tick = engine.getTickCounter();
+        moveDelay = snake.getExactMoveDelay();
+        speedNeedsToBeIncremented = snake.speedNeedsToBeIncremented();
+        timeSlowed = snake.isTimeSlowed();
+        savedDelay = snake.getSavedMoveDelay();
+        clockDeadline = timeSlowed ? tick + snake.getClockRemainingTicks() : NO_DEADLINE;
+
+        Food food = engine.getFood();
+        foodCell = topology.cell(food.getLocation().x, food.getLocation().y);
+        foodScore = food.getScore();
+
+        SpecialElements specialElements = engine.getSpecialElements();
+        if (specialElements == null) {
+            specialCell = Topology.NO_CELL;
+            specialType = SimBoard.NO_SPECIAL_ELEMENT;
+            specialDeadline = NO_DEADLINE;
+        } else {
+            specialCell = topology.cell(specialElements.getLocation().x, specialElements.getLocation().y);
+            specialType = specialElements.getType().ordinal();
+            specialDeadline = tick + specialElements.getRemainingTicks();
+        }
+
+        random = engine.getRandomState();
+    }
+
+    /**
+     * Makes this state a copy of the other one, which must be on the same board.
+     */
+    public void copyFrom(SimState other) {
+        clearBody();
+        for (int i = 0; i < other.length; i++)
+            addTail(other.getCell(i));
+
+        direction = other.direction;
+        score = other.score;
+        dead = other.dead;
+        shield = other.shield;
+        moves = other.moves;
+
+        tick = other.tick;
+        moveDelay = other.moveDelay;
+        speedNeedsToBeIncremented = other.speedNeedsToBeIncremented;
+        timeSlowed = other.timeSlowed;
+        savedDelay = other.savedDelay;
+        clockDeadline = other.clockDeadline;
+
+        foodCell = other.foodCell;
+        foodScore = other.foodScore;
+
+        specialCell = other.specialCell;
+        specialType = other.specialType;
+        specialDeadline = other.specialDeadline;
+
+        random = other.random;
+    }
+
+    /**
+     * Replaces the random generator state, so that copies of a state see different spawns.
+     */
+    public void reseed(long seed) {
+        random = GameRandom.initialState(seed);
+    }
+
+    /**
+     * Turns to the given direction, unless it is the opposite of the current one, and runs
+     * the engine's ticks up to and including the next move.
+     */
+    public void step(int newDirection) {
+        if (dead)
+            return;
+
+        // the ticks in between only end effects
+        do {
+            tick++;
+            if (tick == clockDeadline) {
+                timeSlowed = false;
+                moveDelay = savedDelay;
+                clockDeadline = NO_DEADLINE;
+            }
+            if (tick == specialDeadline) {
+                specialCell = Topology.NO_CELL;
+                specialDeadline = NO_DEADLINE;
+            }
+        } while (tick % getMoveDelay() != 0);
+
+        if (speedNeedsToBeIncremented && !timeSlowed) {
+            moveDelay = Snake.speedUp(moveDelay);
+            speedNeedsToBeIncremented = false;
+        }
+
+        if (newDirection != (direction + 2) % 4)
+            direction = newDirection;
+
+        Topology topology = board.topology;
+        int next = topology.neighbor(getHead(), Direction.values()[direction]);
+        moves++;
+
+        // walls kill unless a shield saves the snake, which then moves into the wall
+        if (next == Topology.NO_CELL || board.level.isBlocked(next)) {
+            if (!shield) {
+                dead = true;
+                return;
+            }
+            shield = false;
+        }
+
+        // a snake saved on the edge of the board has nowhere to go, elements still spawn
+        if (next == Topology.NO_CELL) {
+            updateSpecialElement(getHead());
+            return;
+        }
+
+        int tail = removeTail();
+        addHead(next);
+
+        for (int i = occupancy[next]; i > 1; i--)
+            if (shield)
+                shield = false;
+            else
+                dead = true;
+        if (dead)
+            return;
+
+        if (next == foodCell) {
+            addTail(tail);
+            speedNeedsToBeIncremented = true;
+            score += foodScore;
+            spawnFood();
+        }
+
+        updateSpecialElement(next);
+    }
+
+    /**
+     * Returns true if moving in the given direction doesn't run into a wall or the body,
+     * the tail being about to leave its cell.
+     */
+    public boolean isSafe(int newDirection) {
+        if (newDirection == (direction + 2) % 4)
+            newDirection = direction;
+
+        int next = board.topology.neighbor(getHead(), Direction.values()[newDirection]);
+        if (next == Topology.NO_CELL || board.level.isBlocked(next))
+            return false;
+
+        int bodyCells = occupancy[next];
+        if (next == getCell(length - 1) && next != foodCell)
+            bodyCells--;
+        return bodyCells == 0;
+    }
+
+    public int getHead() {
+        return body[bodyHead];
+    }
+
+    /**
+     * Returns the i-th body cell, 0 being the head.
+     */
+    public int getCell(int i) {
+        return body[(bodyHead + i) % body.length];
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isDead() {
+        return dead;
+    }
+
+    public boolean hasShield() {
+        return shield;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    public int getFoodCell() {
+        return foodCell;
+    }
+
+    public SimBoard getBoard() {
+        return board;
+    }
+
+    private int getMoveDelay() {
+        return (int) Math.round(moveDelay);
+    }
+
+    private void updateSpecialElement(int head) {
+        if (specialCell == Topology.NO_CELL) {
+            int i = pick(board.specialProbabilities, board.specialAliases);
+            specialType = board.specialTypes[i];
+            if (specialType != SimBoard.NO_SPECIAL_ELEMENT) {
+                specialCell = randomReachableCell();
+                specialDeadline = tick + Math.max(board.specialDurations[i] * getMoveDelay(), 1);
+            }
+        } else if (head == specialCell) {
+            if (SimBoard.isShield(specialType)) {
+                shield = true;
+            } else if (SimBoard.isClock(specialType)) {
+                if (!timeSlowed)
+                    savedDelay = moveDelay;
+                moveDelay = Snake.SLOWED_TIME_MOVE_DELAY;
+                clockDeadline = tick + Clock.getEffectDuration() * GameEngine.TICKS_PER_SECOND;
+                timeSlowed = true;
+            }
+            specialCell = Topology.NO_CELL;
+            specialDeadline = NO_DEADLINE;
+        }
+    }
+
+    private void spawnFood() {
+        foodScore = board.foodScores[pick(board.foodProbabilities, board.foodAliases)];
+        foodCell = randomReachableCell();
+    }
+
+    /**
+     * Picks a cell the way the engine places elements: uniformly among the free cells the head
+     * can reach, drawing the same random numbers, or among all free cells if it can't reach any.
+     */
+    private int randomReachableCell() {
+        int area = markReachable();
+        int cellCount = board.cellCount;
+
+        if (area == 0)
+            return randomFreeCell();
+
+        // the engine rejects random cells while the reachable ones are a good share of the board
+        if (area * 8 >= cellCount) {
+            int cell;
+            do {
+                cell = nextInt(cellCount);
+            } while (reached[cell] != stamp);
+            return cell;
+        }
+
+        int index = nextInt(area);
+        for (int cell = 0; cell < cellCount; cell++)
+            if (reached[cell] == stamp && index-- == 0)
+                return cell;
+
+        return Topology.NO_CELL;
+    }
+
+    // flood fills the free cells around the head and returns their number
+    private int markReachable() {
+        stamp++;
+        Topology topology = board.topology;
+        int head = 0, tail = 0;
+
+        for (Direction direction : Direction.values()) {
+            int neighbor = topology.neighbor(getHead(), direction);
+            if (neighbor != Topology.NO_CELL && isFree(neighbor) && reached[neighbor] != stamp) {
+                reached[neighbor] = stamp;
+                queue[tail++] = neighbor;
+            }
+        }
+
+        while (head < tail) {
+            int cell = queue[head++];
+            for (Direction direction : Direction.values()) {
+                int neighbor = topology.neighbor(cell, direction);
+                if (neighbor != Topology.NO_CELL && isFree(neighbor) && reached[neighbor] != stamp) {
+                    reached[neighbor] = stamp;
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+
+        return tail;
+    }
+
+    private boolean isFree(int cell) {
+        return occupancy[cell] == 0 && !board.level.isBlocked(cell) && !board.topology.isPortal(cell);
+    }
+
+    // the engine's fallback, any free cell that isn't walled in on all sides
+    private int randomFreeCell() {
+        boolean any = false;
+        for (int cell = 0; cell < board.cellCount && !any; cell++)
+            any = isFree(cell) && canBeEntered(cell);
+        if (!any)
+            return Topology.NO_CELL;
+
+        int cell;
+        do {
+            cell = nextInt(board.cellCount);
+        } while (!isFree(cell) || !canBeEntered(cell));
+        return cell;
+    }
+
+    private boolean canBeEntered(int cell) {
+        for (Direction direction : Direction.values()) {
+            int neighbor = board.topology.neighbor(cell, direction);
+            if (neighbor != Topology.NO_CELL && !board.level.isBlocked(neighbor))
+                return true;
+        }
+        return false;
+    }
+
+    // same alias table lookup as the engine's item registries
+    private int pick(double[] probabilities, int[] aliases) {
+        int column = nextInt(probabilities.length);
+        return nextDouble() < probabilities[column] ? column : aliases[column];
+    }
+
+    private void clearBody() {
+        for (int i = 0; i < length; i++)
+            occupancy[getCell(i)]--;
+        bodyHead = 0;
+        length = 0;
+    }
+
+    private void addHead(int cell) {
+        bodyHead = (bodyHead + body.length - 1) % body.length;
+        body[bodyHead] = cell;
+        occupancy[cell]++;
+        length++;
+    }
+
+    private void addTail(int cell) {
+        body[(bodyHead + length) % body.length] = cell;
+        occupancy[cell]++;
+        length++;
+    }
+
+    private int removeTail() {
+        int cell = getCell(length - 1);
+        occupancy[cell]--;
+        length--;
+        return cell;
+    }
+
+    private int next(int bits) {
+        random = GameRandom.nextState(random);
+        return (int) (random >>> (48 - bits));
+    }
+
+    // same algorithm as java.util.Random
+    int nextInt(int bound) {
+        if ((bound & -bound) == bound)
+            return (int) ((bound * (long) next(31)) >> 31);
+
+        int bits, value;
+        do {
+            bits = next(31);
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    double nextDouble() {
+        return (((long) next(26) << 27) + next(27)) * DOUBLE_UNIT;
+    }
+}
@@ -0,0 +1,174 @@
+package com.snakegame.bot;
+
+import com.snakegame.logic.Cell;
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameElements;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GridPoint;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Snake;
+import com.snakegame.logic.SpecialElements;
+import com.snakegame.logic.Topology;
+
+/**
+ * Read-only copy of the board handed to a bot. Copied on the game thread before each
+ * decision, so the bot can read it on its worker while the game goes on. Cells are numbered
+ * the way {@link Topology} numbers them.
+ */
+public class BoardView {
+    private Level level;
+    private Topology topology;
+
+    // body cells, head first, and the number of body cells on each board cell
+    private int[] body = new int[64];
+    private int length;
+    private byte[] occupancy;
+
+    private Direction direction;
+    private int score;
+    private boolean shield;
+    private int tick;
+
+    private int foodCell;
+    private int foodScore;
+    private int specialCell;
+    private GameElements.GameElementType specialType;
+
+    // request this copy answers and the answer, written by the runner
+    long sequence;
+    Direction decision;
+
+    /**
+     * Copies the state of the engine. Game thread only.
+     */
+    void load(GameEngine engine) {
+        // the level and topology never change during a game, they are shared
+        if (topology != engine.getTopology()) {
+            topology = engine.getTopology();
+            occupancy = new byte[topology.getCellCount()];
+            length = 0;
+        }
+        level = engine.getLevel();
+
+        // clear the previous body before copying the new one
+        for (int i = 0; i < length; i++)
+            occupancy[body[i]]--;
+
+        Snake snake = engine.getSnake();
+        length = 0;
+        for (Cell cell : snake.getCells()) {
+            if (length == body.length) {
+                int[] grown = new int[length * 2];
+                System.arraycopy(body, 0, grown, 0, length);
+                body = grown;
+            }
+
+            int bodyCell = cell(cell.getLocation());
+            body[length++] = bodyCell;
+            occupancy[bodyCell]++;
+        }
+
+        direction = snake.getDirection();
+        score = snake.getScore();
+        shield = snake.hasShield();
+        tick = engine.getTickCounter();
+
+        foodCell = cell(engine.getFood().getLocation());
+        foodScore = engine.getFood().getScore();
+
+        SpecialElements specialElements = engine.getSpecialElements();
+        specialCell = specialElements == null ? Topology.NO_CELL : cell(specialElements.getLocation());
+        specialType = specialElements == null ? null : specialElements.getType();
+    }
+
+    private int cell(GridPoint location) {
+        return topology.cell(location.x, location.y);
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    public int getWidth() {
+        return topology.getWidth();
+    }
+
+    public int getHeight() {
+        return topology.getHeight();
+    }
+
+    public boolean isBlocked(int cell) {
+        return level.isBlocked(cell);
+    }
+
+    public boolean isBody(int cell) {
+        return occupancy[cell] > 0;
+    }
+
+    /**
+     * Returns true if the snake can step on the cell without dying, the cell may be
+     * {@link Topology#NO_CELL}.
+     */
+    public boolean isFree(int cell) {
+        return cell != Topology.NO_CELL && !level.isBlocked(cell) && occupancy[cell] == 0;
+    }
+
+    public int getHead() {
+        return body[0];
+    }
+
+    public int getTail() {
+        return body[length - 1];
+    }
+
+    /**
+     * Returns the i-th body cell, the head being the first one.
+     */
+    public int getBodyCell(int i) {
+        if (i < 0 || i >= length)
+            throw new IndexOutOfBoundsException("Body cell " + i + " of " + length);
+        return body[i];
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean hasShield() {
+        return shield;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int getFoodCell() {
+        return foodCell;
+    }
+
+    public int getFoodScore() {
+        return foodScore;
+    }
+
+    /**
+     * Returns the cell of the special element, {@link Topology#NO_CELL} if there is none.
+     */
+    public int getSpecialCell() {
+        return specialCell;
+    }
+
+    /**
+     * Returns the type of the special element, null if there is none.
+     */
+    public GameElements.GameElementType getSpecialType() {
+        return specialType;
+    }
+}
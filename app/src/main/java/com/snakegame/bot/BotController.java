@@ -0,0 +1,21 @@
+package com.snakegame.bot;
+
+import com.snakegame.logic.Direction;
+
+/**
+ * A bot steering the snake. Bots are called on a worker thread of their own, one move at a
+ * time, and only ever see a read-only copy of the board.
+ */
+public interface BotController {
+    /**
+     * Returns a short name identifying the bot in logs and metrics.
+     */
+    String getName();
+
+    /**
+     * Returns the direction the snake should take on its next move, null to keep going.
+     * Answers given after the deadline, a {@link System#nanoTime()} value, are thrown away
+     * and the snake keeps its direction.
+     */
+    Direction decide(BoardView board, long deadlineNanos);
+}
@@ -0,0 +1,209 @@
+package com.snakegame.bot;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GameLog;
+import com.snakegame.metrics.Counter;
+import com.snakegame.metrics.Histogram;
+import com.snakegame.metrics.MetricsRegistry;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a bot on a worker thread with a hard time budget per decision.
+ * The game thread hands the worker a copy of the board and waits for the answer at most the
+ * budget; a bot that misses the deadline leaves the snake on its course, and a bot stuck in
+ * a decision only makes the following moves keep their course too, it never holds up the game.
+ */
+public class BotRunner {
+    private static final String TAG = BotRunner.class.getSimpleName();
+
+    // board copies: one for the current decision, one possibly still read by a late decision
+    private static final int VIEW_COUNT = 2;
+
+    private final BotController bot;
+    private final long budgetNanos;
+    private final GameLog log;
+
+    // board copies move from free to requests on the game thread, from requests to results on
+    // the worker, and back to free on the game thread
+    private final ArrayBlockingQueue<BoardView> freeViews = new ArrayBlockingQueue<BoardView>(VIEW_COUNT);
+    private final ArrayBlockingQueue<BoardView> requests = new ArrayBlockingQueue<BoardView>(VIEW_COUNT);
+    private final ArrayBlockingQueue<BoardView> results = new ArrayBlockingQueue<BoardView>(VIEW_COUNT);
+
+    // request the game thread waits for, older ones are dropped by the worker
+    private volatile long sequence;
+
+    private final Thread worker;
+
+    // decision latency stats, exported through the registry the runner was created with
+    private final MetricsRegistry registry;
+    private final Histogram decisionSeconds;
+    private final Counter decisions;
+    private final Counter missedDeadlines;
+    private final Counter failures;
+    private volatile long maxDecisionNanos;
+
+    public BotRunner(BotController bot, long budgetNanos, MetricsRegistry registry) {
+        this(bot, budgetNanos, registry, GameLog.NONE);
+    }
+
+    public BotRunner(BotController bot, long budgetNanos, MetricsRegistry registry, GameLog log) {
+        this.bot = bot;
+        this.budgetNanos = budgetNanos;
+        this.log = log;
+        this.registry = registry;
+
+        for (int i = 0; i < VIEW_COUNT; i++)
+            freeViews.add(new BoardView());
+
+        String prefix = "snake_bot_" + getMetricName(bot.getName()) + "_";
+        decisionSeconds = registry.histogram(prefix + "decision_seconds",
+                "Time the bot took to decide a move, late decisions included.",
+                0.0001, 0.0005, 0.001, 0.002, 0.005, 0.01, 0.02, 0.05, 0.1);
+        decisions = registry.counter(prefix + "decisions_total",
+                "Moves the bot was asked to decide.");
+        missedDeadlines = registry.counter(prefix + "missed_deadlines_total",
+                "Moves the bot did not decide in time, the snake kept its direction.");
+        failures = registry.counter(prefix + "failures_total",
+                "Decisions that threw an exception.");
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, "BotWorker-" + bot.getName());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Asks the bot for the direction of the next move and waits at most the budget for it.
+     * Returns null if the snake should keep its direction. Game thread only.
+     */
+    public Direction decide(GameEngine engine) {
+        long start = System.nanoTime();
+        decisions.inc();
+
+        // take back the copies of decisions that came too late
+        recycleResults();
+
+        // the worker is still busy with late decisions, don't even ask
+        BoardView view = freeViews.poll();
+        if (view == null) {
+            missedDeadlines.inc();
+            return null;
+        }
+
+        view.load(engine);
+        view.sequence = ++sequence;
+        view.decision = null;
+        requests.add(view);
+
+        long deadline = start + budgetNanos;
+        try {
+            for (long remaining = budgetNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                BoardView result = results.poll(remaining, TimeUnit.NANOSECONDS);
+                if (result == null)
+                    break;
+
+                freeViews.add(result);
+                if (result.sequence == view.sequence)
+                    return result.decision;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        missedDeadlines.inc();
+        if (log.isLoggable())
+            log.v(TAG, bot.getName() + " missed the deadline of tick " + view.getTick());
+        return null;
+    }
+
+    private void recycleResults() {
+        BoardView result;
+        while ((result = results.poll()) != null)
+            freeViews.add(result);
+    }
+
+    private void runWorker() {
+        try {
+            while (true) {
+                BoardView view = requests.take();
+
+                // the game thread stopped waiting for this one
+                if (view.sequence != sequence) {
+                    results.add(view);
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    view.decision = bot.decide(view, start + budgetNanos);
+                } catch (RuntimeException e) {
+                    log.w(TAG, bot.getName() + " failed to decide: " + e);
+                    failures.inc();
+                    view.decision = null;
+                }
+
+                long elapsed = System.nanoTime() - start;
+                decisionSeconds.observeNanos(elapsed);
+                if (elapsed > maxDecisionNanos)
+                    maxDecisionNanos = elapsed;
+
+                results.add(view);
+            }
+        } catch (InterruptedException e) {
+            // shut down
+        }
+    }
+
+    /**
+     * Stops the worker and removes the stats from the registry. A decision in progress is
+     * left to finish on its own, its answer is dropped.
+     */
+    public void shutdown() {
+        worker.interrupt();
+
+        registry.unregister(decisionSeconds);
+        registry.unregister(decisions);
+        registry.unregister(missedDeadlines);
+        registry.unregister(failures);
+    }
+
+    public BotController getBot() {
+        return bot;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    public Histogram getDecisionSeconds() {
+        return decisionSeconds;
+    }
+
+    public long getDecisions() {
+        return decisions.get();
+    }
+
+    public long getMissedDeadlines() {
+        return missedDeadlines.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getMaxDecisionNanos() {
+        return maxDecisionNanos;
+    }
+
+    private static String getMetricName(String name) {
+        return name.toLowerCase(Locale.US).replaceAll("[^a-z0-9_]", "_");
+    }
+}
@@ -0,0 +1,58 @@
+package com.snakegame.bot;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.Topology;
+
+/**
+ * Heads for the food along the shortest straight-line distance, never stepping on a cell that
+ * kills the snake right away. Ties favor the cell with the most free neighbors.
+ */
+public class GreedyBot implements BotController {
+    public static final String NAME = "greedy";
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Direction decide(BoardView board, long deadlineNanos) {
+        Topology topology = board.getTopology();
+        int head = board.getHead();
+        int food = board.getFoodCell();
+        Direction reverse = DIRECTIONS[(board.getDirection().ordinal() + 2) % DIRECTIONS.length];
+
+        Direction best = null;
+        int bestDistance = Integer.MAX_VALUE, bestExits = -1;
+        for (Direction direction : DIRECTIONS) {
+            if (direction == reverse)
+                continue;
+
+            int next = topology.neighbor(head, direction);
+            if (!board.isFree(next))
+                continue;
+
+            int distance = Math.abs(topology.getX(next) - topology.getX(food))
+                    + Math.abs(topology.getY(next) - topology.getY(food));
+            int exits = countExits(board, next);
+            if (distance < bestDistance || distance == bestDistance && exits > bestExits) {
+                best = direction;
+                bestDistance = distance;
+                bestExits = exits;
+            }
+        }
+
+        // boxed in, whatever happens happens
+        return best;
+    }
+
+    private static int countExits(BoardView board, int cell) {
+        int exits = 0;
+        for (Direction direction : DIRECTIONS)
+            if (board.isFree(board.getTopology().neighbor(cell, direction)))
+                exits++;
+        return exits;
+    }
+}
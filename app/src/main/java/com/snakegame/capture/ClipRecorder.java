@@ -0,0 +1,282 @@
+package com.snakegame.capture;
+
+import android.graphics.Color;
+import android.util.Log;
+
+import com.snakegame.logic.FrameSnapshot;
+import com.snakegame.logic.GameElements;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Topology;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the game to an animated GIF without slowing the game loop down.
+ * <p>
+ * The game thread copies each frame as one palette index per cell into a buffer taken from a
+ * small pool and hands it over to an encoder thread, which scales and compresses it. Neither
+ * step blocks the game thread: when the encoder falls behind and the pool is empty, frames are
+ * dropped and the previous frame is simply shown longer.
+ * <p>
+ * The encoder writes to a temporary file that replaces the clip once it is complete, so the
+ * encoder of a game can still be finishing while the next game records, and an unfinished
+ * clip never replaces a good one.
+ */
+public class ClipRecorder {
+    private static final String TAG = ClipRecorder.class.getSimpleName();
+
+    // palette indices
+    private static final byte BACKGROUND = 0;
+    private static final byte DEAD_BACKGROUND = 1;
+    private static final byte WALL = 2;
+    private static final byte PORTAL = 3;
+    private static final byte BODY = 4;
+    private static final byte HEAD = 5;
+    private static final byte SHIELDED_BODY = 6;
+    private static final byte GREEN_FOOD = 7;
+    private static final byte RED_FOOD = 8;
+    private static final byte YELLOW_FOOD = 9;
+    private static final byte CLOCK = 10;
+    private static final byte SHIELD = 11;
+    private static final byte REWIND = 12;
+
+    // same colors as the game draws without sprites
+    private static final int[] PALETTE = {
+            0xFCE4EC, 0xCC0000, Color.DKGRAY & 0xFFFFFF, Color.MAGENTA & 0xFFFFFF,
+            0x2E7D32, 0x1B5E20, 0x00ACC1, Color.GREEN & 0xFFFFFF,
+            Color.RED & 0xFFFFFF, Color.YELLOW & 0xFFFFFF, Color.BLUE & 0xFFFFFF, Color.CYAN & 0xFFFFFF,
+            0xFF9800};
+
+    // buffers shared by the game and encoder threads
+    private static final int POOL_SIZE = 6;
+
+    private static final class Frame {
+        final byte[] cells;
+        int tick;
+
+        Frame(int cellCount) {
+            cells = new byte[cellCount];
+        }
+    }
+
+    // handed over to the encoder to finish the file
+    private final Frame endOfClip = new Frame(0);
+
+    // clips started so far, a clip finishing after a newer one is dropped instead of replacing it
+    private static final AtomicLong startedClips = new AtomicLong();
+    private static long publishedClip;
+
+    private final File file, tempFile;
+    private final long clipNumber;
+    private final int width, height, scale;
+
+    // walls and portal ends, copied into every frame
+    private final byte[] background, deadBackground;
+
+    private final ArrayBlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<Frame>(POOL_SIZE);
+    private final ArrayBlockingQueue<Frame> pendingFrames = new ArrayBlockingQueue<Frame>(POOL_SIZE + 1);
+
+    private boolean closed;
+
+    // counters, written by the game thread and read in the final log
+    private volatile int capturedFrames, droppedFrames;
+
+    /**
+     * Starts recording to the given file, each cell being drawn scale x scale pixels.
+     */
+    public ClipRecorder(File file, Level level, Topology topology, int scale) {
+        this.file = file;
+        clipNumber = startedClips.incrementAndGet();
+        tempFile = new File(file.getParentFile(), file.getName() + "." + clipNumber + ".tmp");
+        this.width = level.getWidth();
+        this.height = level.getHeight();
+        this.scale = scale;
+
+        background = new byte[width * height];
+        deadBackground = new byte[width * height];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) {
+                int cell = y * width + x;
+                byte index = BACKGROUND;
+                if (level.isBlocked(x, y))
+                    index = WALL;
+                else if (topology.isPortal(topology.cell(x, y)))
+                    index = PORTAL;
+
+                background[cell] = index;
+                deadBackground[cell] = index == BACKGROUND ? DEAD_BACKGROUND : index;
+            }
+
+        for (int i = 0; i < POOL_SIZE; i++)
+            freeFrames.add(new Frame(width * height));
+
+        new Thread("ClipEncoder") {
+            @Override
+            public void run() {
+                encode();
+            }
+        }.start();
+    }
+
+    /**
+     * Copies the frame for the encoder, or drops it if every buffer is still waiting to be
+     * encoded. Never blocks.
+     */
+    public void capture(FrameSnapshot snapshot) {
+        if (closed)
+            return;
+
+        Frame frame = freeFrames.poll();
+        if (frame == null) {
+            droppedFrames++;
+            return;
+        }
+
+        byte[] cells = frame.cells;
+        System.arraycopy(snapshot.dead ? deadBackground : background, 0, cells, 0, cells.length);
+
+        if (snapshot.specialType == GameElements.GameElementType.CLOCK.ordinal())
+            setCell(cells, snapshot.specialX, snapshot.specialY, CLOCK);
+        else if (snapshot.specialType == GameElements.GameElementType.SHIELD.ordinal())
+            setCell(cells, snapshot.specialX, snapshot.specialY, SHIELD);
+        else if (snapshot.specialType == GameElements.GameElementType.REWIND.ordinal())
+            setCell(cells, snapshot.specialX, snapshot.specialY, REWIND);
+
+        setCell(cells, snapshot.foodX, snapshot.foodY, getFoodIndex(snapshot.foodColor));
+
+        byte body = snapshot.shielded ? SHIELDED_BODY : BODY;
+        for (int i = snapshot.getLength() - 1; i > 0; i--)
+            setCell(cells, snapshot.getX(i), snapshot.getY(i), body);
+        if (snapshot.getLength() > 0)
+            setCell(cells, snapshot.getX(0), snapshot.getY(0), HEAD);
+
+        frame.tick = snapshot.tick;
+        pendingFrames.add(frame);
+        capturedFrames++;
+    }
+
+    /**
+     * Ends the recording, the encoder thread writes the frames left and closes the file.
+     * Never blocks.
+     */
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        pendingFrames.add(endOfClip);
+    }
+
+    private void setCell(byte[] cells, int x, int y, byte index) {
+        if (x >= 0 && y >= 0 && x < width && y < height)
+            cells[y * width + x] = index;
+    }
+
+    private static byte getFoodIndex(int color) {
+        switch (color) {
+            case Color.GREEN:
+                return GREEN_FOOD;
+            case Color.RED:
+                return RED_FOOD;
+            case Color.YELLOW:
+                return YELLOW_FOOD;
+            default:
+                return WALL;
+        }
+    }
+
+    private void encode() {
+        long beginTime = System.nanoTime();
+        long encodeTime = 0;
+        int encodedFrames = 0;
+
+        OutputStream out = null;
+        GifEncoder encoder = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            encoder = new GifEncoder(out, width, height, scale, PALETTE);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not start clip " + file, e);
+        }
+
+        // a frame is written once the next one tells how long it stays on screen
+        Frame shown = null;
+        int elapsedTicks = 0, writtenDelay = 0;
+        while (true) {
+            Frame next;
+            try {
+                next = pendingFrames.take();
+            } catch (InterruptedException e) {
+                next = endOfClip;
+            }
+
+            if (shown != null) {
+                // ticks restart with every game, a frame then lasts a single tick
+                int ticks = next == endOfClip ? 1 : Math.max(1, next.tick - shown.tick);
+                elapsedTicks += ticks;
+                int delay = elapsedTicks * 100 / GameEngine.TICKS_PER_SECOND - writtenDelay;
+                writtenDelay += delay;
+
+                if (encoder != null) {
+                    long frameBeginTime = System.nanoTime();
+                    try {
+                        encoder.writeFrame(shown.cells, delay);
+                        encodedFrames++;
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not write clip frame, recording stopped", e);
+                        encoder = null;
+                    }
+                    encodeTime += System.nanoTime() - frameBeginTime;
+                }
+                freeFrames.add(shown);
+            }
+
+            if (next == endOfClip)
+                break;
+            shown = next;
+        }
+
+        boolean complete = encoder != null;
+        try {
+            if (encoder != null)
+                encoder.finish();
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not finish clip " + file, e);
+            complete = false;
+        }
+        publish(complete);
+
+        Log.i(TAG, "Clip " + clipNumber + ": " + encodedFrames + " frames encoded, " + droppedFrames
+                + " of " + (capturedFrames + droppedFrames) + " dropped, "
+                + (encodedFrames == 0 ? 0 : encodeTime / encodedFrames / 1000) + " us per frame, "
+                + (System.nanoTime() - beginTime) / 1000000 + " ms in total");
+    }
+
+    /**
+     * Replaces the clip with the finished temporary file, unless the clip is incomplete or a
+     * newer one already replaced it.
+     */
+    private void publish(boolean complete) {
+        synchronized (ClipRecorder.class) {
+            if (complete && clipNumber > publishedClip) {
+                if (tempFile.renameTo(file)) {
+                    publishedClip = clipNumber;
+                    return;
+                }
+                Log.w(TAG, "Could not replace clip " + file);
+            }
+
+            if (tempFile.exists() && !tempFile.delete())
+                Log.w(TAG, "Could not delete " + tempFile);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.snakegame.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming animated GIF writer for frames of palette indices.
+ * <p>
+ * Frames are given at board resolution, one index per cell, and scaled up while they are
+ * compressed, so no full size pixel buffer is ever built. LZW codes are packed straight into
+ * 255 byte sub-blocks as they are produced.
+ */
+public class GifEncoder {
+    // 16 color global palette, 4 bits per pixel
+    public static final int PALETTE_SIZE = 16;
+    private static final int MIN_CODE_SIZE = 4;
+
+    private static final int MAX_CODE_SIZE = 12;
+    private static final int MAX_CODES = 1 << MAX_CODE_SIZE;
+    private static final int CLEAR_CODE = 1 << MIN_CODE_SIZE;
+    private static final int END_CODE = CLEAR_CODE + 1;
+
+    // open addressing table of (prefix code, pixel) -> code, twice as large as the dictionary
+    private static final int HASH_SIZE = MAX_CODES * 2;
+
+    private final OutputStream out;
+    private final int columns, rows, scale;
+
+    private final int[] hashKeys = new int[HASH_SIZE];
+    private final short[] hashCodes = new short[HASH_SIZE];
+    private int nextCode;
+    private int codeSize;
+
+    // bits not yet written and the sub-block being filled
+    private int bitBuffer;
+    private int bitCount;
+    private final byte[] block = new byte[255];
+    private int blockLength;
+
+    /**
+     * Writes the header and the palette, given as 0xRRGGBB values, of an endlessly looping
+     * animation of columns x rows cells drawn scale x scale pixels each.
+     */
+    public GifEncoder(OutputStream out, int columns, int rows, int scale, int[] palette) throws IOException {
+        if (palette.length > PALETTE_SIZE)
+            throw new IllegalArgumentException("At most " + PALETTE_SIZE + " colors, got " + palette.length);
+
+        this.out = out;
+        this.columns = columns;
+        this.rows = rows;
+        this.scale = scale;
+
+        // header and logical screen descriptor with a 16 color global table
+        writeAscii("GIF89a");
+        writeShort(columns * scale);
+        writeShort(rows * scale);
+        out.write(0x80 | (MIN_CODE_SIZE - 1) << 4 | (MIN_CODE_SIZE - 1));
+        out.write(0);
+        out.write(0);
+
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            int color = i < palette.length ? palette[i] : 0;
+            out.write(color >> 16);
+            out.write(color >> 8);
+            out.write(color);
+        }
+
+        // netscape extension, loop forever
+        out.write(0x21);
+        out.write(0xFF);
+        out.write(11);
+        writeAscii("NETSCAPE2.0");
+        out.write(3);
+        out.write(1);
+        writeShort(0);
+        out.write(0);
+    }
+
+    /**
+     * Writes a frame shown for the given time in hundredths of a second.
+     */
+    public void writeFrame(byte[] cells, int delay) throws IOException {
+        // graphic control extension
+        out.write(0x21);
+        out.write(0xF9);
+        out.write(4);
+        out.write(0);
+        writeShort(delay);
+        out.write(0);
+        out.write(0);
+
+        // image descriptor covering the whole screen, no local palette
+        out.write(0x2C);
+        writeShort(0);
+        writeShort(0);
+        writeShort(columns * scale);
+        writeShort(rows * scale);
+        out.write(0);
+
+        out.write(MIN_CODE_SIZE);
+        compress(cells);
+        out.write(0);
+    }
+
+    /**
+     * Writes the trailer, the stream is left open.
+     */
+    public void finish() throws IOException {
+        out.write(0x3B);
+        out.flush();
+    }
+
+    private void compress(byte[] cells) throws IOException {
+        resetCodes();
+        writeCode(CLEAR_CODE);
+
+        int prefix = -1;
+        for (int y = 0; y < rows * scale; y++) {
+            int row = y / scale * columns;
+
+            for (int x = 0; x < columns * scale; x++) {
+                int pixel = cells[row + x / scale];
+                if (prefix < 0) {
+                    prefix = pixel;
+                    continue;
+                }
+
+                // extend the current string if the dictionary knows it
+                int key = prefix << MIN_CODE_SIZE | pixel;
+                int slot = slotOf(key);
+                if (hashKeys[slot] == key) {
+                    prefix = hashCodes[slot];
+                    continue;
+                }
+
+                writeCode(prefix);
+                if (nextCode < MAX_CODES) {
+                    hashKeys[slot] = key;
+                    hashCodes[slot] = (short) nextCode++;
+                } else {
+                    // full dictionary, start over
+                    writeCode(CLEAR_CODE);
+                    resetCodes();
+                }
+                prefix = pixel;
+            }
+        }
+
+        writeCode(prefix);
+        writeCode(END_CODE);
+
+        // flush the last bits and sub-block
+        if (bitCount > 0)
+            writeByte(bitBuffer);
+        bitBuffer = 0;
+        bitCount = 0;
+        flushBlock();
+    }
+
+    private int slotOf(int key) {
+        int slot = (key * 0x9E3779B1 >>> 19) & (HASH_SIZE - 1);
+        while (hashKeys[slot] != -1 && hashKeys[slot] != key)
+            slot = (slot + 1) & (HASH_SIZE - 1);
+        return slot;
+    }
+
+    private void resetCodes() {
+        Arrays.fill(hashKeys, -1);
+        nextCode = END_CODE + 1;
+        codeSize = MIN_CODE_SIZE + 1;
+    }
+
+    private void writeCode(int code) throws IOException {
+        // the decoder widens its codes one entry behind the encoder
+        if (nextCode > 1 << codeSize && codeSize < MAX_CODE_SIZE && code != CLEAR_CODE)
+            codeSize++;
+
+        bitBuffer |= code << bitCount;
+        bitCount += codeSize;
+        while (bitCount >= 8) {
+            writeByte(bitBuffer);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if (blockLength == block.length)
+            flushBlock();
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockLength == 0)
+            return;
+
+        out.write(blockLength);
+        out.write(block, 0, blockLength);
+        blockLength = 0;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            out.write(s.charAt(i));
+    }
+}
@@ -0,0 +1,252 @@
+package com.snakegame.history;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Every finished game, appended to a file of fixed size records, with an in-memory index
+ * answering rank, percentile and quantile queries in O(log maxScore) and top-N queries.
+ * <p>
+ * Scores are small non-negative integers, so the index is a Fenwick tree over the count of
+ * games per score: exact, updated in O(log maxScore) per game, and no bigger than a sketch.
+ * Scores are capped at {@link #MAX_SCORE}, which keeps the tree a few megabytes at most.
+ */
+public class GameHistory {
+    private static final String TAG = GameHistory.class.getSimpleName();
+
+    // end time (long), score (int), ticks played (int)
+    public static final int RECORD_SIZE = 16;
+
+    private static final int INITIAL_SCORE_CAPACITY = 256;
+
+    // highest score kept, far above what a game on a phone screen can reach, records above it
+    // can only come from a corrupt file
+    public static final int MAX_SCORE = (1 << 20) - 1;
+
+    public static class Record {
+        public final long time;
+        public final int score;
+        public final int ticks;
+
+        public Record(long time, int score, int ticks) {
+            this.time = time;
+            this.score = score;
+            this.ticks = ticks;
+        }
+    }
+
+    // best first, older games first among equal scores
+    private static final Comparator<Record> BEST_FIRST = new Comparator<Record>() {
+        @Override
+        public int compare(Record a, Record b) {
+            if (a.score != b.score)
+                return a.score > b.score ? -1 : 1;
+            return a.time < b.time ? -1 : a.time > b.time ? 1 : 0;
+        }
+    };
+
+    private final File file;
+    private final int topSize;
+
+    // games per score and the Fenwick tree over them, both sized to a power of two
+    private long[] counts = new long[INITIAL_SCORE_CAPACITY];
+    private long[] tree = new long[INITIAL_SCORE_CAPACITY + 1];
+    private long gameCount;
+
+    // the topSize best games, worst of them at the head
+    private final PriorityQueue<Record> top;
+
+    /**
+     * Opens the history file, indexing the games already in it.
+     */
+    public GameHistory(File file, int topSize) throws IOException {
+        this.file = file;
+        this.topSize = topSize;
+        top = new PriorityQueue<Record>(topSize + 1, Collections.reverseOrder(BEST_FIRST));
+
+        if (file.exists())
+            load();
+    }
+
+    private void load() throws IOException {
+        long beginTime = System.nanoTime();
+        long skipped = 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // a record cut short by a crash is ignored
+            long records = channel.size() / RECORD_SIZE;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, records * RECORD_SIZE);
+
+            for (long i = 0; i < records; i++) {
+                long time = buffer.getLong();
+                int score = buffer.getInt();
+                int ticks = buffer.getInt();
+
+                if (!isValidScore(score)) {
+                    skipped++;
+                    continue;
+                }
+
+                countScore(score);
+                offerTop(time, score, ticks);
+            }
+        }
+
+        // the counts were not added to the tree while loading, build it in one pass
+        buildTree();
+
+        if (skipped > 0)
+            Log.w(TAG, "Skipped " + skipped + " records with an invalid score");
+        Log.i(TAG, "Indexed " + gameCount + " games in " + (System.nanoTime() - beginTime) / 1000 + " us");
+    }
+
+    /**
+     * Appends a finished game to the file and the index.
+     */
+    public synchronized void add(int score, int ticks, long time) throws IOException {
+        if (!isValidScore(score))
+            throw new IllegalArgumentException("Invalid score: " + score);
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true), RECORD_SIZE))) {
+            out.writeLong(time);
+            out.writeInt(score);
+            out.writeInt(ticks);
+        }
+
+        boolean grown = countScore(score);
+        if (grown)
+            buildTree();
+        else
+            for (int i = score + 1; i < tree.length; i += i & -i)
+                tree[i]++;
+
+        offerTop(time, score, ticks);
+    }
+
+    /**
+     * Returns true if the score can be added, from 0 to {@link #MAX_SCORE}.
+     */
+    public static boolean isValidScore(int score) {
+        return score >= 0 && score <= MAX_SCORE;
+    }
+
+    public synchronized long getGameCount() {
+        return gameCount;
+    }
+
+    /**
+     * Returns the number of games that scored less than the given score.
+     */
+    public synchronized long countBelow(int score) {
+        if (score <= 0)
+            return 0;
+
+        long count = 0;
+        for (int i = Math.min(score, counts.length); i > 0; i -= i & -i)
+            count += tree[i];
+        return count;
+    }
+
+    /**
+     * Returns the rank the given score would have among all games, 1 being the best.
+     * Games with the same score share a rank.
+     */
+    public synchronized long getRank(int score) {
+        return gameCount - countBelow(score + 1) + 1;
+    }
+
+    /**
+     * Returns the percentage of games that scored less than the given score.
+     */
+    public synchronized double getPercentile(int score) {
+        return gameCount == 0 ? 0 : 100.0 * countBelow(score) / gameCount;
+    }
+
+    /**
+     * Returns the smallest score that at least the given fraction of games didn't beat,
+     * e.g. 0.5 for the median. Returns 0 if there are no games.
+     */
+    public synchronized int getQuantile(double fraction) {
+        if (gameCount == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(fraction * gameCount));
+
+        // descend the tree for the last position whose prefix count is below the target
+        int position = 0;
+        for (int step = Integer.highestOneBit(counts.length); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < tree.length && tree[next] < target) {
+                position = next;
+                target -= tree[next];
+            }
+        }
+        return Math.min(position, counts.length - 1);
+    }
+
+    /**
+     * Returns up to topSize best games, best first.
+     */
+    public synchronized List<Record> getTopGames() {
+        List<Record> games = new ArrayList<Record>(top);
+        Collections.sort(games, BEST_FIRST);
+        return games;
+    }
+
+    // returns true if the counts had to grow, in which case the tree must be rebuilt
+    private boolean countScore(int score) {
+        boolean grown = false;
+        if (score >= counts.length) {
+            // the next power of two above the score, at most MAX_SCORE + 1
+            int capacity = Integer.highestOneBit(score) << 1;
+
+            counts = Arrays.copyOf(counts, capacity);
+            tree = new long[capacity + 1];
+            grown = true;
+        }
+
+        counts[score]++;
+        gameCount++;
+        return grown;
+    }
+
+    private void buildTree() {
+        Arrays.fill(tree, 0);
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += counts[i - 1];
+
+            int parent = i + (i & -i);
+            if (parent < tree.length)
+                tree[parent] += tree[i];
+        }
+    }
+
+    private void offerTop(long time, int score, int ticks) {
+        if (topSize == 0)
+            return;
+
+        // most games don't make it, skip allocating for them
+        if (top.size() == topSize && top.peek().score >= score)
+            return;
+
+        top.add(new Record(time, score, ticks));
+        if (top.size() > topSize)
+            top.poll();
+    }
+}
@@ -0,0 +1,108 @@
+package com.snakegame.levelgen;
+
+import com.snakegame.logic.GameLog;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Topology;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Generated levels keyed on style, seed and size, so that restarts reuse them.
+ * The last few levels are kept in memory, and every level is saved as a level file that is
+ * mapped back on later runs instead of being generated again.
+ */
+public class LevelCache {
+    private static final String TAG = LevelCache.class.getSimpleName();
+
+    private final File directory;
+    private final GameLog log;
+    private final LinkedHashMap<String, Level> levels;
+
+    /**
+     * Creates a cache keeping up to the given number of levels in memory, and their files in
+     * the given directory, null for a memory only cache.
+     */
+    public LevelCache(File directory, int memoryCapacity) {
+        this(directory, memoryCapacity, GameLog.NONE);
+    }
+
+    public LevelCache(File directory, final int memoryCapacity, GameLog log) {
+        this.directory = directory;
+        this.log = log;
+
+        // least recently used levels are dropped first
+        levels = new LinkedHashMap<String, Level>(memoryCapacity + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Level> eldest) {
+                return size() > memoryCapacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the level of the given style, seed and size, generating it on first use.
+     */
+    public Level get(LevelGenerator.Style style, long seed, int width, int height) {
+        return get(style, seed, width, height, null);
+    }
+
+    /**
+     * Returns the level of the given style and seed for the board of the topology, generating
+     * it on first use.
+     */
+    public Level get(LevelGenerator.Style style, long seed, Topology topology) {
+        return get(style, seed, topology.getWidth(), topology.getHeight(), topology);
+    }
+
+    private synchronized Level get(LevelGenerator.Style style, long seed, int width, int height, Topology topology) {
+        String key = getKey(style, seed, width, height, topology);
+
+        Level level = levels.get(key);
+        if (level != null)
+            return level;
+
+        File file = directory == null ? null : new File(directory, key + ".snkl");
+        if (file != null && file.exists()) {
+            try {
+                level = Level.map(file);
+            } catch (IOException e) {
+                log.w(TAG, "Could not map cached level " + file + ", generating it again: " + e);
+            }
+        }
+
+        if (level == null) {
+            LevelGenerator generator = new LevelGenerator(style, log);
+            level = topology == null ? generator.generate(seed, width, height) : generator.generate(seed, topology);
+
+            if (file != null) {
+                try {
+                    if (!directory.isDirectory() && !directory.mkdirs())
+                        throw new IOException("Could not create " + directory);
+                    level.save(file);
+                } catch (IOException e) {
+                    log.w(TAG, "Could not save generated level " + key + ": " + e);
+                }
+            }
+        }
+
+        levels.put(key, level);
+        return level;
+    }
+
+    public synchronized void clear() {
+        levels.clear();
+    }
+
+    private static String getKey(LevelGenerator.Style style, long seed, int width, int height, Topology topology) {
+        String key = style.name().toLowerCase(Locale.US) + "_" + Long.toHexString(seed) + "_" + width + "x" + height;
+
+        // portals change the level, their ends follow from the type and size
+        if (topology != null && topology.getType() != Topology.Type.BORDERED)
+            key += "_" + topology.getType().name().toLowerCase(Locale.US);
+        return key;
+    }
+}
@@ -0,0 +1,417 @@
+package com.snakegame.levelgen;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameLog;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Topology;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Seeded generator of obstacle layouts: mazes, rooms or scattered obstacles, inside a border
+ * of walls.
+ * <p>
+ * The board is cut into square chunks generated in parallel, each from its own seed derived
+ * from the level seed, so a (seed, size) pair always gives the same level whatever the number
+ * of threads. Chunks leave openings towards their left and top neighbors, then free cells the
+ * snake can't reach from its start are walled up: every free cell of a generated level is
+ * reachable, so elements never spawn out of reach and the snake never starts boxed in.
+ * Levels generated for a board with portals keep the portal ends and the cells around them
+ * free, and are walked through the portals.
+ * <p>
+ * Free of Android like the engine, chunks run on the common fork join pool unless a pool is
+ * given.
+ */
+public class LevelGenerator {
+    private static final String TAG = LevelGenerator.class.getSimpleName();
+
+    public enum Style {
+        MAZE, ROOMS, SCATTERED
+    }
+
+    // side of the chunks generated in parallel, even so that the maze lattice lines up
+    public static final int CHUNK_SIZE = 64;
+
+    // smallest board that fits the snake start
+    public static final int MIN_WIDTH = 10;
+    public static final int MIN_HEIGHT = 5;
+
+    // cells kept free around the snake start, the snake starts on row 2 heading right
+    private static final int START_AREA_RIGHT = 8;
+    private static final int START_AREA_BOTTOM = 3;
+    private static final int START_X = 3, START_Y = 2;
+
+    // share of maze walls knocked down so that mazes have loops and not just dead ends
+    private static final double MAZE_BRAIDING = 0.15;
+
+    // rooms are laid out on a grid inside each chunk
+    private static final int ROOM_SIZE = 16;
+    private static final int DOOR_WIDTH = 3;
+    private static final double PILLAR_PROBABILITY = 0.5;
+
+    private static final double SCATTERED_DENSITY = 0.06;
+    private static final double SEGMENT_PROBABILITY = 0.5;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final byte FREE = 0;
+    private static final byte BLOCKED = 1;
+
+    private final Style style;
+    private final ForkJoinPool pool;
+    private final GameLog log;
+
+    public LevelGenerator(Style style) {
+        this(style, GameLog.NONE);
+    }
+
+    public LevelGenerator(Style style, GameLog log) {
+        this(style, ForkJoinPool.commonPool(), log);
+    }
+
+    public LevelGenerator(Style style, ForkJoinPool pool, GameLog log) {
+        this.style = style;
+        this.pool = pool;
+        this.log = log;
+    }
+
+    public Style getStyle() {
+        return style;
+    }
+
+    /**
+     * Generates the level of the given seed and size, for a plain bordered board.
+     */
+    public Level generate(long seed, int width, int height) {
+        return generate(seed, width, height, null);
+    }
+
+    /**
+     * Generates the level of the given seed for the board of the topology.
+     */
+    public Level generate(long seed, Topology topology) {
+        return generate(seed, topology.getWidth(), topology.getHeight(), topology);
+    }
+
+    private Level generate(long seed, int width, int height, Topology topology) {
+        if (width < MIN_WIDTH || height < MIN_HEIGHT)
+            throw new IllegalArgumentException("Level too small: " + width + "x" + height);
+        if (!Level.isValidSize(width, height))
+            throw new IllegalArgumentException("Level too big: " + width + "x" + height);
+
+        long beginTime = System.nanoTime();
+
+        // one byte per cell while generating, chunks write disjoint cells
+        byte[] cells = new byte[width * height];
+        int chunksX = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int chunksY = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        pool.invoke(new ChunkTask(this, cells, width, height, seed, chunksX, 0, chunksX * chunksY));
+
+        addBorder(cells, width, height);
+        clearStartArea(cells, width);
+        if (topology != null)
+            clearPortals(cells, width, height, topology);
+        int free = fillUnreachable(cells, width, height, topology);
+
+        // pack the cells into the level bits
+        Level level = Level.create(width, height);
+        for (int y = 0, i = 0; y < height; y++)
+            for (int x = 0; x < width; x++, i++)
+                if (cells[i] == BLOCKED)
+                    level.setBlocked(x, y, true);
+
+        log.i(TAG, "Generated " + style + " level " + width + "x" + height + " with " + free + " free cells in "
+                + (System.nanoTime() - beginTime) / 1000 + " us");
+        return level;
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // chunks generated by one task without splitting further
+        private static final int CHUNKS_PER_TASK = 4;
+
+        private final LevelGenerator generator;
+        private final byte[] cells;
+        private final int width, height;
+        private final long seed;
+        private final int chunksX, from, to;
+
+        ChunkTask(LevelGenerator generator, byte[] cells, int width, int height, long seed, int chunksX, int from, int to) {
+            this.generator = generator;
+            this.cells = cells;
+            this.width = width;
+            this.height = height;
+            this.seed = seed;
+            this.chunksX = chunksX;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNKS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(generator, cells, width, height, seed, chunksX, from, middle),
+                        new ChunkTask(generator, cells, width, height, seed, chunksX, middle, to));
+                return;
+            }
+
+            for (int chunk = from; chunk < to; chunk++) {
+                int x0 = chunk % chunksX * CHUNK_SIZE;
+                int y0 = chunk / chunksX * CHUNK_SIZE;
+                generator.generateChunk(cells, width, height, x0, y0,
+                        Math.min(x0 + CHUNK_SIZE, width), Math.min(y0 + CHUNK_SIZE, height),
+                        new Random(mix(seed, chunk)));
+            }
+        }
+    }
+
+    /**
+     * Fills the cells of [x0, x1) x [y0, y1), and only those.
+     */
+    private void generateChunk(byte[] cells, int width, int height, int x0, int y0, int x1, int y1, Random random) {
+        switch (style) {
+            case MAZE:
+                generateMaze(cells, width, height, x0, y0, x1, y1, random);
+                break;
+            case ROOMS:
+                for (int y = y0; y < y1; y += ROOM_SIZE)
+                    for (int x = x0; x < x1; x += ROOM_SIZE)
+                        generateRoom(cells, width, x, y, Math.min(x + ROOM_SIZE, x1), Math.min(y + ROOM_SIZE, y1), random);
+                break;
+            case SCATTERED:
+                generateScattered(cells, width, x0, y0, x1, y1, random);
+                break;
+        }
+    }
+
+    /**
+     * Carves a maze on the lattice of odd cells: cells with odd coordinates are corridors,
+     * the cells between them walls knocked down by a depth first walk. The chunk then opens
+     * one passage through its left and top walls into the neighboring chunks.
+     */
+    private static void generateMaze(byte[] cells, int width, int height, int x0, int y0, int x1, int y1, Random random) {
+        for (int y = y0; y < y1; y++)
+            for (int x = x0; x < x1; x++)
+                cells[y * width + x] = BLOCKED;
+
+        // lattice cells of the chunk, staying off the border
+        int columns = (Math.min(x1, width - 1) - x0) / 2;
+        int rows = (Math.min(y1, height - 1) - y0) / 2;
+        if (columns <= 0 || rows <= 0)
+            return;
+
+        // depth first walk over the lattice with an explicit stack
+        boolean[] visited = new boolean[columns * rows];
+        int[] stack = new int[columns * rows];
+        int[] next = new int[4];
+        int size = 0;
+
+        int start = random.nextInt(columns * rows);
+        visited[start] = true;
+        stack[size++] = start;
+        openLatticeCell(cells, width, x0, y0, columns, start);
+
+        while (size > 0) {
+            int current = stack[size - 1];
+            int column = current % columns, row = current / columns;
+
+            int count = 0;
+            if (column > 0 && !visited[current - 1])
+                next[count++] = current - 1;
+            if (column < columns - 1 && !visited[current + 1])
+                next[count++] = current + 1;
+            if (row > 0 && !visited[current - columns])
+                next[count++] = current - columns;
+            if (row < rows - 1 && !visited[current + columns])
+                next[count++] = current + columns;
+
+            if (count == 0) {
+                size--;
+                continue;
+            }
+
+            int chosen = next[random.nextInt(count)];
+            visited[chosen] = true;
+            stack[size++] = chosen;
+            openLatticeCell(cells, width, x0, y0, columns, chosen);
+            openBetween(cells, width, x0, y0, columns, current, chosen);
+        }
+
+        // knock down a few more walls between corridors
+        for (int row = 0; row < rows; row++)
+            for (int column = 0; column < columns; column++) {
+                int cell = row * columns + column;
+                if (column < columns - 1 && random.nextDouble() < MAZE_BRAIDING)
+                    openBetween(cells, width, x0, y0, columns, cell, cell + 1);
+                if (row < rows - 1 && random.nextDouble() < MAZE_BRAIDING)
+                    openBetween(cells, width, x0, y0, columns, cell, cell + columns);
+            }
+
+        // the chunk's first column and row are walls facing the lattice of the previous chunks
+        if (x0 > 0)
+            cells[(y0 + 1 + 2 * random.nextInt(rows)) * width + x0] = FREE;
+        if (y0 > 0)
+            cells[y0 * width + x0 + 1 + 2 * random.nextInt(columns)] = FREE;
+    }
+
+    private static void openLatticeCell(byte[] cells, int width, int x0, int y0, int columns, int cell) {
+        cells[(y0 + 1 + 2 * (cell / columns)) * width + x0 + 1 + 2 * (cell % columns)] = FREE;
+    }
+
+    private static void openBetween(byte[] cells, int width, int x0, int y0, int columns, int a, int b) {
+        int x = x0 + 1 + (a % columns + b % columns);
+        int y = y0 + 1 + (a / columns + b / columns);
+        cells[y * width + x] = FREE;
+    }
+
+    /**
+     * Walls the room off on its left and top sides, with a door in each, and may stand a
+     * pillar in its middle.
+     */
+    private static void generateRoom(byte[] cells, int width, int x0, int y0, int x1, int y1, Random random) {
+        for (int y = y0; y < y1; y++)
+            for (int x = x0; x < x1; x++)
+                cells[y * width + x] = x == x0 || y == y0 ? BLOCKED : FREE;
+
+        // doors into the rooms on the left and above
+        int doorY = y0 + 1 + random.nextInt(Math.max(y1 - y0 - DOOR_WIDTH, 1));
+        for (int y = doorY; y < Math.min(doorY + DOOR_WIDTH, y1); y++)
+            cells[y * width + x0] = FREE;
+
+        int doorX = x0 + 1 + random.nextInt(Math.max(x1 - x0 - DOOR_WIDTH, 1));
+        for (int x = doorX; x < Math.min(doorX + DOOR_WIDTH, x1); x++)
+            cells[y0 * width + x] = FREE;
+
+        // a pillar away from the walls, so it never closes a door
+        int pillarWidth = 2 + random.nextInt(3), pillarHeight = 2 + random.nextInt(3);
+        int centerX = (x0 + x1) / 2, centerY = (y0 + y1) / 2;
+        if (random.nextDouble() < PILLAR_PROBABILITY
+                && centerX - pillarWidth / 2 > x0 + 2 && centerY - pillarHeight / 2 > y0 + 2)
+            for (int y = centerY - pillarHeight / 2; y < Math.min(centerY - pillarHeight / 2 + pillarHeight, y1 - 2); y++)
+                for (int x = centerX - pillarWidth / 2; x < Math.min(centerX - pillarWidth / 2 + pillarWidth, x1 - 2); x++)
+                    cells[y * width + x] = BLOCKED;
+    }
+
+    /**
+     * Scatters single obstacles and short wall segments.
+     */
+    private static void generateScattered(byte[] cells, int width, int x0, int y0, int x1, int y1, Random random) {
+        for (int y = y0; y < y1; y++)
+            for (int x = x0; x < x1; x++)
+                cells[y * width + x] = random.nextDouble() < SCATTERED_DENSITY ? BLOCKED : FREE;
+
+        // one segment per room sized block at most, clipped to the chunk
+        for (int y = y0; y < y1; y += ROOM_SIZE)
+            for (int x = x0; x < x1; x += ROOM_SIZE) {
+                if (random.nextDouble() >= SEGMENT_PROBABILITY)
+                    continue;
+
+                int length = 3 + random.nextInt(6);
+                boolean horizontal = random.nextBoolean();
+                int sx = x + random.nextInt(ROOM_SIZE), sy = y + random.nextInt(ROOM_SIZE);
+                for (int i = 0; i < length; i++) {
+                    int cx = horizontal ? sx + i : sx, cy = horizontal ? sy : sy + i;
+                    if (cx < x1 && cy < y1)
+                        cells[cy * width + cx] = BLOCKED;
+                }
+            }
+    }
+
+    private static void addBorder(byte[] cells, int width, int height) {
+        for (int x = 0; x < width; x++) {
+            cells[x] = BLOCKED;
+            cells[(height - 1) * width + x] = BLOCKED;
+        }
+        for (int y = 0; y < height; y++) {
+            cells[y * width] = BLOCKED;
+            cells[y * width + width - 1] = BLOCKED;
+        }
+    }
+
+    private static void clearStartArea(byte[] cells, int width) {
+        for (int y = 1; y <= START_AREA_BOTTOM; y++)
+            for (int x = 1; x <= START_AREA_RIGHT; x++)
+                cells[y * width + x] = FREE;
+    }
+
+    /**
+     * Frees the portal ends and the cells next to them inside the border, so that no portal
+     * leads into a wall.
+     */
+    private static void clearPortals(byte[] cells, int width, int height, Topology topology) {
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (!topology.isPortal(cell))
+                continue;
+
+            int x = cell % width, y = cell / width;
+            for (int cy = Math.max(y - 1, 1); cy <= Math.min(y + 1, height - 2); cy++)
+                for (int cx = Math.max(x - 1, 1); cx <= Math.min(x + 1, width - 2); cx++)
+                    if (cx == x || cy == y)
+                        cells[cy * width + cx] = FREE;
+        }
+    }
+
+    /**
+     * Walls up the free cells that can't be reached from the snake start, moving through the
+     * portals of the topology if there is one, and returns the number of free cells left.
+     */
+    private static int fillUnreachable(byte[] cells, int width, int height, Topology topology) {
+        // breadth first walk from the snake head, marking reached cells
+        final byte reached = 2;
+        int[] queue = new int[cells.length];
+        int head = 0, tail = 0;
+
+        int start = START_Y * width + START_X;
+        cells[start] = reached;
+        queue[tail++] = start;
+
+        while (head < tail) {
+            int cell = queue[head++];
+
+            for (Direction direction : DIRECTIONS) {
+                int next = neighbor(cell, direction, width, height, topology);
+                if (next != Topology.NO_CELL && cells[next] == FREE) {
+                    cells[next] = reached;
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        // portal ends are never stood on but stay open
+        for (int i = 0; i < cells.length; i++)
+            cells[i] = cells[i] == reached || topology != null && topology.isPortal(i) ? FREE : BLOCKED;
+
+        return tail;
+    }
+
+    private static int neighbor(int cell, Direction direction, int width, int height, Topology topology) {
+        if (topology != null)
+            return topology.neighbor(cell, direction);
+
+        int x = cell % width, y = cell / width;
+        switch (direction) {
+            case LEFT:
+                return x > 0 ? cell - 1 : Topology.NO_CELL;
+            case RIGHT:
+                return x < width - 1 ? cell + 1 : Topology.NO_CELL;
+            case UP:
+                return y > 0 ? cell - width : Topology.NO_CELL;
+            default:
+                return y < height - 1 ? cell + width : Topology.NO_CELL;
+        }
+    }
+
+    /**
+     * Derives the seed of a chunk from the level seed, a splitmix64 step.
+     */
+    private static long mix(long seed, int chunk) {
+        long z = seed + (chunk + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,94 @@
+package com.snakegame.logic;
+
+import java.util.Random;
+
+/**
+ * Walker/Vose alias table: samples an index proportionally to its weight in constant time,
+ * no matter how many weights there are.
+ */
+public class AliasTable {
+    private final double[] probability;
+    private final int[] alias;
+
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+
+        if (n == 0)
+            throw new IllegalArgumentException("At least one weight is required");
+
+        probability = new double[n];
+        alias = new int[n];
+
+        double sum = 0;
+        for (double weight : weights) {
+            if (weight < 0)
+                throw new IllegalArgumentException("Weights must not be negative: " + weight);
+            sum += weight;
+        }
+
+        if (sum <= 0)
+            throw new IllegalArgumentException("At least one weight must be positive");
+
+        // scale weights so that the average is 1 and split them in small and large ones
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0, largeCount = 0;
+
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+
+            if (scaled[i] < 1)
+                small[smallCount++] = i;
+            else
+                large[largeCount++] = i;
+        }
+
+        // fill each small column up with a piece of a large one
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+
+            probability[s] = scaled[s];
+            alias[s] = l;
+
+            scaled[l] = scaled[l] + scaled[s] - 1;
+
+            if (scaled[l] < 1)
+                small[smallCount++] = l;
+            else
+                large[largeCount++] = l;
+        }
+
+        // whatever is left is full up to rounding errors
+        while (largeCount > 0)
+            probability[large[--largeCount]] = 1;
+        while (smallCount > 0)
+            probability[small[--smallCount]] = 1;
+    }
+
+    public int sample(Random random) {
+        int column = random.nextInt(probability.length);
+
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+
+    public int size() {
+        return probability.length;
+    }
+
+    /**
+     * Returns the probability of keeping a column once it is drawn, so that copies of a game
+     * can sample the same way from their own generator.
+     */
+    public double getProbability(int column) {
+        return probability[column];
+    }
+
+    /**
+     * Returns the index a column falls back to when it is not kept.
+     */
+    public int getAlias(int column) {
+        return alias[column];
+    }
+}
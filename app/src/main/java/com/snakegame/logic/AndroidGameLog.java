@@ -0,0 +1,38 @@
+package com.snakegame.logic;
+
+import android.util.Log;
+
+/**
+ * Game engine log output going to logcat.
+ */
+public class AndroidGameLog implements GameLog {
+    public static final AndroidGameLog INSTANCE = new AndroidGameLog();
+
+    private AndroidGameLog() {
+    }
+
+    @Override
+    public boolean isLoggable() {
+        return true;
+    }
+
+    @Override
+    public void v(String tag, String message) {
+        Log.v(tag, message);
+    }
+
+    @Override
+    public void d(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+    @Override
+    public void i(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void w(String tag, String message) {
+        Log.w(tag, message);
+    }
+}
@@ -1,15 +1,13 @@
 package com.snakegame.logic;
 
-import android.graphics.Point;
-
 public class Cell extends GameElements{
     public Cell(int x, int y, int radius) {
-        super(radius);
-        location = new Point(x, y);
+        super(radius, GameLog.NONE);
+        location = new GridPoint(x, y);
     }
 
     public Cell(Cell cell) {
-        super(cell.getRadius());
-        location = new Point(cell.location);
+        super(cell.getRadius(), GameLog.NONE);
+        location = new GridPoint(cell.location);
     }
 }
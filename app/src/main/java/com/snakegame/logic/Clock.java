@@ -1,10 +1,7 @@
 package com.snakegame.logic;
 
-import android.graphics.Point;
-import android.util.Log;
-
 public class Clock extends SpecialElements{
-    private static final String TAG = GamePanel.class.getSimpleName();
+    private static final String TAG = Clock.class.getSimpleName();
 
     // maximum duration to display clock in snake moves
     private static final int MAX_DURATION = 20;
@@ -12,12 +9,12 @@ public class Clock extends SpecialElements{
     // effect duration in seconds
     private static final int EFFECT_DURATION = 10;
 
-    public Clock(Point fieldDimensions, Snake snake, int radius) {
-        super(fieldDimensions, snake, radius, MAX_DURATION);
+    public Clock(Snake snake, int radius) {
+        super(snake, radius, MAX_DURATION);
 
-        type = GameElementType.CLOCK;
+        setType(GameElementType.CLOCK);
 
-        Log.v(TAG, "Clock created");
+        log.v(TAG, "Clock created");
     }
 
     public static int getEffectDuration() {
@@ -1,17 +1,14 @@
 package com.snakegame.logic;
 
-import android.graphics.Point;
-
 public class Food extends GameElements{
     private int score;
     private int color;
     
-    public Food(Point fieldDimensions, Snake snake, int radius, int score, int color){
-        super(radius);
-        newRandomLocation(fieldDimensions, snake);
+    public Food(Snake snake, int radius, int score, int color){
+        super(radius, snake.getLog());
         this.score = score;
         this.color = color;
-        type = GameElementType.APPLE;
+        setType(GameElementType.APPLE);
     }
 
     public int getScore() {
@@ -0,0 +1,73 @@
+package com.snakegame.logic;
+
+import java.util.Arrays;
+
+/**
+ * Everything a frame draws, copied from the game or the replay being viewed at the end of a
+ * simulation step. Snapshots are pooled by the {@link TripleBuffer} between the simulation and
+ * render threads, so the render thread never reads game state that is being updated.
+ */
+public class FrameSnapshot {
+    public static final int NO_SPECIAL_ELEMENT = -1;
+
+    public boolean dead;
+    public boolean shielded;
+    public boolean usingBitmaps;
+
+    public int score;
+    public long highScore;
+    public int slowedTimeRemaining;
+    public int rewindCharges;
+
+    // share of past games the score beats, -1 if unknown, and the rank it would take
+    public double percentile = -1;
+    public long rank;
+
+    public int foodColor;
+    public int foodX, foodY;
+
+    public int specialType = NO_SPECIAL_ELEMENT;
+    public int specialX, specialY;
+
+    // cells next to the head leading into a region too small for the snake
+    public final int[] dangerX = new int[4];
+    public final int[] dangerY = new int[4];
+    public int dangerCount;
+
+    // replay viewer values, only drawn when replay is set
+    public boolean replay;
+    public int replaySpeed;
+    public int tick, endTick;
+
+    // body cells, 0 being the head
+    private int[] bodyX = new int[64];
+    private int[] bodyY = new int[64];
+    private int length;
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getX(int i) {
+        return bodyX[i];
+    }
+
+    public int getY(int i) {
+        return bodyY[i];
+    }
+
+    public void clearBody() {
+        length = 0;
+    }
+
+    public void addBodyCell(int x, int y) {
+        if (length == bodyX.length) {
+            bodyX = Arrays.copyOf(bodyX, length * 2);
+            bodyY = Arrays.copyOf(bodyY, length * 2);
+        }
+
+        bodyX[length] = x;
+        bodyY[length] = y;
+        length++;
+    }
+}
@@ -1,48 +1,110 @@
 package com.snakegame.logic;
 
-import android.graphics.Point;
-import android.util.Log;
-
-import java.util.Random;
-
+/**
+ * An element lying on a board cell. Elements are placed by the engine, drawing from the
+ * game's random generator so that seeded games place them the same way every time.
+ */
 public class GameElements {
-    private static final String TAG = GamePanel.class.getSimpleName();
+    private static final String TAG = GameElements.class.getSimpleName();
 
-    protected Point location;
+    protected GridPoint location;
     protected int radius;
     protected GameElementType type;
+    protected final GameLog log;
+
+    // Zobrist key of the element on its cell, kept up to date as it moves
+    private long hash;
 
     public enum GameElementType {
-        APPLE, CLOCK, SHIELD
+        APPLE, CLOCK, SHIELD, REWIND
     }
 
-    public GameElements(int radius) {
-        location = new Point();
+    public GameElements(int radius, GameLog log) {
+        location = new GridPoint();
         this.radius = radius;
+        this.log = log;
     }
 
-    public Point getLocation() {
+    public GridPoint getLocation() {
         return location;
     }
 
-    public void newRandomLocation(Point fieldDimensions, Snake snake) {
-        Random random = new Random();
-        Point p = new Point();
+    /**
+     * Moves the element to a random cell that is neither an obstacle of the level
+     * nor part of the snake, and that the snake can step into.
+     */
+    public void newRandomLocation(Level level, Snake snake, GameRandom random) {
+        Topology topology = snake.getTopology();
+        int cell;
 
-        boolean valid;
         do {
-            valid = true;
+            cell = random.nextInt(topology.getCellCount());
+        } while (level.isBlocked(cell) || !canBeEntered(level, topology, cell)
+                || snake.isOccupying(topology.getX(cell), topology.getY(cell)));
+
+        setLocation(topology.getX(cell), topology.getY(cell));
+    }
+
+    /**
+     * Moves the element to a random cell the snake head can reach, so it never lands in a
+     * pocket closed off by walls or the body. Falls back to any free cell if the snake is
+     * trapped.
+     */
+    public void newRandomLocation(Level level, Snake snake, Reachability reachability, GameRandom random) {
+        int cell = reachability.randomReachableCell(random);
+        if (cell == Topology.NO_CELL) {
+            newRandomLocation(level, snake, random);
+            return;
+        }
+
+        Topology topology = snake.getTopology();
+        setLocation(topology.getX(cell), topology.getY(cell));
+    }
+
+    private static boolean canBeEntered(Level level, Topology topology, int cell) {
+        // portal ends are passed through, never stood on
+        if (topology.isPortal(cell))
+            return false;
 
-            p.x = random.nextInt(fieldDimensions.x - 2) + 1;
-            p.y = random.nextInt(fieldDimensions.y - 2) + 1;
+        // and a cell walled in on all sides can't be reached
+        for (Direction direction : Direction.values()) {
+            int neighbor = topology.neighbor(cell, direction);
+            if (neighbor != Topology.NO_CELL && !level.isBlocked(neighbor))
+                return true;
+        }
+        return false;
+    }
+
+    void setLocation(int x, int y) {
+        if (log.isLoggable())
+            log.d(TAG, "New element at: " + x + ", " + y);
 
-            for (Cell cell : snake.getCells())
-                if (cell.getLocation().equals(p))
-                    valid = false;
-        } while (!valid);
+        // move the element in place instead of allocating a new point
+        location.set(x, y);
+        updateHash();
+    }
+
+    protected void setType(GameElementType type) {
+        this.type = type;
+        updateHash();
+    }
+
+    private void updateHash() {
+        hash = type == null ? 0 : ZobristKeys.key(ZobristKeys.ELEMENT + type.ordinal(), location.x, location.y);
+    }
+
+    /**
+     * Returns the Zobrist key of the element on its current cell.
+     */
+    public long getHash() {
+        return hash;
+    }
 
-        Log.d(TAG, "New element at: " + p.x + ", " + p.y);
-        location = p;
+    /**
+     * Recomputes {@link #getHash()} from scratch, for checks.
+     */
+    long computeHash() {
+        return ZobristKeys.key(ZobristKeys.ELEMENT + type.ordinal(), location.x, location.y);
     }
 
     public int getRadius() {
@@ -0,0 +1,633 @@
+package com.snakegame.logic;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Game rules and state, without any rendering or persistence.
+ * A game is fully determined by its seed and the directions queued at each tick, which lets
+ * submitted games be re-simulated headlessly.
+ */
+public class GameEngine {
+    private static final String TAG = GameEngine.class.getSimpleName();
+
+    // default spawn weights, overridden by res/raw/items.properties
+    private static final int GREEN_FOOD_WEIGHT = 75;
+    private static final int RED_FOOD_WEIGHT = 20;
+    private static final int YELLOW_FOOD_WEIGHT = 5;
+
+    private static final int NO_SPECIAL_ELEMENT_WEIGHT = 97;
+    private static final int CLOCK_WEIGHT = 2;
+    private static final int SHIELD_WEIGHT = 1;
+    private static final int REWIND_WEIGHT = 1;
+
+    // game ticks per second, the rate the game loop runs the engine at
+    public static final int TICKS_PER_SECOND = 30;
+
+    // number of moves that can be undone, a few dozen seconds at full speed
+    public static final int REWIND_CAPACITY = 256;
+
+    // number of moves a rewind charge undoes, a few seconds at the starting speed
+    public static final int REWIND_CHARGE_MOVES = 10;
+
+    // checks the incremental state hash after every change, off by default as it walks the body
+    private static volatile boolean hashChecks;
+
+    // where this engine logs, headless engines run by the thousand log nothing
+    private final GameLog log;
+
+    private final GridPoint fieldDimensions;
+    private final Level level;
+    private final Topology topology;
+    private final Snake snake;
+
+    // free regions of the board, so elements only spawn where the snake can go
+    private final Reachability reachability;
+    private Food food;
+    private SpecialElements specialElements;
+
+    private final ItemRegistry<Food> foodRegistry;
+    private final ItemRegistry<SpecialElements> specialElementsRegistry;
+
+    // identifies the item weights the game is played with, see GameSubmission
+    private final long itemWeightsHash;
+
+    private int tickCounter;
+    private final TimerWheel timerWheel = new TimerWheel();
+    private final ArrayDeque<Direction> directionsQueue = new ArrayDeque<Direction>();
+
+    // all randomness of a game comes from here
+    private final GameRandom random = new GameRandom();
+    private long seed;
+
+    // directions queued so far and the tick they were queued for
+    private int[] inputTicks = new int[64];
+    private byte[] inputDirections = new byte[64];
+    private int inputCount;
+
+    // what the last moves changed, so they can be undone
+    private final RewindBuffer rewindBuffer = new RewindBuffer(REWIND_CAPACITY);
+    private boolean rewound;
+
+    // rewinds picked up and not spent yet, rewinding past a pickup doesn't give it back
+    private int rewindCharges;
+
+    public GameEngine(int fieldWidth, int fieldHeight, int cellsRadius, boolean useBitmaps, Properties itemWeights, long seed) {
+        this(Level.bordered(fieldWidth, fieldHeight), cellsRadius, useBitmaps, itemWeights, seed);
+    }
+
+    public GameEngine(Level level, int cellsRadius, boolean useBitmaps, Properties itemWeights, long seed) {
+        this(level, Topology.bordered(level.getWidth(), level.getHeight()), cellsRadius, useBitmaps, itemWeights, seed);
+    }
+
+    public GameEngine(Level level, Topology topology, int cellsRadius, boolean useBitmaps, Properties itemWeights, long seed) {
+        this(level, topology, cellsRadius, useBitmaps, itemWeights, seed, GameLog.NONE);
+    }
+
+    public GameEngine(Level level, Topology topology, int cellsRadius, boolean useBitmaps, Properties itemWeights, long seed,
+                      GameLog log) {
+        if (topology.getWidth() != level.getWidth() || topology.getHeight() != level.getHeight())
+            throw new IllegalArgumentException("Level and topology sizes differ");
+
+        this.level = level;
+        this.topology = topology;
+        this.log = log;
+        fieldDimensions = new GridPoint(level.getWidth(), level.getHeight());
+
+        // create snake
+        snake = new Snake(cellsRadius, useBitmaps, topology, log);
+        reachability = new Reachability(level, topology);
+
+        // register one instance of each element, they are moved around instead of reallocated
+        foodRegistry = new ItemRegistry<Food>("food.", log);
+        foodRegistry.register("green", new GreenSuperFood(snake, cellsRadius), GREEN_FOOD_WEIGHT);
+        foodRegistry.register("red", new RedSuperFood(snake, cellsRadius), RED_FOOD_WEIGHT);
+        foodRegistry.register("yellow", new YellowSuperFood(snake, cellsRadius), YELLOW_FOOD_WEIGHT);
+        foodRegistry.loadWeights(itemWeights);
+
+        specialElementsRegistry = new ItemRegistry<SpecialElements>("special.", log);
+        specialElementsRegistry.register("none", null, NO_SPECIAL_ELEMENT_WEIGHT);
+        specialElementsRegistry.register("clock", new Clock(snake, cellsRadius), CLOCK_WEIGHT);
+        specialElementsRegistry.register("shield", new Shield(snake, cellsRadius), SHIELD_WEIGHT);
+        specialElementsRegistry.register("rewind", new Rewind(snake, cellsRadius), REWIND_WEIGHT);
+        specialElementsRegistry.loadWeights(itemWeights);
+
+        itemWeightsHash = specialElementsRegistry.hashWeights(foodRegistry.hashWeights(0));
+
+        reset(seed);
+    }
+
+    /**
+     * Makes every change of the game check the incremental state hash against a full
+     * recomputation, for tests and debug builds.
+     */
+    public static void setHashChecks(boolean enabled) {
+        hashChecks = enabled;
+    }
+
+    /**
+     * Starts a new game with the given seed, reusing the existing state objects.
+     */
+    public void reset(long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+
+        // reset snake and the free regions around it
+        snake.reset();
+        reachability.rebuild(snake);
+
+        // reset tick counter and cancel pending timers
+        tickCounter = 0;
+        timerWheel.clear();
+
+        // reset directions queue and input log
+        directionsQueue.clear();
+        inputCount = 0;
+
+        // forget the moves of the previous game
+        rewindBuffer.clear();
+        rewound = false;
+        rewindCharges = 0;
+
+        // create food
+        generateNewFood();
+
+        // remove special element
+        specialElements = null;
+
+        if (hashChecks)
+            checkStateHash();
+    }
+
+    /**
+     * Queues a direction to be applied on one of the next moves and logs it for the next tick.
+     */
+    public void queueDirection(Direction direction) {
+        logInput(direction.ordinal());
+        directionsQueue.add(direction);
+    }
+
+    private void logInput(int input) {
+        if (inputCount == inputTicks.length) {
+            inputTicks = Arrays.copyOf(inputTicks, inputCount * 2);
+            inputDirections = Arrays.copyOf(inputDirections, inputCount * 2);
+        }
+        inputTicks[inputCount] = tickCounter + 1;
+        inputDirections[inputCount] = (byte) input;
+        inputCount++;
+    }
+
+    /**
+     * Advances the game by one tick. Returns true if the snake was due to move on this tick,
+     * whether it moved or died trying.
+     */
+    public boolean update() {
+        // increment tick counter
+        tickCounter++;
+
+        // fire timers that are due: element lifetimes and effect ends
+        GameTrace.beginSection("TimerWheel.advance");
+        timerWheel.advance();
+        GameTrace.endSection();
+
+        // remove the special element once its lifetime is over
+        if (specialElements != null && specialElements.hasExpired())
+            specialElements = null;
+
+        // the snake only moves every move delay ticks
+        if (tickCounter % snake.getMoveDelay() != 0 || snake.isDead()) {
+            if (hashChecks)
+                checkStateHash();
+            return false;
+        }
+
+        // save what the move is about to change before anything changes
+        int slot = saveRewindRecord();
+        int length = snake.getCells().size();
+
+        // increase snake speed if needed
+        if (snake.speedNeedsToBeIncremented())
+            snake.increaseSpeed();
+
+        // set snake direction
+        GameTrace.beginSection("consumeDirection");
+        consumeDirection();
+        GameTrace.endSection();
+
+        // check if snake hit any wall
+        GameTrace.beginSection("checkIfSnakeHitAnyWall");
+        checkIfSnakeHitAnyWall();
+        GameTrace.endSection();
+
+        // if snake is alive
+        if (!snake.isDead()) {
+            // move the snake
+            GameTrace.beginSection("Snake.move");
+            snake.move();
+            GameTrace.endSection();
+
+            GameTrace.beginSection("Reachability.update");
+            reachability.update(snake);
+            GameTrace.endSection();
+
+            // check if snake ate apple
+            GameTrace.beginSection("checkIfSnakeAteFood");
+            checkIfSnakeAteFood();
+            GameTrace.endSection();
+
+            // update special element
+            GameTrace.beginSection("updateSpecialElement");
+            updateSpecialElement();
+            GameTrace.endSection();
+        }
+
+        finishRewindRecord(slot, length);
+
+        if (hashChecks)
+            checkStateHash();
+        return true;
+    }
+
+    /**
+     * Undoes up to the given number of moves, newest first, and returns how many were undone.
+     * Each move is undone in constant time, the free regions are rebuilt once at the end.
+     * The board goes back but the tick counter does not, and queued directions are dropped.
+     * A rewound game no longer follows from its seed and input log, see {@link #isRewound()}.
+     */
+    public int rewind(int moves) {
+        int undone = undoMoves(moves);
+        if (undone > 0)
+            rewound = true;
+
+        return undone;
+    }
+
+    /**
+     * Spends a rewind charge picked up during the game to undo the last
+     * {@link #REWIND_CHARGE_MOVES} moves, and returns how many were undone. Unlike
+     * {@link #rewind(int)} this is part of the game: it is logged as a
+     * {@link GameSubmission#REWIND_INPUT} input, so the game still follows from its seed and
+     * input log.
+     */
+    public int useRewindCharge() {
+        if (rewindCharges == 0 || snake.isDead())
+            return 0;
+
+        int undone = undoMoves(REWIND_CHARGE_MOVES);
+        if (undone > 0) {
+            rewindCharges--;
+            logInput(GameSubmission.REWIND_INPUT);
+        }
+
+        return undone;
+    }
+
+    public int getRewindCharges() {
+        return rewindCharges;
+    }
+
+    private int undoMoves(int moves) {
+        int undone = 0;
+        int slot = -1;
+
+        while (undone < moves) {
+            int previous = rewindBuffer.pop();
+            if (previous == -1)
+                break;
+
+            int flags = rewindBuffer.flags[previous];
+            if ((flags & RewindBuffer.FLAG_MOVED) != 0)
+                snake.undoMove(rewindBuffer.tailCells[previous], (flags & RewindBuffer.FLAG_GREW) != 0);
+
+            slot = previous;
+            undone++;
+        }
+
+        if (undone == 0)
+            return 0;
+
+        // the rest of the state is taken back from the oldest move undone
+        snake.restoreFrom(rewindBuffer, slot, timerWheel);
+        random.setState(rewindBuffer.randomStates[slot]);
+
+        int cell = rewindBuffer.foodCells[slot];
+        food = foodRegistry.getItem(rewindBuffer.foods[slot]);
+        food.setLocation(topology.getX(cell), topology.getY(cell));
+
+        if (specialElements != null)
+            specialElements.despawn();
+        specialElements = specialElementsRegistry.getItem(rewindBuffer.specialElements[slot]);
+        if (specialElements != null) {
+            cell = rewindBuffer.specialCells[slot];
+            specialElements.restore(topology.getX(cell), topology.getY(cell), rewindBuffer.specialTicks[slot], timerWheel);
+        }
+
+        directionsQueue.clear();
+        reachability.rebuild(snake);
+
+        if (hashChecks)
+            checkStateHash();
+
+        log.i(TAG, "Rewound " + undone + " moves");
+        return undone;
+    }
+
+    /**
+     * Returns a 64 bit Zobrist hash of the game state: body cells, head, direction, score,
+     * shield, slowed time, food and special element. The tick, timers and random state are
+     * left out, so that equal positions hash equally whatever led to them.
+     * The body and element keys are kept up to date as they change, this is O(1).
+     */
+    public long getStateHash() {
+        return combineStateHash(snake.getBodyHash(), food.getHash(),
+                specialElements == null ? 0 : specialElements.getHash());
+    }
+
+    /**
+     * Recomputes {@link #getStateHash()} from scratch, walking the whole body.
+     */
+    public long computeStateHash() {
+        long bodyHash = 0;
+        for (Cell cell : snake.getCells())
+            bodyHash ^= ZobristKeys.key(ZobristKeys.BODY, cell.getLocation().x, cell.getLocation().y);
+
+        return combineStateHash(bodyHash, food.computeHash(),
+                specialElements == null ? 0 : specialElements.computeHash());
+    }
+
+    private long combineStateHash(long bodyHash, long foodHash, long specialHash) {
+        GridPoint head = snake.getHead().getLocation();
+        int flags = (snake.hasShield() ? 1 : 0) | (snake.getSlowedTimeRemaining() > 0 ? 2 : 0)
+                | (snake.isDead() ? 4 : 0);
+
+        return bodyHash ^ foodHash ^ specialHash
+                ^ ZobristKeys.key(ZobristKeys.HEAD, head.x, head.y)
+                ^ ZobristKeys.key(ZobristKeys.DIRECTION, snake.getDirection().ordinal(), 0)
+                ^ ZobristKeys.key(ZobristKeys.SCORE, snake.getScore(), food.getScore())
+                ^ ZobristKeys.key(ZobristKeys.FLAGS, flags, 0);
+    }
+
+    private void checkStateHash() {
+        long hash = getStateHash(), expected = computeStateHash();
+        if (hash != expected)
+            throw new IllegalStateException("State hash " + Long.toHexString(hash) + " at tick " + tickCounter
+                    + " differs from the recomputed " + Long.toHexString(expected));
+    }
+
+    /**
+     * Returns the number of moves {@link #rewind(int)} can undo.
+     */
+    public int getRewindableMoves() {
+        return rewindBuffer.size();
+    }
+
+    /**
+     * Returns true if moves of the current game were undone.
+     */
+    public boolean isRewound() {
+        return rewound;
+    }
+
+    private int saveRewindRecord() {
+        int slot = rewindBuffer.push();
+
+        snake.saveTo(rewindBuffer, slot);
+        rewindBuffer.randomStates[slot] = random.getState();
+        rewindBuffer.headCells[slot] = headCell();
+
+        GridPoint location = food.getLocation();
+        rewindBuffer.foods[slot] = (byte) foodRegistry.indexOf(food);
+        rewindBuffer.foodCells[slot] = topology.cell(location.x, location.y);
+
+        rewindBuffer.specialElements[slot] = (byte) specialElementsRegistry.indexOf(specialElements);
+        if (specialElements != null) {
+            location = specialElements.getLocation();
+            rewindBuffer.specialCells[slot] = topology.cell(location.x, location.y);
+            rewindBuffer.specialTicks[slot] = specialElements.getRemainingTicks();
+        }
+
+        return slot;
+    }
+
+    private void finishRewindRecord(int slot, int length) {
+        // a wall hit or a shield saving the snake on the edge leaves the body in place
+        if (headCell() == rewindBuffer.headCells[slot])
+            return;
+
+        GridPoint tail = snake.getPreviousTail();
+        rewindBuffer.tailCells[slot] = topology.cell(tail.x, tail.y);
+        rewindBuffer.flags[slot] |= RewindBuffer.FLAG_MOVED
+                | (snake.getCells().size() > length ? RewindBuffer.FLAG_GREW : 0);
+    }
+
+    private int headCell() {
+        GridPoint head = snake.getHead().getLocation();
+        return topology.cell(head.x, head.y);
+    }
+
+    /**
+     * Returns the number of ticks until the next tick that changes something visible:
+     * the next snake move, the next clock countdown update or the next timer.
+     * Input is consumed on move ticks only.
+     */
+    public int getTicksUntilNextChange() {
+        int moveDelay = snake.getMoveDelay();
+        int ticks = moveDelay - tickCounter % moveDelay;
+
+        if (snake.getTicksUntilClockUpdate() > 0)
+            ticks = Math.min(ticks, snake.getTicksUntilClockUpdate());
+
+        return timerWheel.getTicksUntilNextTimer(ticks);
+    }
+
+    private void consumeDirection() {
+        boolean done = false;
+        while (!directionsQueue.isEmpty() && !done) {
+            Direction direction = directionsQueue.poll();
+
+            switch (direction) {
+                case UP:
+                case DOWN:
+                    if (snake.isMovingHorizontally()) {
+                        snake.setDirection(direction);
+                        if (log.isLoggable())
+                            log.d(TAG, "Consumed direction " + direction.getString() + " from queue");
+                        done = true;
+                    }
+                    break;
+                case RIGHT:
+                case LEFT:
+                    if (snake.isMovingVertically()) {
+                        snake.setDirection(direction);
+                        if (log.isLoggable())
+                            log.d(TAG, "Consumed direction " + direction.getString() + " from queue");
+                        done = true;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void generateNewFood() {
+        food = foodRegistry.pick(random);
+        food.newRandomLocation(level, snake, reachability, random);
+    }
+
+    private void updateSpecialElement() {
+        // if no special element exists
+        if (specialElements == null) {
+            specialElements = specialElementsRegistry.pick(random);
+
+            if (specialElements != null)
+                specialElements.respawn(level, snake, reachability, timerWheel, random);
+        } else if (snake.ate(specialElements)) {
+            switch (specialElements.getType()) {
+                case CLOCK:
+                    snake.startClock(timerWheel);
+                    log.i(TAG, "Snake got the clock");
+                    break;
+                case SHIELD:
+                    snake.setHasShield(true);
+                    log.i(TAG, "Snake got the shield");
+                    break;
+                case REWIND:
+                    rewindCharges++;
+                    log.i(TAG, "Snake got a rewind");
+                    break;
+            }
+
+            // destroy element
+            specialElements.despawn();
+            specialElements = null;
+        }
+    }
+
+    private void checkIfSnakeHitAnyWall() {
+        // get snake head location
+        GridPoint head = snake.getHead().getLocation();
+
+        // look up the cell the snake is about to move into
+        int next = topology.neighbor(topology.cell(head.x, head.y), snake.getDirection());
+
+        if (next == Topology.NO_CELL || level.isBlocked(next))
+            snake.kill();
+
+        if (snake.isDead() && snake.hasShield()) {
+            snake.setHasShield(false);
+            snake.revive();
+
+            log.i(TAG, "Shield lost");
+        }
+    }
+
+    private void checkIfSnakeAteFood() {
+        if (snake.ate(food)) {
+            if (log.isLoggable())
+                log.d(TAG, "Food has been eaten");
+
+            // increase snake size, the tail stays where it was
+            snake.incSize();
+            GridPoint tail = snake.getPreviousTail();
+            reachability.occupy(topology.cell(tail.x, tail.y));
+
+            // set speed needs to be incremented flag
+            snake.enableSpeedNeedsToBeIncrementedFlag();
+
+            // update score
+            snake.incScore(food.getScore());
+
+            // generate new apple
+            generateNewFood();
+        }
+    }
+
+    /**
+     * Returns the seed and input log of the current game along with its result.
+     */
+    public GameSubmission toSubmission() {
+        return new GameSubmission(seed, itemWeightsHash, level, topology,
+                Arrays.copyOf(inputTicks, inputCount), Arrays.copyOf(inputDirections, inputCount),
+                snake.getScore(), tickCounter);
+    }
+
+    /**
+     * Returns a hash of the item weights in effect, defaults included. Games only replay the
+     * same with the same weights.
+     */
+    public long getItemWeightsHash() {
+        return itemWeightsHash;
+    }
+
+    public GridPoint getFieldDimensions() {
+        return fieldDimensions;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    public Reachability getReachability() {
+        return reachability;
+    }
+
+    public ItemRegistry<Food> getFoodRegistry() {
+        return foodRegistry;
+    }
+
+    public ItemRegistry<SpecialElements> getSpecialElementsRegistry() {
+        return specialElementsRegistry;
+    }
+
+    /**
+     * Returns the state of the game random generator, see {@link GameRandom#getState()}.
+     */
+    public long getRandomState() {
+        return random.getState();
+    }
+
+    /**
+     * Returns true if the snake moves on the next tick.
+     */
+    public boolean isMoveDue() {
+        return (tickCounter + 1) % snake.getMoveDelay() == 0;
+    }
+
+    /**
+     * Returns true if queued directions are waiting for the next moves.
+     */
+    public boolean hasQueuedDirections() {
+        return !directionsQueue.isEmpty();
+    }
+
+    public Snake getSnake() {
+        return snake;
+    }
+
+    public Food getFood() {
+        return food;
+    }
+
+    public SpecialElements getSpecialElements() {
+        return specialElements;
+    }
+
+    public int getTickCounter() {
+        return tickCounter;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the direction the snake will end up going once the queued directions are applied.
+     */
+    public Direction getLastQueuedDirection() {
+        return directionsQueue.isEmpty() ? snake.getDirection() : directionsQueue.getLast();
+    }
+}
@@ -0,0 +1,47 @@
+package com.snakegame.logic;
+
+/**
+ * Log output of a game engine, given to each engine so that headless engines run by the
+ * thousand stay quiet while the live game logs. Free of Android, so that the engine runs on a
+ * plain JVM, see {@link AndroidGameLog} for the device implementation.
+ */
+public interface GameLog {
+    /**
+     * Drops every message.
+     */
+    GameLog NONE = new GameLog() {
+        @Override
+        public boolean isLoggable() {
+            return false;
+        }
+
+        @Override
+        public void v(String tag, String message) {
+        }
+
+        @Override
+        public void d(String tag, String message) {
+        }
+
+        @Override
+        public void i(String tag, String message) {
+        }
+
+        @Override
+        public void w(String tag, String message) {
+        }
+    };
+
+    /**
+     * Returns false if messages are dropped, so that per move messages aren't even built.
+     */
+    boolean isLoggable();
+
+    void v(String tag, String message);
+
+    void d(String tag, String message);
+
+    void i(String tag, String message);
+
+    void w(String tag, String message);
+}
@@ -7,8 +7,8 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Point;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.SurfaceHolder;
@@ -16,46 +16,224 @@ import android.view.SurfaceView;
 import android.view.View;
 
 import com.snakegame.R;
+import com.snakegame.ai.MctsController;
+import com.snakegame.bot.BotController;
+import com.snakegame.bot.BotRunner;
+import com.snakegame.capture.ClipRecorder;
+import com.snakegame.history.GameHistory;
+import com.snakegame.levelgen.LevelCache;
+import com.snakegame.levelgen.LevelGenerator;
+import com.snakegame.metrics.GameMetrics;
+import com.snakegame.net.LockstepClient;
+import com.snakegame.net.LockstepProtocol;
+import com.snakegame.replay.ReplayFormat;
+import com.snakegame.replay.ReplayPlayer;
+import com.snakegame.replay.ReplayRecorder;
+import com.snakegame.replay.ReplayState;
 import com.snakegame.snake.ActivitySwipeDetector;
 import com.snakegame.snake.SwipeInterface;
 
-import java.util.ArrayDeque;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, SwipeInterface {
     private static final String TAG = GamePanel.class.getSimpleName();
 
-    private static final int RED_FOOD_PERCENTAGE = 20;
-    private static final int YELLOW_FOOD_PERCENTAGE = 5;
+    // board and length of the render benchmark, close to a phone screen full of snake
+    private static final int BENCHMARK_FIELD_WIDTH = 20;
+    private static final int BENCHMARK_FIELD_HEIGHT = 36;
+    private static final int BENCHMARK_CELL_DIAMETER = 54;
+    private static final int BENCHMARK_FRAMES = 300;
 
-    private static final int CLOCK_PERCENTAGE = 2;
-    private static final int SHIELD_PERCENTAGE = 1;
+    // level files wider than this many cells scroll with the head rather than shrink to fit
+    private static final int MAX_VISIBLE_COLUMNS = 40;
+
+    // fastest replay playback speed, in ticks played per tick
+    private static final int MAX_REPLAY_SPEED = 64;
+
+    // file of the last finished game, and the file the game being played is recorded to until
+    // it ends
+    private static final String REPLAY_FILE_NAME = "last_game.snkr";
+    private static final String REPLAY_TEMP_FILE_NAME = "last_game.snkr.tmp";
+
+    // animated clip of the last game when clips are recorded, cells drawn 8 x 8 pixels
+    private static final String CLIP_FILE_NAME = "last_game.gif";
+    private static final int CLIP_SCALE = 8;
+
+    // moves undone by a swipe back, when rewinding is enabled
+    private static final int REWIND_SWIPE_MOVES = 10;
+
+    // optional obstacle map, the classic bordered board is used without it
+    private static final String LEVEL_FILE_NAME = "level.snkl";
+
+    // without a level file, a generated layout of the given style and seed can be played,
+    // generated levels are cached in their own directory
+    private static final String LEVEL_STYLE_KEY = "level_style";
+    private static final String LEVEL_SEED_KEY = "level_seed";
+    private static final String GENERATED_LEVELS_DIRECTORY = "levels";
+    private static final int GENERATED_LEVELS_CACHED = 2;
+
+    // every finished game, and how many of the best ones the leaderboard keeps
+    private static final String HISTORY_FILE_NAME = "history.bin";
+    private static final int LEADERBOARD_SIZE = 100;
 
     private Context context;
     private MainThread thread;
-    private Paint paint;
-    private int tickCounter;
-    private ArrayDeque<Direction> directionsQueue;
 
-    private Point fieldDimensions;
+    // lifecycle of the game, other threads change the game through its commands
+    private final GameSession session;
+    private RenderThread renderThread;
+    private Paint paint;
+    // game rules and state, snake and field dimensions are kept for the whole engine lifetime
+    private GameEngine engine;
+    private GridPoint fieldDimensions;
     private int cellsDiameter, cellsRadius;
     private Snake snake;
-    private Food food;
-    private SpecialElements specialElements;
+    private SnakeRenderer snakeRenderer;
+
+    // cells that fit on screen, a larger board is drawn around the head
+    private int visibleColumns, visibleRows;
+
+    // reused by drawCell, drawing happens on the render thread only
+    private final Rect cellSrc = new Rect(), cellDst = new Rect();
+
+    // obstacle and portal cells of the board being drawn, listed once per board rather than
+    // found by scanning every cell of every frame
+    private Level drawnLevel;
+    private Topology drawnTopology;
+    private int[] wallCells = new int[0], portalCells = new int[0];
+    private int wallCount, portalCount;
+
+    // steps drawing down to flat shapes and a slower HUD when frames take too long
+    private final RenderGovernor renderGovernor = new RenderGovernor(1000000000L / MainThread.getFps());
+
+    // quality of the frame being drawn and the HUD lines it last rebuilt, render thread only
+    private RenderGovernor.Quality quality = RenderGovernor.Quality.FULL;
+    private String[] hudLines;
+    private long hudBuiltNanos;
+    private boolean hudDead;
+
+    // seeds of new games
+    private final Random random = new Random();
+
+    private Properties itemWeights;
+
+    // seed and input log of the last finished game
+    private GameSubmission lastSubmission;
 
     private String highScoreKey = "highScore";
+
+    // board topology, one of the Topology.Type names
+    private static final String TOPOLOGY_KEY = "topology";
     private long highScore;
-    private boolean highScoreUpdated;
+    // high score before the game being played, restored when the game is rewound
+    private long previousHighScore;
+    private volatile boolean highScoreUpdated;
+
+    // indexed once loaded in the background, games ending before that are not counted
+    private volatile GameHistory history;
+
+    // generated levels, created on first use
+    private LevelCache levelCache;
+
+    // share of past games the current score beats, -1 until known
+    private double percentile = -1;
+    private int percentileScore = -1;
+    private long rank;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private LockstepClient lockstepClient;
+
+    // whether the game was reset with the seed of the session, which every player starts from
+    private boolean lockstepStarted;
 
+    // broadcast ticks played by one update at most, a backlog is caught up over a few frames
+    private static final int MAX_LOCKSTEP_TICKS_PER_UPDATE = 8;
+
+    // posted by the network thread, so that ticks are played as they arrive rather than at the
+    // next frame
+    private final Runnable lockstepTicksArrived = new Runnable() {
+        @Override
+        public void run() {
+            if (lockstepClient != null && replayPlayer == null && session.getState() == GameSession.State.RUNNING)
+                updateLockstep();
+        }
+    };
+
+    // when set, a tree search steers the snake on every move
+    private static final long AI_SEARCH_NANOS = 15 * 1000 * 1000;
+    private volatile boolean aiEnabled;
+    private MctsController mcts;
+
+    // when set, a plugged-in bot steers the snake, each move decided within the budget
+    private static final long BOT_BUDGET_NANOS = 10 * 1000 * 1000;
+    private BotController bot;
+    private BotRunner botRunner;
+
+    // when set, swiping back undoes the last moves, a rewound game sets no records
+    private volatile boolean rewindEnabled;
+
+    private ReplayRecorder replayRecorder;
+
+    // set while games are recorded to clips, encoding happens on the recorder's own thread
+    private boolean recordingClips;
+    private ClipRecorder clipRecorder;
+    private volatile ReplayPlayer replayPlayer;
+    private int replaySpeed;
+
+    // sprites, decoded in the background and drawn once spritesLoaded is set
+    private static final int[] SPRITE_IDS = {
+            R.drawable.border_cell, R.drawable.sn, R.drawable.snake_shielded_cell,
+            R.drawable.green_food_cell, R.drawable.red_food_cell, R.drawable.yellow_food_cell,
+            R.drawable.clock_cell, R.drawable.shield_cell};
     private Bitmap borderCell, snakeCell, snakeShieldedCell;
     private Bitmap greenFoodCell, redFoodCell, yellowFoodCell;
     private Bitmap clockCell, shieldCell;
+    private volatile boolean spritesLoaded;
+
+    // cold start instrumentation, from the activity creation
+    private final long createTime;
+    private boolean firstFrameLogged, firstTexturedFrameLogged;
 
     public GamePanel(Context context) {
+        this(context, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Creates the panel, createTime being the uptime at which the activity creation began.
+     */
+    public GamePanel(Context context, long createTime) {
         super(context);
 
+        session = new GameSession(new GameSession.Game() {
+            @Override
+            public void restart() {
+                initGame();
+            }
+
+            @Override
+            public boolean isGameOver() {
+                return replayPlayer == null && snake.isDead() && highScoreUpdated;
+            }
+
+            @Override
+            public boolean isIdle() {
+                return GamePanel.this.isIdle();
+            }
+        }, getHolder());
+
         // save context (necessary to save high score)
         this.context = context;
+        this.createTime = createTime;
 
         // add the callback (this) to the surface holder to intercept events
         getHolder().addCallback(this);
@@ -66,20 +244,30 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
         // create paint
         paint = new Paint();
 
-        // create directions queue
-        directionsQueue = new ArrayDeque<Direction>();
-
-        // load bitmaps
+        // decode bitmaps in the background, the first frames are drawn without them
         loadBitmaps();
 
+        // load spawn weights
+        loadItemWeights();
+
+        // index past games in the background
+        loadHistory();
+
         // make the GamePanel focusable so it can handle events
         setFocusable(true);
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder surfaceHolder) {
-        // initialize game
-        initGame();
+        // the new game thread starts a new game before anything else
+        session.start();
+
+        // start the game loop thread unless it is still alive
+        if (thread == null || !thread.isAlive()) {
+            renderThread = new RenderThread(getHolder(), this);
+            thread = new MainThread(getHolder(), this, renderThread, session);
+            thread.start();
+        }
     }
 
     @Override
@@ -90,155 +278,832 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
     public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
         Log.d(TAG, "Surface is being destroyed");
 
-        // tell the thread to shut down and wait for it to finish. this is a clean shutdown
+        // the clip ends where the game was left
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                stopClipRecording();
+            }
+        });
+
+        // tell the threads to shut down and wait for them to finish, the surface must not be
+        // drawn on once this returns. the simulation thread stops the renderer on its way out
+        session.destroy();
+
         boolean retry = true;
-        while (retry) {
+        while (retry && thread != null) {
             try {
                 thread.join();
+                renderThread.join();
                 retry = false;
             } catch (InterruptedException e) {
-                // try again shutting down the thread
+                // try again shutting down the threads
             }
         }
+        thread = null;
+        renderThread = null;
+
+        // the search workers are started again on the next searched move
+        if (mcts != null) {
+            mcts.shutdown();
+            mcts = null;
+        }
+
+        // and so is the bot worker
+        if (botRunner != null) {
+            botRunner.shutdown();
+            botRunner = null;
+        }
 
         Log.d(TAG, "Thread was shut down cleanly");
     }
 
     private void loadBitmaps() {
-        borderCell = BitmapFactory.decodeResource(context.getResources(), R.drawable.border_cell);
-        snakeCell = BitmapFactory.decodeResource(getResources(), R.drawable.sn);
-        snakeShieldedCell = BitmapFactory.decodeResource(getResources(), R.drawable.snake_shielded_cell);
+        final long beginTime = SystemClock.uptimeMillis();
+        final Bitmap[] sprites = new Bitmap[SPRITE_IDS.length];
+        final AtomicInteger pending = new AtomicInteger(SPRITE_IDS.length);
+
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), SPRITE_IDS.length);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int i = 0; i < SPRITE_IDS.length; i++) {
+            final int sprite = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sprites[sprite] = BitmapFactory.decodeResource(getResources(), SPRITE_IDS[sprite]);
+
+                    // the last decoded sprite publishes them all
+                    if (pending.decrementAndGet() == 0) {
+                        Log.i(TAG, "Sprites decoded in " + (SystemClock.uptimeMillis() - beginTime) + " ms");
+                        onSpritesLoaded(sprites);
+                    }
+                }
+            });
+        }
+
+        // the pool threads exit once the queued decodes are done
+        executor.shutdown();
+    }
+
+    private void onSpritesLoaded(final Bitmap[] sprites) {
+        // the next frame is drawn textured, even if the game is over
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                borderCell = sprites[0];
+                snakeCell = sprites[1];
+                snakeShieldedCell = sprites[2];
+
+                greenFoodCell = sprites[3];
+                redFoodCell = sprites[4];
+                yellowFoodCell = sprites[5];
+
+                clockCell = sprites[6];
+                shieldCell = sprites[7];
+
+                spritesLoaded = true;
+
+                // switch a running game from circles to sprites
+                if (snake != null)
+                    snake.setUsingBitmaps(hasSnakeSprites());
+            }
+        });
+    }
+
+    private boolean hasSnakeSprites() {
+        return spritesLoaded && borderCell != null && snakeCell != null && greenFoodCell != null;
+    }
+
+    private void loadItemWeights() {
+        itemWeights = new Properties();
+
+        try (InputStream in = getResources().openRawResource(R.raw.items)) {
+            itemWeights.load(in);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not load item weights, using defaults", e);
+        }
+    }
+
+    private void loadHistory() {
+        new Thread("GameHistoryLoader") {
+            @Override
+            public void run() {
+                try {
+                    history = new GameHistory(new File(context.getFilesDir(), HISTORY_FILE_NAME), LEADERBOARD_SIZE);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not load game history", e);
+                }
+            }
+        }.start();
+    }
 
-        greenFoodCell = BitmapFactory.decodeResource(getResources(), R.drawable.green_food_cell);
-        redFoodCell = BitmapFactory.decodeResource(getResources(), R.drawable.red_food_cell);
-        yellowFoodCell = BitmapFactory.decodeResource(getResources(), R.drawable.yellow_food_cell);
+    /**
+     * Returns the history of past games, null while it is being loaded.
+     */
+    public GameHistory getHistory() {
+        return history;
+    }
 
-        clockCell = BitmapFactory.decodeResource(getResources(), R.drawable.clock_cell);
-        shieldCell = BitmapFactory.decodeResource(getResources(), R.drawable.shield_cell);
+    /**
+     * Starts a new game. Any thread, the game restarts on the game thread.
+     */
+    public void restartGame() {
+        session.restart();
     }
 
     /**
-     * Game initialize method.
+     * Stops the game loop until {@link #resume()}. Any thread.
      */
-    public void initGame() {
-        // reset tick counter
-        tickCounter = 0;
+    public void pause() {
+        session.pause();
+    }
+
+    public void resume() {
+        session.resume();
+    }
+
+    public GameSession.State getSessionState() {
+        return session.getState();
+    }
 
-        // reset directions queue
-        directionsQueue.clear();
+    /**
+     * Game initialize method, game thread only.
+     * The first call creates the game state, later calls reset it in place.
+     */
+    private void initGame() {
+        if (snake == null)
+            createGame();
+        else
+            resetGame();
+    }
 
+    private void createGame() {
         Log.d("SnakeView", "View width: " + getWidth());
         Log.d("SnakeView", "View height: " + getHeight());
 
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
+        Topology.Type topologyType = Topology.Type.BORDERED;
+        try {
+            topologyType = Topology.Type.valueOf(sharedPref.getString(TOPOLOGY_KEY, topologyType.name()));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unknown topology, using " + topologyType);
+        }
+
         // initialize game board and game elements radius
-        int fieldWidth = 20;
-        cellsDiameter = getWidth() / fieldWidth;
+        Level level = loadLevel();
+        Topology topology;
+        if (level != null) {
+            topology = createTopology(topologyType, level.getWidth(), level.getHeight());
+            cellsDiameter = Math.max(Math.min(getWidth() / level.getWidth(), getHeight() / level.getHeight()),
+                    getWidth() / MAX_VISIBLE_COLUMNS);
+        } else {
+            int fieldWidth = 20;
+            cellsDiameter = getWidth() / fieldWidth;
+            int fieldHeight = getHeight() / cellsDiameter;
+            topology = createTopology(topologyType, fieldWidth, fieldHeight);
+
+            // the torus has no edges to wall off
+            level = topologyType == Topology.Type.TORUS ? Level.create(fieldWidth, fieldHeight)
+                    : generateLevel(sharedPref, topology);
+        }
         cellsRadius = cellsDiameter / 2;
-        int fieldHeight = getHeight() / cellsDiameter;
-        fieldDimensions = new Point(fieldWidth, fieldHeight);
+        visibleColumns = getWidth() / cellsDiameter;
+        visibleRows = getHeight() / cellsDiameter;
+        snakeRenderer = new SnakeRenderer(cellsDiameter);
 
         Log.d("MainActivity", "Cell Diameter: " + cellsDiameter);
-        Log.d("MainActivity", "Field Dimensions: " + fieldWidth + "x" + fieldHeight);
+        Log.d("MainActivity", "Field Dimensions: " + level.getWidth() + "x" + level.getHeight());
+
+        // create game engine
+        engine = new GameEngine(level, topology, cellsRadius,
+                hasSnakeSprites(), itemWeights, random.nextLong(), AndroidGameLog.INSTANCE);
+        snake = engine.getSnake();
+        fieldDimensions = engine.getFieldDimensions();
+
+        // load high score, it is kept up to date in memory afterwards
+        highScore = sharedPref.getLong(highScoreKey, 0);
+
+        startGame();
+    }
+
+    private static Topology createTopology(Topology.Type type, int width, int height) {
+        switch (type) {
+            case TORUS:
+                return Topology.torus(width, height);
+            case PORTALS:
+                // join the middle of the left and right sides, and of the top and bottom ones
+                return Topology.portals(width, height,
+                        (height / 2) * width + 2, (height / 2) * width + width - 3,
+                        3 * width + width / 2, (height - 4) * width + width / 2);
+            default:
+                return Topology.bordered(width, height);
+        }
+    }
+
+    /**
+     * Maps the level file from the app files directory, if there is one.
+     */
+    private Level loadLevel() {
+        File file = new File(context.getFilesDir(), LEVEL_FILE_NAME);
+        if (!file.exists())
+            return null;
+
+        try {
+            long beginTime = System.nanoTime();
+            Level level = Level.map(file);
+            Log.i(TAG, "Level " + level.getWidth() + "x" + level.getHeight() + " mapped in "
+                    + (System.nanoTime() - beginTime) / 1000 + " us");
+            return level;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not load level, using the bordered board", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the generated level picked in the preferences, the bordered board if none is.
+     */
+    private Level generateLevel(SharedPreferences sharedPref, Topology topology) {
+        int width = topology.getWidth(), height = topology.getHeight();
+        String style = sharedPref.getString(LEVEL_STYLE_KEY, null);
+        if (style == null || width < LevelGenerator.MIN_WIDTH || height < LevelGenerator.MIN_HEIGHT)
+            return Level.bordered(width, height);
+
+        try {
+            if (levelCache == null)
+                levelCache = new LevelCache(new File(context.getFilesDir(), GENERATED_LEVELS_DIRECTORY),
+                        GENERATED_LEVELS_CACHED, AndroidGameLog.INSTANCE);
+
+            // walls are laid out around the portals, and the level is walked through them
+            return levelCache.get(LevelGenerator.Style.valueOf(style), sharedPref.getLong(LEVEL_SEED_KEY, 0), topology);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unknown level style " + style + ", using the bordered board");
+            return Level.bordered(width, height);
+        }
+    }
+
+    private void resetGame() {
+        long beginTime = System.nanoTime();
 
-        // create snake
-        snake = new Snake(cellsRadius, (borderCell != null && snakeCell != null && greenFoodCell != null));
+        // reset game state with a new seed
+        engine.reset(random.nextLong());
 
-        // create food
-        generateNewFood();
+        startGame();
+
+        Log.d(TAG, "Game reset in " + (System.nanoTime() - beginTime) / 1000 + " us");
+    }
+
+    private void startGame() {
+        GameMetrics.GAMES_STARTED.inc();
 
         // reset highScoreUpdated flag
         highScoreUpdated = false;
+        previousHighScore = highScore;
 
-        // load high score
-        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-        highScore = sharedPref.getLong(highScoreKey, 0);
+        // the new score is ranked on the next update
+        percentile = -1;
+        percentileScore = -1;
+
+        // record the new game
+        startReplayRecording();
+        startClipRecording();
+    }
 
-        // create and start the game loop thread
-        thread = new MainThread(getHolder(), this);
-        thread.start();
+    private void startReplayRecording() {
+        // an unfinished recording is dropped
+        stopReplayRecording(false);
+
+        try {
+            replayRecorder = new ReplayRecorder(new File(context.getFilesDir(), REPLAY_TEMP_FILE_NAME),
+                    engine.getTopology(), ReplayRecorder.DEFAULT_KEYFRAME_INTERVAL);
+            replayRecorder.recordStart(engine.getTickCounter(), snake, engine.getFood(), engine.getSpecialElements());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not start replay recording", e);
+            replayRecorder = null;
+        }
     }
 
     /**
-     * Game update method.
+     * Records the games from the next one on to an animated clip, or stops recording them.
      */
-    public void update() {
-        // increment tick counter
-        tickCounter++;
-
-        // update clock counter
-        if (tickCounter % MainThread.getFps() == 0)
-            snake.updateClock();
-
-        // update snake
-        if (tickCounter % snake.getMoveDelay() == 0) {
-            // increase snake speed if needed
-            if (snake.speedNeedsToBeIncremented())
-                snake.increaseSpeed();
-
-            // set snake direction
-            boolean done = false;
-            while (!directionsQueue.isEmpty() && !done) {
-                Direction direction = directionsQueue.poll();
-
-                switch (direction) {
-                    case UP:
-                    case DOWN:
-                        if (snake.isMovingHorizontally()) {
-                            snake.setDirection(direction);
-                            Log.d(TAG, "Consumed direction " + direction.getString() + " from queue");
-                            done = true;
-                        }
-                        break;
-                    case RIGHT:
-                    case LEFT:
-                        if (snake.isMovingVertically()) {
-                            snake.setDirection(direction);
-                            Log.d(TAG, "Consumed direction " + direction.getString() + " from queue");
-                            done = true;
-                        }
-                        break;
+    public void setRecordingClips(final boolean recording) {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                recordingClips = recording;
+                if (!recording)
+                    stopClipRecording();
+            }
+        });
+    }
+
+    private void startClipRecording() {
+        // an unfinished clip is closed as it is
+        stopClipRecording();
+
+        if (recordingClips)
+            clipRecorder = new ClipRecorder(new File(context.getFilesDir(), CLIP_FILE_NAME),
+                    engine.getLevel(), engine.getTopology(), CLIP_SCALE);
+    }
+
+    private void captureClipFrame(FrameSnapshot snapshot) {
+        if (clipRecorder == null)
+            return;
+
+        GameTrace.beginSection("ClipRecorder.capture");
+        clipRecorder.capture(snapshot);
+        GameTrace.endSection();
+
+        // the clip ends on the game over frame
+        if (snapshot.dead)
+            stopClipRecording();
+    }
+
+    private void stopClipRecording() {
+        if (clipRecorder == null)
+            return;
+
+        clipRecorder.close();
+        clipRecorder = null;
+    }
+
+    private void recordReplayMove() {
+        if (replayRecorder == null)
+            return;
+
+        try {
+            replayRecorder.recordMove(engine.getTickCounter(), snake, engine.getFood(), engine.getSpecialElements());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not record move, replay recording stopped", e);
+            stopReplayRecording(false);
+        }
+    }
+
+    /**
+     * Closes the recording, and makes it the last game replay if the game is finished. The
+     * viewer never opens the file of a game in progress.
+     */
+    private void stopReplayRecording(boolean finished) {
+        if (replayRecorder == null)
+            return;
+
+        try {
+            replayRecorder.close();
+
+            File tempFile = new File(context.getFilesDir(), REPLAY_TEMP_FILE_NAME);
+            if (finished && !tempFile.renameTo(new File(context.getFilesDir(), REPLAY_FILE_NAME)))
+                Log.w(TAG, "Could not replace the last game replay");
+        } catch (IOException e) {
+            Log.w(TAG, "Could not finish replay recording", e);
+        }
+        replayRecorder = null;
+    }
+
+    /**
+     * Joins a lockstep multiplayer session. The game restarts from the seed of the session once
+     * every player joined, and then advances only on the ticks broadcast by the server.
+     * Directions picked by the player are sent to the server and applied when they come back
+     * with a tick. Only the local snake is simulated, the inputs of the other players are
+     * received in step but not played yet.
+     */
+    public void joinMultiplayerSession(String host, int port, int sessionId, int players) {
+        leaveMultiplayerSession();
+
+        final LockstepClient client = new LockstepClient(host, port, sessionId, players);
+        client.setTickListener(new Runnable() {
+            @Override
+            public void run() {
+                session.post(lockstepTicksArrived);
+            }
+        });
+        client.start();
+
+        session.restart();
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                lockstepClient = client;
+                lockstepStarted = false;
+            }
+        });
+    }
+
+    public void leaveMultiplayerSession() {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                LockstepClient client = lockstepClient;
+                lockstepClient = null;
+
+                if (client != null)
+                    client.close();
+            }
+        });
+    }
+
+    /**
+     * Hands the snake over to the tree search, or gives it back to the player.
+     */
+    public void setAiEnabled(boolean enabled) {
+        aiEnabled = enabled;
+        session.wakeUp();
+    }
+
+    public boolean isAiEnabled() {
+        return aiEnabled;
+    }
+
+    /**
+     * Lets swiping back undo the last moves. A debug feature, rewound games don't count towards
+     * the high score, the history or the metrics.
+     */
+    public void setRewindEnabled(boolean enabled) {
+        rewindEnabled = enabled;
+    }
+
+    public boolean isRewindEnabled() {
+        return rewindEnabled;
+    }
+
+    /**
+     * Hands the snake over to the given bot, or gives it back to the player with null.
+     * The bot takes precedence over the tree search.
+     */
+    public void setBot(final BotController bot) {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                if (botRunner != null) {
+                    botRunner.shutdown();
+                    botRunner = null;
                 }
+                GamePanel.this.bot = bot;
             }
+        });
+    }
 
-            // check if snake hit any wall
-            checkIfSnakeHitAnyWall();
+    private void steerWithBot() {
+        if (botRunner == null)
+            botRunner = new BotRunner(bot, BOT_BUDGET_NANOS, GameMetrics.REGISTRY, AndroidGameLog.INSTANCE);
 
-            // if snake is alive
-            if (!snake.isDead()) {
-                // move the snake
-                snake.move();
+        GameTrace.beginSection("BotRunner.decide");
+        Direction direction = botRunner.decide(engine);
+        GameTrace.endSection();
 
-                // check if snake ate apple
-                checkIfSnakeAteFood();
+        // no answer in time, the snake keeps its course
+        if (direction != null && direction != snake.getDirection())
+            engine.queueDirection(direction);
+    }
 
-                // update special element
-                updateSpecialElement();
-            } else {
-                // if high score hasn't been updated
-                if (!highScoreUpdated) {
-                    Log.d(TAG, "Updating high score");
+    /**
+     * Undoes up to the given number of moves of the game being played. Any thread, the moves
+     * are undone on the game thread.
+     */
+    public void rewind(final int moves) {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                rewindMoves(moves);
+            }
+        });
+    }
+
+    private void rewindMoves(int moves) {
+        // replays, multiplayer games that follow the server and finished games can't be rewound
+        if (!rewindEnabled || replayPlayer != null || lockstepClient != null || snake.isDead())
+            return;
+
+        if (engine.rewind(moves) == 0)
+            return;
+
+        // whatever record the game set before the rewind no longer counts
+        highScore = previousHighScore;
+        recordRewind();
+    }
+
+    /**
+     * Spends a rewind charge picked up in the game being played. Any thread, the charge is
+     * spent on the game thread.
+     */
+    public void useRewindCharge() {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                // multiplayer inputs go through the server, which has no rewinds
+                if (replayPlayer != null || lockstepClient != null || snake.isDead())
+                    return;
+
+                if (engine.useRewindCharge() == 0)
+                    return;
+
+                // the rewind is part of the game, the score only goes back to what it was
+                highScore = Math.max(previousHighScore, snake.getScore());
+                recordRewind();
+            }
+        });
+    }
+
+    private void recordRewind() {
+        // the replay jumps to the rewound board
+        if (replayRecorder == null)
+            return;
+
+        try {
+            replayRecorder.recordJump(engine.getTickCounter(), snake, engine.getFood(), engine.getSpecialElements());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not record rewind, replay recording stopped", e);
+            stopReplayRecording(false);
+        }
+    }
+
+    private void steerWithAi() {
+        if (mcts == null)
+            mcts = new MctsController(AndroidGameLog.INSTANCE);
+
+        GameTrace.beginSection("MctsController.chooseMove");
+        Direction direction = mcts.chooseMove(engine, AI_SEARCH_NANOS);
+        GameTrace.endSection();
+
+        if (direction != snake.getDirection())
+            engine.queueDirection(direction);
+    }
+
+    /**
+     * Plays the broadcast ticks that arrived, a few at most, so that a late tick is caught up
+     * rather than delaying every tick after it.
+     */
+    private void updateLockstep() {
+        LockstepClient client = lockstepClient;
+
+        // carry on as a single player game if the connection is lost
+        if (!client.isConnected()) {
+            Log.w(TAG, "Left multiplayer session", client.getError());
+            lockstepClient = null;
+            updateGame();
+            return;
+        }
 
+        // the game restarted on joining hasn't moved yet, it is replaced by the game of the
+        // session seed once the session starts
+        if (!lockstepStarted) {
+            if (!client.isStarted())
+                return;
+
+            engine.reset(client.getSeed());
+            startReplayRecording();
+            startClipRecording();
+            lockstepStarted = true;
+        }
+
+        LockstepClient.TickInputs inputs;
+        for (int i = 0; i < MAX_LOCKSTEP_TICKS_PER_UPDATE && (inputs = client.pollTick()) != null; i++) {
+            applyLockstepInputs(client, inputs);
+            updateGame();
+        }
+    }
+
+    /**
+     * Queues the directions the local player picked for the given broadcast tick.
+     */
+    private void applyLockstepInputs(LockstepClient client, LockstepClient.TickInputs inputs) {
+        for (int i = 0; i < inputs.count; i++) {
+            // the client already rejects these, never index with a byte off the network unchecked
+            if (!LockstepProtocol.isValidDirection(inputs.directions[i])) {
+                Log.w(TAG, "Ignored direction " + inputs.directions[i] + " at tick " + inputs.tick);
+                continue;
+            }
+            Direction direction = DIRECTIONS[inputs.directions[i]];
+
+            // only the local snake is simulated, the session is the transport for other players
+            if (inputs.players[i] == client.getPlayerIndex())
+                engine.queueDirection(direction);
+            else
+                Log.v(TAG, "Player " + inputs.players[i] + " turned " + direction.getString() + " at tick " + inputs.tick);
+        }
+    }
+
+    /**
+     * Switches the panel to viewer mode and plays the given replay file from the start.
+     */
+    public void startReplay(File file) throws IOException {
+        final ReplayPlayer player = new ReplayPlayer(file);
+
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                replayPlayer = player;
+                replaySpeed = 1;
+            }
+        });
+    }
+
+    /**
+     * Plays the last finished game.
+     */
+    public void startLastGameReplay() throws IOException {
+        startReplay(new File(context.getFilesDir(), REPLAY_FILE_NAME));
+    }
+
+    /**
+     * Jumps to the given tick of the replay being viewed.
+     */
+    public void seekReplay(final int tick) {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                if (replayPlayer != null)
+                    replayPlayer.seek(tick);
+            }
+        });
+    }
+
+    /**
+     * Sets the replay playback speed, from 1x up to 64x.
+     */
+    public void setReplaySpeed(final int speed) {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                replaySpeed = Math.max(1, Math.min(speed, MAX_REPLAY_SPEED));
+            }
+        });
+    }
+
+    /**
+     * Leaves viewer mode and goes back to the game.
+     */
+    public void stopReplay() {
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                replayPlayer = null;
+            }
+        });
+    }
+
+    public RenderGovernor getRenderGovernor() {
+        return renderGovernor;
+    }
+
+    public boolean isViewingReplay() {
+        return replayPlayer != null;
+    }
+
+    /**
+     * Game update method.
+     */
+    public void update() {
+        // in viewer mode the replay is played instead of the game
+        if (replayPlayer != null) {
+            GameTrace.beginSection("ReplayPlayer.advance");
+            replayPlayer.advance(replaySpeed);
+            GameTrace.endSection();
+            return;
+        }
+
+        // in a multiplayer session the game only advances on ticks broadcast by the server
+        if (lockstepClient != null) {
+            updateLockstep();
+            return;
+        }
+
+        updateGame();
+    }
+
+    /**
+     * Advances the game by one tick.
+     */
+    private void updateGame() {
+        GameTrace.beginSection("GamePanel.update");
+
+        // let the bot or the search pick the direction of the coming move
+        if ((bot != null || aiEnabled) && lockstepClient == null && !snake.isDead() && engine.isMoveDue()
+                && !engine.hasQueuedDirections()) {
+            if (bot != null)
+                steerWithBot();
+            else
+                steerWithAi();
+        }
+
+        // advance the game by one tick
+        boolean moveTick = engine.update();
+
+        if (snake.isDead()) {
+            // if high score hasn't been updated
+            if (!highScoreUpdated) {
+                Log.d(TAG, "Updating high score");
+
+                // record the end of the game
+                recordReplayMove();
+                stopReplayRecording(true);
+
+                // a rewound game can't be verified and doesn't count, it is only replayed
+                if (engine.isRewound()) {
+                    lastSubmission = null;
+                } else {
+                    // keep what is needed to verify the score
+                    lastSubmission = engine.toSubmission();
+
+                    GameMetrics.GAMES_FINISHED.inc();
+                    GameMetrics.SCORES.observe(snake.getScore());
+
+                    GameTrace.beginSection("saveHighScore");
+                    long saveBeginTime = System.nanoTime();
                     saveHighScore();
-                    highScoreUpdated = true;
+                    GameMetrics.SAVE_HIGH_SCORE_SECONDS.observeNanos(System.nanoTime() - saveBeginTime);
+                    GameTrace.endSection();
+
+                    GameTrace.beginSection("addToHistory");
+                    addToHistory();
+                    GameTrace.endSection();
                 }
+                highScoreUpdated = true;
             }
+        } else if (moveTick) {
+            // record the move
+            recordReplayMove();
         }
+
+        // rank the score among past games whenever food changed it
+        if (snake.getScore() != percentileScore)
+            updatePercentile();
+
+        // update high score, rewound games set no records
+        if (snake.getScore() > highScore && !engine.isRewound())
+            highScore = snake.getScore();
+
+        GameTrace.endSection();
+    }
+
+    /**
+     * Returns true if nothing on screen will change until the player taps.
+     */
+    public boolean isIdle() {
+        if (replayPlayer != null)
+            return replayPlayer.isFinished();
+
+        return snake.isDead() && highScoreUpdated;
+    }
+
+    /**
+     * Returns the number of ticks until the next tick that changes something visible:
+     * the next snake move, the next clock countdown update or the next timer.
+     * Input is consumed on move ticks only.
+     */
+    public int getTicksUntilNextChange() {
+        // replays are drawn every tick so that fast playback stays smooth, and multiplayer games
+        // advance whenever a tick arrives
+        if (replayPlayer != null || lockstepClient != null)
+            return 1;
+
+        return engine.getTicksUntilNextChange();
+    }
+
+    /**
+     * Returns the seed, input log and result of the last finished game, null if none finished yet.
+     */
+    public GameSubmission getLastSubmission() {
+        return lastSubmission;
     }
 
     @Override
-    public void onClick(View v, int x, int y) {
-        // if snake is dead
-        if (snake.isDead()) {
+    public void onClick(View v, final int x, final int y) {
+        // the tap is handled on the game thread, against the state it is about to update
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                onTap(x, y);
+            }
+        });
+    }
+
+    @Override
+    public void onRightToLeftSwipe(View v) {
+        // swiping back rewinds the last moves when enabled, otherwise spends a rewind charge
+        if (rewindEnabled)
+            rewind(REWIND_SWIPE_MOVES);
+        else
+            useRewindCharge();
+    }
+
+    private void onTap(int x, int y) {
+        // tapping leaves viewer mode
+        if (replayPlayer != null) {
+            Log.d(TAG, "Leaving replay");
+            replayPlayer = null;
+        } else if (session.getState() == GameSession.State.DEAD) {
             Log.d(TAG, "Starting new game");
-            initGame();
-        } else {
-            Direction direction = directionsQueue.isEmpty() ? snake.getDirection() : directionsQueue.getLast();
+            session.restart();
+        } else if (!snake.isDead()) {
+            Direction direction = engine.getLastQueuedDirection();
 
             if (direction.isHorizontal()) {
                 // if snake is moving horizontally
 
                 // if touch anywhere above of the snake head
-                if (y < snake.getHead().getLocation().y * cellsDiameter) {
+                int headY = snake.getHead().getLocation().y;
+                if (y < (headY - getViewportY(headY)) * cellsDiameter) {
                     // move snake up
                     direction = Direction.UP;
                     Log.d(TAG, "Added direction UP to queue");
@@ -250,7 +1115,8 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
             } else {
                 // if snake is moving vertically
                 // if touch anywhere left of the snake head
-                if (x < snake.getHead().getLocation().x * cellsDiameter) {
+                int headX = snake.getHead().getLocation().x;
+                if (x < (headX - getViewportX(headX)) * cellsDiameter) {
                     // move snake left
                     direction = Direction.LEFT;
                     Log.d(TAG, "Added direction LEFT to queue");
@@ -260,108 +1126,44 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
                     Log.d(TAG, "Added direction RIGHT to queue");
                 }
             }
-            // add direction to queue of directions to be applied to the snake
-            directionsQueue.add(direction);
+            // add direction to queue of directions to be applied to the snake,
+            // in a multiplayer session it goes through the server first
+            LockstepClient client = lockstepClient;
+            if (client != null)
+                client.sendInput(engine.getTickCounter() + 1, direction.ordinal());
+            else
+                engine.queueDirection(direction);
         }
     }
 
-    private void generateNewFood() {
-        Random random = new Random();
-        int num = random.nextInt(100) + 1;
-
-        if (num <= RED_FOOD_PERCENTAGE)
-            food = new RedSuperFood(fieldDimensions, snake, cellsRadius);
-        else if (RED_FOOD_PERCENTAGE < num && num <= RED_FOOD_PERCENTAGE + YELLOW_FOOD_PERCENTAGE)
-            food = new YellowSuperFood(fieldDimensions, snake, cellsRadius);
-        else
-            food = new GreenSuperFood(fieldDimensions, snake, cellsRadius);
-    }
-
-    private void updateSpecialElement() {
-        // if no special element exists
-        if (specialElements == null) {
-            Random random = new Random();
-            int num = random.nextInt(100) + 1;
-
-            if (num <= CLOCK_PERCENTAGE)
-                specialElements = new Clock(fieldDimensions, snake, cellsRadius);
-            else if (CLOCK_PERCENTAGE < num && num <= CLOCK_PERCENTAGE + SHIELD_PERCENTAGE)
-                specialElements = new Shield(fieldDimensions, snake, cellsRadius);
-        } else if (snake.ate(specialElements)) {
-            switch (specialElements.getType()) {
-                case CLOCK:
-                    snake.startClock();
-                    Log.i(TAG, "Snake got the clock");
-                    break;
-                case SHIELD:
-                    snake.setHasShield(true);
-                    Log.i(TAG, "Snake got the shield");
-                    break;
-            }
+    private void addToHistory() {
+        GameHistory history = this.history;
+        if (history == null)
+            return;
 
-            // destroy element
-            specialElements = null;
-        } else {
-            // inc duration counter
-            specialElements.incCounter();
-
-            // destroy element if it has expired
-            if (specialElements.hasExpired())
-                specialElements = null;
+        if (!GameHistory.isValidScore(snake.getScore())) {
+            Log.w(TAG, "Score " + snake.getScore() + " out of the history range");
+            return;
         }
-    }
 
-    private void checkIfSnakeHitAnyWall() {
-        // get snake head location
-        Point head = snake.getHead().getLocation();
-
-        switch (snake.getDirection()) {
-            case UP:
-                if (head.y <= 1)
-                    snake.kill();
-                break;
-            case DOWN:
-                if (head.y >= fieldDimensions.y - 2)
-                    snake.kill();
-                break;
-            case LEFT:
-                if (head.x <= 1)
-                    snake.kill();
-                break;
-            case RIGHT:
-                if (head.x >= fieldDimensions.x - 2)
-                    snake.kill();
-                break;
+        try {
+            history.add(snake.getScore(), engine.getTickCounter(), System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save game to history", e);
         }
 
-        if (snake.isDead() && snake.hasShield()) {
-            snake.setHasShield(false);
-            snake.revive();
-
-            Log.i(TAG, "Shield lost");
-        }
+        // the finished game now counts itself, rank it against the others
+        updatePercentile();
     }
 
-    public void checkIfSnakeAteFood() {
-        if (snake.ate(food)) {
-            Log.d("Snake", "Food has been eaten");
+    private void updatePercentile() {
+        GameHistory history = this.history;
+        if (history == null || history.getGameCount() == 0)
+            return;
 
-            // increase snake size
-            snake.incSize();
-
-            // set speed needs to be incremented flag
-            snake.enableSpeedNeedsToBeIncrementedFlag();
-
-            // update score
-            snake.incScore(food.getScore());
-
-            // update high score
-            if (snake.getScore() > highScore)
-                highScore = snake.getScore();
-
-            // generate new apple
-            generateNewFood();
-        }
+        percentileScore = snake.getScore();
+        percentile = history.getPercentile(percentileScore);
+        rank = history.getRank(percentileScore);
     }
 
     private void saveHighScore() {
@@ -372,33 +1174,185 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
     }
 
     /**
-     * Game draw method.
+     * Copies what the next frame draws into the given snapshot.
+     * Called on the simulation thread while the surface holder lock is held.
+     */
+    public void captureSnapshot(FrameSnapshot snapshot) {
+        snapshot.clearBody();
+
+        // in viewer mode the replay is drawn instead of the game
+        if (replayPlayer != null) {
+            ReplayState state = replayPlayer.getState();
+
+            snapshot.dead = state.isDead();
+            snapshot.shielded = state.hasShield();
+            snapshot.score = state.score;
+            snapshot.slowedTimeRemaining = state.slowedTimeRemaining;
+            snapshot.rewindCharges = 0;
+
+            snapshot.foodColor = state.foodColor;
+            snapshot.foodX = state.foodX;
+            snapshot.foodY = state.foodY;
+
+            snapshot.specialType = state.specialType == ReplayFormat.NO_SPECIAL_ELEMENT
+                    ? FrameSnapshot.NO_SPECIAL_ELEMENT : state.specialType;
+            snapshot.specialX = state.specialX;
+            snapshot.specialY = state.specialY;
+
+            for (int i = 0; i < state.getLength(); i++)
+                snapshot.addBodyCell(state.getX(i), state.getY(i));
+
+            snapshot.replay = true;
+            snapshot.percentile = -1;
+            snapshot.dangerCount = 0;
+            snapshot.replaySpeed = replaySpeed;
+            snapshot.tick = replayPlayer.getTick();
+            snapshot.endTick = replayPlayer.getEndTick();
+        } else {
+            snapshot.dead = snake.isDead();
+            snapshot.shielded = snake.hasShield();
+            snapshot.score = snake.getScore();
+            snapshot.slowedTimeRemaining = snake.getSlowedTimeRemaining();
+            snapshot.rewindCharges = engine.getRewindCharges();
+
+            Food food = engine.getFood();
+            snapshot.foodColor = food.getColor();
+            snapshot.foodX = food.getLocation().x;
+            snapshot.foodY = food.getLocation().y;
+
+            SpecialElements specialElements = engine.getSpecialElements();
+            if (specialElements == null) {
+                snapshot.specialType = FrameSnapshot.NO_SPECIAL_ELEMENT;
+            } else {
+                snapshot.specialType = specialElements.getType().ordinal();
+                snapshot.specialX = specialElements.getLocation().x;
+                snapshot.specialY = specialElements.getLocation().y;
+            }
+
+            for (Cell cell : snake.getCells())
+                snapshot.addBodyCell(cell.getLocation().x, cell.getLocation().y);
+            captureDanger(snapshot);
+
+            snapshot.replay = false;
+            snapshot.tick = engine.getTickCounter();
+            snapshot.percentile = percentile;
+            snapshot.rank = rank;
+        }
+
+        snapshot.highScore = highScore;
+        snapshot.usingBitmaps = snake.isUsingBitmaps();
+
+        // clips show the game only, not the replays viewed in between
+        if (!snapshot.replay)
+            captureClipFrame(snapshot);
+    }
+
+    private void captureDanger(FrameSnapshot snapshot) {
+        snapshot.dangerCount = 0;
+        if (snake.isDead())
+            return;
+
+        Topology topology = engine.getTopology();
+        Reachability reachability = engine.getReachability();
+        GridPoint head = snake.getHead().getLocation();
+        int headCell = topology.cell(head.x, head.y);
+
+        // free cells from which the whole body can't fit anymore
+        for (Direction direction : DIRECTIONS) {
+            int cell = topology.neighbor(headCell, direction);
+            if (cell == Topology.NO_CELL)
+                continue;
+
+            int regionSize = reachability.getRegionSize(cell);
+            if (regionSize > 0 && regionSize < snake.getCells().size()) {
+                snapshot.dangerX[snapshot.dangerCount] = topology.getX(cell);
+                snapshot.dangerY[snapshot.dangerCount] = topology.getY(cell);
+                snapshot.dangerCount++;
+            }
+        }
+    }
+
+    /**
+     * Game draw method. Called on the render thread, it only reads the snapshot and
+     * state that doesn't change during a game.
      */
-    public void render(Canvas canvas) {
+    public void render(Canvas canvas, FrameSnapshot snapshot) {
+        GameTrace.beginSection("GamePanel.render");
+
+        // the same quality for the whole frame
+        quality = renderGovernor.getQuality();
+
+        // the board is drawn in cell coordinates, moved so that the head stays on screen
+        int viewportX = 0, viewportY = 0;
+        if (snapshot.getLength() > 0) {
+            viewportX = getViewportX(snapshot.getX(0));
+            viewportY = getViewportY(snapshot.getY(0));
+        }
+        canvas.save();
+        canvas.translate(-viewportX * cellsDiameter, -viewportY * cellsDiameter);
+
         // draw background
-        drawBackground(canvas);
+        GameTrace.beginSection("drawBackground");
+        drawBackground(canvas, snapshot.dead);
+        GameTrace.endSection();
 
         // draw board limits
-        drawBoardLimits(canvas);
+        GameTrace.beginSection("drawBoardLimits");
+        drawBoardLimits(canvas, viewportX, viewportY);
+        GameTrace.endSection();
 
         // draw apple
-        drawFood(canvas);
+        GameTrace.beginSection("drawFood");
+        drawFood(canvas, snapshot);
+        GameTrace.endSection();
 
         // draw special element
-        drawSpecialElement(canvas);
+        GameTrace.beginSection("drawSpecialElement");
+        drawSpecialElement(canvas, snapshot);
+        GameTrace.endSection();
 
         // draw snake
-        drawSnake(canvas);
+        GameTrace.beginSection("drawSnake");
+        drawSnake(canvas, snapshot);
+        GameTrace.endSection();
+
+        // warn about moves into pockets the snake doesn't fit in
+        if (quality.effects)
+            drawDanger(canvas, snapshot);
 
-        // display score
-        drawScore(canvas);
+        canvas.restore();
+
+        // display score, or the replay position in viewer mode
+        GameTrace.beginSection("drawScore");
+        if (snapshot.replay)
+            drawReplayPosition(canvas, snapshot);
+        else
+            drawScore(canvas, snapshot);
+        GameTrace.endSection();
         //developer name
 
         // if snake is dead
-        if (snake.isDead()){
-            drawGameOverMessage(canvas);
+        if (snapshot.dead && !snapshot.replay) {
+            GameTrace.beginSection("drawGameOverMessage");
+            drawGameOverMessage(canvas, snapshot);
             drawDev(canvas);
+            GameTrace.endSection();
+        }
 
+        GameTrace.endSection();
+
+        logStartupFrames();
+    }
+
+    private void logStartupFrames() {
+        if (!firstFrameLogged) {
+            firstFrameLogged = true;
+            Log.i(TAG, "Cold start: first frame after " + (SystemClock.uptimeMillis() - createTime) + " ms");
+        }
+
+        if (!firstTexturedFrameLogged && spritesLoaded) {
+            firstTexturedFrameLogged = true;
+            Log.i(TAG, "Cold start: first textured frame after " + (SystemClock.uptimeMillis() - createTime) + " ms");
         }
     }
 
@@ -412,101 +1366,187 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
 
     }
 
-    private void drawBackground(Canvas canvas) {
-        int bgColor = snake.isDead() ? Color.rgb( 204, 0, 0) : Color.rgb(252,228,236);
+    private void drawBackground(Canvas canvas, boolean dead) {
+        int bgColor = dead ? Color.rgb( 204, 0, 0) : Color.rgb(252,228,236);
         paint.setColor(bgColor);
 
         canvas.drawRect(0, 0, fieldDimensions.x * cellsDiameter, fieldDimensions.y * cellsDiameter, paint);
     }
 
-    private void drawCell(Canvas canvas, Point p, Bitmap bitmap) {
-        Rect src = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+    private void drawCell(Canvas canvas, int cellX, int cellY, Bitmap bitmap) {
+        // until the sprites are decoded, or when frames are slow, cells are drawn as circles
+        // of the current paint color
+        if (!spritesLoaded || !quality.sprites || bitmap == null) {
+            canvas.drawCircle(cellsRadius + cellX * cellsDiameter, cellsRadius + cellY * cellsDiameter, cellsRadius, paint);
+            return;
+        }
 
-        int x = p.x * cellsDiameter;
-        int y = p.y * cellsDiameter;
-        Rect dst = new Rect(x, y, x + cellsDiameter, y + cellsDiameter);
+        int x = cellX * cellsDiameter;
+        int y = cellY * cellsDiameter;
+        cellSrc.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        cellDst.set(x, y, x + cellsDiameter, y + cellsDiameter);
 
         // draw bitmap
-        canvas.drawBitmap(bitmap, src, dst, paint);
+        canvas.drawBitmap(bitmap, cellSrc, cellDst, paint);
+    }
+
+    /**
+     * Returns the first column on screen: the head column stays in the middle of the screen,
+     * but nothing past the sides of the board is shown.
+     */
+    private int getViewportX(int headX) {
+        return Math.max(0, Math.min(headX - visibleColumns / 2, fieldDimensions.x - visibleColumns));
+    }
+
+    private int getViewportY(int headY) {
+        return Math.max(0, Math.min(headY - visibleRows / 2, fieldDimensions.y - visibleRows));
     }
 
-    private void drawBoardLimits(Canvas canvas) {
+    private void drawBoardLimits(Canvas canvas, int viewportX, int viewportY) {
+        Level level = engine.getLevel();
+        Topology topology = engine.getTopology();
+
+        // the walls of a board larger than the screen are looked up on screen only, listing
+        // them all would walk the whole level
+        if (fieldDimensions.x > visibleColumns || fieldDimensions.y > visibleRows) {
+            drawVisibleBoardLimits(canvas, level, topology, viewportX, viewportY);
+            return;
+        }
+
+        if (level != drawnLevel || topology != drawnTopology)
+            listBoardLimits(level, topology);
+
+        // draw every obstacle of the level, the border included
         paint.setColor(Color.DKGRAY);
+        for (int i = 0; i < wallCount; i++)
+            drawCell(canvas, topology.getX(wallCells[i]), topology.getY(wallCells[i]), borderCell);
+
+        // and the portal ends of the topology
+        paint.setColor(Color.MAGENTA);
+        for (int i = 0; i < portalCount; i++)
+            canvas.drawCircle(cellsRadius + topology.getX(portalCells[i]) * cellsDiameter,
+                    cellsRadius + topology.getY(portalCells[i]) * cellsDiameter, cellsRadius, paint);
+    }
+
+    private void drawVisibleBoardLimits(Canvas canvas, Level level, Topology topology, int viewportX, int viewportY) {
+        // the column and row cut by the screen edge included
+        int endX = Math.min(fieldDimensions.x, viewportX + visibleColumns + 1);
+        int endY = Math.min(fieldDimensions.y, viewportY + visibleRows + 1);
 
-        // draw top  and bottom border
-        for (int i = 0; i < fieldDimensions.x; i++) {
-            drawCell(canvas, new Point(i, 0), borderCell);
-            drawCell(canvas, new Point(i, fieldDimensions.y - 1), borderCell);
+        for (int y = viewportY; y < endY; y++) {
+            for (int x = viewportX; x < endX; x++) {
+                if (level.isBlocked(x, y)) {
+                    paint.setColor(Color.DKGRAY);
+                    drawCell(canvas, x, y, borderCell);
+                }
+                if (topology.isPortal(topology.cell(x, y))) {
+                    paint.setColor(Color.MAGENTA);
+                    canvas.drawCircle(cellsRadius + x * cellsDiameter, cellsRadius + y * cellsDiameter, cellsRadius, paint);
+                }
+            }
         }
+    }
+
+    private void listBoardLimits(Level level, Topology topology) {
+        wallCount = 0;
+        portalCount = 0;
 
-        // fill first and last column
-        for (int i = 0; i < fieldDimensions.y; i++) {
-            drawCell(canvas, new Point(0, i), borderCell);
-            drawCell(canvas, new Point(fieldDimensions.x - 1, i), borderCell);
+        for (int cell = 0; cell < topology.getCellCount(); cell++) {
+            if (level.isBlocked(topology.getX(cell), topology.getY(cell))) {
+                if (wallCount == wallCells.length)
+                    wallCells = Arrays.copyOf(wallCells, Math.max(16, 2 * wallCount));
+                wallCells[wallCount++] = cell;
+            }
+            if (topology.isPortal(cell)) {
+                if (portalCount == portalCells.length)
+                    portalCells = Arrays.copyOf(portalCells, Math.max(4, 2 * portalCount));
+                portalCells[portalCount++] = cell;
+            }
         }
+
+        drawnLevel = level;
+        drawnTopology = topology;
     }
 
-    private void drawFood(Canvas canvas) {
-        Bitmap bitmap;
+    private void drawFood(Canvas canvas, FrameSnapshot snapshot) {
+        paint.setColor(snapshot.foodColor);
+        drawCell(canvas, snapshot.foodX, snapshot.foodY, getFoodBitmap(snapshot.foodColor));
+    }
 
-        switch (food.getColor()) {
+    private Bitmap getFoodBitmap(int color) {
+        switch (color) {
             case Color.GREEN:
-                bitmap = greenFoodCell;
-                break;
+                return greenFoodCell;
             case Color.RED:
-                bitmap = redFoodCell;
-                break;
+                return redFoodCell;
             case Color.YELLOW:
-                bitmap = yellowFoodCell;
-                break;
+                return yellowFoodCell;
             default:
-                bitmap = borderCell;
-                break;
+                return borderCell;
         }
-
-        drawCell(canvas, food.getLocation(), bitmap);
     }
 
-    private void drawSpecialElement(Canvas canvas) {
-        if (specialElements != null) {
-            if (specialElements.getType() == GameElements.GameElementType.CLOCK)
-                // draw clock
-                drawCell(canvas, specialElements.getLocation(), clockCell);
-            else if (specialElements.getType() == GameElements.GameElementType.SHIELD)
-                // draw shield
-                drawCell(canvas, specialElements.getLocation(), shieldCell);
+    private void drawSpecialElement(Canvas canvas, FrameSnapshot snapshot) {
+        if (snapshot.specialType == GameElements.GameElementType.CLOCK.ordinal()) {
+            // draw clock
+            paint.setColor(Color.BLUE);
+            drawCell(canvas, snapshot.specialX, snapshot.specialY, clockCell);
+        } else if (snapshot.specialType == GameElements.GameElementType.SHIELD.ordinal()) {
+            // draw shield
+            paint.setColor(Color.CYAN);
+            drawCell(canvas, snapshot.specialX, snapshot.specialY, shieldCell);
+        } else if (snapshot.specialType == GameElements.GameElementType.REWIND.ordinal()) {
+            // draw rewind, no sprite for it
+            paint.setColor(Color.rgb(255, 152, 0));
+            drawCell(canvas, snapshot.specialX, snapshot.specialY, null);
         }
     }
 
-    private void drawSnake(Canvas canvas) {
-        if (snake.isUsingBitmaps()) {
-            for (Cell cell : snake.getCells())
-                if (snake.hasShield())
-                    drawCell(canvas, cell.getLocation(), snakeShieldedCell);
-                else
-                    drawCell(canvas, cell.getLocation(), snakeCell);
-        } else {
-            paint.setColor(Color.BLACK);
+    private void drawSnake(Canvas canvas, FrameSnapshot snapshot) {
+        // the sprite is picked once for the whole body
+        Bitmap sprite = null;
+        if (snapshot.usingBitmaps && spritesLoaded && quality.sprites)
+            sprite = snapshot.shielded ? snakeShieldedCell : snakeCell;
 
-            for (Cell cell : snake.getCells()) {
-                Point p = cell.getLocation();
+        snakeRenderer.draw(canvas, snapshot, sprite);
+    }
+
+    private void drawDanger(Canvas canvas, FrameSnapshot snapshot) {
+        paint.setColor(Color.argb(96, 204, 0, 0));
+
+        for (int i = 0; i < snapshot.dangerCount; i++)
+            canvas.drawCircle(cellsRadius + snapshot.dangerX[i] * cellsDiameter,
+                    cellsRadius + snapshot.dangerY[i] * cellsDiameter, cellsRadius, paint);
+    }
 
-                int x = cellsRadius + p.x * cellsDiameter;
-                int y = cellsRadius + p.y * cellsDiameter;
-                canvas.drawCircle(x, y, cellsRadius, paint);
+    /**
+     * Logs how long drawing long snakes takes with the batched renderer and with one draw call
+     * per cell, on a background thread.
+     */
+    public void startRenderBenchmark() {
+        new Thread("RenderBenchmark") {
+            @Override
+            public void run() {
+                Bitmap sprite = BitmapFactory.decodeResource(getResources(), R.drawable.sn);
+                SnakeRenderer renderer = new SnakeRenderer(BENCHMARK_CELL_DIAMETER);
+
+                renderer.benchmark(BENCHMARK_FIELD_WIDTH, BENCHMARK_FIELD_HEIGHT, null, BENCHMARK_FRAMES);
+                if (sprite != null)
+                    renderer.benchmark(BENCHMARK_FIELD_WIDTH, BENCHMARK_FIELD_HEIGHT, sprite, BENCHMARK_FRAMES);
             }
-        }
+        }.start();
     }
 
-    private void drawScore(Canvas canvas) {
-        String[] text;
-        if (snake.getSlowedTimeRemaining() == 0)
-            text = new String[]{"Best: " + highScore,
-                    "Score: " + snake.getScore()};
-        else
-            text = new String[]{"Best: " + highScore,
-                    "Score: " + snake.getScore(),
-                    "Clock: " + snake.getSlowedTimeRemaining()};
+    private void drawScore(Canvas canvas, FrameSnapshot snapshot) {
+        // the lines are rebuilt less often on slow devices, but at once when the game ends. Their
+        // age is a time, frames are only drawn when something moves
+        long now = System.nanoTime();
+        if (hudLines == null || now - hudBuiltNanos >= quality.hudRefreshNanos || snapshot.dead != hudDead) {
+            hudLines = getHudLines(snapshot);
+            hudBuiltNanos = now;
+            hudDead = snapshot.dead;
+        }
+        String[] text = hudLines;
 
         int textSize = 3 * cellsDiameter / 2;
         int leftPadding = cellsDiameter + textSize / 4;
@@ -515,7 +1555,7 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
         for (int i = 0; i < text.length; i++) {
             paint.setTextSize(textSize);
 
-            if (snake.isDead())
+            if (snapshot.dead)
                 paint.setColor(Color.YELLOW);
             else
                 paint.setColor(Color.rgb(0, 0, 0));
@@ -524,8 +1564,52 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Sw
         }
     }
 
-    private void drawGameOverMessage(Canvas canvas) {
-        String[] text = new String[]{"Game Over.", "Tap to restart."};
+    private static String[] getHudLines(FrameSnapshot snapshot) {
+        String[] text;
+        if (snapshot.slowedTimeRemaining == 0)
+            text = new String[]{"Best: " + snapshot.highScore,
+                    "Score: " + snapshot.score};
+        else
+            text = new String[]{"Best: " + snapshot.highScore,
+                    "Score: " + snapshot.score,
+                    "Clock: " + snapshot.slowedTimeRemaining};
+
+        if (snapshot.rewindCharges > 0) {
+            text = Arrays.copyOf(text, text.length + 1);
+            text[text.length - 1] = "Rewinds: " + snapshot.rewindCharges;
+        }
+
+        // how the running score compares to past games
+        if (snapshot.percentile >= 0 && !snapshot.dead) {
+            text = Arrays.copyOf(text, text.length + 1);
+            text[text.length - 1] = String.format(Locale.US, "Top %.0f%%", 100 - snapshot.percentile);
+        }
+
+        return text;
+    }
+
+    private void drawReplayPosition(Canvas canvas, FrameSnapshot snapshot) {
+        String[] text = new String[]{"Replay " + snapshot.replaySpeed + "x",
+                "Score: " + snapshot.score,
+                "Tick: " + snapshot.tick + "/" + snapshot.endTick};
+
+        int textSize = 3 * cellsDiameter / 2;
+        int leftPadding = cellsDiameter + textSize / 4;
+        int topPadding = cellsDiameter;
+
+        paint.setTextSize(textSize);
+        paint.setColor(snapshot.dead ? Color.YELLOW : Color.rgb(0, 0, 0));
+        for (int i = 0; i < text.length; i++)
+            canvas.drawText(text[i], leftPadding, topPadding + (i + 1) * textSize, paint);
+    }
+
+    private void drawGameOverMessage(Canvas canvas, FrameSnapshot snapshot) {
+        String[] text;
+        if (snapshot.percentile < 0)
+            text = new String[]{"Game Over.", "Tap to restart."};
+        else
+            text = new String[]{"Game Over.", "Rank: " + snapshot.rank,
+                    String.format(Locale.US, "Beat %.1f%% of games.", snapshot.percentile), "Tap to restart."};
 
         int textSize = 3 * cellsDiameter / 2;
         int leftPadding = cellsDiameter + textSize / 4;
@@ -0,0 +1,66 @@
+package com.snakegame.logic;
+
+import java.util.Random;
+
+/**
+ * Random generator producing exactly the sequence of {@link Random}, whose state can be read
+ * so that searches can copy a game and carry on its randomness.
+ */
+public class GameRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // not initialized here: Random's constructor sets it through setSeed before field initializers run
+    private long state;
+
+    public GameRandom() {
+        super();
+    }
+
+    public GameRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        state = initialState(seed);
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = nextState(state);
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Returns the internal 48 bit state.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Puts the generator back in a state returned by {@link #getState()}.
+     */
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+
+    /**
+     * Returns the state {@link Random} starts from with the given seed.
+     */
+    public static long initialState(long seed) {
+        return (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * Advances a 48 bit state the way {@link Random} does.
+     */
+    public static long nextState(long state) {
+        return (state * MULTIPLIER + ADDEND) & MASK;
+    }
+}
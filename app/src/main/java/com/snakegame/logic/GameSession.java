@@ -0,0 +1,243 @@
+package com.snakegame.logic;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lifecycle of the game, owned by the game thread.
+ * <p>
+ * Other threads never touch game state: they post commands, which the game thread runs
+ * between two updates. Posting never blocks, and commands posted while no game thread runs
+ * wait for the next one. Lifecycle requests are commands too, so that every state change
+ * happens on the game thread:
+ *
+ * <pre>
+ * DESTROYED  -- start -->    RESTARTING -> RUNNING, or PAUSED if a pause was requested
+ * RUNNING    -- game over -> DEAD
+ * RUNNING    -- restart -->  RESTARTING -> RUNNING
+ * DEAD       -- restart -->  RESTARTING -> RUNNING
+ * RUNNING    -- pause -->    PAUSED     -- resume --> the state it was paused in
+ * DEAD       -- pause -->    PAUSED     -- resume --> the state it was paused in
+ * any        -- destroy -->  DESTROYED
+ * </pre>
+ */
+public class GameSession {
+    private static final String TAG = GameSession.class.getSimpleName();
+
+    public enum State {
+        RUNNING, PAUSED, DEAD, RESTARTING, DESTROYED
+    }
+
+    /**
+     * Game side of the session, called on the game thread.
+     */
+    public interface Game {
+        /**
+         * Starts a new game, creating it on the first call.
+         */
+        void restart();
+
+        /**
+         * Returns true once the game over has been dealt with.
+         */
+        boolean isGameOver();
+
+        /**
+         * Returns true if nothing on screen changes until a command arrives.
+         */
+        boolean isIdle();
+    }
+
+    private final Game game;
+    private final Object lock;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+    private volatile State state = State.DESTROYED;
+
+    // game thread only
+    private State pausedState = State.RUNNING;
+    private boolean pauseRequested;
+
+    private volatile Thread gameThread;
+
+    /**
+     * Creates a destroyed session, commands run under the given lock.
+     */
+    public GameSession(Game game, Object lock) {
+        this.game = game;
+        this.lock = lock;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Runs the command on the game thread before its next update. Any thread.
+     */
+    public void post(Runnable command) {
+        commands.add(command);
+        wakeUp();
+    }
+
+    /**
+     * Starts a new game once the next game thread begins.
+     */
+    public void start() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.DESTROYED)
+                    return;
+
+                restartGame();
+                if (pauseRequested)
+                    pause();
+            }
+        });
+    }
+
+    public void pause() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                pauseRequested = true;
+
+                if (state == State.RUNNING || state == State.DEAD) {
+                    pausedState = state;
+                    setState(State.PAUSED);
+                }
+            }
+        });
+    }
+
+    public void resume() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                pauseRequested = false;
+
+                if (state == State.PAUSED)
+                    setState(pausedState);
+            }
+        });
+    }
+
+    /**
+     * Starts a new game, a paused session stays paused and resumes into the new game.
+     */
+    public void restart() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                switch (state) {
+                    case RUNNING:
+                    case DEAD:
+                        restartGame();
+                        break;
+                    case PAUSED:
+                        game.restart();
+                        pausedState = State.RUNNING;
+                        break;
+                    default:
+                        // a destroyed session starts a new game anyway
+                        break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells the game thread to stop, it leaves once the commands posted before are done.
+     */
+    public void destroy() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                setState(State.DESTROYED);
+            }
+        });
+    }
+
+    /**
+     * Wakes the game thread up if it is parked.
+     */
+    public void wakeUp() {
+        Thread thread = gameThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Makes the calling thread the game thread.
+     */
+    void attach(Thread thread) {
+        gameThread = thread;
+    }
+
+    void detach() {
+        gameThread = null;
+    }
+
+    /**
+     * Runs the commands posted so far. Game thread only, returns false once destroyed.
+     */
+    boolean runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            State previousState = state;
+            synchronized (lock) {
+                command.run();
+            }
+
+            // the commands posted after a destroy are left to the next game thread
+            if (state == State.DESTROYED && previousState != State.DESTROYED)
+                return false;
+        }
+
+        return state != State.DESTROYED;
+    }
+
+    /**
+     * Returns true if commands wait to be run.
+     */
+    boolean hasCommands() {
+        return !commands.isEmpty();
+    }
+
+    /**
+     * Moves to DEAD once the game over is dealt with. Game thread only.
+     */
+    void checkGameOver() {
+        if (state == State.RUNNING && game.isGameOver())
+            setState(State.DEAD);
+    }
+
+    /**
+     * Returns true if the game loop has nothing to do until a command arrives.
+     */
+    boolean isParked() {
+        return state == State.PAUSED || game.isIdle();
+    }
+
+    /**
+     * Parks the game thread until a command arrives. Game thread only.
+     */
+    void park() {
+        while (commands.isEmpty() && isParked())
+            LockSupport.park(this);
+    }
+
+    private void restartGame() {
+        setState(State.RESTARTING);
+        game.restart();
+        setState(State.RUNNING);
+    }
+
+    private void setState(State newState) {
+        Log.d(TAG, state + " -> " + newState);
+        state = newState;
+    }
+}
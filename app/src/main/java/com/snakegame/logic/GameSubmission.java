@@ -0,0 +1,160 @@
+package com.snakegame.logic;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A finished game as submitted for a score: the board, seed, item weights and input log that
+ * reproduce it, and the score and final tick it claims. The item weights are identified by
+ * {@link GameEngine#getItemWeightsHash()}, a verifier needs the same weights to replay the game.
+ */
+public class GameSubmission {
+    // input spending a rewind charge, logged after the direction ordinals
+    public static final int REWIND_INPUT = Direction.values().length;
+
+    // refuse absurdly long input logs when reading untrusted submissions
+    private static final int MAX_INPUTS = 1 << 20;
+
+    // a day of play, no verifier should re-simulate more than that
+    private static final int MAX_END_TICK = 24 * 60 * 60 * GameEngine.TICKS_PER_SECOND;
+
+    private final long seed;
+    private final long itemWeightsHash;
+    private final Level level;
+    private final Topology topology;
+    private final int[] inputTicks;
+    private final byte[] inputDirections;
+    private final int score;
+    private final int endTick;
+
+    public GameSubmission(long seed, long itemWeightsHash, Level level, Topology topology, int[] inputTicks,
+                          byte[] inputDirections, int score, int endTick) {
+        this.seed = seed;
+        this.itemWeightsHash = itemWeightsHash;
+        this.level = level;
+        this.topology = topology;
+        this.inputTicks = inputTicks;
+        this.inputDirections = inputDirections;
+        this.score = score;
+        this.endTick = endTick;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getItemWeightsHash() {
+        return itemWeightsHash;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    public int getFieldWidth() {
+        return level.getWidth();
+    }
+
+    public int getFieldHeight() {
+        return level.getHeight();
+    }
+
+    public int getInputCount() {
+        return inputTicks.length;
+    }
+
+    public int getInputTick(int i) {
+        return inputTicks[i];
+    }
+
+    public int getInputDirection(int i) {
+        return inputDirections[i];
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getEndTick() {
+        return endTick;
+    }
+
+    /**
+     * Returns false if the submission could not come from a real game, so that verifiers
+     * reject it without re-simulating it. On a bordered board the game can't go on for longer
+     * than it takes the snake, at its slowest, to cross every cell of the field between two
+     * inputs. On boards that wrap around the snake can circle without input for as long as the
+     * longest game lasts.
+     */
+    public boolean isWithinLimits() {
+        int fieldWidth = level.getWidth(), fieldHeight = level.getHeight();
+        if (!Level.isValidSize(fieldWidth, fieldHeight))
+            return false;
+        if (topology.getWidth() != fieldWidth || topology.getHeight() != fieldHeight)
+            return false;
+        if (inputTicks.length > MAX_INPUTS || inputDirections.length != inputTicks.length)
+            return false;
+        if (score < 0 || endTick < 0 || endTick > MAX_END_TICK)
+            return false;
+
+        if (topology.getType() != Topology.Type.BORDERED)
+            return true;
+
+        long maxTicksPerInput = (long) fieldWidth * fieldHeight * (Snake.SLOWED_TIME_MOVE_DELAY + 1);
+        return endTick <= (inputTicks.length + 1) * maxTicksPerInput;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(seed);
+        out.writeLong(itemWeightsHash);
+        out.writeShort(level.getWidth());
+        out.writeShort(level.getHeight());
+        topology.writeTo(out);
+        level.writeTo(out);
+        out.writeInt(score);
+        out.writeInt(endTick);
+
+        out.writeInt(inputTicks.length);
+        for (int i = 0; i < inputTicks.length; i++) {
+            out.writeInt(inputTicks[i]);
+            out.writeByte(inputDirections[i]);
+        }
+    }
+
+    public static GameSubmission readFrom(DataInputStream in) throws IOException {
+        long seed = in.readLong();
+        long itemWeightsHash = in.readLong();
+        int fieldWidth = in.readShort();
+        int fieldHeight = in.readShort();
+        if (!Level.isValidSize(fieldWidth, fieldHeight))
+            throw new IOException("Invalid field size " + fieldWidth + "x" + fieldHeight);
+
+        Topology topology = Topology.readFrom(in, fieldWidth, fieldHeight);
+        Level level = Level.readFrom(in, fieldWidth, fieldHeight);
+        int score = in.readInt();
+        int endTick = in.readInt();
+
+        int count = in.readInt();
+        if (count < 0 || count > MAX_INPUTS)
+            throw new IOException("Invalid input count " + count);
+
+        int[] inputTicks = new int[count];
+        byte[] inputDirections = new byte[count];
+        for (int i = 0; i < count; i++) {
+            inputTicks[i] = in.readInt();
+            inputDirections[i] = in.readByte();
+        }
+
+        GameSubmission submission = new GameSubmission(seed, itemWeightsHash, level, topology, inputTicks,
+                inputDirections, score, endTick);
+        if (!submission.isWithinLimits())
+            throw new IOException("Submission out of limits");
+
+        return submission;
+    }
+}
@@ -0,0 +1,156 @@
+package com.snakegame.logic;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named trace sections around the game loop phases.
+ * Sections go to the system trace (Perfetto / systrace) once the app installs it and, while
+ * recording, to an in-memory buffer that can be written as a Chrome trace-event JSON file for
+ * runs without a device. Nothing here depends on Android, so the engine can be traced on a
+ * plain JVM.
+ */
+public class GameTrace {
+    // maximum number of events kept while recording, later ones are dropped
+    private static final int MAX_EVENTS = 1 << 18;
+
+    /**
+     * Receiver of the sections outside the process, android.os.Trace on a device.
+     */
+    public interface SystemTrace {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    // null when there is no system trace, e.g. on a plain JVM
+    private static volatile SystemTrace systemTrace;
+
+    // recorded events, preallocated when recording starts
+    private static volatile boolean recording;
+    private static String[] names;
+    private static boolean[] begins;
+    private static long[] timestamps;
+    private static long[] threadIds;
+    // events seen since recording started, dropped ones included, a long so that long runs
+    // don't overflow it
+    private static final AtomicLong eventCount = new AtomicLong();
+    private static long recordingBeginTime;
+
+    public static void setSystemTrace(SystemTrace trace) {
+        systemTrace = trace;
+    }
+
+    public static void beginSection(String name) {
+        SystemTrace trace = systemTrace;
+        if (trace != null)
+            trace.beginSection(name);
+
+        if (recording)
+            record(name, true);
+    }
+
+    public static void endSection() {
+        if (recording)
+            record(null, false);
+
+        SystemTrace trace = systemTrace;
+        if (trace != null)
+            trace.endSection();
+    }
+
+    /**
+     * Starts recording sections in memory, discarding any previous recording.
+     */
+    public static synchronized void startRecording() {
+        if (names == null) {
+            names = new String[MAX_EVENTS];
+            begins = new boolean[MAX_EVENTS];
+            timestamps = new long[MAX_EVENTS];
+            threadIds = new long[MAX_EVENTS];
+        }
+
+        eventCount.set(0);
+        recordingBeginTime = System.nanoTime();
+        recording = true;
+    }
+
+    public static synchronized void stopRecording() {
+        recording = false;
+    }
+
+    private static void record(String name, boolean begin) {
+        long event = eventCount.getAndIncrement();
+
+        if (event >= MAX_EVENTS)
+            return;
+
+        int i = (int) event;
+        names[i] = name;
+        begins[i] = begin;
+        timestamps[i] = System.nanoTime();
+        threadIds[i] = Thread.currentThread().getId();
+    }
+
+    /**
+     * Returns the number of events of the last recording that did not fit in the buffer.
+     */
+    public static long getDroppedEventCount() {
+        return Math.max(eventCount.get() - MAX_EVENTS, 0);
+    }
+
+    /**
+     * Stops recording and writes the recorded sections as Chrome trace-event JSON,
+     * which can be opened in ui.perfetto.dev or chrome://tracing.
+     * Ends of sections begun before the recording started are left out.
+     * Returns the number of events written, see {@link #getDroppedEventCount()} for the others.
+     */
+    public static synchronized int writeChromeTrace(File file) throws IOException {
+        stopRecording();
+
+        int count = (int) Math.min(eventCount.get(), MAX_EVENTS);
+        int written = 0;
+
+        // sections open on each thread
+        HashMap<Long, Integer> depths = new HashMap<Long, Integer>();
+
+        try (Writer out = new BufferedWriter(new FileWriter(file))) {
+            out.write("{\"traceEvents\":[\n");
+
+            for (int i = 0; i < count; i++) {
+                Integer depth = depths.get(threadIds[i]);
+                if (depth == null)
+                    depth = 0;
+
+                if (!begins[i] && depth == 0)
+                    continue;
+                depths.put(threadIds[i], begins[i] ? depth + 1 : depth - 1);
+
+                if (written++ > 0)
+                    out.write(",\n");
+
+                out.write("{\"ph\":\"");
+                out.write(begins[i] ? "B" : "E");
+                out.write("\",\"pid\":1,\"tid\":");
+                out.write(Long.toString(threadIds[i]));
+                out.write(",\"ts\":");
+                out.write(Long.toString((timestamps[i] - recordingBeginTime) / 1000));
+                if (begins[i]) {
+                    out.write(",\"name\":\"");
+                    out.write(names[i]);
+                    out.write("\"");
+                }
+                out.write("}");
+            }
+
+            out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        }
+
+        return written;
+    }
+}
@@ -1,14 +1,10 @@
 package com.snakegame.logic;
 
-import android.graphics.Color;
-import android.graphics.Point;
-import android.util.Log;
-
 public class GreenSuperFood extends Food{
     private static final int SCORE = 10;
 
-    public GreenSuperFood(Point fieldDimensions, Snake snake, int radius) {
-        super(fieldDimensions, snake, radius, SCORE, Color.GREEN);
-        Log.v("GreenSuperFood", "Green Super Food created");
+    public GreenSuperFood(Snake snake, int radius) {
+        super(snake, radius, SCORE, 0xFF00FF00);
+        log.v("GreenSuperFood", "Green Super Food created");
     }
 }
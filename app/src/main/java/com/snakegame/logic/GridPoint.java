@@ -0,0 +1,53 @@
+package com.snakegame.logic;
+
+/**
+ * Cell coordinates on the board. Stands in for android.graphics.Point so that the engine
+ * runs on a plain JVM.
+ */
+public class GridPoint {
+    public int x;
+    public int y;
+
+    public GridPoint() {
+    }
+
+    public GridPoint(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public GridPoint(GridPoint point) {
+        x = point.x;
+        y = point.y;
+    }
+
+    public void set(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public final boolean equals(int x, int y) {
+        return this.x == x && this.y == y;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof GridPoint))
+            return false;
+
+        GridPoint point = (GridPoint) o;
+        return x == point.x && y == point.y;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * x + y;
+    }
+
+    @Override
+    public String toString() {
+        return "GridPoint(" + x + ", " + y + ")";
+    }
+}
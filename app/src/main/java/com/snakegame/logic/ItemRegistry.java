@@ -0,0 +1,147 @@
+package com.snakegame.logic;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Registry of spawnable game elements and their spawn weights.
+ * Items are registered by name with a default weight that can be overridden from a config,
+ * picking one is a constant time alias table lookup.
+ *
+ * @param <T> type of the registered elements
+ */
+public class ItemRegistry<T extends GameElements> {
+    private static final String TAG = ItemRegistry.class.getSimpleName();
+
+    // prefix of the config keys of this registry, e.g. "food."
+    private final String configPrefix;
+    private final GameLog log;
+
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final ArrayList<T> items = new ArrayList<T>();
+    private final ArrayList<Double> weights = new ArrayList<Double>();
+
+    private AliasTable aliasTable;
+
+    public ItemRegistry(String configPrefix, GameLog log) {
+        this.configPrefix = configPrefix;
+        this.log = log;
+    }
+
+    /**
+     * Registers an item. A null item stands for "spawn nothing".
+     */
+    public void register(String name, T item, double defaultWeight) {
+        names.add(name);
+        items.add(item);
+        weights.add(defaultWeight);
+
+        // rebuilt on the next pick
+        aliasTable = null;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Returns the i-th registered item, null for "spawn nothing".
+     */
+    public T getItem(int i) {
+        return items.get(i);
+    }
+
+    /**
+     * Returns the index of the given item, null included, -1 if it is not registered.
+     */
+    public int indexOf(T item) {
+        for (int i = 0; i < items.size(); i++)
+            if (items.get(i) == item)
+                return i;
+        return -1;
+    }
+
+    public double getWeight(int i) {
+        return weights.get(i);
+    }
+
+    /**
+     * Overrides the weights of the registered items with the ones found in the config.
+     * Weights that are not finite non negative numbers are ignored, and so is the whole config
+     * if it would leave every weight at zero, so that picking never fails mid-game.
+     */
+    public void loadWeights(Properties config) {
+        ArrayList<Double> loaded = new ArrayList<Double>(weights);
+
+        for (int i = 0; i < names.size(); i++) {
+            String value = config.getProperty(configPrefix + names.get(i));
+
+            if (value == null)
+                continue;
+
+            try {
+                double weight = Double.parseDouble(value.trim());
+                if (weight >= 0 && !Double.isInfinite(weight))
+                    loaded.set(i, weight);
+                else
+                    log.w(TAG, "Invalid weight for " + configPrefix + names.get(i) + ": " + value);
+            } catch (NumberFormatException e) {
+                log.w(TAG, "Invalid weight for " + configPrefix + names.get(i) + ": " + value);
+            }
+        }
+
+        double sum = 0;
+        for (double weight : loaded)
+            sum += weight;
+
+        if (sum > 0) {
+            weights.clear();
+            weights.addAll(loaded);
+        } else {
+            log.w(TAG, "No positive " + configPrefix + "weight, keeping the previous weights");
+        }
+
+        aliasTable = null;
+    }
+
+    /**
+     * Mixes the config keys and weights of the registered items into the given hash, so that
+     * games played with different weights can be told apart.
+     */
+    public long hashWeights(long hash) {
+        for (int i = 0; i < names.size(); i++) {
+            hash = mix(hash, (configPrefix + names.get(i)).hashCode());
+            hash = mix(hash, Double.doubleToLongBits(weights.get(i)));
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        // SplitMix64 finalizer over the running hash
+        long z = (hash ^ value) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Picks a random item according to the weights, null if "nothing" was picked.
+     */
+    public T pick(Random random) {
+        if (aliasTable == null)
+            buildAliasTable();
+
+        return items.get(aliasTable.sample(random));
+    }
+
+    private void buildAliasTable() {
+        double[] w = new double[weights.size()];
+        for (int i = 0; i < w.length; i++)
+            w[i] = weights.get(i);
+
+        aliasTable = new AliasTable(w);
+
+        log.d(TAG, "Built alias table for " + w.length + " " + configPrefix + " items");
+    }
+}
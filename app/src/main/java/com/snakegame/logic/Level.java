@@ -0,0 +1,227 @@
+package com.snakegame.logic;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Obstacle grid of a board, one bit per cell.
+ * <p>
+ * Level files hold a header (magic int, version byte, width int, height int) followed by the
+ * grid, row by row, cell (x, y) being bit (y * width + x) % 8 of byte (y * width + x) / 8.
+ * Files are memory mapped instead of read, so opening a level costs the same whatever its size
+ * and lookups go straight to the mapped pages. The cells where the snake starts must be free.
+ * Cells are numbered with ints, y * width + x, so a level holds at most {@link #MAX_CELLS}, and
+ * no side is longer than {@link #MAX_SIZE}.
+ */
+public class Level {
+    public static final int MAGIC = 0x534E4B4C; // "SNKL"
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 13;
+
+    // Topology keeps an int per cell and direction
+    public static final int MAX_CELLS = Integer.MAX_VALUE / 4;
+
+    // replays and submissions store sizes and coordinates in shorts
+    public static final int MAX_SIZE = Short.MAX_VALUE;
+
+    private final int width, height;
+
+    // obstacle bits, mapped from a level file or allocated for generated levels
+    private final ByteBuffer bits;
+
+    private Level(int width, int height, ByteBuffer bits) {
+        this.width = width;
+        this.height = height;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates an empty level that can be edited with {@link #setBlocked(int, int, boolean)}.
+     */
+    public static Level create(int width, int height) {
+        if (!isValidSize(width, height))
+            throw new IllegalArgumentException("Invalid level size " + width + "x" + height);
+
+        return new Level(width, height, ByteBuffer.allocate(getGridSize(width, height)));
+    }
+
+    /**
+     * Creates the classic level: a border of walls around an empty board.
+     */
+    public static Level bordered(int width, int height) {
+        Level level = create(width, height);
+
+        for (int x = 0; x < width; x++) {
+            level.setBlocked(x, 0, true);
+            level.setBlocked(x, height - 1, true);
+        }
+        for (int y = 0; y < height; y++) {
+            level.setBlocked(0, y, true);
+            level.setBlocked(width - 1, y, true);
+        }
+
+        return level;
+    }
+
+    /**
+     * Maps a level file read only.
+     */
+    public static Level map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // the mapping stays valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+                throw new IOException("Not a level file: " + file);
+            if (buffer.get(4) != VERSION)
+                throw new IOException("Unsupported level version: " + file);
+
+            int width = buffer.getInt(5);
+            int height = buffer.getInt(9);
+            if (!isValidSize(width, height))
+                throw new IOException("Invalid level size " + width + "x" + height + ": " + file);
+            if (buffer.capacity() - HEADER_SIZE < getGridSize(width, height))
+                throw new IOException("Truncated level file: " + file);
+
+            buffer.position(HEADER_SIZE);
+            Level level = new Level(width, height, buffer.slice());
+            if (!level.isStartFree())
+                throw new IOException("Snake start cells blocked: " + file);
+            return level;
+        }
+    }
+
+    /**
+     * Writes the level to a file that can be mapped back with {@link #map(File)}.
+     */
+    public void save(File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.put((byte) VERSION);
+        header.putInt(width);
+        header.putInt(height);
+        header.flip();
+
+        try (FileOutputStream out = new FileOutputStream(file);
+             FileChannel channel = out.getChannel()) {
+            channel.write(header);
+
+            ByteBuffer grid = bits.duplicate();
+            grid.clear();
+            while (grid.hasRemaining())
+                channel.write(grid);
+        }
+    }
+
+    /**
+     * Writes the grid alone, the size is left to the caller.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        for (int i = 0, size = getGridSize(width, height); i < size; i++)
+            out.writeByte(bits.get(i));
+    }
+
+    /**
+     * Reads a grid written by {@link #writeTo(DataOutput)} for a board of the given size.
+     */
+    public static Level readFrom(DataInput in, int width, int height) throws IOException {
+        if (!isValidSize(width, height))
+            throw new IOException("Invalid level size " + width + "x" + height);
+
+        byte[] grid = new byte[getGridSize(width, height)];
+        in.readFully(grid);
+        Level level = new Level(width, height, ByteBuffer.wrap(grid));
+        if (!level.isStartFree())
+            throw new IOException("Snake start cells blocked");
+        return level;
+    }
+
+    /**
+     * Returns true if the cells the snake starts on are on the board and free.
+     */
+    public boolean isStartFree() {
+        for (int x = 1; x <= Snake.INITIAL_LENGTH; x++)
+            if (isBlocked(x, Snake.START_ROW))
+                return false;
+        return true;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns true if the cell holds an obstacle. Cells outside the board count as blocked.
+     */
+    public boolean isBlocked(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return true;
+
+        return isBlocked((long) y * width + x);
+    }
+
+    /**
+     * Returns true if the cell, numbered y * width + x, holds an obstacle.
+     */
+    public boolean isBlocked(long cell) {
+        return (bits.get((int) (cell >>> 3)) & (1 << (cell & 7))) != 0;
+    }
+
+    public void setBlocked(int x, int y, boolean blocked) {
+        long cell = (long) y * width + x;
+        int index = (int) (cell >>> 3);
+        int mask = 1 << (cell & 7);
+
+        bits.put(index, (byte) (blocked ? bits.get(index) | mask : bits.get(index) & ~mask));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Level))
+            return false;
+
+        Level level = (Level) o;
+        if (width != level.width || height != level.height)
+            return false;
+
+        for (int i = 0, size = getGridSize(width, height); i < size; i++)
+            if (bits.get(i) != level.bits.get(i))
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * width + height;
+        for (int i = 0, size = getGridSize(width, height); i < size; i++)
+            hash = 31 * hash + bits.get(i);
+        return hash;
+    }
+
+    /**
+     * Returns true if a board of the given size has room for the snake, its sides fit in
+     * {@link #MAX_SIZE} and it numbers its cells with ints.
+     */
+    public static boolean isValidSize(int width, int height) {
+        return width > Snake.INITIAL_LENGTH && height > Snake.START_ROW
+                && width <= MAX_SIZE && height <= MAX_SIZE && (long) width * height <= MAX_CELLS;
+    }
+
+    private static int getGridSize(int width, int height) {
+        return (int) (((long) width * height + 7) >>> 3);
+    }
+}
@@ -1,14 +1,18 @@
 package com.snakegame.logic;
 
-import android.graphics.Canvas;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
+import com.snakegame.metrics.GameMetrics;
+
+import java.util.concurrent.locks.LockSupport;
+
 public class MainThread extends Thread {
     private static final String TAG = MainThread.class.getSimpleName();
 
-    // desired fps
-    private final static int FPS = 30;
+    // desired fps, one frame per game tick
+    private final static int FPS = GameEngine.TICKS_PER_SECOND;
 
     public static int getFps() {
         return FPS;
@@ -26,90 +30,177 @@ public class MainThread extends Thread {
     // The actual view that handles inputs and draws to the surface
     private GamePanel gamePanel;
 
-    // Flag to hold game state
-    private static boolean running;
+    // draws the snapshots published by this thread
+    private final RenderThread renderThread;
 
-    public static void setRunning(boolean running) {
-        MainThread.running = running;
-    }
+    // lifecycle and the commands other threads send to the game
+    private final GameSession session;
+
+    // interval used to report frames rendered and wakeups
+    private final static long STATS_PERIOD = 60 * 1000;
+
+    // snapshots published and wakeups since the last stats report
+    private int framesPublished;
+    private int wakeups;
 
-    public MainThread(SurfaceHolder surfaceHolder, GamePanel gamePanel) {
-        super();
+    public MainThread(SurfaceHolder surfaceHolder, GamePanel gamePanel, RenderThread renderThread, GameSession session) {
+        super("MainThread");
         this.surfaceHolder = surfaceHolder;
         this.gamePanel = gamePanel;
-        running = true;
+        this.renderThread = renderThread;
+        this.session = session;
     }
 
     @Override
     public void run() {
         Log.d(TAG, "Starting game loop");
-        Canvas canvas;
 
-        // the time when the cycle begun
-        long beginTime;
+        session.attach(this);
+        renderThread.start();
 
-        // the time it took for the cycle to execute
-        long timeDiff;
+        // the time the next game tick is due
+        long nextTickTime = SystemClock.uptimeMillis();
+
+        // the time the current stats period begun
+        long statsBeginTime = nextTickTime;
 
         // ms to sleep (< 0 if we're behind)
-        int sleepTime;
+        long sleepTime;
 
         // number of frames being skipped
         int framesSkipped;
 
-        while (running) {
-            canvas = null;
+        // number of ticks until something visible changes
+        int ticks;
+
+        // commands are run between frames, the loop ends once the session is destroyed
+        while (session.runCommands()) {
+            GameTrace.beginSection("MainThread.frame");
 
-            // try locking the canvas for exclusive pixel editing in the surface
-            try {
-                canvas = this.surfaceHolder.lockCanvas();
+            // hand the state over to the render thread
+            long frameBeginTime = System.nanoTime();
+            publishFrame();
+            long publishTime = System.nanoTime() - frameBeginTime;
 
-                synchronized (surfaceHolder) {
-                    beginTime = System.currentTimeMillis();
+            // paused, or nothing will change until the player taps: park until a command arrives
+            if (session.isParked()) {
+                Log.d(TAG, "Game loop parked in " + session.getState());
+                GameTrace.endSection();
+                session.park();
+                wakeups++;
 
-                    // reset the frames skipped
-                    framesSkipped = 0;
+                nextTickTime = SystemClock.uptimeMillis();
+                continue;
+            }
 
-                    // update game state
+            // sleep until the tick that changes something on screen
+            ticks = gamePanel.getTicksUntilNextChange();
+            nextTickTime += ticks * FRAME_PERIOD;
+            sleepTime = nextTickTime - SystemClock.uptimeMillis();
+
+            if (sleepTime > 0 && !sleepUntil(nextTickTime)) {
+                GameTrace.endSection();
+                break;
+            }
+            wakeups++;
+
+            // a command paused the game while the loop slept
+            if (session.isParked()) {
+                GameTrace.endSection();
+                continue;
+            }
+
+            // reset the frames skipped
+            framesSkipped = 0;
+
+            GameTrace.beginSection("MainThread.update");
+            long updateBeginTime = System.nanoTime();
+            synchronized (surfaceHolder) {
+                // update game state up to the tick that changes the screen
+                for (int i = 0; i < ticks; i++)
                     this.gamePanel.update();
 
-                    // render state to the screen: draws the canvas on the panel
-                    this.gamePanel.render(canvas);
-
-                    // calculate how long did the cycle take
-                    timeDiff = System.currentTimeMillis() - beginTime;
-
-                    // calculate sleep time
-                    sleepTime = (int) (FRAME_PERIOD - timeDiff);
-
-                    if (sleepTime > 0) {
-                        // if sleepTime > 0 we're OK
-                        try {
-                            // send the thread to sleep for a short period: very useful for battery saving
-                            Thread.sleep(sleepTime);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    // we need to catch up
-                    while (sleepTime < 0 && framesSkipped < MAX_FRAME_SKIPS) {
-                        // update without rendering
-                        this.gamePanel.update();
-
-                        // add frame period to check if in next frame
-                        sleepTime += FRAME_PERIOD;
-                        framesSkipped++;
-                    }
-
-                    if (framesSkipped > 0)
-                        Log.v(TAG, "Skipped " + framesSkipped + "frames");
+                // we need to catch up
+                while (sleepTime < -FRAME_PERIOD && framesSkipped < MAX_FRAME_SKIPS) {
+                    // update without rendering
+                    this.gamePanel.update();
+
+                    // add frame period to check if in next frame
+                    sleepTime += FRAME_PERIOD;
+                    nextTickTime += FRAME_PERIOD;
+                    framesSkipped++;
                 }
-            } finally {
-                // in case of an exception the surface is not left in an inconsistent state
-                if (canvas != null)
-                    surfaceHolder.unlockCanvasAndPost(canvas);
             }
+            GameTrace.endSection();
+
+            // the game over is dealt with by the last update
+            session.checkGameOver();
+
+            GameMetrics.FRAME_SECONDS.observeNanos(publishTime + System.nanoTime() - updateBeginTime);
+            GameMetrics.TICKS.add(ticks + framesSkipped);
+
+            if (framesSkipped > 0) {
+                Log.v(TAG, "Skipped " + framesSkipped + " frames");
+                GameMetrics.SKIPPED_FRAMES.add(framesSkipped);
+                gamePanel.getRenderGovernor().onFramesSkipped(framesSkipped);
+            }
+
+            // give up on ticks that cannot be caught up anymore
+            if (sleepTime < -FRAME_PERIOD)
+                nextTickTime = SystemClock.uptimeMillis();
+
+            // report how much work the loop did in the last period
+            if (SystemClock.uptimeMillis() - statsBeginTime >= STATS_PERIOD) {
+                Log.i(TAG, "Published " + framesPublished + " frames with " + wakeups + " wakeups in the last minute");
+
+                statsBeginTime = SystemClock.uptimeMillis();
+                framesPublished = 0;
+                wakeups = 0;
+            }
+
+            GameTrace.endSection();
+        }
+
+        session.detach();
+
+        // the renderer may be parked waiting for a snapshot
+        renderThread.quit();
+
+        Log.d(TAG, "Game loop stopped");
+    }
+
+    /**
+     * Sleeps until the given uptime, running the commands that arrive in the meantime.
+     * Returns false if one of them destroyed the session.
+     */
+    private boolean sleepUntil(long time) {
+        GameTrace.beginSection("MainThread.sleep");
+        try {
+            long sleepTime;
+            while ((sleepTime = time - SystemClock.uptimeMillis()) > 0) {
+                // battery friendly, and woken up early by posted commands
+                LockSupport.parkNanos(this, sleepTime * 1000000);
+
+                if (session.hasCommands() && !session.runCommands())
+                    return false;
+            }
+            return true;
+        } finally {
+            GameTrace.endSection();
         }
     }
+
+    private void publishFrame() {
+        FrameSnapshot snapshot = renderThread.getBackSnapshot();
+
+        // copy the state while input can't change it, drawing happens on the render thread
+        GameTrace.beginSection("MainThread.captureSnapshot");
+        synchronized (surfaceHolder) {
+            this.gamePanel.captureSnapshot(snapshot);
+        }
+        GameTrace.endSection();
+
+        renderThread.publish();
+        framesPublished++;
+    }
 }
@@ -0,0 +1,356 @@
+package com.snakegame.logic;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Connected regions of free cells, kept up to date as the snake moves.
+ * <p>
+ * A freed cell joins the regions around it, the smaller ones being relabeled into the
+ * largest. A filled cell may split its region: searches run in lockstep from its free
+ * neighbors until they meet or one of them runs out of cells, so only the smaller side of
+ * a split is ever walked. This avoids flood filling the board on every move.
+ */
+public class Reachability {
+    private static final int BLOCKED = -1;
+    private static final int DIRECTIONS = Direction.values().length;
+    private static final Direction[] DIRECTION_VALUES = Direction.values();
+
+    private final Level level;
+    private final Topology topology;
+    private final int cellCount;
+
+    // region of each cell, BLOCKED for walls, portal ends and the snake
+    private final int[] regions;
+    private int[] sizes = new int[16];
+    private int[] freeRegions = new int[16];
+    private int freeRegionCount;
+    private int regionCount;
+    private int freeCells;
+
+    // search state, one queue per front
+    private final int[][] queues = new int[DIRECTIONS][];
+    private final int[] queueHeads = new int[DIRECTIONS], queueTails = new int[DIRECTIONS];
+    private final int[] fronts = new int[DIRECTIONS];
+    private final boolean[] finished = new boolean[DIRECTIONS];
+    private final int[] marks, owners;
+    private int mark;
+
+    // snake head the reachability queries start from
+    private int head = Topology.NO_CELL;
+
+    public Reachability(Level level, Topology topology) {
+        this.level = level;
+        this.topology = topology;
+        cellCount = topology.getCellCount();
+
+        // every cell is blocked until the first rebuild or release
+        regions = new int[cellCount];
+        Arrays.fill(regions, BLOCKED);
+        marks = new int[cellCount];
+        owners = new int[cellCount];
+        for (int i = 0; i < DIRECTIONS; i++)
+            queues[i] = new int[cellCount];
+    }
+
+    /**
+     * Recomputes all regions with a flood fill, e.g. when a game starts.
+     */
+    public void rebuild(Snake snake) {
+        regionCount = 0;
+        freeRegionCount = 0;
+        freeCells = 0;
+
+        for (int cell = 0; cell < cellCount; cell++) {
+            int x = topology.getX(cell), y = topology.getY(cell);
+            boolean blocked = level.isBlocked(cell) || topology.isPortal(cell) || snake.isOccupying(x, y);
+            regions[cell] = blocked ? BLOCKED : Integer.MAX_VALUE;
+        }
+
+        for (int cell = 0; cell < cellCount; cell++)
+            if (regions[cell] == Integer.MAX_VALUE) {
+                int region = newRegion();
+                sizes[region] = fill(cell, Integer.MAX_VALUE, region);
+                freeCells += sizes[region];
+            }
+
+        setHead(snake);
+    }
+
+    /**
+     * Applies the last snake move: the head cell is filled and the cell the tail left freed.
+     */
+    public void update(Snake snake) {
+        GridPoint tail = snake.getPreviousTail();
+        if (!snake.isOccupying(tail.x, tail.y))
+            release(topology.cell(tail.x, tail.y));
+
+        GridPoint p = snake.getHead().getLocation();
+        occupy(topology.cell(p.x, p.y));
+
+        head = topology.cell(p.x, p.y);
+    }
+
+    /**
+     * Marks a free cell as blocked, splitting its region if needed.
+     */
+    public void occupy(int cell) {
+        int region = regions[cell];
+        if (region == BLOCKED)
+            return;
+
+        regions[cell] = BLOCKED;
+        freeCells--;
+        if (--sizes[region] == 0) {
+            freeRegion(region);
+            return;
+        }
+
+        // start one search front from each free neighbor
+        mark++;
+        int frontCount = 0;
+        for (Direction direction : DIRECTION_VALUES) {
+            int neighbor = topology.neighbor(cell, direction);
+            if (neighbor == Topology.NO_CELL || regions[neighbor] != region || marks[neighbor] == mark)
+                continue;
+
+            marks[neighbor] = mark;
+            owners[neighbor] = frontCount;
+            queues[frontCount][0] = neighbor;
+            queueHeads[frontCount] = 0;
+            queueTails[frontCount] = 1;
+            fronts[frontCount] = frontCount;
+            finished[frontCount] = false;
+            frontCount++;
+        }
+
+        int groups = frontCount;
+        while (groups > 1) {
+            // expand every front by one cell, joining fronts that meet
+            for (int i = 0; i < frontCount; i++) {
+                if (queueHeads[i] == queueTails[i])
+                    continue;
+
+                int current = queues[i][queueHeads[i]++];
+                for (Direction direction : DIRECTION_VALUES) {
+                    int neighbor = topology.neighbor(current, direction);
+                    if (neighbor == Topology.NO_CELL || regions[neighbor] != region)
+                        continue;
+
+                    if (marks[neighbor] == mark) {
+                        int a = findFront(i), b = findFront(owners[neighbor]);
+                        if (a != b) {
+                            fronts[b] = a;
+                            groups--;
+                        }
+                    } else {
+                        marks[neighbor] = mark;
+                        owners[neighbor] = i;
+                        queues[i][queueTails[i]++] = neighbor;
+                    }
+                }
+            }
+
+            // a group that ran out of cells is a region of its own
+            for (int i = 0; i < frontCount && groups > 1; i++) {
+                int group = findFront(i);
+                if (group != i || finished[group] || !isExhausted(group, frontCount))
+                    continue;
+
+                finished[group] = true;
+                groups--;
+                splitOff(group, frontCount, region);
+            }
+        }
+    }
+
+    /**
+     * Marks a blocked cell as free, joining the regions around it.
+     */
+    public void release(int cell) {
+        if (regions[cell] != BLOCKED || level.isBlocked(cell) || topology.isPortal(cell))
+            return;
+
+        // keep the largest neighboring region, the others are relabeled into it
+        int kept = BLOCKED;
+        for (Direction direction : DIRECTION_VALUES) {
+            int neighbor = topology.neighbor(cell, direction);
+            if (neighbor != Topology.NO_CELL && regions[neighbor] != BLOCKED
+                    && (kept == BLOCKED || sizes[regions[neighbor]] > sizes[kept]))
+                kept = regions[neighbor];
+        }
+
+        if (kept == BLOCKED)
+            kept = newRegion();
+
+        regions[cell] = kept;
+        sizes[kept]++;
+        freeCells++;
+
+        for (Direction direction : DIRECTION_VALUES) {
+            int neighbor = topology.neighbor(cell, direction);
+            if (neighbor == Topology.NO_CELL)
+                continue;
+
+            int region = regions[neighbor];
+            if (region != BLOCKED && region != kept) {
+                sizes[kept] += fill(neighbor, region, kept);
+                freeRegion(region);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of free cells in the region of the given cell, 0 if it is blocked.
+     */
+    public int getRegionSize(int cell) {
+        return regions[cell] == BLOCKED ? 0 : sizes[regions[cell]];
+    }
+
+    /**
+     * Returns true if the snake head can reach the cell.
+     */
+    public boolean isReachable(int cell) {
+        int region = regions[cell];
+        if (region == BLOCKED || head == Topology.NO_CELL)
+            return false;
+
+        for (Direction direction : DIRECTION_VALUES) {
+            int neighbor = topology.neighbor(head, direction);
+            if (neighbor != Topology.NO_CELL && regions[neighbor] == region)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of free cells the snake head can reach.
+     */
+    public int getReachableArea() {
+        if (head == Topology.NO_CELL)
+            return 0;
+
+        int area = 0;
+        for (int d = 0; d < DIRECTIONS; d++) {
+            int region = getHeadRegion(d);
+            if (region != BLOCKED && isFirstHeadRegion(d, region))
+                area += sizes[region];
+        }
+        return area;
+    }
+
+    /**
+     * Returns a random cell the snake head can reach, each with the same probability,
+     * or {@link Topology#NO_CELL} if it can't reach any.
+     */
+    public int randomReachableCell(Random random) {
+        int area = getReachableArea();
+        if (area == 0)
+            return Topology.NO_CELL;
+
+        // rejection is cheap while the reachable cells are a good share of the board
+        if (area * 8 >= cellCount) {
+            int cell;
+            do {
+                cell = random.nextInt(cellCount);
+            } while (!isReachable(cell));
+            return cell;
+        }
+
+        int index = random.nextInt(area);
+        for (int cell = 0; cell < cellCount; cell++)
+            if (isReachable(cell) && index-- == 0)
+                return cell;
+
+        return Topology.NO_CELL;
+    }
+
+    public int getFreeCells() {
+        return freeCells;
+    }
+
+    private void setHead(Snake snake) {
+        GridPoint p = snake.getHead().getLocation();
+        head = topology.cell(p.x, p.y);
+    }
+
+    private int getHeadRegion(int d) {
+        int neighbor = topology.neighbor(head, DIRECTION_VALUES[d]);
+        return neighbor == Topology.NO_CELL ? BLOCKED : regions[neighbor];
+    }
+
+    private boolean isFirstHeadRegion(int d, int region) {
+        for (int i = 0; i < d; i++)
+            if (getHeadRegion(i) == region)
+                return false;
+        return true;
+    }
+
+    private int findFront(int front) {
+        while (fronts[front] != front)
+            front = fronts[front];
+        return front;
+    }
+
+    private boolean isExhausted(int group, int frontCount) {
+        for (int i = 0; i < frontCount; i++)
+            if (findFront(i) == group && queueHeads[i] != queueTails[i])
+                return false;
+        return true;
+    }
+
+    private void splitOff(int group, int frontCount, int region) {
+        int split = newRegion();
+
+        for (int i = 0; i < frontCount; i++) {
+            if (findFront(i) != group)
+                continue;
+
+            for (int j = 0; j < queueTails[i]; j++)
+                regions[queues[i][j]] = split;
+            sizes[split] += queueTails[i];
+            sizes[region] -= queueTails[i];
+        }
+    }
+
+    // relabels the cells of region from connected to cell, returning how many there were
+    private int fill(int cell, int from, int to) {
+        int[] queue = queues[0];
+        int queueHead = 0, queueTail = 0;
+
+        regions[cell] = to;
+        queue[queueTail++] = cell;
+        while (queueHead < queueTail) {
+            int current = queue[queueHead++];
+
+            for (Direction direction : DIRECTION_VALUES) {
+                int neighbor = topology.neighbor(current, direction);
+                if (neighbor != Topology.NO_CELL && regions[neighbor] == from) {
+                    regions[neighbor] = to;
+                    queue[queueTail++] = neighbor;
+                }
+            }
+        }
+        return queueTail;
+    }
+
+    private int newRegion() {
+        int region;
+        if (freeRegionCount > 0) {
+            region = freeRegions[--freeRegionCount];
+        } else {
+            region = regionCount++;
+            if (region == sizes.length)
+                sizes = Arrays.copyOf(sizes, region * 2);
+        }
+
+        sizes[region] = 0;
+        return region;
+    }
+
+    private void freeRegion(int region) {
+        if (freeRegionCount == freeRegions.length)
+            freeRegions = Arrays.copyOf(freeRegions, freeRegionCount * 2);
+        freeRegions[freeRegionCount++] = region;
+    }
+}
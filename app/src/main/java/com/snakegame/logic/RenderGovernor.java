@@ -0,0 +1,124 @@
+package com.snakegame.logic;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks how much effort frames are drawn with, from how long the last frames took.
+ * <p>
+ * Frame times are collected in windows of {@link #WINDOW} rendered frames. A window whose 90th
+ * percentile goes over the slow threshold, or during which the game loop had to skip frames,
+ * steps the quality down right away. Stepping back up takes several calm windows in a row and
+ * never happens right after a step down, so a device hovering around its limit doesn't flip
+ * between levels every second.
+ */
+public class RenderGovernor {
+    private static final String TAG = RenderGovernor.class.getSimpleName();
+
+    public enum Quality {
+        // sprites, HUD text rebuilt every frame, translucent overlays
+        FULL(true, 0, true),
+        // sprites, HUD text rebuilt at most every 130 ms, no overlays
+        REDUCED(true, 130, false),
+        // flat circles, HUD text rebuilt at most twice a second
+        FLAT(false, 500, false);
+
+        public final boolean sprites;
+        public final long hudRefreshNanos;
+        public final boolean effects;
+
+        Quality(boolean sprites, long hudRefreshMillis, boolean effects) {
+            this.sprites = sprites;
+            this.hudRefreshNanos = hudRefreshMillis * 1000000L;
+            this.effects = effects;
+        }
+    }
+
+    // rendered frames per decision
+    private static final int WINDOW = 30;
+
+    // share of the frame budget the 90th percentile may use before stepping down, and under
+    // which it has to stay to step up again
+    private static final double SLOW_SHARE = 0.8;
+    private static final double CALM_SHARE = 0.5;
+
+    // calm windows in a row needed to step up, and windows after a step down without stepping up
+    private static final int CALM_WINDOWS = 4;
+    private static final int COOLDOWN_WINDOWS = 10;
+
+    private final long slowNanos, calmNanos;
+
+    // render thread only
+    private final long[] frameTimes = new long[WINDOW];
+    private final long[] sorted = new long[WINDOW];
+    private int frameCount;
+    private int calmWindows;
+    private int cooldownWindows;
+
+    // reported by the game loop
+    private final AtomicInteger framesSkipped = new AtomicInteger();
+
+    private volatile Quality quality = Quality.FULL;
+
+    /**
+     * Creates a governor aiming at frames drawn within the given budget.
+     */
+    public RenderGovernor(long frameBudgetNanos) {
+        slowNanos = (long) (frameBudgetNanos * SLOW_SHARE);
+        calmNanos = (long) (frameBudgetNanos * CALM_SHARE);
+    }
+
+    public Quality getQuality() {
+        return quality;
+    }
+
+    /**
+     * Counts frames the game loop updated without publishing. Any thread.
+     */
+    public void onFramesSkipped(int frames) {
+        framesSkipped.addAndGet(frames);
+    }
+
+    /**
+     * Records how long a frame took from locking the canvas to posting it. Render thread only.
+     */
+    public void onFrameRendered(long nanos) {
+        frameTimes[frameCount++] = nanos;
+        if (frameCount < WINDOW)
+            return;
+        frameCount = 0;
+
+        System.arraycopy(frameTimes, 0, sorted, 0, WINDOW);
+        Arrays.sort(sorted);
+        long p90 = sorted[WINDOW * 9 / 10];
+        int skipped = framesSkipped.getAndSet(0);
+
+        if (cooldownWindows > 0)
+            cooldownWindows--;
+
+        if (p90 > slowNanos || skipped > 0) {
+            calmWindows = 0;
+            if (quality.ordinal() < Quality.values().length - 1) {
+                setQuality(Quality.values()[quality.ordinal() + 1], p90, skipped);
+                cooldownWindows = COOLDOWN_WINDOWS;
+            }
+        } else if (p90 < calmNanos) {
+            calmWindows++;
+            if (calmWindows >= CALM_WINDOWS && cooldownWindows == 0 && quality.ordinal() > 0) {
+                setQuality(Quality.values()[quality.ordinal() - 1], p90, skipped);
+                calmWindows = 0;
+            }
+        } else {
+            // in between: keep the current level
+            calmWindows = 0;
+        }
+    }
+
+    private void setQuality(Quality newQuality, long p90, int skipped) {
+        Log.i(TAG, "Render quality " + quality + " -> " + newQuality + " (p90 " + p90 / 1000 + " us, "
+                + skipped + " skipped frames)");
+        quality = newQuality;
+    }
+}
@@ -0,0 +1,110 @@
+package com.snakegame.logic;
+
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws the latest frame snapshot published by the simulation thread. The renderer parks while
+ * there is no new snapshot, and a slow frame never holds up the simulation.
+ */
+public class RenderThread extends Thread {
+    private static final String TAG = RenderThread.class.getSimpleName();
+
+    // interval used to report frames rendered
+    private final static long STATS_PERIOD = 60 * 1000;
+
+    private final SurfaceHolder surfaceHolder;
+    private final GamePanel gamePanel;
+
+    private final TripleBuffer<FrameSnapshot> snapshots =
+            new TripleBuffer<FrameSnapshot>(new FrameSnapshot(), new FrameSnapshot(), new FrameSnapshot());
+
+    // frames rendered since the last stats report
+    private int framesRendered;
+
+    private volatile boolean running = true;
+
+    public RenderThread(SurfaceHolder surfaceHolder, GamePanel gamePanel) {
+        super("RenderThread");
+        this.surfaceHolder = surfaceHolder;
+        this.gamePanel = gamePanel;
+    }
+
+    /**
+     * Returns the snapshot the simulation fills next. Simulation thread only.
+     */
+    public FrameSnapshot getBackSnapshot() {
+        return snapshots.getBack();
+    }
+
+    /**
+     * Hands the filled snapshot over and wakes up the renderer. Simulation thread only.
+     */
+    public void publish() {
+        snapshots.publish();
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Tells the renderer to stop once done with the frame it is drawing.
+     */
+    public void quit() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        Log.d(TAG, "Starting render loop");
+
+        long statsBeginTime = SystemClock.uptimeMillis();
+
+        while (running) {
+            // nothing new to draw: park until the simulation publishes
+            if (!snapshots.update()) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            renderFrame(snapshots.getFront());
+
+            if (SystemClock.uptimeMillis() - statsBeginTime >= STATS_PERIOD) {
+                Log.i(TAG, "Rendered " + framesRendered + " frames in the last minute");
+
+                statsBeginTime = SystemClock.uptimeMillis();
+                framesRendered = 0;
+            }
+        }
+    }
+
+    private void renderFrame(FrameSnapshot snapshot) {
+        long beginTime = System.nanoTime();
+        Canvas canvas = null;
+
+        // try locking the canvas for exclusive pixel editing in the surface
+        try {
+            GameTrace.beginSection("RenderThread.lockCanvas");
+            canvas = this.surfaceHolder.lockCanvas();
+            GameTrace.endSection();
+
+            if (canvas != null) {
+                this.gamePanel.render(canvas, snapshot);
+                framesRendered++;
+            }
+        } finally {
+            // in case of an exception the surface is not left in an inconsistent state
+            if (canvas != null) {
+                GameTrace.beginSection("RenderThread.unlockCanvasAndPost");
+                surfaceHolder.unlockCanvasAndPost(canvas);
+                GameTrace.endSection();
+
+                // quality of the next frames follows how long this one took
+                gamePanel.getRenderGovernor().onFrameRendered(System.nanoTime() - beginTime);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.snakegame.logic;
+
+public class Rewind extends SpecialElements{
+    private static final String TAG = Rewind.class.getSimpleName();
+
+    // maximum duration to display the rewind in snake moves
+    private static final int MAX_DURATION = 25;
+
+    public Rewind(Snake snake, int radius) {
+        super(snake, radius, MAX_DURATION);
+
+        setType(GameElementType.REWIND);
+
+        log.v(TAG, "Rewind created");
+    }
+}
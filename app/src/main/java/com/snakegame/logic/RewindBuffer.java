@@ -0,0 +1,102 @@
+package com.snakegame.logic;
+
+/**
+ * Bounded ring of move records used to step a game backwards.
+ * Each record holds what one move is about to change: the snake state and elements before the
+ * move, the random state, and how the body changed. Records are fixed size and kept in
+ * preallocated arrays, so recording never allocates and memory does not grow with the snake.
+ * Once full, the oldest records are overwritten.
+ */
+public class RewindBuffer {
+    // record flags
+    static final int FLAG_SHIELD = 1;
+    static final int FLAG_TIME_SLOWED = 1 << 1;
+    static final int FLAG_SPEED_INCREMENT = 1 << 2;
+    static final int FLAG_MOVED = 1 << 3;
+    static final int FLAG_GREW = 1 << 4;
+
+    private final int capacity;
+
+    // one slot per record, filled by the engine and the snake
+    final long[] randomStates;
+    final byte[] directions;
+    final byte[] flags;
+    final int[] scores;
+    final double[] moveDelays;
+    final double[] savedDelays;
+    final int[] clockTicks;
+    final byte[] foods;
+    final int[] foodCells;
+    final byte[] specialElements;
+    final int[] specialCells;
+    final int[] specialTicks;
+    final int[] headCells;
+    final int[] tailCells;
+
+    // slot of the newest record and number of records kept
+    private int newest = -1;
+    private int size;
+
+    public RewindBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+        this.capacity = capacity;
+        randomStates = new long[capacity];
+        directions = new byte[capacity];
+        flags = new byte[capacity];
+        scores = new int[capacity];
+        moveDelays = new double[capacity];
+        savedDelays = new double[capacity];
+        clockTicks = new int[capacity];
+        foods = new byte[capacity];
+        foodCells = new int[capacity];
+        specialElements = new byte[capacity];
+        specialCells = new int[capacity];
+        specialTicks = new int[capacity];
+        headCells = new int[capacity];
+        tailCells = new int[capacity];
+    }
+
+    /**
+     * Returns the slot of a new record, overwriting the oldest one if the buffer is full.
+     */
+    int push() {
+        newest = newest + 1 == capacity ? 0 : newest + 1;
+        if (size < capacity)
+            size++;
+
+        flags[newest] = 0;
+        return newest;
+    }
+
+    /**
+     * Removes the newest record and returns its slot, -1 if the buffer is empty.
+     * The slot stays valid until the next {@link #push()}.
+     */
+    int pop() {
+        if (size == 0)
+            return -1;
+
+        int slot = newest;
+        newest = newest == 0 ? capacity - 1 : newest - 1;
+        size--;
+        return slot;
+    }
+
+    public void clear() {
+        newest = -1;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of moves that can be undone.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -1,19 +1,16 @@
 package com.snakegame.logic;
 
-import android.graphics.Point;
-import android.util.Log;
-
 public class Shield extends SpecialElements{
-    private static final String TAG = GamePanel.class.getSimpleName();
+    private static final String TAG = Shield.class.getSimpleName();
 
     // maximum duration to display shield in snake moves
     private static final int MAX_DURATION = 30;
 
-    public Shield(Point fieldDimensions, Snake snake, int radius) {
-        super(fieldDimensions, snake, radius, MAX_DURATION);
+    public Shield(Snake snake, int radius) {
+        super(snake, radius, MAX_DURATION);
 
-        type = GameElementType.SHIELD;
+        setType(GameElementType.SHIELD);
 
-        Log.v(TAG, "Shield created");
+        log.v(TAG, "Shield created");
     }
 }
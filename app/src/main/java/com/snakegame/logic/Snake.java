@@ -1,33 +1,62 @@
 package com.snakegame.logic;
 
-import android.graphics.Point;
-import android.util.Log;
-
 import java.util.ArrayDeque;
 
 public class Snake {
 
-    private static final String TAG = GamePanel.class.getSimpleName();
+    private static final String TAG = Snake.class.getSimpleName();
 
     /**
      * Number of speed steps.
      * Speed will be increased in equal steps until full speed is not reached.
      */
     private final static int SPEED_STEPS = 30;
-    private final static int SLOWED_TIME_MOVE_DELAY = MainThread.getFps() / 3;
+    // also the slowest the snake ever moves, in ticks per cell
+    public final static int SLOWED_TIME_MOVE_DELAY = GameEngine.TICKS_PER_SECOND / 3;
+
+    // the snake starts at the slowest speed and ends three times faster
+    private final static double FINAL_MOVE_DELAY = SLOWED_TIME_MOVE_DELAY / 3.0;
+    private final static double MOVE_DELAY_INC = (SLOWED_TIME_MOVE_DELAY - FINAL_MOVE_DELAY) / SPEED_STEPS;
+
+    // number of cells the snake starts with
+    // the body starts on (1, START_ROW) to (INITIAL_LENGTH, START_ROW), heading right
+    final static int INITIAL_LENGTH = 3;
+    final static int START_ROW = 2;
 
     private ArrayDeque<Cell> cells;
-    private Cell previousTail;
+    private final GridPoint previousTail = new GridPoint();
     private int radius;
 
-    private double finalMoveDelay;
-    private double moveDelay, moveDelayInc;
+    private final GameLog log;
+
+    // how board cells connect, the snake moves along its neighbor table
+    private final Topology topology;
+
+    // number of body cells on each board cell, so occupancy checks don't walk the body
+    private final byte[] occupancy;
+
+    // Zobrist hash of the body cells, updated whenever a cell is occupied or left
+    private long bodyHash;
+
+    // cells dropped by a reset, reused when the snake grows again
+    private final ArrayDeque<Cell> spareCells = new ArrayDeque<Cell>();
+
+    private double moveDelay;
     private boolean speedNeedsToBeIncremented;
 
     // clock stuff
     private boolean timeSlowed = false;
     private double savedDelay;
-    private int clockCounter;
+
+    // ends the slowed time effect
+    private final TimerWheel.Timer clockTimer = new TimerWheel.Timer() {
+        @Override
+        protected void onExpired() {
+            timeSlowed = false;
+            moveDelay = savedDelay;
+            log.i(TAG, "Time resumed to normal speed");
+        }
+    };
 
     // shield stuff
     private boolean hasShield = false;
@@ -36,64 +65,145 @@ public class Snake {
     private int life;
     private int score;
 
-    private boolean useBitmaps;
+    // switched on once the sprites are decoded
+    private volatile boolean useBitmaps;
 
-    public Snake(int radius, boolean useBitmaps) {
+    public Snake(int radius, boolean useBitmaps, Topology topology, GameLog log) {
+        this.log = log;
         this.radius = radius;
+        this.useBitmaps = useBitmaps;
+        this.topology = topology;
+        occupancy = new byte[topology.getCellCount()];
 
-        // clear cells container
+        // create cells container
         cells = new ArrayDeque<Cell>();
 
-        cells.addLast(new Cell(3, 2, radius));
-        cells.addLast(new Cell(2, 2, radius));
-        cells.addLast(new Cell(1, 2, radius));
+        reset();
+    }
+
+    /**
+     * Puts the snake back in its initial state, reusing the cells of the previous game.
+     */
+    public void reset() {
+        for (Cell cell : cells)
+            occupy(cell.getLocation().x, cell.getLocation().y, -1);
+
+        // keep only as many cells as the initial body needs
+        while (cells.size() > INITIAL_LENGTH)
+            spareCells.addLast(cells.removeLast());
+        while (cells.size() < INITIAL_LENGTH)
+            cells.addLast(obtainCell(0, 0));
+
+        // lay the body out horizontally, head first
+        int x = INITIAL_LENGTH;
+        for (Cell cell : cells) {
+            cell.getLocation().set(x, START_ROW);
+            occupy(x--, START_ROW, 1);
+        }
 
-        double initialMoveDelay = moveDelay = SLOWED_TIME_MOVE_DELAY;
-        finalMoveDelay = initialMoveDelay / 3;
-        moveDelayInc = (initialMoveDelay - finalMoveDelay) / SPEED_STEPS;
+        moveDelay = SLOWED_TIME_MOVE_DELAY;
         speedNeedsToBeIncremented = false;
 
+        // reset power ups
+        timeSlowed = false;
+        clockTimer.cancel();
+        hasShield = false;
+
         direction = Direction.RIGHT;
         life = 100;
         score = 0;
-
-        this.useBitmaps = useBitmaps;
     }
 
     public void move() {
-        // get snake head location
-        Point head = getHead().getLocation();
-
-        // add a new cell in front of the head in the current direction
-        switch (direction) {
-            case UP:
-                cells.addFirst(new Cell(head.x, head.y - 1, radius));
-                break;
-            case DOWN:
-                cells.addFirst(new Cell(head.x, head.y + 1, radius));
-                break;
-            case LEFT:
-                cells.addFirst(new Cell(head.x - 1, head.y, radius));
-                break;
-            case RIGHT:
-                cells.addFirst(new Cell(head.x + 1, head.y, radius));
-                break;
-        }
+        // find the cell in front of the head in the current direction
+        GridPoint head = getHead().getLocation();
+        int next = topology.neighbor(topology.cell(head.x, head.y), direction);
+
+        // a snake saved by its shield on the edge of the board has nowhere to go
+        if (next == Topology.NO_CELL)
+            return;
+
+        int x = topology.getX(next), y = topology.getY(next);
 
-        // remove last cell and temporarily save it
-        previousTail = cells.removeLast();
+        // remove last cell and temporarily save its location
+        Cell tail = cells.removeLast();
+        previousTail.set(tail.getLocation().x, tail.getLocation().y);
+        occupy(previousTail.x, previousTail.y, -1);
+
+        // reuse it as the new head, so that moving doesn't allocate
+        tail.getLocation().set(x, y);
+        cells.addFirst(tail);
+        occupy(x, y, 1);
 
         checkIfAteItself();
     }
 
+    /**
+     * Undoes the last move: drops the head and, unless the snake grew on that move, puts the
+     * tail back on the given board cell.
+     */
+    void undoMove(int tailCell, boolean grew) {
+        Cell head = cells.removeFirst();
+        occupy(head.getLocation().x, head.getLocation().y, -1);
+
+        if (grew) {
+            spareCells.addLast(head);
+            return;
+        }
+
+        // the head cell becomes the tail again
+        int x = topology.getX(tailCell), y = topology.getY(tailCell);
+        head.getLocation().set(x, y);
+        cells.addLast(head);
+        occupy(x, y, 1);
+    }
+
+    /**
+     * Saves the state a move can change, except for the body, to a rewind record.
+     */
+    void saveTo(RewindBuffer buffer, int slot) {
+        buffer.directions[slot] = (byte) direction.ordinal();
+        buffer.scores[slot] = score;
+        buffer.moveDelays[slot] = moveDelay;
+        buffer.savedDelays[slot] = savedDelay;
+        buffer.clockTicks[slot] = clockTimer.getRemainingTicks();
+        buffer.flags[slot] |= (hasShield ? RewindBuffer.FLAG_SHIELD : 0)
+                | (timeSlowed ? RewindBuffer.FLAG_TIME_SLOWED : 0)
+                | (speedNeedsToBeIncremented ? RewindBuffer.FLAG_SPEED_INCREMENT : 0);
+    }
+
+    /**
+     * Restores the state saved by {@link #saveTo}, the snake is alive again.
+     */
+    void restoreFrom(RewindBuffer buffer, int slot, TimerWheel timerWheel) {
+        int flags = buffer.flags[slot];
+
+        direction = Direction.values()[buffer.directions[slot]];
+        score = buffer.scores[slot];
+        moveDelay = buffer.moveDelays[slot];
+        savedDelay = buffer.savedDelays[slot];
+        hasShield = (flags & RewindBuffer.FLAG_SHIELD) != 0;
+        speedNeedsToBeIncremented = (flags & RewindBuffer.FLAG_SPEED_INCREMENT) != 0;
+        life = 100;
+
+        // the slowed time effect resumes with the time it had left
+        timeSlowed = (flags & RewindBuffer.FLAG_TIME_SLOWED) != 0;
+        if (timeSlowed)
+            timerWheel.schedule(clockTimer, buffer.clockTicks[slot]);
+        else
+            clockTimer.cancel();
+    }
+
     private void checkIfAteItself() {
-        for (Cell cell : cells)
-            if (cell != getHead() && cell.getLocation().equals(getHead().getLocation()))
-                if (hasShield()) {
-                    setHasShield(false);
-                    Log.i(TAG, "Shield lost");
-                } else
-                    kill();
+        GridPoint head = getHead().getLocation();
+
+        // every other body cell on the head's cell is a bite
+        for (int i = getOccupancy(head.x, head.y); i > 1; i--)
+            if (hasShield()) {
+                setHasShield(false);
+                log.i(TAG, "Shield lost");
+            } else
+                kill();
     }
 
     public boolean ate(GameElements element) {
@@ -101,7 +211,57 @@ public class Snake {
     }
 
     public void incSize() {
-        cells.addLast(new Cell(previousTail));
+        cells.addLast(obtainCell(previousTail.x, previousTail.y));
+        occupy(previousTail.x, previousTail.y, 1);
+    }
+
+    /**
+     * Returns true if any body cell lies on the given board cell.
+     */
+    public boolean isOccupying(int x, int y) {
+        return getOccupancy(x, y) > 0;
+    }
+
+    private int getOccupancy(int x, int y) {
+        return occupancy[topology.cell(x, y)];
+    }
+
+    private void occupy(int x, int y, int count) {
+        occupancy[topology.cell(x, y)] += count;
+
+        // a cell is occupied or left one body cell at a time, both flip its key
+        bodyHash ^= ZobristKeys.key(ZobristKeys.BODY, x, y);
+    }
+
+    /**
+     * Returns the Zobrist hash of the set of body cells.
+     */
+    public long getBodyHash() {
+        return bodyHash;
+    }
+
+    /**
+     * Returns the cell the tail left on the last move, or grew back onto if the snake ate.
+     */
+    public GridPoint getPreviousTail() {
+        return previousTail;
+    }
+
+    GameLog getLog() {
+        return log;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    private Cell obtainCell(int x, int y) {
+        Cell cell = spareCells.pollLast();
+        if (cell == null)
+            return new Cell(x, y, radius);
+
+        cell.getLocation().set(x, y);
+        return cell;
     }
 
     public ArrayDeque<Cell> getCells() {
@@ -132,6 +292,20 @@ public class Snake {
         return (int) Math.round(moveDelay);
     }
 
+    /**
+     * Returns the move delay before rounding, so that copies of the game speed up the same.
+     */
+    public double getExactMoveDelay() {
+        return moveDelay;
+    }
+
+    /**
+     * Returns the move delay after one speed step from the given one.
+     */
+    public static double speedUp(double moveDelay) {
+        return Math.max(moveDelay - MOVE_DELAY_INC, FINAL_MOVE_DELAY);
+    }
+
     public boolean speedNeedsToBeIncremented() {
         return speedNeedsToBeIncremented;
     }
@@ -142,40 +316,56 @@ public class Snake {
 
     public void increaseSpeed() {
         if (!timeSlowed) {
-            moveDelay -= moveDelayInc;
-
-            if (moveDelay < finalMoveDelay)
-                moveDelay = finalMoveDelay;
-
+            moveDelay = speedUp(moveDelay);
             speedNeedsToBeIncremented = false;
         }
     }
 
-    public void startClock() {
+    public void startClock(TimerWheel timerWheel) {
         if (!timeSlowed)
             savedDelay = moveDelay;
         moveDelay = SLOWED_TIME_MOVE_DELAY;
 
-        clockCounter = Clock.getEffectDuration();
+        // picking up another clock restarts the effect
+        timerWheel.schedule(clockTimer, Clock.getEffectDuration() * GameEngine.TICKS_PER_SECOND);
         timeSlowed = true;
 
-        Log.i(TAG, "Time slowed down");
+        log.i(TAG, "Time slowed down");
     }
 
-    public void updateClock() {
-        if (timeSlowed) {
-            clockCounter--;
+    public boolean isTimeSlowed() {
+        return timeSlowed;
+    }
 
-            if (clockCounter == 0) {
-                timeSlowed = false;
-                moveDelay = savedDelay;
-                Log.i(TAG, "Time resumed to normal speed");
-            }
-        }
+    /**
+     * Returns the move delay the snake gets back when the slowed time is over.
+     */
+    public double getSavedMoveDelay() {
+        return savedDelay;
     }
 
+    /**
+     * Returns the number of ticks before the slowed time is over, 0 if time is not slowed.
+     */
+    public int getClockRemainingTicks() {
+        return clockTimer.getRemainingTicks();
+    }
+
+    /**
+     * Returns the remaining slowed time in seconds, rounded up.
+     */
     public int getSlowedTimeRemaining() {
-        return clockCounter;
+        return (clockTimer.getRemainingTicks() + GameEngine.TICKS_PER_SECOND - 1) / GameEngine.TICKS_PER_SECOND;
+    }
+
+    /**
+     * Returns the number of ticks until the displayed slowed time remaining changes,
+     * 0 if time is not slowed.
+     */
+    public int getTicksUntilClockUpdate() {
+        int remaining = clockTimer.getRemainingTicks();
+
+        return remaining == 0 ? 0 : (remaining - 1) % GameEngine.TICKS_PER_SECOND + 1;
     }
 
     public void setHasShield(boolean hasShield) {
@@ -203,11 +393,16 @@ public class Snake {
     }
 
     public void incScore(int score) {
-        Log.v("Snake", "Current score: " + this.score + " + " + score);
+        if (log.isLoggable())
+            log.v(TAG, "Current score: " + this.score + " + " + score);
         this.score += score;
     }
 
     public boolean isUsingBitmaps() {
         return useBitmaps;
     }
+
+    public void setUsingBitmaps(boolean useBitmaps) {
+        this.useBitmaps = useBitmaps;
+    }
 }
@@ -0,0 +1,192 @@
+package com.snakegame.logic;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Draws the snake body in a few batched draw calls rather than one per cell.
+ * <p>
+ * Textured bodies are split in straight runs of adjacent cells, each filled with one rectangle
+ * tiling the sprite at the cell size, so a run looks exactly like its cells drawn one by one.
+ * That is one draw call per run: the count grows with the turns, wraps and portal crossings of
+ * the body, not with its length. Untextured bodies are drawn as one path holding all the
+ * circles, a single draw call whose path still has a circle per cell.
+ */
+public class SnakeRenderer {
+    private static final String TAG = SnakeRenderer.class.getSimpleName();
+
+    private final int cellsDiameter, cellsRadius;
+    private final Paint paint = new Paint();
+    private final Path path = new Path();
+
+    // tiling shaders of the last two sprites, the plain and shielded bodies
+    private final Bitmap[] shaderBitmaps = new Bitmap[2];
+    private final BitmapShader[] shaders = new BitmapShader[2];
+    private int nextShader;
+
+    // reused by the per cell loop
+    private final Rect src = new Rect(), dst = new Rect();
+
+    private int drawCalls;
+
+    public SnakeRenderer(int cellsDiameter) {
+        this.cellsDiameter = cellsDiameter;
+        this.cellsRadius = cellsDiameter / 2;
+        paint.setFilterBitmap(true);
+    }
+
+    /**
+     * Draws the body in the snapshot, textured with the given sprite or as black circles
+     * if it is null.
+     */
+    public void draw(Canvas canvas, FrameSnapshot snapshot, Bitmap sprite) {
+        drawCalls = 0;
+
+        if (sprite == null) {
+            path.rewind();
+            for (int i = 0; i < snapshot.getLength(); i++)
+                path.addCircle(cellsRadius + snapshot.getX(i) * cellsDiameter,
+                        cellsRadius + snapshot.getY(i) * cellsDiameter, cellsRadius, Path.Direction.CW);
+
+            paint.setShader(null);
+            paint.setColor(Color.BLACK);
+            canvas.drawPath(path, paint);
+            drawCalls++;
+            return;
+        }
+
+        paint.setShader(getShader(sprite));
+
+        int length = snapshot.getLength();
+        int i = 0;
+        while (i < length) {
+            int minX = snapshot.getX(i), maxX = minX;
+            int minY = snapshot.getY(i), maxY = minY;
+            int stepX = 0, stepY = 0;
+
+            // extend the run while the body goes straight on to an adjacent cell;
+            // wraps, portals and turns start a new run
+            int j = i + 1;
+            for (; j < length; j++) {
+                int dx = snapshot.getX(j) - snapshot.getX(j - 1);
+                int dy = snapshot.getY(j) - snapshot.getY(j - 1);
+
+                if (Math.abs(dx) + Math.abs(dy) != 1 || (j > i + 1 && (dx != stepX || dy != stepY)))
+                    break;
+
+                stepX = dx;
+                stepY = dy;
+                minX = Math.min(minX, snapshot.getX(j));
+                maxX = Math.max(maxX, snapshot.getX(j));
+                minY = Math.min(minY, snapshot.getY(j));
+                maxY = Math.max(maxY, snapshot.getY(j));
+            }
+
+            canvas.drawRect(minX * cellsDiameter, minY * cellsDiameter,
+                    (maxX + 1) * cellsDiameter, (maxY + 1) * cellsDiameter, paint);
+            drawCalls++;
+
+            i = j;
+        }
+
+        paint.setShader(null);
+    }
+
+    /**
+     * Draws the body one cell at a time, as it used to be. Kept to benchmark against.
+     */
+    public void drawPerCell(Canvas canvas, FrameSnapshot snapshot, Bitmap sprite) {
+        drawCalls = 0;
+        paint.setShader(null);
+        paint.setColor(Color.BLACK);
+
+        for (int i = 0; i < snapshot.getLength(); i++) {
+            int x = snapshot.getX(i) * cellsDiameter;
+            int y = snapshot.getY(i) * cellsDiameter;
+
+            if (sprite == null) {
+                canvas.drawCircle(x + cellsRadius, y + cellsRadius, cellsRadius, paint);
+            } else {
+                src.set(0, 0, sprite.getWidth(), sprite.getHeight());
+                dst.set(x, y, x + cellsDiameter, y + cellsDiameter);
+                canvas.drawBitmap(sprite, src, dst, paint);
+            }
+            drawCalls++;
+        }
+    }
+
+    /**
+     * Returns the number of draw calls the last drawn body took.
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    private BitmapShader getShader(Bitmap sprite) {
+        for (int i = 0; i < shaders.length; i++)
+            if (shaderBitmaps[i] == sprite)
+                return shaders[i];
+
+        // tile the sprite once per cell, starting from the board origin
+        BitmapShader shader = new BitmapShader(sprite, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) cellsDiameter / sprite.getWidth(), (float) cellsDiameter / sprite.getHeight());
+        shader.setLocalMatrix(matrix);
+
+        shaderBitmaps[nextShader] = sprite;
+        shaders[nextShader] = shader;
+        nextShader = (nextShader + 1) % shaders.length;
+        return shader;
+    }
+
+    /**
+     * Times the batched and per cell drawing of snakes of growing lengths, winding across a
+     * width x height board, on an offscreen canvas. Results are logged.
+     */
+    public void benchmark(int width, int height, Bitmap sprite, int frames) {
+        Bitmap target = Bitmap.createBitmap(width * cellsDiameter, height * cellsDiameter, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(target);
+        FrameSnapshot snapshot = new FrameSnapshot();
+
+        for (int length = 16; length <= width * height; length *= 4) {
+            // lay the body out row by row, turning at the board sides
+            snapshot.clearBody();
+            for (int i = 0; i < length; i++) {
+                int row = i / width;
+                int column = i % width;
+                snapshot.addBodyCell(row % 2 == 0 ? column : width - 1 - column, row);
+            }
+
+            long perCellTime = time(canvas, snapshot, sprite, frames, false);
+            int perCellCalls = drawCalls;
+            long batchedTime = time(canvas, snapshot, sprite, frames, true);
+
+            Log.i(TAG, "Length " + length + (sprite == null ? " (circles)" : " (sprites)")
+                    + ": per cell " + perCellTime / frames + " us/frame in " + perCellCalls + " calls"
+                    + ", batched " + batchedTime / frames + " us/frame in " + drawCalls + " calls");
+        }
+
+        target.recycle();
+    }
+
+    private long time(Canvas canvas, FrameSnapshot snapshot, Bitmap sprite, int frames, boolean batched) {
+        long beginTime = SystemClock.elapsedRealtimeNanos();
+
+        for (int i = 0; i < frames; i++)
+            if (batched)
+                draw(canvas, snapshot, sprite);
+            else
+                drawPerCell(canvas, snapshot, sprite);
+
+        return (SystemClock.elapsedRealtimeNanos() - beginTime) / 1000;
+    }
+}
@@ -1,33 +1,61 @@
 package com.snakegame.logic;
 
-import android.graphics.Point;
-
 public class SpecialElements extends GameElements{
-    // maximum duration to display clock in snake moves
-    private static int MAX_DURATION;
+    // maximum duration to display the element in snake moves
+    private final int maxDuration;
 
-    // counter
-    private int counter;
+    // removes the element from the board once its lifetime is over
+    private final TimerWheel.Timer lifetimeTimer = new TimerWheel.Timer() {
+        @Override
+        protected void onExpired() {
+            hasExpired = true;
+        }
+    };
 
     private boolean hasExpired;
 
-    public SpecialElements(Point fieldDimensions, Snake snake, int radius, int maxDuration) {
-        super(radius);
-        newRandomLocation(fieldDimensions, snake);
-        MAX_DURATION = maxDuration;
-        restartCounter();
+    public SpecialElements(Snake snake, int radius, int maxDuration) {
+        super(radius, snake.getLog());
+        this.maxDuration = maxDuration;
     }
 
-    public void incCounter() {
-        counter++;
+    /**
+     * Moves the element to a new random location and schedules the end of its lifetime.
+     * The lifetime is converted from snake moves to ticks at the current snake speed.
+     */
+    public void respawn(Level level, Snake snake, Reachability reachability, TimerWheel timerWheel, GameRandom random) {
+        newRandomLocation(level, snake, reachability, random);
 
-        if (counter >= MAX_DURATION) {
-            hasExpired = true;
-        }
+        hasExpired = false;
+        timerWheel.schedule(lifetimeTimer, maxDuration * snake.getMoveDelay());
+    }
+
+    /**
+     * Puts the element back on the given cell for the given number of ticks, used to undo moves.
+     */
+    void restore(int x, int y, int remainingTicks, TimerWheel timerWheel) {
+        setLocation(x, y);
+
+        hasExpired = false;
+        timerWheel.schedule(lifetimeTimer, remainingTicks);
+    }
+
+    /**
+     * Removes the element from the board before its lifetime is over, e.g. when it was eaten.
+     */
+    public void despawn() {
+        lifetimeTimer.cancel();
+    }
+
+    public int getMaxDuration() {
+        return maxDuration;
     }
 
-    public void restartCounter() {
-        counter = 0;
+    /**
+     * Returns the number of ticks before the element disappears.
+     */
+    public int getRemainingTicks() {
+        return lifetimeTimer.getRemainingTicks();
     }
 
     public boolean hasExpired() {
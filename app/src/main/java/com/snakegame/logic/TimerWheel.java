@@ -0,0 +1,158 @@
+package com.snakegame.logic;
+
+/**
+ * Hashed timer wheel keyed on game ticks.
+ * Scheduling, cancelling and advancing by one tick are O(1), timers due in more than one
+ * revolution simply stay in their slot until their deadline comes around.
+ */
+public class TimerWheel {
+    // number of slots, a power of two bigger than the usual timer durations
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private final Timer[] slots = new Timer[WHEEL_SIZE];
+
+    // timers due at the tick being advanced, taken out of their slot before any of them fires
+    private Timer expiring;
+
+    // current tick of the wheel
+    private long tick;
+
+    /**
+     * A timer that can be scheduled on the wheel. Timers are reusable, scheduling one that is
+     * already scheduled moves it to its new deadline.
+     */
+    public static abstract class Timer {
+        private TimerWheel wheel;
+        private Timer prev, next;
+        private long deadline;
+
+        /**
+         * Called on the game thread when the timer expires.
+         */
+        protected abstract void onExpired();
+
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+
+        /**
+         * Returns the number of ticks left before the timer expires, 0 if it is not scheduled.
+         */
+        public int getRemainingTicks() {
+            return wheel == null ? 0 : (int) (deadline - wheel.tick);
+        }
+
+        public void cancel() {
+            if (wheel != null)
+                wheel.remove(this);
+        }
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public void schedule(Timer timer, int delayTicks) {
+        timer.cancel();
+
+        timer.wheel = this;
+        timer.deadline = tick + Math.max(delayTicks, 1);
+
+        // push the timer at the head of its slot
+        int slot = (int) (timer.deadline & MASK);
+        timer.prev = null;
+        timer.next = slots[slot];
+        if (slots[slot] != null)
+            slots[slot].prev = timer;
+        slots[slot] = timer;
+    }
+
+    /**
+     * Advances the wheel by one tick and fires the timers that are due.
+     * Callbacks may cancel or reschedule any timer, including the ones due at the same tick.
+     */
+    public void advance() {
+        tick++;
+
+        // move the due timers to their own list first, so that the slot isn't walked while
+        // callbacks change it
+        Timer last = null;
+        Timer timer = slots[(int) (tick & MASK)];
+        while (timer != null) {
+            Timer next = timer.next;
+
+            if (timer.deadline == tick) {
+                unlink(timer);
+
+                timer.prev = last;
+                if (last != null)
+                    last.next = timer;
+                else
+                    expiring = timer;
+                last = timer;
+            }
+
+            timer = next;
+        }
+
+        // a timer cancelled by an earlier callback is gone from the list and doesn't fire
+        while (expiring != null) {
+            timer = expiring;
+            remove(timer);
+            timer.onExpired();
+        }
+    }
+
+    /**
+     * Returns the number of ticks until the next timer fires, looking at most limit ticks ahead.
+     * Returns limit if no timer fires before that.
+     */
+    public int getTicksUntilNextTimer(int limit) {
+        for (int i = 1; i < limit; i++) {
+            long t = tick + i;
+
+            for (Timer timer = slots[(int) (t & MASK)]; timer != null; timer = timer.next)
+                if (timer.deadline == t)
+                    return i;
+        }
+
+        return limit;
+    }
+
+    /**
+     * Cancels every timer and moves the wheel back to tick 0.
+     */
+    public void clear() {
+        for (int i = 0; i < WHEEL_SIZE; i++)
+            while (slots[i] != null)
+                remove(slots[i]);
+        while (expiring != null)
+            remove(expiring);
+
+        tick = 0;
+    }
+
+    private void remove(Timer timer) {
+        unlink(timer);
+        timer.wheel = null;
+    }
+
+    /**
+     * Takes the timer out of its slot, or out of the expiring list, leaving it scheduled.
+     */
+    private void unlink(Timer timer) {
+        if (timer.prev != null)
+            timer.prev.next = timer.next;
+        else if (timer == expiring)
+            expiring = timer.next;
+        else
+            slots[(int) (timer.deadline & MASK)] = timer.next;
+
+        if (timer.next != null)
+            timer.next.prev = timer.prev;
+
+        timer.prev = null;
+        timer.next = null;
+    }
+}
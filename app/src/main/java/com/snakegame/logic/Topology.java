@@ -0,0 +1,222 @@
+package com.snakegame.logic;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * How the cells of a board connect to each other.
+ * <p>
+ * Cells are numbered y * width + x. The cell reached from each cell in each direction is
+ * computed once, so moving on any topology is a single table lookup. Moves that leave a
+ * bordered board lead to {@link #NO_CELL}.
+ */
+public class Topology {
+    public static final int NO_CELL = -1;
+
+    public enum Type {
+        BORDERED, TORUS, PORTALS
+    }
+
+    private static final int DIRECTIONS = Direction.values().length;
+
+    private final Type type;
+    private final int width, height;
+
+    // cell reached from cell c in direction d, at c * DIRECTIONS + d.ordinal()
+    private final int[] neighbors;
+
+    // other end of each portal, NO_CELL for plain cells
+    private final int[] portals;
+    private final int[] portalPairs;
+
+    private Topology(Type type, int width, int height, boolean wrap, int[] portalPairs) {
+        this.type = type;
+        this.width = width;
+        this.height = height;
+        this.portalPairs = portalPairs.clone();
+
+        int cells = width * height;
+        portals = new int[cells];
+        Arrays.fill(portals, NO_CELL);
+        for (int i = 0; i + 1 < portalPairs.length; i += 2) {
+            portals[portalPairs[i]] = portalPairs[i + 1];
+            portals[portalPairs[i + 1]] = portalPairs[i];
+        }
+
+        neighbors = new int[cells * DIRECTIONS];
+        for (int cell = 0; cell < cells; cell++) {
+            for (Direction direction : Direction.values()) {
+                int neighbor = step(cell, direction, wrap);
+
+                // stepping into a portal comes out next to the other end, going the same way
+                if (neighbor != NO_CELL && portals[neighbor] != NO_CELL) {
+                    neighbor = step(portals[neighbor], direction, wrap);
+                    if (neighbor != NO_CELL && portals[neighbor] != NO_CELL)
+                        neighbor = NO_CELL;
+                }
+
+                neighbors[cell * DIRECTIONS + direction.ordinal()] = neighbor;
+            }
+        }
+    }
+
+    private int step(int cell, Direction direction, boolean wrap) {
+        int x = cell % width, y = cell / width;
+
+        switch (direction) {
+            case UP:
+                y--;
+                break;
+            case DOWN:
+                y++;
+                break;
+            case LEFT:
+                x--;
+                break;
+            case RIGHT:
+                x++;
+                break;
+        }
+
+        if (wrap)
+            return ((y + height) % height) * width + (x + width) % width;
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return NO_CELL;
+        return y * width + x;
+    }
+
+    /**
+     * Creates a board whose edges can't be crossed.
+     */
+    public static Topology bordered(int width, int height) {
+        return new Topology(Type.BORDERED, width, height, false, new int[0]);
+    }
+
+    /**
+     * Creates a board whose opposite edges are joined.
+     */
+    public static Topology torus(int width, int height) {
+        return new Topology(Type.TORUS, width, height, true, new int[0]);
+    }
+
+    /**
+     * Creates a bordered board with portals, given as pairs of cell numbers. Stepping into
+     * either end of a pair moves the snake past the other end.
+     */
+    public static Topology portals(int width, int height, int... portalPairs) {
+        return new Topology(Type.PORTALS, width, height, false, portalPairs);
+    }
+
+    /**
+     * Creates a board of the given type, portal pairs being ignored unless it has portals.
+     */
+    public static Topology create(Type type, int width, int height, int[] portalPairs) {
+        switch (type) {
+            case TORUS:
+                return torus(width, height);
+            case PORTALS:
+                return portals(width, height, portalPairs);
+            default:
+                return bordered(width, height);
+        }
+    }
+
+    /**
+     * Writes the type and portals, the size is left to the caller.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeShort(portalPairs.length / 2);
+        for (int cell : portalPairs)
+            out.writeInt(cell);
+    }
+
+    /**
+     * Reads a topology written by {@link #writeTo(DataOutput)} for a board of the given size.
+     */
+    public static Topology readFrom(DataInput in, int width, int height) throws IOException {
+        int typeIndex = in.readUnsignedByte();
+        if (typeIndex >= Type.values().length)
+            throw new IOException("Invalid topology type " + typeIndex);
+        if (width <= 0 || height <= 0)
+            throw new IOException("Invalid board size " + width + "x" + height);
+
+        int[] portalPairs = new int[in.readUnsignedShort() * 2];
+        for (int i = 0; i < portalPairs.length; i++) {
+            portalPairs[i] = in.readInt();
+            if (portalPairs[i] < 0 || portalPairs[i] >= width * height)
+                throw new IOException("Invalid portal cell " + portalPairs[i]);
+        }
+
+        return create(Type.values()[typeIndex], width, height, portalPairs);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the portals as pairs of cell numbers.
+     */
+    public int[] getPortalPairs() {
+        return portalPairs.clone();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellCount() {
+        return portals.length;
+    }
+
+    public int cell(int x, int y) {
+        return y * width + x;
+    }
+
+    public int getX(int cell) {
+        return cell % width;
+    }
+
+    public int getY(int cell) {
+        return cell / width;
+    }
+
+    /**
+     * Returns the cell reached by moving from the given cell in the given direction,
+     * {@link #NO_CELL} if the move leaves the board.
+     */
+    public int neighbor(int cell, Direction direction) {
+        return neighbors[cell * DIRECTIONS + direction.ordinal()];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Topology))
+            return false;
+
+        Topology topology = (Topology) o;
+        return type == topology.type && width == topology.width && height == topology.height
+                && Arrays.equals(portalPairs, topology.portalPairs);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * type.hashCode() + width) + height) + Arrays.hashCode(portalPairs);
+    }
+
+    /**
+     * Returns true if the cell is a portal end. Portal ends are never stood on.
+     */
+    public boolean isPortal(int cell) {
+        return portals[cell] != NO_CELL;
+    }
+}
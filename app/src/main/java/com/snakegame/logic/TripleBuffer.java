@@ -0,0 +1,62 @@
+package com.snakegame.logic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free handoff of pooled values from one writer thread to one reader thread.
+ * <p>
+ * The writer fills the back buffer and publishes it by swapping it with the middle one; the
+ * reader takes the middle buffer by swapping it with the front one. Neither side ever waits
+ * for the other, and the reader always gets the latest complete value.
+ */
+public class TripleBuffer<T> {
+    // set in the middle index when it holds a value the reader hasn't taken yet
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Object[] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    // owned by the writer and the reader respectively
+    private int back = 0;
+    private int front = 2;
+
+    public TripleBuffer(T first, T second, T third) {
+        buffers = new Object[]{first, second, third};
+    }
+
+    /**
+     * Returns the buffer the writer fills. Writer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Makes the back buffer the latest value and hands the writer another one. Writer thread only.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Takes the latest published value if there is a newer one than the front buffer.
+     * Returns true if the front buffer changed. Reader thread only.
+     */
+    public boolean update() {
+        if ((middle.get() & FRESH) == 0)
+            return false;
+
+        front = middle.getAndSet(front) & INDEX;
+        return true;
+    }
+
+    /**
+     * Returns the buffer the reader draws from. Reader thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T getFront() {
+        return (T) buffers[front];
+    }
+}
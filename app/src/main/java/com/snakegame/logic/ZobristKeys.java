@@ -0,0 +1,27 @@
+package com.snakegame.logic;
+
+/**
+ * Keys of the Zobrist hash of a game state.
+ * Keys are derived from their table and coordinates by a splitmix64 finalizer instead of being
+ * stored, so boards of any size cost no memory and every device gets the same keys, which
+ * lockstep peers comparing hashes rely on.
+ */
+final class ZobristKeys {
+    // tables, element keys being offset by the element type
+    static final int BODY = 0;
+    static final int ELEMENT = 1;
+    static final int DIRECTION = 8;
+    static final int HEAD = 9;
+    static final int SCORE = 10;
+    static final int FLAGS = 11;
+
+    private ZobristKeys() {
+    }
+
+    static long key(int table, int x, int y) {
+        long z = table * 0x9E3779B97F4A7C15L + x * 0xC2B2AE3D27D4EB4FL + y * 0x165667B19E3779F9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,34 @@
+package com.snakegame.metrics;
+
+/**
+ * Operational metrics of the game, updated on the hot paths and served by {@link MetricsServer}.
+ */
+public final class GameMetrics {
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    // game loop
+    public static final Histogram FRAME_SECONDS = REGISTRY.histogram("snake_frame_seconds",
+            "Time the game loop spent working on a frame, sleeping excluded.",
+            0.0005, 0.001, 0.002, 0.004, 0.008, 0.016, 0.033, 0.066, 0.1, 0.25);
+    public static final Counter SKIPPED_FRAMES = REGISTRY.counter("snake_skipped_frames_total",
+            "Frames updated without being published to catch up on a late game loop.");
+    public static final Counter TICKS = REGISTRY.counter("snake_ticks_total",
+            "Game updates run by the game loop.");
+
+    // games
+    public static final Counter GAMES_STARTED = REGISTRY.counter("snake_games_started_total",
+            "Games started, restarts included.");
+    public static final Counter GAMES_FINISHED = REGISTRY.counter("snake_games_finished_total",
+            "Games that ended with the snake dying.");
+    public static final Histogram SCORES = REGISTRY.histogram("snake_score",
+            "Final scores of finished games.",
+            10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000);
+
+    // persistence
+    public static final Histogram SAVE_HIGH_SCORE_SECONDS = REGISTRY.histogram("snake_save_high_score_seconds",
+            "Time taken by saving the high score at the end of a game.",
+            0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5);
+
+    private GameMetrics() {
+    }
+}
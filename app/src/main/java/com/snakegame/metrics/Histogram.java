@@ -0,0 +1,90 @@
+package com.snakegame.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of observed values over fixed buckets, from which the scraper computes
+ * percentiles. Observing is lock-free: a bucket search and two adder updates.
+ */
+public class Histogram extends Metric {
+    // inclusive upper bounds, in increasing order, the last bucket taking everything above
+    private final double[] bounds;
+    private final LongAdder[] buckets;
+
+    // le label values, formatted once
+    private final String[] labels;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    public Histogram(String name, String help, double... bounds) {
+        super(name, help);
+
+        for (int i = 1; i < bounds.length; i++)
+            if (bounds[i] <= bounds[i - 1])
+                throw new IllegalArgumentException("Bucket bounds must increase");
+
+        this.bounds = bounds.clone();
+        buckets = new LongAdder[bounds.length + 1];
+        labels = new String[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+            labels[i] = i < bounds.length
+                    ? new BigDecimal(Double.toString(bounds[i])).stripTrailingZeros().toPlainString() : "+Inf";
+        }
+    }
+
+    public void observe(double value) {
+        int low = 0, high = bounds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (value <= bounds[middle])
+                high = middle;
+            else
+                low = middle + 1;
+        }
+
+        buckets[low].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Observes a duration given in nanoseconds, in seconds.
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / 1e9);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets)
+            count += bucket.sum();
+        return count;
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    protected String getType() {
+        return "histogram";
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        // buckets are cumulative in the exposition format
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i].sum();
+
+            out.append(getName()).append("_bucket{le=\"").append(labels[i]).append("\"} ")
+                    .append(count).append('\n');
+        }
+
+        out.append(getName()).append("_sum ");
+        appendValue(out, sum.sum());
+        out.append('\n');
+        out.append(getName()).append("_count ").append(count).append('\n');
+    }
+}
@@ -0,0 +1,38 @@
+package com.snakegame.metrics;
+
+/**
+ * A named value exported in the Prometheus text format.
+ */
+public abstract class Metric {
+    private final String name;
+    private final String help;
+
+    protected Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Appends the HELP and TYPE lines followed by the samples.
+     */
+    void writeTo(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(getType()).append('\n');
+        writeSamples(out);
+    }
+
+    protected abstract String getType();
+
+    protected abstract void writeSamples(StringBuilder out);
+
+    static void appendValue(StringBuilder out, double value) {
+        if (value == (long) value)
+            out.append((long) value);
+        else
+            out.append(value);
+    }
+}
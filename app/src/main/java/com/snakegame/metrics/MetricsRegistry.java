@@ -0,0 +1,44 @@
+package com.snakegame.metrics;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Set of metrics exported together.
+ */
+public class MetricsRegistry {
+    private final CopyOnWriteArrayList<Metric> metrics = new CopyOnWriteArrayList<Metric>();
+
+    public <T extends Metric> T register(T metric) {
+        for (Metric registered : metrics)
+            if (registered.getName().equals(metric.getName()))
+                throw new IllegalArgumentException("Metric " + metric.getName() + " is already registered");
+
+        metrics.add(metric);
+        return metric;
+    }
+
+    /**
+     * Stops exporting the given metric, e.g. once what it measures is gone.
+     */
+    public void unregister(Metric metric) {
+        metrics.remove(metric);
+    }
+
+    public Counter counter(String name, String help) {
+        return register(new Counter(name, help));
+    }
+
+    public Histogram histogram(String name, String help, double... bounds) {
+        return register(new Histogram(name, help, bounds));
+    }
+
+    /**
+     * Returns every metric in the Prometheus text exposition format.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics)
+            metric.writeTo(out);
+        return out.toString();
+    }
+}
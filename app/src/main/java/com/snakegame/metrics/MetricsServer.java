@@ -0,0 +1,135 @@
+package com.snakegame.metrics;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+
+/**
+ * Minimal HTTP listener serving a registry on {@code GET /metrics} in the Prometheus text
+ * format. Requests are handled one at a time on a single thread, scrapes being rare and small.
+ */
+public class MetricsServer implements Runnable {
+    private static final String TAG = MetricsServer.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // a scraper that doesn't send its request in time is disconnected
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+
+    private final MetricsRegistry registry;
+    private final ServerSocket serverSocket;
+
+    private volatile boolean running;
+
+    /**
+     * Opens the server socket. Port 0 picks a free port, see {@link #getPort()}.
+     */
+    public MetricsServer(MetricsRegistry registry, int port) throws IOException {
+        this.registry = registry;
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+
+        running = true;
+    }
+
+    /**
+     * Starts serving on a thread of its own.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "MetricsServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+    }
+
+    @Override
+    public void run() {
+        Log.i(TAG, "Serving metrics on port " + getPort());
+
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // closed by stop
+                break;
+            }
+
+            try {
+                serve(socket);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not answer metrics request", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing left to do
+                }
+            }
+        }
+
+        Log.i(TAG, "Metrics server stopped");
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+        String requestLine = in.readLine();
+        if (requestLine == null)
+            return;
+
+        // skip the headers, nothing in them changes the answer
+        String header = in.readLine();
+        while (header != null && !header.isEmpty())
+            header = in.readLine();
+
+        String[] parts = requestLine.split(" ");
+        String method = parts[0];
+        String path = parts.length > 1 ? parts[1] : "";
+
+        if (!method.equals("GET") && !method.equals("HEAD"))
+            respond(socket, "405 Method Not Allowed", "Method not allowed\n", true);
+        else if (path.equals("/metrics") || path.startsWith("/metrics?"))
+            respond(socket, "200 OK", registry.scrape(), method.equals("GET"));
+        else
+            respond(socket, "404 Not Found", "Metrics are served on /metrics\n", true);
+    }
+
+    private static void respond(Socket socket, String status, String body, boolean withBody) throws IOException {
+        byte[] content = body.getBytes(UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + CONTENT_TYPE + "\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+
+        OutputStream out = socket.getOutputStream();
+        out.write(head.getBytes(UTF_8));
+        if (withBody)
+            out.write(content);
+        out.flush();
+    }
+}
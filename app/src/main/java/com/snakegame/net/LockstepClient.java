@@ -0,0 +1,252 @@
+package com.snakegame.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Client side of a lockstep session. Networking runs on its own thread, the game thread
+ * sends inputs with {@link #sendInput(int, int)} and polls the broadcast ticks with
+ * {@link #pollTick()}; neither call blocks. A tick listener lets the game thread know when
+ * there is a tick to poll.
+ */
+public class LockstepClient implements Runnable {
+    private final String host;
+    private final int port;
+    private final int sessionId;
+    private final int players;
+
+    private Selector selector;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private final ByteBuffer in = ByteBuffer.allocate(4 * LockstepProtocol.MAX_FRAME_SIZE);
+    private final ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final ConcurrentLinkedQueue<TickInputs> ticks = new ConcurrentLinkedQueue<TickInputs>();
+
+    private volatile boolean running;
+    private volatile int playerIndex = -1;
+    private volatile long seed;
+    private volatile boolean started;
+    private volatile Runnable tickListener;
+    private volatile IOException error;
+
+    /**
+     * Inputs the server broadcast for one tick.
+     */
+    public static class TickInputs {
+        public final int tick;
+        public final int count;
+        public final byte[] players;
+        public final byte[] directions;
+
+        TickInputs(int tick, int count) {
+            this.tick = tick;
+            this.count = count;
+            players = new byte[count];
+            directions = new byte[count];
+        }
+    }
+
+    public LockstepClient(String host, int port, int sessionId, int players) {
+        this.host = host;
+        this.port = port;
+        this.sessionId = sessionId;
+        this.players = players;
+    }
+
+    /**
+     * Connects and joins the session on a new thread.
+     */
+    public void start() {
+        running = true;
+        new Thread(this, "LockstepClient").start();
+    }
+
+    public void close() {
+        running = false;
+
+        Selector s = selector;
+        if (s != null)
+            s.wakeup();
+    }
+
+    public int getPlayerIndex() {
+        return playerIndex;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Returns the seed every player of the session starts the game from, once it started.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets what to run on the network thread whenever a tick arrives, null for nothing.
+     */
+    public void setTickListener(Runnable listener) {
+        tickListener = listener;
+    }
+
+    public boolean isConnected() {
+        return running && error == null;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Sends the direction the player picked, to be applied at the given tick.
+     */
+    public void sendInput(int tick, int direction) {
+        if (!LockstepProtocol.isValidDirection(direction))
+            throw new IllegalArgumentException("Invalid direction " + direction);
+
+        ByteBuffer frame = ByteBuffer.allocate(2 + LockstepProtocol.INPUT_LENGTH);
+        LockstepProtocol.putInput(frame, tick, direction);
+        frame.flip();
+
+        outgoing.add(frame);
+
+        Selector s = selector;
+        if (s != null)
+            s.wakeup();
+    }
+
+    /**
+     * Returns the next broadcast tick, null if the server hasn't sent it yet.
+     */
+    public TickInputs pollTick() {
+        return ticks.poll();
+    }
+
+    @Override
+    public void run() {
+        try {
+            selector = Selector.open();
+
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ);
+
+            LockstepProtocol.putJoin(out, sessionId, players);
+
+            while (running) {
+                // move queued inputs to the output buffer and write them
+                ByteBuffer frame;
+                while (out.remaining() >= 2 + LockstepProtocol.INPUT_LENGTH && (frame = outgoing.poll()) != null)
+                    out.put(frame);
+                flush();
+
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey selected = keys.next();
+                    keys.remove();
+
+                    if (selected.isValid() && selected.isReadable())
+                        read();
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            running = false;
+
+            try {
+                if (channel != null)
+                    channel.close();
+                if (selector != null)
+                    selector.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        channel.write(out);
+        boolean pending = out.hasRemaining();
+        out.compact();
+
+        key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+        if (channel.read(in) < 0)
+            throw new IOException("Connection closed by server");
+
+        in.flip();
+
+        while (in.remaining() >= 2) {
+            int length = in.getShort(in.position());
+
+            if (length < 1 || length > LockstepProtocol.MAX_FRAME_LENGTH)
+                throw new IOException("Invalid frame length " + length);
+            if (in.remaining() < 2 + length)
+                break;
+
+            in.position(in.position() + 2);
+            int end = in.position() + length;
+            handleFrame(in.get(), length);
+            in.position(end);
+        }
+
+        in.compact();
+    }
+
+    private void handleFrame(byte type, int length) throws IOException {
+        switch (type) {
+            case LockstepProtocol.WELCOME:
+                if (length != LockstepProtocol.WELCOME_LENGTH)
+                    throw new IOException("Invalid welcome frame length " + length);
+                in.getInt();
+                playerIndex = in.get();
+                break;
+            case LockstepProtocol.START:
+                if (length != LockstepProtocol.START_LENGTH)
+                    throw new IOException("Invalid start frame length " + length);
+                in.getInt();
+                seed = in.getLong();
+                started = true;
+                break;
+            case LockstepProtocol.TICK:
+                int tickNumber = in.getInt(), count = in.get();
+                if (count < 0 || length != LockstepProtocol.getTickLength(count))
+                    throw new IOException("Invalid tick frame length " + length);
+
+                TickInputs tick = new TickInputs(tickNumber, count);
+                for (int i = 0; i < tick.count; i++) {
+                    tick.players[i] = in.get();
+                    tick.directions[i] = in.get();
+
+                    // the game indexes with these, a bad byte must not get past the network thread
+                    if (tick.players[i] < 0 || tick.players[i] >= players)
+                        throw new IOException("Invalid player " + tick.players[i] + " at tick " + tickNumber);
+                    if (!LockstepProtocol.isValidDirection(tick.directions[i]))
+                        throw new IOException("Invalid direction " + tick.directions[i] + " at tick " + tickNumber);
+                }
+                ticks.add(tick);
+
+                Runnable listener = tickListener;
+                if (listener != null)
+                    listener.run();
+                break;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.snakegame.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of lockstep sessions. Every message is a frame made of a short length,
+ * a type byte and the payload, the length covering type and payload.
+ *
+ * <pre>
+ * JOIN     client to server  session id int, number of players byte
+ * WELCOME  server to client  session id int, player index byte, number of players byte
+ * START    server to client  first tick int, game seed long
+ * INPUT    client to server  tick int, direction byte
+ * TICK     server to client  tick int, count byte, (player byte, direction byte) per input
+ * </pre>
+ *
+ * Directions are {@link com.snakegame.logic.Direction} ordinals. Every player starts the game
+ * from the seed of the session, so that they all spawn the same elements.
+ */
+public final class LockstepProtocol {
+    public static final byte JOIN = 1;
+    public static final byte WELCOME = 2;
+    public static final byte START = 3;
+    public static final byte INPUT = 4;
+    public static final byte TICK = 5;
+
+    // ticks per second of a session, same as the game loop
+    public static final int TICK_RATE = 30;
+
+    public static final int MAX_PLAYERS = 8;
+
+    // number of directions, inputs carry an ordinal below it
+    public static final int DIRECTION_COUNT = 4;
+
+    // maximum number of inputs broadcast in a single tick
+    public static final int MAX_INPUTS_PER_TICK = 64;
+
+    // maximum number of inputs a player may have waiting to be broadcast, a fair share of a tick
+    public static final int MAX_INPUTS_PER_PLAYER = MAX_INPUTS_PER_TICK / MAX_PLAYERS;
+
+    // how far past the last broadcast tick an input may be stamped, one second
+    public static final int MAX_INPUT_LEAD_TICKS = TICK_RATE;
+
+    // frame lengths, type and payload included
+    public static final int JOIN_LENGTH = 6;
+    public static final int WELCOME_LENGTH = 7;
+    public static final int START_LENGTH = 13;
+    public static final int INPUT_LENGTH = 6;
+
+    // maximum frame length, a tick frame carrying as many inputs as a tick can
+    public static final int MAX_FRAME_LENGTH = getTickLength(MAX_INPUTS_PER_TICK);
+
+    // maximum number of bytes a frame takes, its length short included
+    public static final int MAX_FRAME_SIZE = 2 + MAX_FRAME_LENGTH;
+
+    private LockstepProtocol() {
+    }
+
+    /**
+     * Returns the length of a tick frame carrying count inputs.
+     */
+    public static int getTickLength(int count) {
+        return 6 + 2 * count;
+    }
+
+    /**
+     * Returns whether a direction byte read from a peer is a direction ordinal.
+     */
+    public static boolean isValidDirection(int direction) {
+        return direction >= 0 && direction < DIRECTION_COUNT;
+    }
+
+    public static void putJoin(ByteBuffer out, int sessionId, int players) {
+        out.putShort((short) JOIN_LENGTH);
+        out.put(JOIN);
+        out.putInt(sessionId);
+        out.put((byte) players);
+    }
+
+    public static void putWelcome(ByteBuffer out, int sessionId, int playerIndex, int players) {
+        out.putShort((short) WELCOME_LENGTH);
+        out.put(WELCOME);
+        out.putInt(sessionId);
+        out.put((byte) playerIndex);
+        out.put((byte) players);
+    }
+
+    public static void putStart(ByteBuffer out, int firstTick, long seed) {
+        out.putShort((short) START_LENGTH);
+        out.put(START);
+        out.putInt(firstTick);
+        out.putLong(seed);
+    }
+
+    public static void putInput(ByteBuffer out, int tick, int direction) {
+        out.putShort((short) INPUT_LENGTH);
+        out.put(INPUT);
+        out.putInt(tick);
+        out.put((byte) direction);
+    }
+
+    /**
+     * Writes a tick frame with count inputs taken from the players and directions arrays.
+     */
+    public static void putTick(ByteBuffer out, int tick, byte[] players, byte[] directions, int count) {
+        out.putShort((short) getTickLength(count));
+        out.put(TICK);
+        out.putInt(tick);
+        out.put((byte) count);
+        for (int i = 0; i < count; i++) {
+            out.put(players[i]);
+            out.put(directions[i]);
+        }
+    }
+}
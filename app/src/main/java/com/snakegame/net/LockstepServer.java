@@ -0,0 +1,473 @@
+package com.snakegame.net;
+
+import com.snakegame.logic.GameLog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lockstep session server running on a single thread around a java.nio selector.
+ * Clients join a session by id, once all players joined the session starts and every tick the
+ * server broadcasts the inputs received for that tick to all players of the session.
+ * Inputs stamped with a tick that has already been broadcast go out with the next tick.
+ * Inputs stamped too far ahead, or beyond what a player may have pending, are dropped, so that
+ * no player can crowd out the inputs of the others.
+ */
+public class LockstepServer implements Runnable {
+    private static final String TAG = LockstepServer.class.getSimpleName();
+
+    private static final long TICK_PERIOD_NANOS = 1000000000L / LockstepProtocol.TICK_RATE;
+
+    // a client that falls this far behind on reading is disconnected
+    private static final int MAX_PENDING_OUTPUT = 64 * 1024;
+
+    private final GameLog log;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+
+    private final HashMap<Integer, Session> sessions = new HashMap<Integer, Session>();
+    private final ArrayList<Session> startedSessions = new ArrayList<Session>();
+
+    // frame being broadcast, encoded once for all players of a session
+    private final ByteBuffer scratch = ByteBuffer.allocate(LockstepProtocol.MAX_FRAME_SIZE);
+
+    // seeds of the games the sessions play
+    private final Random seeds = new Random();
+
+    private volatile boolean running;
+
+    // stats
+    private final AtomicLong ticksBroadcast = new AtomicLong();
+    private final AtomicLong inputsReceived = new AtomicLong();
+    private final AtomicLong inputsDropped = new AtomicLong();
+    private final AtomicLong sessionsStarted = new AtomicLong();
+    private volatile int activeSessions;
+    private volatile int connectedClients;
+
+    private static class Session {
+        final int id;
+        final int players;
+        final Connection[] connections;
+        int joined;
+        boolean started;
+        int tick;
+
+        // inputs waiting to be broadcast
+        final int[] inputTicks = new int[LockstepProtocol.MAX_INPUTS_PER_TICK];
+        final byte[] inputPlayers = new byte[LockstepProtocol.MAX_INPUTS_PER_TICK];
+        final byte[] inputDirections = new byte[LockstepProtocol.MAX_INPUTS_PER_TICK];
+        int inputCount;
+
+        // pending inputs of each player, capped so that every player always has room
+        final int[] playerInputCounts;
+
+        // inputs of the tick being broadcast
+        final byte[] tickPlayers = new byte[LockstepProtocol.MAX_INPUTS_PER_TICK];
+        final byte[] tickDirections = new byte[LockstepProtocol.MAX_INPUTS_PER_TICK];
+
+        Session(int id, int players) {
+            this.id = id;
+            this.players = players;
+            connections = new Connection[players];
+            playerInputCounts = new int[players];
+        }
+    }
+
+    private static class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(4 * LockstepProtocol.MAX_FRAME_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        Session session;
+        int playerIndex = -1;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Opens the server socket. Port 0 picks a free port, see {@link #getPort()}.
+     */
+    public LockstepServer(int port, GameLog log) throws IOException {
+        this.log = log;
+        selector = Selector.open();
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port), 1024);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public long getTicksBroadcast() {
+        return ticksBroadcast.get();
+    }
+
+    public long getInputsReceived() {
+        return inputsReceived.get();
+    }
+
+    /**
+     * Returns the number of inputs dropped for being stamped too far ahead or for going over
+     * what their player may have pending.
+     */
+    public long getInputsDropped() {
+        return inputsDropped.get();
+    }
+
+    public long getSessionsStarted() {
+        return sessionsStarted.get();
+    }
+
+    public int getActiveSessions() {
+        return activeSessions;
+    }
+
+    public int getConnectedClients() {
+        return connectedClients;
+    }
+
+    @Override
+    public void run() {
+        long nextTickTime = System.nanoTime() + TICK_PERIOD_NANOS;
+
+        try {
+            while (running) {
+                long timeout = (nextTickTime - System.nanoTime()) / 1000000;
+
+                if (timeout > 0)
+                    selector.select(timeout);
+                else
+                    selector.selectNow();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    try {
+                        if (key.isAcceptable())
+                            accept();
+                        if (key.isValid() && key.isReadable())
+                            read((Connection) key.attachment());
+                        if (key.isValid() && key.isWritable())
+                            flush((Connection) key.attachment());
+                    } catch (IOException e) {
+                        if (key.attachment() != null)
+                            disconnect((Connection) key.attachment());
+                    } catch (RuntimeException e) {
+                        // a bug triggered by one client only costs that client its session
+                        log.w(TAG, "Failed to serve a client: " + e);
+                        if (key.attachment() != null)
+                            disconnect((Connection) key.attachment());
+                    }
+                }
+
+                // broadcast every tick that is due
+                long now = System.nanoTime();
+                if (now >= nextTickTime) {
+                    broadcastTick();
+                    nextTickTime += TICK_PERIOD_NANOS;
+
+                    // don't try to catch up on ticks missed by a stalled server
+                    if (now - nextTickTime > TICK_PERIOD_NANOS)
+                        nextTickTime = now + TICK_PERIOD_NANOS;
+                }
+            }
+        } catch (IOException e) {
+            log.w(TAG, "Server stopped: " + e);
+        } finally {
+            close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+            connectedClients++;
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            disconnect(connection);
+            return;
+        }
+
+        ByteBuffer in = connection.in;
+        in.flip();
+
+        while (in.remaining() >= 2) {
+            int length = in.getShort(in.position());
+
+            if (length < 1 || length > LockstepProtocol.MAX_FRAME_LENGTH) {
+                disconnect(connection);
+                return;
+            }
+            if (in.remaining() < 2 + length)
+                break;
+
+            in.position(in.position() + 2);
+            int end = in.position() + length;
+            handleFrame(connection, in.get(), length, in);
+            in.position(end);
+
+            if (!connection.channel.isOpen())
+                return;
+        }
+
+        in.compact();
+    }
+
+    private void handleFrame(Connection connection, byte type, int length, ByteBuffer in) throws IOException {
+        switch (type) {
+            case LockstepProtocol.JOIN:
+                if (length != LockstepProtocol.JOIN_LENGTH)
+                    disconnect(connection);
+                else
+                    join(connection, in.getInt(), in.get());
+                break;
+            case LockstepProtocol.INPUT:
+                if (length != LockstepProtocol.INPUT_LENGTH)
+                    disconnect(connection);
+                else
+                    input(connection, in.getInt(), in.get());
+                break;
+            default:
+                disconnect(connection);
+                break;
+        }
+    }
+
+    private void join(Connection connection, int sessionId, int players) throws IOException {
+        if (connection.session != null || players < 1 || players > LockstepProtocol.MAX_PLAYERS) {
+            disconnect(connection);
+            return;
+        }
+
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            session = new Session(sessionId, players);
+            sessions.put(sessionId, session);
+            activeSessions++;
+        }
+
+        if (session.started || session.players != players) {
+            disconnect(connection);
+            return;
+        }
+
+        connection.session = session;
+        connection.playerIndex = session.joined;
+        session.connections[session.joined++] = connection;
+
+        scratch.clear();
+        LockstepProtocol.putWelcome(scratch, sessionId, connection.playerIndex, players);
+        send(connection);
+
+        // start the session once everybody is there
+        if (session.joined == session.players) {
+            session.started = true;
+            startedSessions.add(session);
+            sessionsStarted.incrementAndGet();
+
+            scratch.clear();
+            LockstepProtocol.putStart(scratch, session.tick + 1, seeds.nextLong());
+            broadcast(session);
+        }
+    }
+
+    private void input(Connection connection, int tick, int direction) throws IOException {
+        Session session = connection.session;
+        if (session == null || !session.started || !LockstepProtocol.isValidDirection(direction)) {
+            disconnect(connection);
+            return;
+        }
+
+        inputsReceived.incrementAndGet();
+
+        // drop inputs stamped too far ahead and inputs of clients spamming more than their share
+        // of a tick, together players never have more pending than a tick can carry
+        int player = connection.playerIndex;
+        if (tick > session.tick + LockstepProtocol.MAX_INPUT_LEAD_TICKS
+                || session.playerInputCounts[player] == LockstepProtocol.MAX_INPUTS_PER_PLAYER) {
+            inputsDropped.incrementAndGet();
+            return;
+        }
+        session.playerInputCounts[player]++;
+
+        session.inputTicks[session.inputCount] = tick;
+        session.inputPlayers[session.inputCount] = (byte) connection.playerIndex;
+        session.inputDirections[session.inputCount] = (byte) direction;
+        session.inputCount++;
+    }
+
+    private void broadcastTick() throws IOException {
+        // backwards, a session ends if one of its players can't be written to
+        for (int s = startedSessions.size() - 1; s >= 0; s--) {
+            Session session = startedSessions.get(s);
+            try {
+                broadcastTick(session);
+            } catch (RuntimeException e) {
+                // only the session that triggered a bug ends
+                log.w(TAG, "Failed to broadcast tick " + session.tick + " of session " + session.id + ": " + e);
+                for (Connection connection : session.connections)
+                    if (connection != null)
+                        disconnect(connection);
+            }
+        }
+    }
+
+    /**
+     * Broadcasts the next tick of a started session.
+     */
+    private void broadcastTick(Session session) throws IOException {
+        session.tick++;
+
+        // move inputs due at this tick out of the pending ones, keep inputs for later ticks
+        int count = 0, kept = 0;
+        for (int i = 0; i < session.inputCount; i++) {
+            if (session.inputTicks[i] <= session.tick) {
+                session.tickPlayers[count] = session.inputPlayers[i];
+                session.tickDirections[count] = session.inputDirections[i];
+                session.playerInputCounts[session.inputPlayers[i]]--;
+                count++;
+            } else {
+                session.inputTicks[kept] = session.inputTicks[i];
+                session.inputPlayers[kept] = session.inputPlayers[i];
+                session.inputDirections[kept] = session.inputDirections[i];
+                kept++;
+            }
+        }
+        session.inputCount = kept;
+
+        scratch.clear();
+        LockstepProtocol.putTick(scratch, session.tick, session.tickPlayers, session.tickDirections, count);
+        broadcast(session);
+
+        ticksBroadcast.incrementAndGet();
+    }
+
+    private void broadcast(Session session) throws IOException {
+        for (Connection connection : session.connections)
+            if (connection != null && connection.channel.isOpen())
+                send(connection);
+    }
+
+    /**
+     * Queues the frame in scratch for the connection and writes as much as possible right away.
+     */
+    private void send(Connection connection) throws IOException {
+        scratch.flip();
+
+        if (connection.out.remaining() < scratch.remaining()) {
+            if (connection.out.position() + scratch.remaining() > MAX_PENDING_OUTPUT) {
+                disconnect(connection);
+                return;
+            }
+
+            ByteBuffer out = ByteBuffer.allocate(2 * (connection.out.position() + scratch.remaining()));
+            connection.out.flip();
+            out.put(connection.out);
+            connection.out = out;
+        }
+        connection.out.put(scratch);
+
+        try {
+            flush(connection);
+        } catch (IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    private void flush(Connection connection) throws IOException {
+        connection.out.flip();
+        connection.channel.write(connection.out);
+        boolean pending = connection.out.hasRemaining();
+        connection.out.compact();
+
+        // only ask for write readiness while there is something left to write
+        if (connection.key.isValid())
+            connection.key.interestOps(pending
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes the connection and ends its session, lockstep cannot go on without a player.
+     */
+    private void disconnect(Connection connection) {
+        if (!connection.channel.isOpen())
+            return;
+
+        close(connection);
+
+        Session session = connection.session;
+        if (session != null && sessions.remove(session.id) != null) {
+            activeSessions--;
+            startedSessions.remove(session);
+
+            for (Connection other : session.connections)
+                if (other != null)
+                    close(other);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (!connection.channel.isOpen())
+            return;
+
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // nothing left to do
+        }
+        connectedClients--;
+    }
+
+    private void close() {
+        for (SelectionKey key : selector.keys())
+            if (key.attachment() != null)
+                close((Connection) key.attachment());
+
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            log.w(TAG, "Could not close the server socket: " + e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.snakegame.replay;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of replay files.
+ *
+ * <pre>
+ * header:   magic int, version byte, field width short, field height short, keyframe interval short,
+ *           topology (type byte, portal pair count short, two cell ints per pair)
+ * records:  tag byte followed by a keyframe or a move record
+ * index:    END tag, keyframe count int, (tick int, offset int) per keyframe
+ * footer:   index offset int, magic int
+ * </pre>
+ *
+ * A keyframe holds the full state: tick, move index, score, flags, slowed time, food, special
+ * element and every body cell. A move record holds a header byte (direction and which fields
+ * follow) and a varint tick delta, followed by only the fields that changed. The new head is the
+ * neighbor of the previous one in the recorded direction on the recorded topology.
+ */
+public final class ReplayFormat {
+    public static final int MAGIC = 0x534E4B52; // "SNKR"
+    public static final int VERSION = 2;
+
+    // size of the header of a board without portals and of the footer in bytes
+    public static final int HEADER_SIZE = 14;
+    public static final int FOOTER_SIZE = 8;
+
+    // record tags
+    public static final byte TAG_END = 0;
+    public static final byte TAG_KEYFRAME = 1;
+    public static final byte TAG_MOVE = 2;
+
+    // move record header bits, the two lowest bits hold the direction ordinal
+    public static final int MOVE_DIRECTION_MASK = 0x03;
+    public static final int MOVE_MOVED = 1 << 2;
+    public static final int MOVE_GREW = 1 << 3;
+    public static final int MOVE_FOOD = 1 << 4;
+    public static final int MOVE_SPECIAL = 1 << 5;
+    public static final int MOVE_SCORE = 1 << 6;
+    public static final int MOVE_FLAGS = 1 << 7;
+
+    // flags byte bits
+    public static final int FLAG_SHIELD = 1;
+    public static final int FLAG_DEAD = 1 << 1;
+
+    // special element type when there is none on the board
+    public static final int NO_SPECIAL_ELEMENT = 0xFF;
+
+    private ReplayFormat() {
+    }
+
+    public static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
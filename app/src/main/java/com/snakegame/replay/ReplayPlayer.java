@@ -0,0 +1,315 @@
+package com.snakegame.replay;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Topology;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Plays a replay file back. Seeking loads the closest keyframe at or before the target tick
+ * and applies at most one keyframe interval of move records, so it never replays from the start.
+ */
+public class ReplayPlayer {
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final ByteBuffer data;
+
+    private final int fieldWidth, fieldHeight;
+    private final int keyframeInterval;
+
+    // board the game was played on, moves are decoded along it
+    private final Topology topology;
+
+    // where the records start, right after the header
+    private final int recordsOffset;
+
+    private int[] keyframeTicks;
+    private int[] keyframeOffsets;
+    private int keyframeCount;
+
+    // tick of the last record, a move or a keyframe
+    private int endTick;
+
+    private final ReplayState state = new ReplayState();
+    private boolean finished;
+
+    // playback position, the state is the one of the last record at or before it
+    private int tick;
+
+    public ReplayPlayer(File file) throws IOException {
+        this(readFile(file));
+    }
+
+    public ReplayPlayer(byte[] bytes) throws IOException {
+        data = ByteBuffer.wrap(bytes);
+
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < ReplayFormat.HEADER_SIZE || header.readInt() != ReplayFormat.MAGIC)
+            throw new IOException("Not a replay file");
+        if (header.readByte() != ReplayFormat.VERSION)
+            throw new IOException("Unsupported replay version");
+
+        fieldWidth = header.readShort();
+        fieldHeight = header.readShort();
+        if (!Level.isValidSize(fieldWidth, fieldHeight))
+            throw new IOException("Invalid field size " + fieldWidth + "x" + fieldHeight);
+        keyframeInterval = header.readShort();
+        topology = Topology.readFrom(header, fieldWidth, fieldHeight);
+        recordsOffset = bytes.length - header.available();
+
+        // an unfinished recording has no index and has to be scanned once
+        if (!readIndex())
+            scanIndex();
+
+        if (keyframeCount == 0)
+            throw new IOException("Replay has no keyframe");
+
+        seek(keyframeTicks[0]);
+    }
+
+    public ReplayState getState() {
+        return state;
+    }
+
+    public int getFieldWidth() {
+        return fieldWidth;
+    }
+
+    public int getFieldHeight() {
+        return fieldHeight;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Returns the tick of the last recorded state.
+     */
+    public int getEndTick() {
+        return endTick;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Jumps to the last recorded state at or before the given tick.
+     */
+    public void seek(int tick) {
+        // find the last keyframe at or before tick
+        int i = Arrays.binarySearch(keyframeTicks, 0, keyframeCount, tick);
+        if (i < 0)
+            i = Math.max(-i - 2, 0);
+        else
+            // several keyframes can share a tick, take the last one
+            while (i + 1 < keyframeCount && keyframeTicks[i + 1] == tick)
+                i++;
+
+        data.position(keyframeOffsets[i]);
+        data.get();
+        readKeyframe();
+
+        finished = false;
+        stepTo(tick);
+    }
+
+    /**
+     * Plays the given number of ticks forward.
+     */
+    public void advance(int ticks) {
+        stepTo(tick + ticks);
+    }
+
+    private void stepTo(int tick) {
+        while (!finished) {
+            if (!data.hasRemaining()) {
+                finished = true;
+                break;
+            }
+
+            int mark = data.position();
+            byte tag = data.get();
+
+            if (tag == ReplayFormat.TAG_MOVE) {
+                int header = data.get() & 0xFF;
+                int tickDelta = ReplayFormat.readVarInt(data);
+
+                if (state.tick + tickDelta > tick) {
+                    data.position(mark);
+                    break;
+                }
+
+                readMove(header, tickDelta);
+            } else if (tag == ReplayFormat.TAG_KEYFRAME) {
+                // a keyframe written when moves were undone may come later than the target
+                if (data.getInt(data.position()) > tick) {
+                    data.position(mark);
+                    break;
+                }
+
+                readKeyframe();
+            } else {
+                data.position(mark);
+                finished = true;
+            }
+        }
+
+        this.tick = finished ? state.tick : tick;
+    }
+
+    private void readKeyframe() {
+        state.tick = data.getInt();
+        state.moveIndex = data.getInt();
+        state.score = data.getInt();
+        readFlags();
+        readFood();
+        readSpecialElement();
+
+        int length = data.getInt();
+        state.clearBody();
+        for (int i = 0; i < length; i++)
+            state.addTail(data.getShort(), data.getShort());
+    }
+
+    private void readMove(int header, int tickDelta) {
+        if ((header & ReplayFormat.MOVE_MOVED) != 0) {
+            int head = topology.cell(state.getX(0), state.getY(0));
+            int next = topology.neighbor(head, DIRECTIONS[header & ReplayFormat.MOVE_DIRECTION_MASK]);
+
+            if ((header & ReplayFormat.MOVE_GREW) == 0)
+                state.removeTail();
+            state.addHead(topology.getX(next), topology.getY(next));
+        }
+
+        if ((header & ReplayFormat.MOVE_SCORE) != 0)
+            state.score += ReplayFormat.readVarInt(data);
+        if ((header & ReplayFormat.MOVE_FOOD) != 0)
+            readFood();
+        if ((header & ReplayFormat.MOVE_SPECIAL) != 0)
+            readSpecialElement();
+        if ((header & ReplayFormat.MOVE_FLAGS) != 0)
+            readFlags();
+
+        state.tick += tickDelta;
+        state.moveIndex++;
+    }
+
+    private void readFlags() {
+        state.flags = data.get() & 0xFF;
+        state.slowedTimeRemaining = data.get() & 0xFF;
+    }
+
+    private void readFood() {
+        state.foodColor = data.getInt();
+        state.foodX = data.getShort();
+        state.foodY = data.getShort();
+    }
+
+    private void readSpecialElement() {
+        state.specialType = data.get() & 0xFF;
+        state.specialX = data.getShort();
+        state.specialY = data.getShort();
+    }
+
+    private boolean readIndex() {
+        int length = data.limit();
+        if (length < recordsOffset + ReplayFormat.FOOTER_SIZE
+                || data.getInt(length - 4) != ReplayFormat.MAGIC)
+            return false;
+
+        int indexOffset = data.getInt(length - ReplayFormat.FOOTER_SIZE);
+        if (indexOffset < recordsOffset || indexOffset >= length - ReplayFormat.FOOTER_SIZE)
+            return false;
+
+        data.position(indexOffset + 1);
+        keyframeCount = data.getInt();
+        keyframeTicks = new int[keyframeCount];
+        keyframeOffsets = new int[keyframeCount];
+        for (int i = 0; i < keyframeCount; i++) {
+            keyframeTicks[i] = data.getInt();
+            keyframeOffsets[i] = data.getInt();
+        }
+
+        // drop the index from the records
+        data.limit(indexOffset + 1);
+
+        // a finished recording ends with a keyframe
+        endTick = keyframeTicks[keyframeCount - 1];
+        return true;
+    }
+
+    private void scanIndex() {
+        keyframeTicks = new int[16];
+        keyframeOffsets = new int[16];
+        keyframeCount = 0;
+
+        data.position(recordsOffset);
+        int end = recordsOffset;
+        try {
+            while (data.hasRemaining()) {
+                int offset = data.position();
+                byte tag = data.get();
+
+                if (tag == ReplayFormat.TAG_KEYFRAME) {
+                    readKeyframe();
+
+                    if (keyframeCount == keyframeTicks.length) {
+                        keyframeTicks = Arrays.copyOf(keyframeTicks, keyframeCount * 2);
+                        keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframeCount * 2);
+                    }
+                    keyframeTicks[keyframeCount] = state.tick;
+                    keyframeOffsets[keyframeCount] = offset;
+                    keyframeCount++;
+                } else if (tag == ReplayFormat.TAG_MOVE) {
+                    int header = data.get() & 0xFF;
+                    readMove(header, ReplayFormat.readVarInt(data));
+                } else {
+                    break;
+                }
+
+                end = data.position();
+                endTick = state.tick;
+            }
+        } catch (BufferUnderflowException e) {
+            // the recording was cut in the middle of a record
+        }
+
+        // ignore whatever follows the last complete record
+        data.limit(end);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0)
+                    throw new IOException("Unexpected end of replay file");
+                read += n;
+            }
+        }
+
+        return bytes;
+    }
+}
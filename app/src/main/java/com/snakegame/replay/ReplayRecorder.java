@@ -0,0 +1,224 @@
+package com.snakegame.replay;
+
+import com.snakegame.logic.Cell;
+import com.snakegame.logic.Food;
+import com.snakegame.logic.GridPoint;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Snake;
+import com.snakegame.logic.SpecialElements;
+import com.snakegame.logic.Topology;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes a game to a replay file: a keyframe every keyframeInterval moves and a delta record
+ * for every move in between. See {@link ReplayFormat} for the layout.
+ */
+public class ReplayRecorder {
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+    private final DataOutputStream out;
+    private final int keyframeInterval;
+
+    // state as written so far, used to compute the deltas
+    private final ReplayState state = new ReplayState();
+
+    // keyframe index written when the recording is closed
+    private int[] keyframeTicks = new int[16];
+    private int[] keyframeOffsets = new int[16];
+    private int keyframeCount;
+
+    public ReplayRecorder(File file, Topology topology, int keyframeInterval) throws IOException {
+        // sizes and coordinates are written as shorts
+        if (!Level.isValidSize(topology.getWidth(), topology.getHeight()))
+            throw new IllegalArgumentException("Invalid field size " + topology.getWidth() + "x" + topology.getHeight());
+
+        this.keyframeInterval = keyframeInterval;
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(ReplayFormat.MAGIC);
+        out.writeByte(ReplayFormat.VERSION);
+        out.writeShort(topology.getWidth());
+        out.writeShort(topology.getHeight());
+        out.writeShort(keyframeInterval);
+        topology.writeTo(out);
+    }
+
+    /**
+     * Records the initial state of the game.
+     */
+    public void recordStart(int tick, Snake snake, Food food, SpecialElements specialElements) throws IOException {
+        state.moveIndex = 0;
+        recordJump(tick, snake, food, specialElements);
+    }
+
+    /**
+     * Records a state that does not follow from the previous one by a move, e.g. after moves
+     * were undone, as a keyframe.
+     */
+    public void recordJump(int tick, Snake snake, Food food, SpecialElements specialElements) throws IOException {
+        state.tick = tick;
+
+        state.clearBody();
+        for (Cell cell : snake.getCells())
+            state.addTail(cell.getLocation().x, cell.getLocation().y);
+
+        captureElements(snake, food, specialElements);
+        writeKeyframe();
+    }
+
+    /**
+     * Records the changes made by one move tick.
+     */
+    public void recordMove(int tick, Snake snake, Food food, SpecialElements specialElements) throws IOException {
+        int header = snake.getDirection().ordinal();
+
+        // body
+        GridPoint head = snake.getHead().getLocation();
+        boolean moved = head.x != state.getX(0) || head.y != state.getY(0);
+        if (moved) {
+            header |= ReplayFormat.MOVE_MOVED;
+
+            if (snake.getCells().size() > state.getLength())
+                header |= ReplayFormat.MOVE_GREW;
+            else
+                state.removeTail();
+
+            state.addHead(head.x, head.y);
+        }
+
+        // score, food, special element and flags
+        int previousScore = state.score;
+        int previousFoodColor = state.foodColor, previousFoodX = state.foodX, previousFoodY = state.foodY;
+        int previousSpecialType = state.specialType, previousSpecialX = state.specialX, previousSpecialY = state.specialY;
+        int previousFlags = state.flags, previousSlowedTime = state.slowedTimeRemaining;
+
+        captureElements(snake, food, specialElements);
+
+        if (state.score != previousScore)
+            header |= ReplayFormat.MOVE_SCORE;
+        if (state.foodColor != previousFoodColor || state.foodX != previousFoodX || state.foodY != previousFoodY)
+            header |= ReplayFormat.MOVE_FOOD;
+        if (state.specialType != previousSpecialType || state.specialX != previousSpecialX || state.specialY != previousSpecialY)
+            header |= ReplayFormat.MOVE_SPECIAL;
+        if (state.flags != previousFlags || state.slowedTimeRemaining != previousSlowedTime)
+            header |= ReplayFormat.MOVE_FLAGS;
+
+        // write the delta record
+        out.writeByte(ReplayFormat.TAG_MOVE);
+        out.writeByte(header);
+        ReplayFormat.writeVarInt(out, tick - state.tick);
+
+        if ((header & ReplayFormat.MOVE_SCORE) != 0)
+            ReplayFormat.writeVarInt(out, state.score - previousScore);
+        if ((header & ReplayFormat.MOVE_FOOD) != 0)
+            writeFood();
+        if ((header & ReplayFormat.MOVE_SPECIAL) != 0)
+            writeSpecialElement();
+        if ((header & ReplayFormat.MOVE_FLAGS) != 0)
+            writeFlags();
+
+        state.tick = tick;
+        state.moveIndex++;
+
+        if (state.moveIndex % keyframeInterval == 0)
+            writeKeyframe();
+    }
+
+    /**
+     * Writes the records buffered so far to the file. An unfinished recording can be played,
+     * its keyframes are found by scanning it.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes a last keyframe and the keyframe index, then closes the file.
+     */
+    public void close() throws IOException {
+        try {
+            if (keyframeCount == 0 || keyframeTicks[keyframeCount - 1] != state.tick)
+                writeKeyframe();
+
+            int indexOffset = out.size();
+            out.writeByte(ReplayFormat.TAG_END);
+            out.writeInt(keyframeCount);
+            for (int i = 0; i < keyframeCount; i++) {
+                out.writeInt(keyframeTicks[i]);
+                out.writeInt(keyframeOffsets[i]);
+            }
+
+            out.writeInt(indexOffset);
+            out.writeInt(ReplayFormat.MAGIC);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void captureElements(Snake snake, Food food, SpecialElements specialElements) {
+        state.score = snake.getScore();
+        state.flags = (snake.hasShield() ? ReplayFormat.FLAG_SHIELD : 0) | (snake.isDead() ? ReplayFormat.FLAG_DEAD : 0);
+        state.slowedTimeRemaining = snake.getSlowedTimeRemaining();
+
+        state.foodColor = food.getColor();
+        state.foodX = food.getLocation().x;
+        state.foodY = food.getLocation().y;
+
+        if (specialElements == null) {
+            state.specialType = ReplayFormat.NO_SPECIAL_ELEMENT;
+            state.specialX = 0;
+            state.specialY = 0;
+        } else {
+            state.specialType = specialElements.getType().ordinal();
+            state.specialX = specialElements.getLocation().x;
+            state.specialY = specialElements.getLocation().y;
+        }
+    }
+
+    private void writeKeyframe() throws IOException {
+        if (keyframeCount == keyframeTicks.length) {
+            keyframeTicks = Arrays.copyOf(keyframeTicks, keyframeCount * 2);
+            keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframeCount * 2);
+        }
+        keyframeTicks[keyframeCount] = state.tick;
+        keyframeOffsets[keyframeCount] = out.size();
+        keyframeCount++;
+
+        out.writeByte(ReplayFormat.TAG_KEYFRAME);
+        out.writeInt(state.tick);
+        out.writeInt(state.moveIndex);
+        out.writeInt(state.score);
+        writeFlags();
+        writeFood();
+        writeSpecialElement();
+
+        out.writeInt(state.getLength());
+        for (int i = 0; i < state.getLength(); i++) {
+            out.writeShort(state.getX(i));
+            out.writeShort(state.getY(i));
+        }
+    }
+
+    private void writeFlags() throws IOException {
+        out.writeByte(state.flags);
+        out.writeByte(state.slowedTimeRemaining);
+    }
+
+    private void writeFood() throws IOException {
+        out.writeInt(state.foodColor);
+        out.writeShort(state.foodX);
+        out.writeShort(state.foodY);
+    }
+
+    private void writeSpecialElement() throws IOException {
+        out.writeByte(state.specialType);
+        out.writeShort(state.specialX);
+        out.writeShort(state.specialY);
+    }
+}
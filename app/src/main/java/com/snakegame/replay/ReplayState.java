@@ -0,0 +1,92 @@
+package com.snakegame.replay;
+
+/**
+ * Full state of a recorded game at one tick, as stored in a keyframe.
+ * The body is kept in a ring buffer so that moves are applied in constant time.
+ */
+public class ReplayState {
+    public int tick;
+    public int moveIndex;
+
+    public int score;
+    public int flags;
+    public int slowedTimeRemaining;
+
+    public int foodColor;
+    public int foodX, foodY;
+
+    public int specialType = ReplayFormat.NO_SPECIAL_ELEMENT;
+    public int specialX, specialY;
+
+    // body ring buffer, index head is the snake head
+    private int[] bodyX = new int[64];
+    private int[] bodyY = new int[64];
+    private int head;
+    private int length;
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the x coordinate of the i-th body cell, 0 being the head.
+     */
+    public int getX(int i) {
+        return bodyX[(head + i) & (bodyX.length - 1)];
+    }
+
+    public int getY(int i) {
+        return bodyY[(head + i) & (bodyY.length - 1)];
+    }
+
+    public void addHead(int x, int y) {
+        if (length == bodyX.length)
+            grow();
+
+        head = (head - 1) & (bodyX.length - 1);
+        bodyX[head] = x;
+        bodyY[head] = y;
+        length++;
+    }
+
+    public void addTail(int x, int y) {
+        if (length == bodyX.length)
+            grow();
+
+        int tail = (head + length) & (bodyX.length - 1);
+        bodyX[tail] = x;
+        bodyY[tail] = y;
+        length++;
+    }
+
+    public void removeTail() {
+        length--;
+    }
+
+    public void clearBody() {
+        head = 0;
+        length = 0;
+    }
+
+    public boolean hasShield() {
+        return (flags & ReplayFormat.FLAG_SHIELD) != 0;
+    }
+
+    public boolean isDead() {
+        return (flags & ReplayFormat.FLAG_DEAD) != 0;
+    }
+
+    private void grow() {
+        int[] x = new int[bodyX.length * 2];
+        int[] y = new int[bodyY.length * 2];
+
+        for (int i = 0; i < length; i++) {
+            x[i] = getX(i);
+            y[i] = getY(i);
+        }
+
+        bodyX = x;
+        bodyY = y;
+        head = 0;
+    }
+}
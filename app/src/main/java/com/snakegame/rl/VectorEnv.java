@@ -0,0 +1,394 @@
+package com.snakegame.rl;
+
+import com.snakegame.logic.Cell;
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.Food;
+import com.snakegame.logic.GameElements;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GameLog;
+import com.snakegame.logic.GridPoint;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Snake;
+import com.snakegame.logic.SpecialElements;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Batched reinforcement learning environment stepping N independent games with the same
+ * {@link GameEngine} rules as the live game.
+ * <p>
+ * One step moves every snake once. Observations are written to a reusable buffer holding one
+ * width x height grid of cell codes per game, rewards are the score gained by the step and a game
+ * that ended is reset right away, its observation then being the first one of the new episode.
+ * Grids are updated incrementally and stepping does not allocate. Games are split over worker
+ * threads, the calling thread stepping the first share itself.
+ * <p>
+ * The engines log to {@link GameLog#NONE}, so stepping writes no per move debug logs.
+ */
+public class VectorEnv {
+    // cell codes of the observation grids
+    public static final byte EMPTY = 0;
+    public static final byte BODY = 1;
+    public static final byte HEAD = 2;
+    public static final byte FOOD = 3;
+    public static final byte CLOCK = 4;
+    public static final byte SHIELD = 5;
+    public static final byte WALL = 6;
+    public static final byte REWIND = 7;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int numEnvs;
+    private final int width, height;
+    private final int cellsPerEnv;
+    private final int maxEpisodeSteps;
+    private final long seed;
+
+    private final GameEngine[] engines;
+    private final int[] episodes;
+    private final int[] episodeSteps;
+
+    private final ByteBuffer observations;
+    private final float[] rewards;
+    private final boolean[] dones;
+
+    // elements as drawn in the observations, to erase them when they move
+    private final int[] drawnFood;
+    private final int[] drawnSpecial;
+
+    // a lost shield lets the snake overlap itself or a wall, grids are redrawn in full
+    // until every overlapping cell has left the body
+    private final int[] fullRedrawSteps;
+
+    // workers, worker i steps games [bounds[i], bounds[i + 1])
+    private final Thread[] workers;
+    private final int[] bounds;
+    private final AtomicInteger pendingWorkers = new AtomicInteger();
+    private volatile int generation;
+    private volatile boolean closed;
+    private volatile Thread caller;
+    private int[] actions;
+
+    // first failure of a worker in the current step, rethrown by step() on the caller's thread
+    private volatile Throwable workerFailure;
+
+    public VectorEnv(int numEnvs, int fieldWidth, int fieldHeight, Properties itemWeights, long seed,
+                     int maxEpisodeSteps, int threads) {
+        this.numEnvs = numEnvs;
+        this.width = fieldWidth;
+        this.height = fieldHeight;
+        this.cellsPerEnv = fieldWidth * fieldHeight;
+        this.maxEpisodeSteps = maxEpisodeSteps;
+        this.seed = seed;
+
+        engines = new GameEngine[numEnvs];
+        episodes = new int[numEnvs];
+        episodeSteps = new int[numEnvs];
+        for (int i = 0; i < numEnvs; i++)
+            engines[i] = new GameEngine(fieldWidth, fieldHeight, 0, false, itemWeights, episodeSeed(i));
+
+        observations = ByteBuffer.allocateDirect(numEnvs * cellsPerEnv);
+        rewards = new float[numEnvs];
+        dones = new boolean[numEnvs];
+        drawnFood = new int[numEnvs];
+        drawnSpecial = new int[numEnvs];
+        fullRedrawSteps = new int[numEnvs];
+
+        threads = Math.max(1, Math.min(threads, numEnvs));
+        bounds = new int[threads + 1];
+        for (int t = 0; t <= threads; t++)
+            bounds[t] = (int) ((long) numEnvs * t / threads);
+
+        workers = new Thread[threads - 1];
+        for (int t = 1; t < threads; t++) {
+            final int from = bounds[t], to = bounds[t + 1];
+
+            workers[t - 1] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(from, to);
+                }
+            }, "VectorEnv-" + t);
+            workers[t - 1].setDaemon(true);
+            workers[t - 1].start();
+        }
+
+        reset();
+    }
+
+    public int getNumEnvs() {
+        return numEnvs;
+    }
+
+    public int getFieldWidth() {
+        return width;
+    }
+
+    public int getFieldHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the engine of game i, to check its grid against.
+     */
+    GameEngine getEngine(int i) {
+        return engines[i];
+    }
+
+    /**
+     * Observation grids, game i occupying bytes [i * width * height, (i + 1) * width * height),
+     * row by row.
+     */
+    public ByteBuffer getObservations() {
+        return observations;
+    }
+
+    public float[] getRewards() {
+        return rewards;
+    }
+
+    public boolean[] getDones() {
+        return dones;
+    }
+
+    /**
+     * Starts a new episode in every game.
+     */
+    public void reset() {
+        checkNotClosed();
+
+        for (int i = 0; i < numEnvs; i++) {
+            resetEnv(i);
+            rewards[i] = 0;
+            dones[i] = false;
+        }
+    }
+
+    /**
+     * Moves every snake once. actions[i] is the {@link Direction} ordinal game i turns to,
+     * any other value keeps the current direction.
+     *
+     * @throws IllegalStateException if the environment was closed, before or during the step
+     * @throws RuntimeException if stepping a game failed on a worker thread, the failure being
+     *                          the cause
+     */
+    public void step(int[] actions) {
+        checkNotClosed();
+        if (actions.length < numEnvs)
+            throw new IllegalArgumentException("Expected " + numEnvs + " actions, got " + actions.length);
+
+        this.actions = actions;
+        caller = Thread.currentThread();
+        workerFailure = null;
+        pendingWorkers.set(workers.length);
+
+        // the generation write publishes the actions to the workers
+        generation++;
+        for (Thread worker : workers)
+            LockSupport.unpark(worker);
+
+        // the workers are waited for even if the caller's share fails, so that the next step
+        // doesn't start while they still run this one
+        RuntimeException failure = null;
+        try {
+            stepRange(bounds[0], bounds[1]);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        // workers stopped by a close never finish the step
+        while (pendingWorkers.get() != 0) {
+            checkNotClosed();
+            LockSupport.park(this);
+        }
+
+        if (failure != null)
+            throw failure;
+
+        Throwable workerFailure = this.workerFailure;
+        if (workerFailure instanceof Error)
+            throw (Error) workerFailure;
+        if (workerFailure != null)
+            throw new RuntimeException("Stepping failed on a worker thread", workerFailure);
+    }
+
+    /**
+     * Stops the worker threads. The environment can't be stepped or reset afterwards.
+     */
+    public void close() {
+        closed = true;
+        for (Thread worker : workers)
+            LockSupport.unpark(worker);
+
+        Thread caller = this.caller;
+        if (caller != null)
+            LockSupport.unpark(caller);
+    }
+
+    private void checkNotClosed() {
+        if (closed)
+            throw new IllegalStateException("Environment closed");
+    }
+
+    private void workerLoop(int from, int to) {
+        int seen = 0;
+
+        while (true) {
+            while (generation == seen && !closed)
+                LockSupport.park(this);
+
+            if (closed)
+                return;
+
+            seen = generation;
+            try {
+                stepRange(from, to);
+            } catch (Throwable t) {
+                // the worker stays alive for the next steps, the caller reports the failure
+                if (workerFailure == null)
+                    workerFailure = t;
+            } finally {
+                if (pendingWorkers.decrementAndGet() == 0)
+                    LockSupport.unpark(caller);
+            }
+        }
+    }
+
+    private void stepRange(int from, int to) {
+        for (int i = from; i < to; i++)
+            stepEnv(i, actions[i]);
+    }
+
+    private void stepEnv(int i, int action) {
+        GameEngine engine = engines[i];
+        Snake snake = engine.getSnake();
+        int base = i * cellsPerEnv;
+
+        // what the step may change in the grid
+        GridPoint head = snake.getHead().getLocation();
+        GridPoint tail = snake.getCells().peekLast().getLocation();
+        int oldHead = head.y * width + head.x;
+        int oldTail = tail.y * width + tail.x;
+        int oldLength = snake.getCells().size();
+        int oldScore = snake.getScore();
+        boolean hadShield = snake.hasShield();
+
+        if (action >= 0 && action < DIRECTIONS.length)
+            engine.queueDirection(DIRECTIONS[action]);
+
+        // run ticks until the snake moves
+        while (!engine.update()) {
+        }
+
+        rewards[i] = snake.getScore() - oldScore;
+        episodeSteps[i]++;
+
+        if (snake.isDead() || episodeSteps[i] >= maxEpisodeSteps) {
+            dones[i] = true;
+            episodes[i]++;
+            resetEnv(i);
+            return;
+        }
+        dones[i] = false;
+
+        if (hadShield && !snake.hasShield())
+            fullRedrawSteps[i] = snake.getCells().size() + 1;
+
+        if (fullRedrawSteps[i] > 0) {
+            fullRedrawSteps[i]--;
+            drawFull(i, engine);
+            return;
+        }
+
+        // body: the tail leaves unless the snake grew, the old head becomes body
+        if (snake.getCells().size() == oldLength)
+            observations.put(base + oldTail, background(engine.getLevel(), oldTail));
+        observations.put(base + oldHead, BODY);
+
+        // elements: erase where they were unless the head took their place
+        head = snake.getHead().getLocation();
+        int newHead = head.y * width + head.x;
+
+        if (drawnSpecial[i] >= 0 && drawnSpecial[i] != newHead)
+            observations.put(base + drawnSpecial[i], background(engine.getLevel(), drawnSpecial[i]));
+
+        observations.put(base + newHead, HEAD);
+        drawElements(i, engine);
+    }
+
+    private void resetEnv(int i) {
+        GameEngine engine = engines[i];
+        engine.reset(episodeSeed(i));
+        episodeSteps[i] = 0;
+        fullRedrawSteps[i] = 0;
+
+        drawFull(i, engine);
+    }
+
+    private void drawFull(int i, GameEngine engine) {
+        int base = i * cellsPerEnv;
+
+        // walls and empty cells
+        Level level = engine.getLevel();
+        for (int cell = 0; cell < cellsPerEnv; cell++)
+            observations.put(base + cell, background(level, cell));
+
+        // snake, head last so that it shows where it overlaps the body
+        for (Cell cell : engine.getSnake().getCells()) {
+            GridPoint p = cell.getLocation();
+            observations.put(base + p.y * width + p.x, BODY);
+        }
+        GridPoint head = engine.getSnake().getHead().getLocation();
+        observations.put(base + head.y * width + head.x, HEAD);
+
+        drawElements(i, engine);
+    }
+
+    private void drawElements(int i, GameEngine engine) {
+        int base = i * cellsPerEnv;
+
+        Food food = engine.getFood();
+        drawnFood[i] = food.getLocation().y * width + food.getLocation().x;
+        observations.put(base + drawnFood[i], FOOD);
+
+        SpecialElements specialElements = engine.getSpecialElements();
+        if (specialElements == null) {
+            drawnSpecial[i] = -1;
+        } else {
+            drawnSpecial[i] = specialElements.getLocation().y * width + specialElements.getLocation().x;
+            observations.put(base + drawnSpecial[i], specialCode(specialElements.getType()));
+        }
+    }
+
+    private static byte specialCode(GameElements.GameElementType type) {
+        switch (type) {
+            case CLOCK:
+                return CLOCK;
+            case SHIELD:
+                return SHIELD;
+            default:
+                return REWIND;
+        }
+    }
+
+    /**
+     * Returns what a cell shows when nothing is on it. A snake saved by its shield can stand
+     * in a wall, so walls have to be restored once it leaves.
+     */
+    private byte background(Level level, int cell) {
+        return level.isBlocked(cell % width, cell / width) ? WALL : EMPTY;
+    }
+
+    /**
+     * Seed of the current episode of game i, derived from the environment seed (SplitMix64).
+     */
+    private long episodeSeed(int i) {
+        long z = seed + 0x9E3779B97F4A7C15L * (((long) i << 32) + episodes[i] + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -18,7 +18,7 @@ public class ActivitySwipeDetector  implements View.OnTouchListener{
 
     public void onRightToLeftSwipe(View v) {
         Log.v(logTag, "RightToLeftSwipe!");
-        //activity.right2left(v);
+        activity.onRightToLeftSwipe(v);
     }
 
     public void onLeftToRightSwipe(View v) {
@@ -1,33 +1,124 @@
 package com.snakegame.snake;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 import android.view.Window;
 import android.view.WindowManager;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.snakegame.bot.GreedyBot;
 import com.snakegame.logic.GamePanel;
-import com.snakegame.logic.MainThread;
+import com.snakegame.logic.GameTrace;
+import com.snakegame.metrics.GameMetrics;
+import com.snakegame.metrics.MetricsServer;
+
+import java.io.IOException;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
 
+    // launch extra running the snake rendering benchmark
+    private static final String EXTRA_BENCHMARK_RENDER = "benchmark_render";
+
+    // launch extra letting the tree search play
+    private static final String EXTRA_AI_PLAYER = "ai_player";
+
+    // launch extra letting a bot play, by name
+    private static final String EXTRA_BOT = "bot";
+
+    // launch extra letting a swipe back rewind the last moves, a debug feature
+    private static final String EXTRA_REWIND = "rewind";
+
+    // launch extra recording every game to an animated clip
+    private static final String EXTRA_RECORD_CLIPS = "record_clips";
+
+    // launch extra serving metrics for scrapers on the given port
+    private static final String EXTRA_METRICS_PORT = "metrics_port";
+
+    // launch extras joining a lockstep session: server host, port, session id and number of players
+    private static final String EXTRA_LOCKSTEP_HOST = "lockstep_host";
+    private static final String EXTRA_LOCKSTEP_PORT = "lockstep_port";
+    private static final String EXTRA_LOCKSTEP_SESSION = "lockstep_session";
+    private static final String EXTRA_LOCKSTEP_PLAYERS = "lockstep_players";
+
+    private static final int DEFAULT_LOCKSTEP_PORT = 7777;
+
+    // launch extras playing the last finished game, from a given tick and at a given speed
+    private static final String EXTRA_REPLAY_LAST_GAME = "replay_last_game";
+    private static final String EXTRA_REPLAY_TICK = "replay_tick";
+    private static final String EXTRA_REPLAY_SPEED = "replay_speed";
+
+    private MetricsServer metricsServer;
+
     private GamePanel gamePanel;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // start of the cold start measured up to the first frames
+        long createTime = SystemClock.uptimeMillis();
+
         super.onCreate(savedInstanceState);
 
+        // game loop sections show up in Perfetto / systrace
+        GameTrace.setSystemTrace(new GameTrace.SystemTrace() {
+            @Override
+            public void beginSection(String name) {
+                Trace.beginSection(name);
+            }
+
+            @Override
+            public void endSection() {
+                Trace.endSection();
+            }
+        });
+
         // request to turn the title OFF
         supportRequestWindowFeature(Window.FEATURE_NO_TITLE);
 
         // make it full screen
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN);
 
-        gamePanel = new GamePanel(this);
+        gamePanel = new GamePanel(this, createTime);
         setContentView(gamePanel);
 
+        // adb shell am start -n com.snakegame/.snake.MainActivity --ez benchmark_render true
+        if (getIntent() != null && getIntent().getBooleanExtra(EXTRA_BENCHMARK_RENDER, false))
+            gamePanel.startRenderBenchmark();
+
+        // adb shell am start -n com.snakegame/.snake.MainActivity --ez ai_player true
+        if (getIntent() != null && getIntent().getBooleanExtra(EXTRA_AI_PLAYER, false))
+            gamePanel.setAiEnabled(true);
+
+        // adb shell am start -n com.snakegame/.snake.MainActivity --es bot greedy
+        if (getIntent() != null && GreedyBot.NAME.equals(getIntent().getStringExtra(EXTRA_BOT)))
+            gamePanel.setBot(new GreedyBot());
+
+        // adb shell am start -n com.snakegame/.snake.MainActivity --ez rewind true
+        if (getIntent() != null && getIntent().getBooleanExtra(EXTRA_REWIND, false))
+            gamePanel.setRewindEnabled(true);
+
+        // adb shell am start -n com.snakegame/.snake.MainActivity --ez record_clips true
+        if (getIntent() != null && getIntent().getBooleanExtra(EXTRA_RECORD_CLIPS, false))
+            gamePanel.setRecordingClips(true);
+
+        // adb shell am start -n com.snakegame/.snake.MainActivity --ei metrics_port 9464
+        if (getIntent() != null && getIntent().getIntExtra(EXTRA_METRICS_PORT, 0) > 0)
+            startMetricsServer(getIntent().getIntExtra(EXTRA_METRICS_PORT, 0));
+
+        // adb shell am start -n com.snakegame/.snake.MainActivity --es lockstep_host 10.0.2.2 --ei lockstep_session 1 --ei lockstep_players 2
+        if (getIntent() != null && getIntent().getStringExtra(EXTRA_LOCKSTEP_HOST) != null)
+            gamePanel.joinMultiplayerSession(getIntent().getStringExtra(EXTRA_LOCKSTEP_HOST),
+                    getIntent().getIntExtra(EXTRA_LOCKSTEP_PORT, DEFAULT_LOCKSTEP_PORT),
+                    getIntent().getIntExtra(EXTRA_LOCKSTEP_SESSION, 0),
+                    getIntent().getIntExtra(EXTRA_LOCKSTEP_PLAYERS, 1));
+
+        // adb shell am start -n com.snakegame/.snake.MainActivity --ez replay_last_game true --ei replay_tick 300 --ei replay_speed 4
+        if (getIntent() != null && getIntent().getBooleanExtra(EXTRA_REPLAY_LAST_GAME, false))
+            startLastGameReplay(getIntent().getIntExtra(EXTRA_REPLAY_TICK, 0), getIntent().getIntExtra(EXTRA_REPLAY_SPEED, 1));
+
         Log.d(TAG, "View added");
     }
 
@@ -36,7 +127,7 @@ public class MainActivity extends AppCompatActivity {
         Log.d(TAG, "Restarting...");
 
         if (gamePanel != null)
-            gamePanel.initGame();
+            gamePanel.restartGame();
 
         super.onRestart();
     }
@@ -44,14 +135,49 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         Log.d(TAG, "Pausing...");
-        MainThread.setRunning(false);
+        if (gamePanel != null)
+            gamePanel.pause();
         super.onPause();
     }
 
     @Override
-    public void onBackPressed() {
-        MainThread.setRunning(false);
-        super.onBackPressed();
+    protected void onResume() {
+        super.onResume();
+        Log.d(TAG, "Resuming...");
+        if (gamePanel != null)
+            gamePanel.resume();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
+
+        super.onDestroy();
+    }
+
+    private void startLastGameReplay(int tick, int speed) {
+        try {
+            gamePanel.startLastGameReplay();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open the last game replay", e);
+            return;
+        }
+
+        if (tick > 0)
+            gamePanel.seekReplay(tick);
+        gamePanel.setReplaySpeed(speed);
+    }
+
+    private void startMetricsServer(int port) {
+        try {
+            metricsServer = new MetricsServer(GameMetrics.REGISTRY, port);
+            metricsServer.start();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not serve metrics on port " + port, e);
+        }
     }
 
 }
@@ -4,4 +4,6 @@ import android.view.View;
 
 public interface SwipeInterface {
     void onClick(View v, int x, int y);
+
+    void onRightToLeftSwipe(View v);
 }
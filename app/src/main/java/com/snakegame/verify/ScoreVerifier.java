@@ -0,0 +1,171 @@
+package com.snakegame.verify;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GameSubmission;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies submitted scores by re-simulating each game from its board, seed and input log with
+ * the same {@link GameEngine} rules as the live game. Batches are spread over a pool of worker
+ * threads, each of them reusing one engine for all the games it verifies.
+ * <p>
+ * A game only replays the same with the item weights it was played with. The verifier is given
+ * every set of weights it accepts and picks the one matching the hash in the submission.
+ */
+public class ScoreVerifier {
+    public enum Result {
+        VALID,
+        // the re-simulated game ended with a different score
+        SCORE_MISMATCH,
+        // the re-simulated game ended at another tick, or did not end at all
+        END_TICK_MISMATCH,
+        // the input log is malformed, or the submission is out of the limits of a real game
+        INVALID_INPUT,
+        // the game was played with item weights the verifier doesn't know
+        UNKNOWN_ITEM_WEIGHTS
+    }
+
+    // a small board is enough to load a set of weights and read its hash
+    private static final int PROBE_SIZE = 8;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final Map<Long, Properties> itemWeights = new HashMap<Long, Properties>();
+    private final int threads;
+    private final ExecutorService executor;
+
+    // engine of each worker thread, recreated only when the board or weights change
+    private final ThreadLocal<GameEngine> engines = new ThreadLocal<GameEngine>();
+
+    public ScoreVerifier(Properties itemWeights) {
+        this(itemWeights, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ScoreVerifier(Properties itemWeights, int threads) {
+        this(Collections.singletonList(itemWeights), threads);
+    }
+
+    /**
+     * Creates a verifier accepting games played with any of the given item weights, e.g. the
+     * ones of every released version of the game.
+     */
+    public ScoreVerifier(List<Properties> itemWeights, int threads) {
+        for (Properties weights : itemWeights) {
+            GameEngine probe = new GameEngine(PROBE_SIZE, PROBE_SIZE, 0, false, weights, 0);
+            this.itemWeights.put(probe.getItemWeightsHash(), weights);
+        }
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Verifies a batch of submissions in parallel, results are in submission order.
+     * A submission that fails to re-simulate is invalid, the rest of the batch goes on.
+     */
+    public Result[] verifyAll(final List<GameSubmission> submissions) throws InterruptedException {
+        final Result[] results = new Result[submissions.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        // workers pull submissions one at a time so that long games don't unbalance the batch
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < results.length) {
+                            try {
+                                results[i] = verify(submissions.get(i));
+                            } catch (RuntimeException e) {
+                                // a submission the engine can't even run is not a real game
+                                results[i] = Result.INVALID_INPUT;
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        done.await();
+        return results;
+    }
+
+    /**
+     * Verifies a single submission on the calling thread.
+     */
+    public Result verify(GameSubmission submission) {
+        if (!submission.isWithinLimits())
+            return Result.INVALID_INPUT;
+
+        Properties weights = itemWeights.get(submission.getItemWeightsHash());
+        if (weights == null)
+            return Result.UNKNOWN_ITEM_WEIGHTS;
+
+        GameEngine engine = engines.get();
+        if (engine == null
+                || engine.getItemWeightsHash() != submission.getItemWeightsHash()
+                || !engine.getLevel().equals(submission.getLevel())
+                || !engine.getTopology().equals(submission.getTopology())) {
+            engine = new GameEngine(submission.getLevel(), submission.getTopology(), 0, false,
+                    weights, submission.getSeed());
+            engines.set(engine);
+        }
+
+        engine.reset(submission.getSeed());
+
+        int inputCount = submission.getInputCount();
+        int nextInput = 0;
+        int previousInputTick = 0;
+
+        while (!engine.getSnake().isDead() && engine.getTickCounter() < submission.getEndTick()) {
+            int tick = engine.getTickCounter() + 1;
+
+            // queue the inputs given before this tick
+            while (nextInput < inputCount && submission.getInputTick(nextInput) <= tick) {
+                int inputTick = submission.getInputTick(nextInput);
+                int direction = submission.getInputDirection(nextInput);
+
+                if (inputTick < previousInputTick || direction < 0 || direction > GameSubmission.REWIND_INPUT)
+                    return Result.INVALID_INPUT;
+
+                // a rewind the game had no charge for never happened
+                if (direction == GameSubmission.REWIND_INPUT) {
+                    if (engine.useRewindCharge() == 0)
+                        return Result.INVALID_INPUT;
+                } else {
+                    engine.queueDirection(DIRECTIONS[direction]);
+                }
+                previousInputTick = inputTick;
+                nextInput++;
+            }
+
+            engine.update();
+        }
+
+        if (!engine.getSnake().isDead() || engine.getTickCounter() != submission.getEndTick())
+            return Result.END_TICK_MISMATCH;
+        if (nextInput < inputCount)
+            return Result.INVALID_INPUT;
+        if (engine.getSnake().getScore() != submission.getScore())
+            return Result.SCORE_MISMATCH;
+
+        return Result.VALID;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
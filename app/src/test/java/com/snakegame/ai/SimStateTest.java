@@ -0,0 +1,117 @@
+package com.snakegame.ai;
+
+import com.snakegame.levelgen.LevelGenerator;
+import com.snakegame.logic.Cell;
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GridPoint;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Topology;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Steps simulated states and engines in lockstep from the same positions with random turns,
+ * and checks after every move that they agree.
+ */
+public class SimStateTest {
+    private static final int WIDTH = 20, HEIGHT = 30;
+
+    // games per board, and moves played by the engine alone before the state is loaded
+    private static final int GAMES = 40;
+    private static final int LEAD_MOVES = 15;
+
+    private int shieldMoves, slowedMoves;
+
+    @Test
+    public void followsTheEngineMoveByMove() {
+        // special elements often, so that shields and clocks come into play
+        Properties weights = new Properties();
+        weights.setProperty("special.none", "12");
+        weights.setProperty("special.clock", "3");
+        weights.setProperty("special.shield", "4");
+        weights.setProperty("special.rewind", "1");
+
+        int[] portals = {
+                (HEIGHT / 2) * WIDTH + 2, (HEIGHT / 2) * WIDTH + WIDTH - 3,
+                3 * WIDTH + WIDTH / 2, (HEIGHT - 4) * WIDTH + WIDTH / 2};
+        Level walls = new LevelGenerator(LevelGenerator.Style.SCATTERED).generate(3, WIDTH, HEIGHT);
+
+        checkGames(Level.bordered(WIDTH, HEIGHT), Topology.bordered(WIDTH, HEIGHT), weights);
+        checkGames(walls, Topology.bordered(WIDTH, HEIGHT), weights);
+        checkGames(Level.create(WIDTH, HEIGHT), Topology.torus(WIDTH, HEIGHT), weights);
+        checkGames(Level.bordered(WIDTH, HEIGHT), Topology.portals(WIDTH, HEIGHT, portals), weights);
+
+        // the effects were exercised, not just plain moves
+        assertTrue("moves with a shield: " + shieldMoves, shieldMoves > 100);
+        assertTrue("moves with slowed time: " + slowedMoves, slowedMoves > 100);
+    }
+
+    private void checkGames(Level level, Topology topology, Properties weights) {
+        GameEngine engine = new GameEngine(level, topology, 0, false, weights, 0);
+        SimState state = new SimState(SimBoard.of(engine));
+        Random random = new Random(topology.getType().ordinal());
+
+        for (int game = 0; game < GAMES; game++) {
+            engine.reset(random.nextLong());
+
+            for (int i = 0; i < LEAD_MOVES && !engine.getSnake().isDead(); i++)
+                move(engine, randomTurn(random, engine.getSnake().getDirection().ordinal()));
+            state.load(engine);
+
+            int moves = 0;
+            while (!engine.getSnake().isDead() && moves < 5000) {
+                int direction = randomTurn(random, state.getDirection());
+                move(engine, direction);
+                state.step(direction);
+                moves++;
+
+                String where = topology.getType() + " game " + game + " move " + moves;
+                assertSame(where, engine, state);
+
+                if (state.hasShield())
+                    shieldMoves++;
+                if (engine.getSnake().isTimeSlowed())
+                    slowedMoves++;
+            }
+        }
+    }
+
+    // mostly straight on, turning now and then
+    private static int randomTurn(Random random, int direction) {
+        return random.nextInt(5) == 0 ? random.nextInt(4) : direction;
+    }
+
+    private static void move(GameEngine engine, int direction) {
+        engine.queueDirection(Direction.values()[direction]);
+        while (!engine.update()) {
+        }
+    }
+
+    private static void assertSame(String where, GameEngine engine, SimState state) {
+        Topology topology = engine.getTopology();
+
+        assertEquals(where, engine.getSnake().isDead(), state.isDead());
+        assertEquals(where, engine.getSnake().getScore(), state.getScore());
+        assertEquals(where, engine.getSnake().hasShield(), state.hasShield());
+        if (engine.getSnake().isDead())
+            return;
+
+        assertEquals(where, engine.getSnake().getCells().size(), state.getLength());
+        int i = 0;
+        for (Cell cell : engine.getSnake().getCells()) {
+            GridPoint p = cell.getLocation();
+            assertEquals(where + " body " + i, topology.cell(p.x, p.y), state.getCell(i));
+            i++;
+        }
+
+        GridPoint food = engine.getFood().getLocation();
+        assertEquals(where + " food", topology.cell(food.x, food.y), state.getFoodCell());
+    }
+}
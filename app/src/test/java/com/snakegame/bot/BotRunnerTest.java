@@ -0,0 +1,156 @@
+package com.snakegame.bot;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.metrics.MetricsRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a runner with bots that are slow, stuck or failing, and checks that the game thread
+ * never waits much longer than the budget.
+ */
+public class BotRunnerTest {
+    private static final long BUDGET_NANOS = 20 * 1000 * 1000;
+
+    // scheduling slack allowed on top of the budget
+    private static final long SLACK_NANOS = 80 * 1000 * 1000;
+
+    private final GameEngine engine = new GameEngine(20, 30, 0, false, new Properties(), 1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private BotRunner runner;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        release.countDown();
+        if (runner != null)
+            runner.shutdown();
+    }
+
+    /**
+     * Sleeps through the given number of first decisions, then answers UP right away.
+     */
+    private static class SlowBot implements BotController {
+        private final long sleepMillis;
+        private int slowDecisions;
+        volatile int finished;
+
+        SlowBot(long sleepMillis, int slowDecisions) {
+            this.sleepMillis = sleepMillis;
+            this.slowDecisions = slowDecisions;
+        }
+
+        @Override
+        public String getName() {
+            return "slow";
+        }
+
+        @Override
+        public Direction decide(BoardView board, long deadlineNanos) {
+            if (slowDecisions > 0) {
+                slowDecisions--;
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            finished++;
+            return Direction.UP;
+        }
+    }
+
+    @Test
+    public void lateDecisionReturnsNullWithinTheBudget() {
+        runner = new BotRunner(new SlowBot(10 * BUDGET_NANOS / 1000000, 1), BUDGET_NANOS, new MetricsRegistry());
+
+        long start = System.nanoTime();
+        assertNull(runner.decide(engine));
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue("waited " + elapsed / 1000 + " us", elapsed >= BUDGET_NANOS && elapsed < BUDGET_NANOS + SLACK_NANOS);
+        assertEquals(1, runner.getMissedDeadlines());
+    }
+
+    @Test
+    public void lateResultIsRecycledAndTheNextDecisionWorks() throws InterruptedException {
+        SlowBot bot = new SlowBot(5 * BUDGET_NANOS / 1000000, 1);
+        runner = new BotRunner(bot, BUDGET_NANOS, new MetricsRegistry());
+        assertNull(runner.decide(engine));
+
+        // let the late decision finish, its board copy then waits to be taken back
+        while (bot.finished == 0)
+            Thread.sleep(5);
+
+        // more decisions than there are board copies, so they must all come back
+        for (int i = 0; i < 10; i++)
+            assertEquals(Direction.UP, runner.decide(engine));
+
+        assertEquals(11, runner.getDecisions());
+        assertEquals(1, runner.getMissedDeadlines());
+        assertTrue(runner.getMaxDecisionNanos() >= 5 * BUDGET_NANOS);
+    }
+
+    @Test
+    public void stuckBotMakesLaterDecisionsReturnRightAway() {
+        runner = new BotRunner(new BotController() {
+            @Override
+            public String getName() {
+                return "stuck";
+            }
+
+            @Override
+            public Direction decide(BoardView board, long deadlineNanos) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Direction.UP;
+            }
+        }, BUDGET_NANOS, new MetricsRegistry());
+
+        // the stuck decision and the one queued behind it each wait the budget
+        assertNull(runner.decide(engine));
+        assertNull(runner.decide(engine));
+
+        // then every board copy is taken, there is nothing to wait for
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++)
+            assertNull(runner.decide(engine));
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue("waited " + elapsed / 1000 + " us", elapsed < BUDGET_NANOS);
+        assertEquals(12, runner.getMissedDeadlines());
+    }
+
+    @Test
+    public void failingDecisionsAreCounted() {
+        runner = new BotRunner(new BotController() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public Direction decide(BoardView board, long deadlineNanos) {
+                throw new IllegalStateException("bot bug");
+            }
+        }, BUDGET_NANOS, new MetricsRegistry());
+
+        // a failure answers right away, the snake keeps its direction
+        for (int i = 1; i <= 3; i++) {
+            assertNull(runner.decide(engine));
+            assertEquals(i, runner.getFailures());
+        }
+        assertEquals(0, runner.getMissedDeadlines());
+    }
+}
@@ -0,0 +1,123 @@
+package com.snakegame.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Adds games to a history, reloads it from its file and checks the rank queries against a
+ * sorted copy of the scores, corrupt records included.
+ */
+public class GameHistoryTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("history", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void reloadedHistoryAnswersLikeTheLiveOne() throws IOException {
+        GameHistory history = new GameHistory(file, 10);
+        Random random = new Random(1);
+
+        // past the initial capacity, so that the index grows
+        int[] scores = new int[2000];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextInt(i < 1000 ? 100 : 5000);
+            history.add(scores[i], 100 + i, i);
+        }
+
+        checkQueries(history, scores);
+        checkQueries(new GameHistory(file, 10), scores);
+    }
+
+    @Test
+    public void skipsCorruptRecordsWhenLoading() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            writeRecord(out, 1, 30);
+            writeRecord(out, 2, 1 << 30);
+            writeRecord(out, 3, Integer.MAX_VALUE);
+            writeRecord(out, 4, -5);
+            writeRecord(out, 5, GameHistory.MAX_SCORE + 1);
+            writeRecord(out, 6, GameHistory.MAX_SCORE);
+            writeRecord(out, 7, 10);
+
+            // a record cut short by a crash
+            out.writeLong(8);
+        }
+
+        GameHistory history = new GameHistory(file, 10);
+        checkQueries(history, new int[] {30, GameHistory.MAX_SCORE, 10});
+        assertEquals(GameHistory.MAX_SCORE, history.getTopGames().get(0).score);
+    }
+
+    @Test
+    public void rejectsScoresOutOfRange() throws IOException {
+        GameHistory history = new GameHistory(file, 10);
+
+        for (int score : new int[] {-1, GameHistory.MAX_SCORE + 1, 1 << 30, Integer.MAX_VALUE}) {
+            try {
+                history.add(score, 0, 0);
+                fail("Added score " + score);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        assertEquals(0, history.getGameCount());
+        assertEquals(0, file.length());
+    }
+
+    private static void checkQueries(GameHistory history, int[] scores) {
+        int[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted.length, history.getGameCount());
+
+        for (int score : new int[] {0, 1, 10, 50, 99, 100, 2500, 4999, 5000, GameHistory.MAX_SCORE}) {
+            int below = 0, notAbove = 0;
+            for (int s : sorted) {
+                if (s < score)
+                    below++;
+                if (s <= score)
+                    notAbove++;
+            }
+
+            assertEquals(below, history.countBelow(score));
+            assertEquals(sorted.length - notAbove + 1, history.getRank(score));
+            assertEquals(100.0 * below / sorted.length, history.getPercentile(score), 1e-9);
+        }
+
+        // the median is the middle score
+        assertEquals(sorted[(sorted.length + 1) / 2 - 1], history.getQuantile(0.5));
+
+        // best first, the best ten
+        List<GameHistory.Record> top = history.getTopGames();
+        assertEquals(Math.min(10, sorted.length), top.size());
+        for (int i = 0; i < top.size(); i++)
+            assertEquals(sorted[sorted.length - 1 - i], top.get(i).score);
+    }
+
+    private static void writeRecord(DataOutputStream out, long time, int score) throws IOException {
+        out.writeLong(time);
+        out.writeInt(score);
+        out.writeInt(100);
+    }
+}
@@ -0,0 +1,113 @@
+package com.snakegame.levelgen;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameLog;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Topology;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generates levels of every style, on boards spanning several chunks, and checks that they
+ * don't depend on the number of threads and that the snake can reach every free cell.
+ */
+public class LevelGeneratorTest {
+    // more than one chunk each way, the last ones cut short
+    private static final int WIDTH = LevelGenerator.CHUNK_SIZE * 2 + 37;
+    private static final int HEIGHT = LevelGenerator.CHUNK_SIZE + 21;
+
+    // the snake head starts there, heading right
+    private static final int START_X = 3, START_Y = 2;
+
+    private static final long[] SEEDS = {0, 1, 42, -7, Long.MAX_VALUE};
+
+    @Test
+    public void sameSeedGivesTheSameLevelWhateverTheThreads() {
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool many = new ForkJoinPool(4);
+        try {
+            for (LevelGenerator.Style style : LevelGenerator.Style.values())
+                for (long seed : SEEDS) {
+                    Level level = new LevelGenerator(style, single, GameLog.NONE).generate(seed, WIDTH, HEIGHT);
+
+                    assertEquals(style + " " + seed, level, new LevelGenerator(style).generate(seed, WIDTH, HEIGHT));
+                    assertEquals(style + " " + seed, level,
+                            new LevelGenerator(style, many, GameLog.NONE).generate(seed, WIDTH, HEIGHT));
+                }
+        } finally {
+            single.shutdown();
+            many.shutdown();
+        }
+    }
+
+    @Test
+    public void everyFreeCellIsReachableFromTheStart() {
+        for (LevelGenerator.Style style : LevelGenerator.Style.values())
+            for (long seed : SEEDS)
+                checkLevel(style, seed, null);
+    }
+
+    @Test
+    public void everyFreeCellIsReachableThroughPortals() {
+        // pairs joining the left and right halves and the top and bottom ones, deep inside
+        // chunks that may wall them in
+        int[] pairs = {
+                (HEIGHT / 2) * WIDTH + 20, (HEIGHT / 2) * WIDTH + WIDTH - 21,
+                10 * WIDTH + WIDTH / 2, (HEIGHT - 11) * WIDTH + WIDTH / 2 + 1};
+        Topology portals = Topology.portals(WIDTH, HEIGHT, pairs);
+        Topology torus = Topology.torus(WIDTH, HEIGHT);
+
+        for (LevelGenerator.Style style : LevelGenerator.Style.values())
+            for (long seed : SEEDS) {
+                checkLevel(style, seed, portals);
+                checkLevel(style, seed, torus);
+            }
+    }
+
+    private static void checkLevel(LevelGenerator.Style style, long seed, Topology topology) {
+        String name = style + " " + seed + (topology == null ? "" : " " + topology.getType());
+        LevelGenerator generator = new LevelGenerator(style);
+        Level level = topology == null ? generator.generate(seed, WIDTH, HEIGHT) : generator.generate(seed, topology);
+        if (topology == null)
+            topology = Topology.bordered(WIDTH, HEIGHT);
+
+        assertTrue(name, level.isStartFree());
+        assertTrue(name, !level.isBlocked(START_X, START_Y));
+
+        // breadth first walk from the head, through the portals
+        boolean[] reached = new boolean[WIDTH * HEIGHT];
+        int[] queue = new int[WIDTH * HEIGHT];
+        int head = 0, tail = 0;
+        reached[START_Y * WIDTH + START_X] = true;
+        queue[tail++] = START_Y * WIDTH + START_X;
+
+        while (head < tail) {
+            int cell = queue[head++];
+            for (Direction direction : Direction.values()) {
+                int next = topology.neighbor(cell, direction);
+                if (next != Topology.NO_CELL && !reached[next] && !level.isBlocked(next % WIDTH, next / WIDTH)) {
+                    reached[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        int free = 0;
+        for (int cell = 0; cell < reached.length; cell++) {
+            // portal ends stay open but are never stood on
+            if (level.isBlocked(cell % WIDTH, cell / WIDTH) || topology.isPortal(cell))
+                continue;
+
+            assertTrue(name + " cell " + cell % WIDTH + "," + cell / WIDTH, reached[cell]);
+            free++;
+        }
+
+        // the walls leave room to play
+        assertTrue(name + " " + free, free > WIDTH * HEIGHT / 4);
+    }
+}
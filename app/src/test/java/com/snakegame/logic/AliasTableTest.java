@@ -0,0 +1,100 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Samples alias tables many times and checks the counts against the weights.
+ */
+public class AliasTableTest {
+    private static final int SAMPLES = 1000000;
+
+    // standard normal quantile of 0.999, a correct table fails one run in a thousand seeds
+    private static final double Z_999 = 3.09;
+
+    @Test
+    public void samplesFollowTheWeights() {
+        assertDistribution(new double[] {1, 2, 3, 4, 0.5, 10, 7, 0.01}, 1);
+        assertDistribution(new double[] {100, 1}, 2);
+    }
+
+    @Test
+    public void singleWeightIsAlwaysPicked() {
+        AliasTable table = new AliasTable(new double[] {0.3});
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(0, table.sample(random));
+    }
+
+    @Test
+    public void zeroWeightsAreNeverPicked() {
+        assertDistribution(new double[] {0, 5, 0, 0, 1, 2, 0}, 4);
+        assertDistribution(new double[] {0, 0, 0, 1}, 5);
+    }
+
+    @Test
+    public void equalWeightsAreUniform() {
+        assertDistribution(new double[] {2, 2, 2, 2, 2, 2, 2}, 6);
+
+        // every column is kept as is
+        AliasTable table = new AliasTable(new double[] {1, 1, 1, 1});
+        for (int i = 0; i < table.size(); i++)
+            assertEquals(1, table.getProbability(i), 1e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeightsAreRejected() {
+        new AliasTable(new double[] {1, -1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void allZeroWeightsAreRejected() {
+        new AliasTable(new double[] {0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noWeightIsRejected() {
+        new AliasTable(new double[0]);
+    }
+
+    /**
+     * Runs a chi-square test of the sample counts against the weights, zero weights must not
+     * be sampled at all.
+     */
+    private static void assertDistribution(double[] weights, long seed) {
+        AliasTable table = new AliasTable(weights);
+        Random random = new Random(seed);
+        long[] counts = new long[weights.length];
+        for (int i = 0; i < SAMPLES; i++)
+            counts[table.sample(random)]++;
+
+        double sum = 0;
+        for (double weight : weights)
+            sum += weight;
+
+        double chiSquare = 0;
+        int bins = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] == 0) {
+                assertEquals("samples of zero weight " + i, 0, counts[i]);
+                continue;
+            }
+            double expected = SAMPLES * weights[i] / sum;
+            chiSquare += (counts[i] - expected) * (counts[i] - expected) / expected;
+            bins++;
+        }
+
+        if (bins < 2)
+            return;
+
+        // Wilson-Hilferty approximation of the chi-square quantile
+        int df = bins - 1;
+        double c = 2.0 / (9 * df);
+        double critical = df * Math.pow(1 - c + Z_999 * Math.sqrt(c), 3);
+        assertTrue("chi-square " + chiSquare + " over " + critical, chiSquare < critical);
+    }
+}
@@ -0,0 +1,68 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays seeded games and checks the incremental state hash against a full recomputation
+ * after every change.
+ */
+public class GameEngineHashTest {
+    @Test
+    public void incrementalHashMatchesRecomputation() {
+        checkGames(new GameEngine(20, 30, 10, false, new Properties(), 0));
+    }
+
+    @Test
+    public void incrementalHashMatchesRecomputationOnTorus() {
+        checkGames(new GameEngine(Level.create(20, 30), Topology.torus(20, 30), 10, false, new Properties(), 0));
+    }
+
+    @Test
+    public void sameSeedAndInputsGiveSameHashes() {
+        GameEngine first = new GameEngine(20, 30, 10, false, new Properties(), 3);
+        GameEngine second = new GameEngine(20, 30, 10, false, new Properties(), 3);
+
+        for (int tick = 0; tick < 5000; tick++) {
+            if (tick % 9 == 0) {
+                Direction direction = Direction.values()[tick / 9 % 4];
+                first.queueDirection(direction);
+                second.queueDirection(direction);
+            }
+            first.update();
+            second.update();
+
+            assertEquals(first.getStateHash(), second.getStateHash());
+        }
+    }
+
+    private static void checkGames(GameEngine engine) {
+        Random random = new Random(9);
+        int rewinds = 0;
+
+        for (int game = 0; game < 100; game++) {
+            engine.reset(game);
+            assertEquals(engine.computeStateHash(), engine.getStateHash());
+
+            for (int tick = 0; tick < 20000 && !engine.getSnake().isDead(); tick++) {
+                if (engine.isMoveDue() && random.nextInt(4) == 0)
+                    engine.queueDirection(Direction.values()[random.nextInt(4)]);
+
+                engine.update();
+                assertEquals(engine.computeStateHash(), engine.getStateHash());
+
+                if (random.nextInt(300) == 0) {
+                    rewinds += engine.rewind(1 + random.nextInt(30)) > 0 ? 1 : 0;
+                    assertEquals(engine.computeStateHash(), engine.getStateHash());
+                }
+            }
+        }
+
+        assertTrue(rewinds > 0);
+    }
+}
@@ -0,0 +1,156 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays seeded games, rewinds them and checks the board against a fresh game stopped at the
+ * move the rewind went back to.
+ */
+public class GameEngineRewindTest {
+    private static final int WIDTH = 20, HEIGHT = 30;
+
+    @Test
+    public void rewoundGameMatchesFreshGame() {
+        checkRewinds(Topology.bordered(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void rewoundGameMatchesFreshGameOnTorus() {
+        checkRewinds(Topology.torus(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void rewindIsBoundedByCapacity() {
+        GameEngine engine = createEngine(Topology.torus(WIDTH, HEIGHT), 1);
+
+        // on a torus the snake circles without input and never dies
+        int moves = 0;
+        while (moves < GameEngine.REWIND_CAPACITY + 50) {
+            if (engine.update())
+                moves++;
+        }
+        assertFalse(engine.getSnake().isDead());
+
+        assertEquals(GameEngine.REWIND_CAPACITY, engine.getRewindableMoves());
+        assertEquals(GameEngine.REWIND_CAPACITY, engine.rewind(Integer.MAX_VALUE));
+        assertEquals(0, engine.getRewindableMoves());
+        assertEquals(0, engine.rewind(1));
+        assertEquals(engine.computeStateHash(), engine.getStateHash());
+    }
+
+    @Test
+    public void resetClearsRewind() {
+        GameEngine engine = createEngine(Topology.torus(WIDTH, HEIGHT), 2);
+
+        while (!engine.update()) {
+        }
+        assertEquals(1, engine.rewind(5));
+        assertTrue(engine.isRewound());
+
+        engine.reset(3);
+        assertFalse(engine.isRewound());
+        assertEquals(0, engine.getRewindableMoves());
+    }
+
+    private static void checkRewinds(Topology topology) {
+        int checked = 0;
+
+        for (long seed = 0; seed < 40; seed++) {
+            GameEngine played = createEngine(topology, seed);
+            int moves = play(played, seed, 120);
+            if (played.getSnake().isDead())
+                continue;
+
+            int rewound = 1 + (int) (seed % 20);
+            assertEquals(rewound, played.rewind(rewound));
+            assertTrue(played.isRewound());
+
+            GameEngine fresh = createEngine(topology, seed);
+            assertEquals(moves - rewound, play(fresh, seed, moves - rewound));
+
+            assertEquals(describe(fresh), describe(played));
+            assertEquals(fresh.getStateHash(), played.getStateHash());
+            assertEquals(played.computeStateHash(), played.getStateHash());
+            checked++;
+        }
+
+        assertTrue(checked > 0);
+    }
+
+    /**
+     * Plays the given number of moves, turning at random but away from walls and the body,
+     * returns the number of moves played before the snake died, if it did.
+     */
+    private static int play(GameEngine engine, long seed, int moves) {
+        Random inputs = new Random(seed);
+        int played = 0;
+
+        while (played < moves && !engine.getSnake().isDead()) {
+            if (engine.isMoveDue())
+                steer(engine, inputs);
+
+            if (engine.update())
+                played++;
+        }
+
+        return played;
+    }
+
+    private static void steer(GameEngine engine, Random inputs) {
+        Snake snake = engine.getSnake();
+        Topology topology = snake.getTopology();
+        GridPoint head = snake.getHead().getLocation();
+        int headCell = topology.cell(head.x, head.y);
+
+        boolean turn = inputs.nextInt(4) == 0;
+        int first = inputs.nextInt(4);
+
+        for (int i = 0; i < 4; i++) {
+            Direction direction = turn ? Direction.values()[(first + i) % 4] : snake.getDirection();
+            turn = true;
+
+            if (direction.isHorizontal() == snake.getDirection().isHorizontal() && direction != snake.getDirection())
+                continue;
+
+            int next = topology.neighbor(headCell, direction);
+            if (next == Topology.NO_CELL || snake.isOccupying(topology.getX(next), topology.getY(next)))
+                continue;
+
+            if (direction != snake.getDirection())
+                engine.queueDirection(direction);
+            return;
+        }
+    }
+
+    private static GameEngine createEngine(Topology topology, long seed) {
+        return new GameEngine(Level.create(WIDTH, HEIGHT), topology, 10, false, new Properties(), seed);
+    }
+
+    private static String describe(GameEngine engine) {
+        Snake snake = engine.getSnake();
+        StringBuilder builder = new StringBuilder();
+
+        for (Cell cell : snake.getCells())
+            builder.append(cell.getLocation().x).append(',').append(cell.getLocation().y).append(' ');
+
+        builder.append("direction ").append(snake.getDirection())
+                .append(" score ").append(snake.getScore())
+                .append(" delay ").append(snake.getMoveDelay())
+                .append(" shield ").append(snake.hasShield())
+                .append(" food ").append(engine.getFood().getLocation().x).append(',').append(engine.getFood().getLocation().y);
+
+        SpecialElements specialElements = engine.getSpecialElements();
+        if (specialElements != null)
+            builder.append(" special ").append(specialElements.getType())
+                    .append(' ').append(specialElements.getLocation().x).append(',').append(specialElements.getLocation().y);
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a session with a fake game, running its commands on the test thread as the game
+ * thread would.
+ */
+public class GameSessionTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static class FakeGame implements GameSession.Game {
+        int restarts;
+        volatile boolean gameOver;
+        volatile boolean idle;
+
+        @Override
+        public void restart() {
+            restarts++;
+            gameOver = false;
+        }
+
+        @Override
+        public boolean isGameOver() {
+            return gameOver;
+        }
+
+        @Override
+        public boolean isIdle() {
+            return idle;
+        }
+    }
+
+    private final FakeGame game = new FakeGame();
+    private final GameSession session = new GameSession(game, new Object());
+
+    @Test
+    public void commandsRunInOrderOnTheGameThreadOnly() {
+        final List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < 5; i++) {
+            final int command = i;
+            session.post(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(command);
+                }
+            });
+        }
+
+        // nothing runs until the game thread picks the commands up
+        assertTrue(order.isEmpty());
+        assertTrue(session.hasCommands());
+
+        session.start();
+        assertTrue(session.runCommands());
+        assertEquals(5, order.size());
+        for (int i = 0; i < 5; i++)
+            assertEquals(i, (int) order.get(i));
+        assertFalse(session.hasCommands());
+    }
+
+    @Test
+    public void startsRunsDiesAndRestarts() {
+        assertEquals(GameSession.State.DESTROYED, session.getState());
+
+        session.start();
+        assertTrue(session.runCommands());
+        assertEquals(GameSession.State.RUNNING, session.getState());
+        assertEquals(1, game.restarts);
+
+        // a second start of a running session does nothing
+        session.start();
+        session.runCommands();
+        assertEquals(1, game.restarts);
+
+        game.gameOver = true;
+        session.checkGameOver();
+        assertEquals(GameSession.State.DEAD, session.getState());
+
+        session.restart();
+        session.runCommands();
+        assertEquals(GameSession.State.RUNNING, session.getState());
+        assertEquals(2, game.restarts);
+    }
+
+    @Test
+    public void pauseRequestedBeforeStartStartsPaused() {
+        session.pause();
+        session.start();
+        session.runCommands();
+
+        assertEquals(GameSession.State.PAUSED, session.getState());
+        assertEquals(1, game.restarts);
+        assertTrue(session.isParked());
+
+        session.resume();
+        session.runCommands();
+        assertEquals(GameSession.State.RUNNING, session.getState());
+    }
+
+    @Test
+    public void resumesIntoTheStateItWasPausedIn() {
+        session.start();
+        session.runCommands();
+        game.gameOver = true;
+        session.checkGameOver();
+
+        session.pause();
+        session.runCommands();
+        assertEquals(GameSession.State.PAUSED, session.getState());
+
+        // a paused session doesn't die again
+        session.checkGameOver();
+        assertEquals(GameSession.State.PAUSED, session.getState());
+
+        session.resume();
+        session.runCommands();
+        assertEquals(GameSession.State.DEAD, session.getState());
+    }
+
+    @Test
+    public void restartWhilePausedStaysPausedAndResumesIntoTheNewGame() {
+        session.start();
+        session.runCommands();
+        game.gameOver = true;
+        session.checkGameOver();
+
+        session.pause();
+        session.restart();
+        session.runCommands();
+        assertEquals(GameSession.State.PAUSED, session.getState());
+        assertEquals(2, game.restarts);
+
+        session.resume();
+        session.runCommands();
+        assertEquals(GameSession.State.RUNNING, session.getState());
+    }
+
+    @Test
+    public void commandsPostedAfterDestroyWaitForTheNextGameThread() {
+        final AtomicInteger ran = new AtomicInteger();
+        Runnable command = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+
+        session.start();
+        session.runCommands();
+
+        session.post(command);
+        session.destroy();
+        session.post(command);
+
+        assertFalse(session.runCommands());
+        assertEquals(GameSession.State.DESTROYED, session.getState());
+        assertEquals(1, ran.get());
+        assertTrue(session.hasCommands());
+
+        // the next game thread runs the rest and starts a new game
+        session.start();
+        assertTrue(session.runCommands());
+        assertEquals(2, ran.get());
+        assertEquals(GameSession.State.RUNNING, session.getState());
+        assertEquals(2, game.restarts);
+    }
+
+    @Test
+    public void postingWakesAParkedGameThread() throws InterruptedException {
+        session.start();
+        session.runCommands();
+        game.idle = true;
+
+        final AtomicInteger ran = new AtomicInteger();
+        Thread gameThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                session.park();
+                session.runCommands();
+            }
+        });
+        session.attach(gameThread);
+        gameThread.start();
+
+        // give the game thread time to park, posting before that must not be lost either
+        Thread.sleep(50);
+        session.post(new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        });
+
+        gameThread.join(TIMEOUT_MILLIS);
+        assertFalse(gameThread.isAlive());
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void commandsPostedFromManyThreadsAllRunOnce() throws InterruptedException {
+        final int threads = 4, commandsPerThread = 2000;
+        final AtomicInteger ran = new AtomicInteger();
+        final Runnable command = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+
+        session.start();
+        Thread[] posters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            posters[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < commandsPerThread; i++)
+                        session.post(command);
+                }
+            });
+            posters[t].start();
+        }
+
+        // the test thread is the game thread, running commands while they are posted
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (ran.get() < threads * commandsPerThread && System.currentTimeMillis() < deadline)
+            assertTrue(session.runCommands());
+
+        for (Thread poster : posters)
+            poster.join();
+        session.runCommands();
+
+        assertEquals(threads * commandsPerThread, ran.get());
+        assertEquals(GameSession.State.RUNNING, session.getState());
+    }
+}
@@ -0,0 +1,30 @@
+package com.snakegame.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Plays seeded games on a plain JVM and writes their sections as a Chrome trace:
+ * {@code GameTraceRunner [file] [ticks]}.
+ */
+public class GameTraceRunner {
+    public static void main(String[] args) throws IOException {
+        File file = new File(args.length > 0 ? args[0] : "game_trace.json");
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        GameEngine engine = new GameEngine(20, 30, 10, false, new Properties(), 0);
+
+        GameTrace.startRecording();
+        for (int tick = 0; tick < ticks; tick++) {
+            if (engine.getSnake().isDead())
+                engine.reset(tick);
+            if (tick % 50 == 0)
+                engine.queueDirection(Direction.values()[tick / 50 % 4]);
+            engine.update();
+        }
+
+        int events = GameTrace.writeChromeTrace(file);
+        System.out.println(events + " events written to " + file + ", " + GameTrace.getDroppedEventCount() + " dropped");
+    }
+}
@@ -0,0 +1,95 @@
+package com.snakegame.logic;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records the sections of a headless engine and checks the Chrome trace written from them.
+ */
+public class GameTraceTest {
+    private File file;
+
+    @After
+    public void tearDown() {
+        GameTrace.stopRecording();
+        if (file != null)
+            file.delete();
+    }
+
+    @Test
+    public void writesTheSectionsOfAHeadlessEngine() throws IOException {
+        GameEngine engine = new GameEngine(20, 30, 10, false, new Properties(), 1);
+
+        GameTrace.startRecording();
+        for (int tick = 0; tick < 3000; tick++) {
+            if (tick % 50 == 0)
+                engine.queueDirection(Direction.values()[tick / 50 % 4]);
+            if (engine.getSnake().isDead())
+                engine.reset(tick);
+            engine.update();
+        }
+
+        file = File.createTempFile("trace", ".json");
+        int written = GameTrace.writeChromeTrace(file);
+
+        List<String> events = readEvents(file);
+        assertEquals(written, events.size());
+        assertBalanced(events);
+
+        boolean moves = false;
+        for (String event : events)
+            moves |= event.contains("\"name\":\"Snake.move\"");
+        assertTrue(moves);
+    }
+
+    @Test
+    public void leavesOutEndsOfSectionsBegunBeforeRecording() throws IOException {
+        GameTrace.beginSection("before");
+        GameTrace.startRecording();
+        GameTrace.beginSection("during");
+        GameTrace.endSection();
+        GameTrace.endSection();
+
+        file = File.createTempFile("trace", ".json");
+        assertEquals(2, GameTrace.writeChromeTrace(file));
+
+        List<String> events = readEvents(file);
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).contains("\"name\":\"during\""));
+        assertBalanced(events);
+    }
+
+    private static List<String> readEvents(File file) throws IOException {
+        List<String> events = new ArrayList<String>();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null)
+                if (line.startsWith("{\"ph\""))
+                    events.add(line);
+        }
+
+        return events;
+    }
+
+    // the test records on one thread: every end closes an open section and none is left open
+    private static void assertBalanced(List<String> events) {
+        int depth = 0;
+        for (String event : events) {
+            depth += event.startsWith("{\"ph\":\"B\"") ? 1 : -1;
+            assertTrue(depth >= 0);
+        }
+        assertEquals(0, depth);
+    }
+}
@@ -0,0 +1,61 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loads item weights from configs, bad values must leave the previous weights in place.
+ */
+public class ItemRegistryTest {
+
+    private static ItemRegistry<GameElements> registry() {
+        ItemRegistry<GameElements> registry = new ItemRegistry<GameElements>("food.", GameLog.NONE);
+        registry.register("apple", null, 3);
+        registry.register("pear", null, 1);
+        return registry;
+    }
+
+    private static Properties config(String apple, String pear) {
+        Properties config = new Properties();
+        config.setProperty("food.apple", apple);
+        config.setProperty("food.pear", pear);
+        return config;
+    }
+
+    @Test
+    public void validWeightsOverrideTheDefaults() {
+        ItemRegistry<GameElements> registry = registry();
+        registry.loadWeights(config(" 0.5", "0"));
+
+        assertEquals(0.5, registry.getWeight(0), 0);
+        assertEquals(0, registry.getWeight(1), 0);
+    }
+
+    @Test
+    public void invalidWeightsAreIgnored() {
+        for (String value : new String[] {"-1", "NaN", "Infinity", "-Infinity", "lots"}) {
+            ItemRegistry<GameElements> registry = registry();
+            registry.loadWeights(config(value, "2"));
+
+            assertEquals(value, 3, registry.getWeight(0), 0);
+            assertEquals(value, 2, registry.getWeight(1), 0);
+        }
+    }
+
+    @Test
+    public void allZeroConfigKeepsThePreviousWeights() {
+        ItemRegistry<GameElements> registry = registry();
+        registry.loadWeights(config("0", "0"));
+
+        assertEquals(3, registry.getWeight(0), 0);
+        assertEquals(1, registry.getWeight(1), 0);
+
+        // a zero config that only turns off what was left is refused as well
+        registry.loadWeights(config("0", "1"));
+        registry.loadWeights(config("0", "0"));
+        assertEquals(1, registry.getWeight(1), 0);
+    }
+}
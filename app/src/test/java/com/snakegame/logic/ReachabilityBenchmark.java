@@ -0,0 +1,149 @@
+package com.snakegame.logic;
+
+import java.util.Random;
+
+/**
+ * Compares the per move cost of keeping {@link Reachability} up to date with a flood fill
+ * of the whole board, for a long snake wandering on a large bordered board.
+ */
+public class ReachabilityBenchmark {
+    // a full flood fill is timed every so many moves, it is far slower than a move
+    private static final int FULL_FILL_PERIOD = 100;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        System.out.println(run(size, length, moves, 1));
+    }
+
+    /**
+     * Runs the benchmark on a size x size board and returns a summary.
+     */
+    public static String run(int size, int length, int moves, long seed) {
+        Level level = Level.bordered(size, size);
+        Topology topology = Topology.bordered(size, size);
+        Reachability reachability = new Reachability(level, topology);
+        Random random = new Random(seed);
+
+        // body as a ring of cells, head at bodyHead
+        int cellCount = topology.getCellCount();
+        int[] body = new int[length];
+        int bodyHead = 0, bodyLength = 0;
+        boolean[] occupied = new boolean[cellCount];
+
+        // start from an empty board, every cell but the border is one region
+        for (int cell = 0; cell < cellCount; cell++)
+            reachability.release(cell);
+
+        int head = topology.cell(size / 2, size / 2);
+        Direction direction = Direction.RIGHT;
+        body[0] = head;
+        bodyLength = 1;
+        occupied[head] = true;
+        reachability.occupy(head);
+
+        long incrementalTime = 0, fullTime = 0;
+        int fullFills = 0, restarts = 0;
+        int[] queue = new int[cellCount];
+        int[] labels = new int[cellCount];
+
+        for (int move = 0; move < moves; move++) {
+            direction = pickDirection(topology, level, occupied, head, direction, random);
+
+            long beginTime = System.nanoTime();
+            if (direction == null) {
+                // trapped: clear the body and start over somewhere else
+                for (int i = 0; i < bodyLength; i++) {
+                    int cell = body[(bodyHead + i) % length];
+                    occupied[cell] = false;
+                    reachability.release(cell);
+                }
+                do {
+                    head = random.nextInt(cellCount);
+                } while (level.isBlocked(head));
+                bodyHead = 0;
+                bodyLength = 1;
+                body[0] = head;
+                occupied[head] = true;
+                reachability.occupy(head);
+                direction = Direction.RIGHT;
+                restarts++;
+            } else {
+                head = topology.neighbor(head, direction);
+                if (bodyLength == length) {
+                    int tail = body[(bodyHead + length - 1) % length];
+                    occupied[tail] = false;
+                    reachability.release(tail);
+                    bodyLength--;
+                }
+                bodyHead = (bodyHead + length - 1) % length;
+                body[bodyHead] = head;
+                bodyLength++;
+                occupied[head] = true;
+                reachability.occupy(head);
+            }
+            incrementalTime += System.nanoTime() - beginTime;
+
+            if (move % FULL_FILL_PERIOD == 0) {
+                beginTime = System.nanoTime();
+                floodFill(topology, level, occupied, labels, queue);
+                fullTime += System.nanoTime() - beginTime;
+                fullFills++;
+            }
+        }
+
+        return size + "x" + size + " board, snake of " + length + ": incremental "
+                + incrementalTime / moves + " ns/move, full flood fill " + fullTime / Math.max(1, fullFills)
+                + " ns/move, " + restarts + " restarts";
+    }
+
+    private static Direction pickDirection(Topology topology, Level level, boolean[] occupied,
+                                           int head, Direction direction, Random random) {
+        // mostly go straight, turn at random or when blocked
+        if (random.nextInt(5) != 0 && isFree(topology, level, occupied, topology.neighbor(head, direction)))
+            return direction;
+
+        Direction[] directions = Direction.values();
+        int offset = random.nextInt(directions.length);
+        for (int i = 0; i < directions.length; i++) {
+            Direction candidate = directions[(i + offset) % directions.length];
+            if (isFree(topology, level, occupied, topology.neighbor(head, candidate)))
+                return candidate;
+        }
+        return null;
+    }
+
+    private static boolean isFree(Topology topology, Level level, boolean[] occupied, int cell) {
+        return cell != Topology.NO_CELL && !level.isBlocked(cell) && !occupied[cell];
+    }
+
+    private static int floodFill(Topology topology, Level level, boolean[] occupied, int[] labels, int[] queue) {
+        int cellCount = topology.getCellCount();
+        for (int cell = 0; cell < cellCount; cell++)
+            labels[cell] = level.isBlocked(cell) || occupied[cell] ? -1 : 0;
+
+        int regions = 0;
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (labels[cell] != 0)
+                continue;
+
+            regions++;
+            int queueHead = 0, queueTail = 0;
+            labels[cell] = regions;
+            queue[queueTail++] = cell;
+            while (queueHead < queueTail) {
+                int current = queue[queueHead++];
+                for (Direction direction : Direction.values()) {
+                    int neighbor = topology.neighbor(current, direction);
+                    if (neighbor != Topology.NO_CELL && labels[neighbor] == 0) {
+                        labels[neighbor] = regions;
+                        queue[queueTail++] = neighbor;
+                    }
+                }
+            }
+        }
+        return regions;
+    }
+}
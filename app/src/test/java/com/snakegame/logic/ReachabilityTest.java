@@ -0,0 +1,177 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the incrementally updated regions against regions computed from scratch, on
+ * bordered, torus and portal boards.
+ */
+public class ReachabilityTest {
+    private static final int WIDTH = 24, HEIGHT = 24;
+
+    @Test
+    public void bordered() {
+        check(Level.bordered(WIDTH, HEIGHT), Topology.bordered(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void torus() {
+        check(Level.create(WIDTH, HEIGHT), Topology.torus(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void portals() {
+        // a wall in the middle, so that the portals are the only way around it
+        Level level = Level.bordered(WIDTH, HEIGHT);
+        for (int y = 5; y < HEIGHT - 5; y++)
+            level.setBlocked(WIDTH / 2, y, true);
+
+        check(level, Topology.portals(WIDTH, HEIGHT,
+                (HEIGHT / 2) * WIDTH + 2, (HEIGHT / 2) * WIDTH + WIDTH - 3,
+                3 * WIDTH + 6, (HEIGHT - 4) * WIDTH + 6));
+    }
+
+    private static void check(Level level, Topology topology) {
+        checkGames(level, topology);
+        checkLongSnake(level, topology);
+    }
+
+    /**
+     * Plays random games and compares the engine's regions with a rebuild after every move.
+     */
+    private static void checkGames(Level level, Topology topology) {
+        GameEngine engine = new GameEngine(level, topology, 5, false, new Properties(), 0);
+        Random random = new Random(7);
+
+        for (int game = 0; game < 20; game++) {
+            engine.reset(game);
+
+            // torus snakes rarely die, cut their games short
+            for (int move = 0; move < 1000 && !engine.getSnake().isDead(); ) {
+                if (random.nextInt(3) == 0)
+                    engine.queueDirection(Direction.values()[random.nextInt(4)]);
+                if (!engine.update() || engine.getSnake().isDead())
+                    continue;
+                move++;
+
+                Reachability incremental = engine.getReachability();
+                Reachability rebuilt = new Reachability(level, topology);
+                rebuilt.rebuild(engine.getSnake());
+
+                for (int cell = 0; cell < topology.getCellCount(); cell++) {
+                    assertEquals(rebuilt.getRegionSize(cell), incremental.getRegionSize(cell));
+                    assertEquals(rebuilt.isReachable(cell), incremental.isReachable(cell));
+                }
+                assertEquals(rebuilt.getReachableArea(), incremental.getReachableArea());
+                assertEquals(rebuilt.getFreeCells(), incremental.getFreeCells());
+            }
+        }
+    }
+
+    /**
+     * Walks a body much longer than game snakes get at random, so that regions split and
+     * join all the time, and compares region sizes with a flood fill after every move.
+     */
+    private static void checkLongSnake(Level level, Topology topology) {
+        int cellCount = topology.getCellCount();
+        int length = cellCount / 4;
+        Random random = new Random(11);
+
+        Reachability reachability = new Reachability(level, topology);
+        for (int cell = 0; cell < cellCount; cell++)
+            reachability.release(cell);
+
+        boolean[] occupied = new boolean[cellCount];
+        int[] body = new int[length];
+        int bodyHead = 0, bodyLength = 0;
+        int head = Topology.NO_CELL;
+
+        for (int move = 0; move < 5000; move++) {
+            int next = head == Topology.NO_CELL ? Topology.NO_CELL : pickNext(level, topology, occupied, head, random);
+
+            if (next == Topology.NO_CELL) {
+                // trapped or not started yet: clear the body and start over somewhere else
+                for (int i = 0; i < bodyLength; i++) {
+                    int cell = body[(bodyHead + i) % length];
+                    occupied[cell] = false;
+                    reachability.release(cell);
+                }
+                bodyLength = 0;
+
+                do {
+                    next = random.nextInt(cellCount);
+                } while (!isFree(level, topology, occupied, next));
+            } else if (bodyLength == length) {
+                int tail = body[(bodyHead + length - 1) % length];
+                occupied[tail] = false;
+                reachability.release(tail);
+                bodyLength--;
+            }
+
+            head = next;
+            bodyHead = (bodyHead + length - 1) % length;
+            body[bodyHead] = head;
+            bodyLength++;
+            occupied[head] = true;
+            reachability.occupy(head);
+
+            int[] sizes = floodFillSizes(level, topology, occupied);
+            for (int cell = 0; cell < cellCount; cell++)
+                assertEquals(sizes[cell], reachability.getRegionSize(cell));
+        }
+    }
+
+    private static int pickNext(Level level, Topology topology, boolean[] occupied, int head, Random random) {
+        Direction[] directions = Direction.values();
+        int offset = random.nextInt(directions.length);
+        for (int i = 0; i < directions.length; i++) {
+            int next = topology.neighbor(head, directions[(i + offset) % directions.length]);
+            if (isFree(level, topology, occupied, next))
+                return next;
+        }
+        return Topology.NO_CELL;
+    }
+
+    private static boolean isFree(Level level, Topology topology, boolean[] occupied, int cell) {
+        return cell != Topology.NO_CELL && !level.isBlocked(cell) && !topology.isPortal(cell) && !occupied[cell];
+    }
+
+    /**
+     * Returns the size of the region of each cell, 0 for blocked cells.
+     */
+    private static int[] floodFillSizes(Level level, Topology topology, boolean[] occupied) {
+        int cellCount = topology.getCellCount();
+        int[] sizes = new int[cellCount];
+        int[] queue = new int[cellCount];
+        boolean[] visited = new boolean[cellCount];
+
+        for (int start = 0; start < cellCount; start++) {
+            if (visited[start] || !isFree(level, topology, occupied, start))
+                continue;
+
+            int queueHead = 0, queueTail = 0;
+            visited[start] = true;
+            queue[queueTail++] = start;
+            while (queueHead < queueTail) {
+                int cell = queue[queueHead++];
+                for (Direction direction : Direction.values()) {
+                    int neighbor = topology.neighbor(cell, direction);
+                    if (isFree(level, topology, occupied, neighbor) && !visited[neighbor]) {
+                        visited[neighbor] = true;
+                        queue[queueTail++] = neighbor;
+                    }
+                }
+            }
+
+            for (int i = 0; i < queueTail; i++)
+                sizes[queue[i]] = queueTail;
+        }
+
+        return sizes;
+    }
+}
@@ -0,0 +1,167 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Schedules timers on a wheel and checks when they fire, with callbacks changing the timers
+ * of their own slot.
+ */
+public class TimerWheelTest {
+    private final TimerWheel wheel = new TimerWheel();
+
+    // names of the fired timers and the tick they fired at
+    private final List<String> fired = new ArrayList<String>();
+
+    private class NamedTimer extends TimerWheel.Timer {
+        final String name;
+        Runnable action;
+
+        NamedTimer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected void onExpired() {
+            fired.add(name + "@" + wheel.getTick());
+            if (action != null)
+                action.run();
+        }
+    }
+
+    @Test
+    public void firesTimersAtTheirDeadline() {
+        NamedTimer soon = new NamedTimer("soon"), late = new NamedTimer("late"), now = new NamedTimer("now");
+        wheel.schedule(soon, 5);
+        wheel.schedule(late, 1300);
+        wheel.schedule(now, 0);
+
+        assertEquals(1, wheel.getTicksUntilNextTimer(10));
+        advance(2000);
+
+        assertEquals(Arrays.asList("now@1", "soon@5", "late@1300"), fired);
+        assertFalse(late.isScheduled());
+    }
+
+    @Test
+    public void cancelledAndRescheduledTimersDontFire() {
+        NamedTimer first = new NamedTimer("first"), second = new NamedTimer("second");
+        wheel.schedule(first, 10);
+        wheel.schedule(second, 10);
+        wheel.schedule(second, 20);
+        first.cancel();
+
+        assertFalse(first.isScheduled());
+        assertEquals(20, second.getRemainingTicks());
+        advance(30);
+
+        assertEquals(Arrays.asList("second@20"), fired);
+    }
+
+    @Test
+    public void callbackCancellingATimerOfItsSlotLetsTheOthersFire() {
+        final List<NamedTimer> timers = scheduleInOneSlot(6, 10);
+
+        // whichever fires first cancels the latest scheduled of the others, the one walked next
+        for (final NamedTimer timer : timers) {
+            timer.action = new Runnable() {
+                @Override
+                public void run() {
+                    if (fired.size() > 1)
+                        return;
+                    for (int i = timers.size() - 1; i >= 0; i--) {
+                        if (timers.get(i).isScheduled()) {
+                            timers.get(i).cancel();
+                            return;
+                        }
+                    }
+                }
+            };
+        }
+        advance(10);
+
+        assertEquals(5, fired.size());
+        assertEquals(5, new HashSet<String>(fired).size());
+        for (NamedTimer timer : timers)
+            assertFalse(timer.isScheduled());
+    }
+
+    @Test
+    public void callbackReschedulingATimerOfItsSlotMovesIt() {
+        final List<NamedTimer> timers = scheduleInOneSlot(4, 10);
+
+        // the first to fire moves every other timer of the slot one revolution later
+        for (final NamedTimer timer : timers) {
+            timer.action = new Runnable() {
+                @Override
+                public void run() {
+                    if (fired.size() > 1)
+                        return;
+                    for (NamedTimer other : timers)
+                        if (other != timer)
+                            wheel.schedule(other, 512);
+                }
+            };
+        }
+        advance(10);
+        assertEquals(1, fired.size());
+
+        advance(512);
+        assertEquals(4, fired.size());
+        for (int i = 1; i < fired.size(); i++)
+            assertTrue(fired.get(i).endsWith("@522"));
+    }
+
+    @Test
+    public void callbackCanRescheduleItself() {
+        final NamedTimer periodic = new NamedTimer("periodic");
+        periodic.action = new Runnable() {
+            @Override
+            public void run() {
+                wheel.schedule(periodic, 3);
+            }
+        };
+        wheel.schedule(periodic, 3);
+        advance(10);
+
+        assertEquals(Arrays.asList("periodic@3", "periodic@6", "periodic@9"), fired);
+        assertTrue(periodic.isScheduled());
+    }
+
+    @Test
+    public void clearCancelsEverything() {
+        List<NamedTimer> timers = scheduleInOneSlot(3, 4);
+        wheel.clear();
+
+        assertEquals(0, wheel.getTick());
+        for (NamedTimer timer : timers)
+            assertFalse(timer.isScheduled());
+
+        advance(600);
+        assertTrue(fired.isEmpty());
+    }
+
+    private List<NamedTimer> scheduleInOneSlot(int count, int delay) {
+        List<NamedTimer> timers = new ArrayList<NamedTimer>();
+        for (int i = 0; i < count; i++) {
+            NamedTimer timer = new NamedTimer("timer" + i);
+            wheel.schedule(timer, delay);
+            timers.add(timer);
+        }
+
+        return timers;
+    }
+
+    private void advance(int ticks) {
+        for (int i = 0; i < ticks; i++)
+            wheel.advance();
+    }
+}
@@ -0,0 +1,65 @@
+package com.snakegame.logic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Hands sequence-stamped values from a writer thread to a reader thread as fast as both can go.
+ */
+public class TripleBufferTest {
+    private static final int VALUES = 500000;
+
+    // every slot of a value holds its sequence number, a torn value has mixed slots
+    private static final int SLOTS = 16;
+
+    @Test
+    public void readerSeesTheLatestCompleteValues() throws InterruptedException {
+        final TripleBuffer<long[]> buffer = new TripleBuffer<long[]>(new long[SLOTS], new long[SLOTS],
+                new long[SLOTS]);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long sequence = 1; sequence <= VALUES; sequence++) {
+                    long[] value = buffer.getBack();
+                    for (int i = 0; i < SLOTS; i++)
+                        value[i] = sequence;
+                    buffer.publish();
+                }
+            }
+        }, "TripleBufferWriter");
+        writer.start();
+
+        long last = 0;
+        while (writer.isAlive()) {
+            if (buffer.update()) {
+                long sequence = check(buffer.getFront());
+                if (sequence <= last)
+                    fail("Went from value " + last + " back to " + sequence);
+                last = sequence;
+            } else {
+                // nothing new, the front value must stay as it was
+                assertEquals(last, check(buffer.getFront()));
+            }
+        }
+        writer.join();
+
+        // the last published value is always there to take, exactly once
+        if (last != VALUES)
+            assertTrue(buffer.update());
+        assertEquals(VALUES, check(buffer.getFront()));
+        assertFalse(buffer.update());
+        assertEquals(VALUES, check(buffer.getFront()));
+    }
+
+    private static long check(long[] value) {
+        for (int i = 1; i < SLOTS; i++)
+            if (value[i] != value[0])
+                fail("Torn value, slot 0 holds " + value[0] + " and slot " + i + " holds " + value[i]);
+        return value[0];
+    }
+}
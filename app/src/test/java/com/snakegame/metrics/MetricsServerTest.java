@@ -0,0 +1,83 @@
+package com.snakegame.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrapes a server started on a free port over HTTP.
+ */
+public class MetricsServerTest {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private MetricsServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MetricsServer(registry, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void servesTheExpositionText() throws IOException {
+        Counter games = registry.counter("snake_games_total", "Games played.");
+        games.add(3);
+        Histogram frames = registry.histogram("snake_frame_seconds", "Frame time.", 0.01, 0.1);
+        frames.observe(0.005);
+        frames.observe(0.05);
+        frames.observe(1);
+
+        HttpURLConnection connection = open("/metrics");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("text/plain; version=0.0.4; charset=utf-8", connection.getContentType());
+
+        String body = read(connection);
+        assertEquals(registry.scrape(), body);
+        assertTrue(body.contains("# HELP snake_games_total Games played.\n"));
+        assertTrue(body.contains("# TYPE snake_games_total counter\n"));
+        assertTrue(body.contains("\nsnake_games_total 3\n"));
+        assertTrue(body.contains("# TYPE snake_frame_seconds histogram\n"));
+        assertTrue(body.contains("snake_frame_seconds_bucket{le=\"0.01\"} 1\n"));
+        assertTrue(body.contains("snake_frame_seconds_bucket{le=\"0.1\"} 2\n"));
+        assertTrue(body.contains("snake_frame_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(body.contains("snake_frame_seconds_count 3\n"));
+    }
+
+    @Test
+    public void answersOtherPathsWithNotFound() throws IOException {
+        HttpURLConnection connection = open("/");
+        assertEquals(404, connection.getResponseCode());
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path)
+                .openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, n);
+        }
+        return bytes.toString("UTF-8");
+    }
+}
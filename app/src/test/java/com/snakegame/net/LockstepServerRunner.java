@@ -0,0 +1,55 @@
+package com.snakegame.net;
+
+import com.snakegame.logic.GameLog;
+
+import java.io.IOException;
+
+/**
+ * Runs a standalone lockstep server off the device: {@code LockstepServerRunner [port]}.
+ * Prints throughput every second.
+ */
+public class LockstepServerRunner {
+    // prints warnings of the server, the rest is left out of the throughput lines
+    private static final GameLog WARNINGS = new GameLog() {
+        @Override
+        public boolean isLoggable() {
+            return false;
+        }
+
+        @Override
+        public void v(String tag, String message) {
+        }
+
+        @Override
+        public void d(String tag, String message) {
+        }
+
+        @Override
+        public void i(String tag, String message) {
+        }
+
+        @Override
+        public void w(String tag, String message) {
+            System.err.println(tag + ": " + message);
+        }
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LockstepServer server = new LockstepServer(args.length > 0 ? Integer.parseInt(args[0]) : 7777, WARNINGS);
+        new Thread(server, "LockstepServer").start();
+        System.out.println("Lockstep server listening on port " + server.getPort());
+
+        long lastTicks = 0, lastInputs = 0, lastDropped = 0;
+        while (true) {
+            Thread.sleep(1000);
+
+            long ticks = server.getTicksBroadcast(), inputs = server.getInputsReceived(), dropped = server.getInputsDropped();
+            System.out.println(server.getActiveSessions() + " sessions, " + server.getConnectedClients() + " clients, "
+                    + (ticks - lastTicks) + " session ticks/s, " + (inputs - lastInputs) + " inputs/s, "
+                    + (dropped - lastDropped) + " dropped/s");
+            lastTicks = ticks;
+            lastInputs = inputs;
+            lastDropped = dropped;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.snakegame.net;
+
+import com.snakegame.logic.GameLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs a server and real clients over loopback.
+ */
+public class LockstepServerTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private LockstepServer server;
+    private final List<LockstepClient> clients = new ArrayList<LockstepClient>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LockstepServer(0, GameLog.NONE);
+        new Thread(server, "LockstepServer").start();
+    }
+
+    @After
+    public void tearDown() {
+        for (LockstepClient client : clients)
+            client.close();
+        server.stop();
+    }
+
+    @Test
+    public void broadcastsTheSameTicksAndInputsInOrderToAllPlayers() throws Exception {
+        int players = 3, inputsPerPlayer = LockstepProtocol.MAX_INPUTS_PER_PLAYER;
+        LockstepClient[] session = joinSession(1, players);
+
+        // inputs stamped with a past tick go out with the next one, in the order they came
+        for (int i = 0; i < inputsPerPlayer; i++)
+            for (LockstepClient client : session)
+                client.sendInput(0, (client.getPlayerIndex() + i) % 4);
+
+        List<List<LockstepClient.TickInputs>> received = new ArrayList<List<LockstepClient.TickInputs>>();
+        for (LockstepClient client : session)
+            received.add(pollTicksUntilInputs(client, players * inputsPerPlayer));
+
+        List<LockstepClient.TickInputs> reference = received.get(0);
+        for (List<LockstepClient.TickInputs> ticks : received) {
+            // every tick once, in order
+            for (int i = 1; i < ticks.size(); i++)
+                assertEquals(ticks.get(i - 1).tick + 1, ticks.get(i).tick);
+
+            // the same inputs at the same ticks for everybody
+            for (int i = 0; i < Math.min(ticks.size(), reference.size()); i++) {
+                assertEquals(reference.get(i).tick, ticks.get(i).tick);
+                assertEquals(reference.get(i).count, ticks.get(i).count);
+                for (int j = 0; j < ticks.get(i).count; j++) {
+                    assertEquals(reference.get(i).players[j], ticks.get(i).players[j]);
+                    assertEquals(reference.get(i).directions[j], ticks.get(i).directions[j]);
+                }
+            }
+        }
+
+        // the inputs of each player arrive in the order they were sent
+        int[] next = new int[players];
+        for (LockstepClient.TickInputs tick : reference) {
+            for (int j = 0; j < tick.count; j++) {
+                int player = tick.players[j];
+                assertEquals((player + next[player]) % 4, tick.directions[j]);
+                next[player]++;
+            }
+        }
+        for (int player = 0; player < players; player++)
+            assertEquals(inputsPerPlayer, next[player]);
+    }
+
+    @Test
+    public void startsEveryPlayerFromTheSessionSeedAndSignalsTicks() throws Exception {
+        LockstepClient[] session = joinSession(9, 3);
+        for (LockstepClient client : session)
+            assertEquals(session[0].getSeed(), client.getSeed());
+
+        // another session plays another game
+        assertNotEquals(session[0].getSeed(), joinSession(10, 1)[0].getSeed());
+
+        final CountDownLatch arrived = new CountDownLatch(3);
+        session[1].setTickListener(new Runnable() {
+            @Override
+            public void run() {
+                arrived.countDown();
+            }
+        });
+        assertTrue(arrived.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNotNull(session[1].pollTick());
+    }
+
+    @Test
+    public void broadcastsAFullTick() throws Exception {
+        LockstepClient[] session = joinSession(2, LockstepProtocol.MAX_PLAYERS);
+        LockstepClient client = session[0];
+        int tick = pollTick(client).tick;
+
+        // every player sends more than its share of a tick, all stamped with the same future tick
+        int target = tick + LockstepProtocol.TICK_RATE / 2;
+        for (LockstepClient player : session)
+            for (int i = 0; i < LockstepProtocol.MAX_INPUTS_PER_PLAYER + 2; i++)
+                player.sendInput(target, i % 4);
+
+        LockstepClient.TickInputs inputs;
+        do {
+            inputs = pollTick(client);
+        } while (inputs.tick < target);
+
+        assertEquals(target, inputs.tick);
+        assertEquals(LockstepProtocol.MAX_INPUTS_PER_TICK, inputs.count);
+        assertEquals(2 * LockstepProtocol.MAX_PLAYERS, server.getInputsDropped());
+
+        // the server goes on
+        pollTick(client);
+        pollTick(joinSession(3, 1)[0]);
+        assertTrue(client.isConnected());
+    }
+
+    @Test
+    public void aClientSpammingFutureTicksDoesNotCrowdOutOthers() throws Exception {
+        LockstepClient[] session = joinSession(8, 2);
+        LockstepClient hostile = session[0], honest = session[1];
+        int tick = pollTick(honest).tick;
+
+        // far future inputs are dropped, near future ones only up to the player's share
+        int spam = 2 * LockstepProtocol.MAX_INPUTS_PER_TICK;
+        for (int i = 0; i < spam; i++) {
+            hostile.sendInput(tick + 100000, i % 4);
+            hostile.sendInput(tick + LockstepProtocol.MAX_INPUT_LEAD_TICKS, i % 4);
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.getInputsReceived() < 2 * spam) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Inputs not received");
+            Thread.sleep(5);
+        }
+        assertEquals(2 * spam - LockstepProtocol.MAX_INPUTS_PER_PLAYER, server.getInputsDropped());
+
+        // the other player's inputs still all go through, in order
+        for (int i = 0; i < LockstepProtocol.MAX_INPUTS_PER_PLAYER; i++)
+            honest.sendInput(0, i % 4);
+
+        int honestInputs = 0, hostileInputs = 0;
+        while (honestInputs < LockstepProtocol.MAX_INPUTS_PER_PLAYER) {
+            LockstepClient.TickInputs inputs = pollTick(honest);
+            for (int j = 0; j < inputs.count; j++) {
+                if (inputs.players[j] == honest.getPlayerIndex()) {
+                    assertEquals(honestInputs % 4, inputs.directions[j]);
+                    honestInputs++;
+                } else {
+                    hostileInputs++;
+                }
+            }
+        }
+        assertTrue(hostileInputs <= LockstepProtocol.MAX_INPUTS_PER_PLAYER);
+        assertTrue(honest.isConnected());
+    }
+
+    @Test
+    public void disconnectsOnlyAClientSendingAShortFrame() throws Exception {
+        LockstepClient client = joinSession(4, 1)[0];
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            socket.setSoTimeout((int) TIMEOUT_MILLIS);
+
+            // a join frame without its payload
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] {0, 1, LockstepProtocol.JOIN});
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            assertEquals(-1, in.read());
+        } finally {
+            socket.close();
+        }
+
+        pollTick(client);
+        pollTick(joinSession(5, 1)[0]);
+        assertTrue(client.isConnected());
+    }
+
+    @Test
+    public void disconnectsAClientSendingABadDirection() throws Exception {
+        LockstepClient client = new LockstepClient("127.0.0.1", server.getPort(), 6, 2);
+        clients.add(client);
+        client.start();
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            socket.setSoTimeout((int) TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            out.writeShort(LockstepProtocol.JOIN_LENGTH);
+            out.writeByte(LockstepProtocol.JOIN);
+            out.writeInt(6);
+            out.writeByte(2);
+            out.flush();
+
+            // skip frames up to the start of the session
+            int type;
+            do {
+                int length = in.readShort();
+                type = in.readByte();
+                in.skipBytes(length - 1);
+            } while (type != LockstepProtocol.START);
+
+            out.writeShort(LockstepProtocol.INPUT_LENGTH);
+            out.writeByte(LockstepProtocol.INPUT);
+            out.writeInt(0);
+            out.writeByte(LockstepProtocol.DIRECTION_COUNT);
+            out.flush();
+
+            // ticks until the server hangs up
+            try {
+                while (true) {
+                    int length = in.readShort();
+                    in.skipBytes(length);
+                }
+            } catch (EOFException e) {
+                // disconnected
+            }
+        } finally {
+            socket.close();
+        }
+
+        // the session ended without the bad direction reaching the other player
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (client.isConnected()) {
+            LockstepClient.TickInputs tick = client.pollTick();
+            if (tick != null)
+                for (int i = 0; i < tick.count; i++)
+                    assertTrue(LockstepProtocol.isValidDirection(tick.directions[i]));
+            if (System.currentTimeMillis() > deadline)
+                fail("Session did not end");
+            Thread.sleep(5);
+        }
+        assertTrue(client.getError() instanceof IOException);
+
+        // the server goes on
+        pollTick(joinSession(7, 1)[0]);
+    }
+
+    private LockstepClient[] joinSession(int sessionId, int players) throws InterruptedException {
+        LockstepClient[] session = new LockstepClient[players];
+        for (int i = 0; i < players; i++) {
+            session[i] = new LockstepClient("127.0.0.1", server.getPort(), sessionId, players);
+            clients.add(session[i]);
+            session[i].start();
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (LockstepClient client : session) {
+            while (!client.isStarted()) {
+                if (System.currentTimeMillis() > deadline || client.getError() != null)
+                    fail("Session " + sessionId + " did not start");
+                Thread.sleep(5);
+            }
+        }
+
+        return session;
+    }
+
+    private static LockstepClient.TickInputs pollTick(LockstepClient client) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        LockstepClient.TickInputs tick;
+        while ((tick = client.pollTick()) == null) {
+            if (System.currentTimeMillis() > deadline || !client.isConnected())
+                fail("No tick received");
+            Thread.sleep(5);
+        }
+
+        return tick;
+    }
+
+    private static List<LockstepClient.TickInputs> pollTicksUntilInputs(LockstepClient client, int inputs)
+            throws InterruptedException {
+        List<LockstepClient.TickInputs> ticks = new ArrayList<LockstepClient.TickInputs>();
+
+        int received = 0;
+        while (received < inputs) {
+            LockstepClient.TickInputs tick = pollTick(client);
+            ticks.add(tick);
+            received += tick.count;
+        }
+
+        assertEquals(inputs, received);
+        return ticks;
+    }
+}
@@ -0,0 +1,158 @@
+package com.snakegame.replay;
+
+import com.snakegame.logic.Cell;
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Snake;
+import com.snakegame.logic.Topology;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records headless games, rewinds included, and checks that seeking and playing the replay
+ * back gives the recorded states, for finished recordings and for ones cut before their index.
+ */
+public class ReplayPlayerTest {
+    private static final int WIDTH = 20, HEIGHT = 30;
+
+    private File file;
+
+    // recorded ticks and the state at each of them, in recording order
+    private final List<Integer> ticks = new ArrayList<Integer>();
+    private final List<String> states = new ArrayList<String>();
+
+    @After
+    public void tearDown() {
+        if (file != null)
+            file.delete();
+    }
+
+    @Test
+    public void seeksFinishedRecordings() throws IOException {
+        for (long seed = 0; seed < 5; seed++) {
+            record(seed, true);
+            checkSeeks(new ReplayPlayer(file));
+        }
+    }
+
+    @Test
+    public void seeksUnfinishedRecordings() throws IOException {
+        for (long seed = 0; seed < 5; seed++) {
+            record(seed, false);
+            checkSeeks(new ReplayPlayer(file));
+        }
+    }
+
+    @Test
+    public void playsBackTickByTick() throws IOException {
+        record(7, true);
+        ReplayPlayer player = new ReplayPlayer(file);
+
+        for (int tick = 0; tick <= player.getEndTick(); tick++) {
+            assertEquals("tick " + tick, expectedState(tick), describe(player.getState()));
+            player.advance(1);
+        }
+        assertTrue(player.isFinished());
+    }
+
+    /**
+     * Plays a game on a torus, undoing moves now and then between two moves, and records it
+     * like the game panel does. The recording is closed or only flushed.
+     */
+    private void record(long seed, boolean close) throws IOException {
+        Topology topology = Topology.torus(WIDTH, HEIGHT);
+        GameEngine engine = new GameEngine(Level.create(WIDTH, HEIGHT), topology, 10, false, new Properties(), seed);
+        Random random = new Random(seed);
+
+        if (file == null)
+            file = File.createTempFile("replay", ".snkr");
+        ReplayRecorder recorder = new ReplayRecorder(file, topology, 16);
+        ticks.clear();
+        states.clear();
+
+        recorder.recordStart(engine.getTickCounter(), engine.getSnake(), engine.getFood(), engine.getSpecialElements());
+        addState(engine);
+
+        int jumps = 0;
+        for (int tick = 0; tick < 3000 && !engine.getSnake().isDead(); tick++) {
+            if (engine.isMoveDue() && random.nextInt(8) == 0)
+                engine.queueDirection(Direction.values()[random.nextInt(4)]);
+
+            if (engine.update()) {
+                recorder.recordMove(engine.getTickCounter(), engine.getSnake(), engine.getFood(), engine.getSpecialElements());
+                addState(engine);
+            } else if (random.nextInt(100) == 0 && engine.rewind(1 + random.nextInt(10)) > 0) {
+                recorder.recordJump(engine.getTickCounter(), engine.getSnake(), engine.getFood(), engine.getSpecialElements());
+                addState(engine);
+                jumps++;
+            }
+        }
+        assertTrue(jumps > 0);
+
+        if (close)
+            recorder.close();
+        else
+            recorder.flush();
+    }
+
+    private void checkSeeks(ReplayPlayer player) {
+        assertEquals((int) ticks.get(ticks.size() - 1), player.getEndTick());
+
+        // backwards, so that every seek goes back to a keyframe
+        for (int tick = player.getEndTick() + 10; tick >= 0; tick--) {
+            player.seek(tick);
+            assertEquals("tick " + tick, expectedState(tick), describe(player.getState()));
+        }
+    }
+
+    /**
+     * Returns the last state recorded at or before the given tick.
+     */
+    private String expectedState(int tick) {
+        String state = null;
+        for (int i = 0; i < ticks.size() && ticks.get(i) <= tick; i++)
+            state = states.get(i);
+
+        return state;
+    }
+
+    private void addState(GameEngine engine) {
+        Snake snake = engine.getSnake();
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(engine.getTickCounter()).append(':');
+        for (Cell cell : snake.getCells())
+            builder.append(' ').append(cell.getLocation().x).append(',').append(cell.getLocation().y);
+        builder.append(" score ").append(snake.getScore())
+                .append(" food ").append(engine.getFood().getLocation().x).append(',').append(engine.getFood().getLocation().y)
+                .append(" dead ").append(snake.isDead());
+
+        ticks.add(engine.getTickCounter());
+        states.add(builder.toString());
+    }
+
+    private static String describe(ReplayState state) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(state.tick).append(':');
+        for (int i = 0; i < state.getLength(); i++)
+            builder.append(' ').append(state.getX(i)).append(',').append(state.getY(i));
+        builder.append(" score ").append(state.score)
+                .append(" food ").append(state.foodX).append(',').append(state.foodY)
+                .append(" dead ").append(state.isDead());
+
+        return builder.toString();
+    }
+}
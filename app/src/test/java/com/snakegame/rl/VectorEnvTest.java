@@ -0,0 +1,151 @@
+package com.snakegame.rl;
+
+import com.snakegame.logic.Cell;
+import com.snakegame.logic.GameElements;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GridPoint;
+import com.snakegame.logic.SpecialElements;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Steps games with random actions and checks the incrementally updated grids against grids
+ * drawn in full from the engines.
+ */
+public class VectorEnvTest {
+    private static final int WIDTH = 20, HEIGHT = 30;
+
+    @Test
+    public void incrementalGridsMatchFullRedraws() {
+        checkGrids(1);
+    }
+
+    @Test
+    public void incrementalGridsMatchFullRedrawsOnWorkerThreads() {
+        checkGrids(3);
+    }
+
+    @Test
+    public void stepAfterCloseThrows() {
+        for (int threads : new int[] {1, 3}) {
+            VectorEnv env = new VectorEnv(8, WIDTH, HEIGHT, new Properties(), 5, 3000, threads);
+            int[] actions = new int[8];
+            env.step(actions);
+            env.close();
+
+            try {
+                env.step(actions);
+                fail("Stepped a closed environment with " + threads + " threads");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            try {
+                env.reset();
+                fail("Reset a closed environment with " + threads + " threads");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void failuresOnWorkerThreadsAreThrownByStep() {
+        VectorEnv env = new VectorEnv(8, WIDTH, HEIGHT, new Properties(), 5, 3000, 2);
+        int[] actions = new int[8];
+        env.step(actions);
+
+        // a snake without cells can't move, game 5 is stepped by the worker thread
+        env.getEngine(5).getSnake().getCells().clear();
+        try {
+            env.step(actions);
+            fail("Step hid a failure on a worker thread");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+
+        // the worker is still there, the next failure is reported too
+        try {
+            env.step(actions);
+            fail("Step hid a second failure on a worker thread");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+
+        // game 0 is stepped by the caller, its failure comes as is after the workers finished
+        env.getEngine(5).reset(1);
+        env.getEngine(0).getSnake().getCells().clear();
+        try {
+            env.step(actions);
+            fail("Step hid a failure on the caller's thread");
+        } catch (NullPointerException e) {
+            // expected
+        }
+        env.close();
+    }
+
+    private static void checkGrids(int threads) {
+        int numEnvs = 32;
+        VectorEnv env = new VectorEnv(numEnvs, WIDTH, HEIGHT, new Properties(), 5, 3000, threads);
+        try {
+            int[] actions = new int[numEnvs];
+            Random random = new Random(11);
+            int dones = 0;
+
+            for (int step = 0; step < 2000; step++) {
+                // mostly straight on, -1 keeps the direction
+                for (int i = 0; i < numEnvs; i++)
+                    actions[i] = random.nextInt(8) - 4;
+                env.step(actions);
+
+                for (int i = 0; i < numEnvs; i++) {
+                    assertGrid(env, i);
+                    if (env.getDones()[i])
+                        dones++;
+                }
+            }
+
+            // episodes ended and started again on the way
+            assertTrue(dones > 0);
+        } finally {
+            env.close();
+        }
+    }
+
+    private static void assertGrid(VectorEnv env, int i) {
+        GameEngine engine = env.getEngine(i);
+        byte[] expected = new byte[WIDTH * HEIGHT];
+
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                expected[y * WIDTH + x] = engine.getLevel().isBlocked(x, y) ? VectorEnv.WALL : VectorEnv.EMPTY;
+
+        for (Cell cell : engine.getSnake().getCells())
+            expected[index(cell.getLocation())] = VectorEnv.BODY;
+        expected[index(engine.getSnake().getHead().getLocation())] = VectorEnv.HEAD;
+
+        expected[index(engine.getFood().getLocation())] = VectorEnv.FOOD;
+
+        SpecialElements special = engine.getSpecialElements();
+        if (special != null)
+            expected[index(special.getLocation())] = special.getType() == GameElements.GameElementType.CLOCK
+                    ? VectorEnv.CLOCK : special.getType() == GameElements.GameElementType.SHIELD
+                    ? VectorEnv.SHIELD : VectorEnv.REWIND;
+
+        ByteBuffer observations = env.getObservations();
+        for (int cell = 0; cell < expected.length; cell++)
+            assertEquals("game " + i + " cell " + cell % WIDTH + "," + cell / WIDTH,
+                    expected[cell], observations.get(i * WIDTH * HEIGHT + cell));
+    }
+
+    private static int index(GridPoint point) {
+        return point.y * WIDTH + point.x;
+    }
+}
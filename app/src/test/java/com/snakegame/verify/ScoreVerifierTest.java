@@ -0,0 +1,300 @@
+package com.snakegame.verify;
+
+import com.snakegame.logic.Direction;
+import com.snakegame.logic.GameEngine;
+import com.snakegame.logic.GameSubmission;
+import com.snakegame.logic.Level;
+import com.snakegame.logic.Topology;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies real games played on every topology, and tampered copies of them.
+ */
+public class ScoreVerifierTest {
+    private static final int WIDTH = 20, HEIGHT = 30;
+
+    private final ScoreVerifier verifier = new ScoreVerifier(new Properties(), 2);
+
+    @After
+    public void tearDown() {
+        verifier.shutdown();
+    }
+
+    @Test
+    public void acceptsRealGamesOnEveryTopology() throws Exception {
+        List<GameSubmission> submissions = new ArrayList<GameSubmission>();
+        for (Topology.Type type : Topology.Type.values())
+            for (GameSubmission submission : playGames(type, 30))
+                submissions.add(roundTrip(submission));
+
+        for (ScoreVerifier.Result result : verifier.verifyAll(submissions))
+            assertEquals(ScoreVerifier.Result.VALID, result);
+    }
+
+    @Test
+    public void rejectsAChangedScore() throws IOException {
+        for (GameSubmission submission : playGames(Topology.Type.BORDERED, 10)) {
+            GameSubmission tampered = copy(submission, submission.getInputCount(), submission.getScore() + 10);
+            assertEquals(ScoreVerifier.Result.SCORE_MISMATCH, verifier.verify(tampered));
+        }
+    }
+
+    @Test
+    public void rejectsATruncatedInputLog() throws IOException {
+        int checked = 0;
+        for (GameSubmission submission : playGames(Topology.Type.BORDERED, 10)) {
+            if (submission.getInputCount() < 2)
+                continue;
+
+            GameSubmission tampered = copy(submission, submission.getInputCount() / 2, submission.getScore());
+            assertNotEquals(ScoreVerifier.Result.VALID, verifier.verify(tampered));
+            checked++;
+        }
+        assertTrue(checked > 0);
+
+        // a log cut short on the wire doesn't even read
+        byte[] bytes = toBytes(playGames(Topology.Type.BORDERED, 1).get(0));
+        try {
+            GameSubmission.readFrom(new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3))));
+            fail("Read a truncated submission");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsAnOutOfRangeDirection() throws IOException {
+        GameSubmission submission = playGames(Topology.Type.BORDERED, 1).get(0);
+        assertTrue(submission.getInputCount() > 0);
+
+        for (byte direction : new byte[] {(byte) (GameSubmission.REWIND_INPUT + 1), -1}) {
+            int count = submission.getInputCount();
+            int[] ticks = new int[count];
+            byte[] directions = new byte[count];
+            for (int i = 0; i < count; i++) {
+                ticks[i] = submission.getInputTick(i);
+                directions[i] = (byte) submission.getInputDirection(i);
+            }
+            directions[0] = direction;
+
+            GameSubmission tampered = new GameSubmission(submission.getSeed(), submission.getItemWeightsHash(),
+                    submission.getLevel(), submission.getTopology(), ticks, directions, submission.getScore(),
+                    submission.getEndTick());
+            assertEquals(ScoreVerifier.Result.INVALID_INPUT, verifier.verify(tampered));
+        }
+    }
+
+    @Test
+    public void acceptsAnIdleGameOnATorus() throws IOException {
+        // a wall across the board, the snake circles its start row without input until it
+        // turns into the wall
+        Level level = Level.create(WIDTH, HEIGHT);
+        for (int x = 0; x < WIDTH; x++)
+            level.setBlocked(x, HEIGHT / 2, true);
+        GameEngine engine = new GameEngine(level, Topology.torus(WIDTH, HEIGHT), 0, false, new Properties(), 5);
+
+        while (engine.getTickCounter() < 50000)
+            engine.update();
+        engine.queueDirection(Direction.DOWN);
+        while (!engine.getSnake().isDead())
+            engine.update();
+
+        GameSubmission submission = engine.toSubmission();
+        assertEquals(1, submission.getInputCount());
+        assertTrue(submission.isWithinLimits());
+        assertEquals(ScoreVerifier.Result.VALID, verifier.verify(roundTrip(submission)));
+    }
+
+    @Test
+    public void acceptsAGameThatSpentARewindCharge() throws IOException {
+        // only rewinds spawn, the snake wanders on a torus until it picks one up
+        Properties weights = new Properties();
+        weights.setProperty("special.none", "1");
+        weights.setProperty("special.clock", "0");
+        weights.setProperty("special.shield", "0");
+        weights.setProperty("special.rewind", "1");
+        GameEngine engine = new GameEngine(Level.create(WIDTH, HEIGHT), Topology.torus(WIDTH, HEIGHT), 0, false,
+                weights, 7);
+
+        // no charge yet, nothing to spend
+        assertEquals(0, engine.useRewindCharge());
+
+        Random random = new Random(7);
+        while (engine.getRewindCharges() == 0 && !engine.getSnake().isDead()) {
+            if (random.nextInt(8) == 0)
+                engine.queueDirection(Direction.values()[random.nextInt(4)]);
+            engine.update();
+        }
+        assertEquals(1, engine.getRewindCharges());
+
+        int length = engine.getSnake().getCells().size();
+        assertEquals(GameEngine.REWIND_CHARGE_MOVES, engine.useRewindCharge());
+        assertEquals(0, engine.getRewindCharges());
+        assertTrue(engine.getSnake().getCells().size() <= length);
+        assertFalse(engine.isRewound());
+
+        while (!engine.getSnake().isDead()) {
+            if (random.nextInt(8) == 0)
+                engine.queueDirection(Direction.values()[random.nextInt(4)]);
+            engine.update();
+        }
+
+        ScoreVerifier weightedVerifier = new ScoreVerifier(weights, 1);
+        try {
+            GameSubmission submission = roundTrip(engine.toSubmission());
+            assertEquals(ScoreVerifier.Result.VALID, weightedVerifier.verify(submission));
+
+            // a rewind the game never picked up doesn't verify
+            int count = submission.getInputCount();
+            int[] ticks = new int[count + 1];
+            byte[] directions = new byte[count + 1];
+            ticks[0] = 1;
+            directions[0] = (byte) GameSubmission.REWIND_INPUT;
+            for (int i = 0; i < count; i++) {
+                ticks[i + 1] = submission.getInputTick(i);
+                directions[i + 1] = (byte) submission.getInputDirection(i);
+            }
+            GameSubmission tampered = new GameSubmission(submission.getSeed(), submission.getItemWeightsHash(),
+                    submission.getLevel(), submission.getTopology(), ticks, directions, submission.getScore(),
+                    submission.getEndTick());
+            assertEquals(ScoreVerifier.Result.INVALID_INPUT, weightedVerifier.verify(tampered));
+        } finally {
+            weightedVerifier.shutdown();
+        }
+    }
+
+    @Test
+    public void picksTheItemWeightsTheGameWasPlayedWith() throws Exception {
+        Properties rare = new Properties();
+        rare.setProperty("food.green", "1");
+        rare.setProperty("food.red", "1");
+        rare.setProperty("food.yellow", "98");
+        Properties defaults = new Properties();
+        defaults.setProperty("food.green", "75");
+
+        Level level = Level.bordered(WIDTH, HEIGHT);
+        GameEngine engine = new GameEngine(level, Topology.bordered(WIDTH, HEIGHT), 0, false, rare, 3);
+        while (!engine.getSnake().isDead())
+            engine.update();
+        GameSubmission submission = roundTrip(engine.toSubmission());
+
+        // spelling out a default weight doesn't change the weights
+        assertEquals(new GameEngine(level, 0, false, defaults, 0).getItemWeightsHash(),
+                new GameEngine(level, 0, false, new Properties(), 0).getItemWeightsHash());
+        assertNotEquals(engine.getItemWeightsHash(),
+                new GameEngine(level, 0, false, defaults, 0).getItemWeightsHash());
+
+        // a verifier without the weights can't replay the game
+        assertEquals(ScoreVerifier.Result.UNKNOWN_ITEM_WEIGHTS, verifier.verify(submission));
+
+        ScoreVerifier versionsVerifier = new ScoreVerifier(Arrays.asList(defaults, rare), 2);
+        try {
+            List<GameSubmission> submissions = new ArrayList<GameSubmission>(playGames(Topology.Type.BORDERED, 3));
+            submissions.add(1, submission);
+
+            for (ScoreVerifier.Result result : versionsVerifier.verifyAll(submissions))
+                assertEquals(ScoreVerifier.Result.VALID, result);
+        } finally {
+            versionsVerifier.shutdown();
+        }
+    }
+
+    @Test
+    public void acceptsAGameOnAWideLevel() throws IOException {
+        // the snake runs the length of the board into the far wall
+        int width = 3000;
+        GameEngine engine = new GameEngine(Level.bordered(width, 6), Topology.bordered(width, 6), 0, false,
+                new Properties(), 3);
+        while (!engine.getSnake().isDead())
+            engine.update();
+
+        GameSubmission submission = roundTrip(engine.toSubmission());
+        assertEquals(width, submission.getFieldWidth());
+        assertEquals(ScoreVerifier.Result.VALID, verifier.verify(submission));
+
+        // one cell more than sizes are written with doesn't make a level
+        assertFalse(Level.isValidSize(Level.MAX_SIZE + 1, HEIGHT));
+    }
+
+    @Test
+    public void rejectsOnlyASubmissionThatFailsToRun() throws Exception {
+        List<GameSubmission> submissions = new ArrayList<GameSubmission>(playGames(Topology.Type.BORDERED, 6));
+
+        // without a board the engine can't run the game
+        GameSubmission submission = submissions.get(2);
+        submissions.set(2, new GameSubmission(submission.getSeed(), submission.getItemWeightsHash(), null,
+                submission.getTopology(), new int[0], new byte[0], submission.getScore(), submission.getEndTick()));
+
+        ScoreVerifier.Result[] results = verifier.verifyAll(submissions);
+        for (int i = 0; i < results.length; i++)
+            assertEquals(i == 2 ? ScoreVerifier.Result.INVALID_INPUT : ScoreVerifier.Result.VALID, results[i]);
+    }
+
+    /**
+     * Plays seeded games with random turns until they end and returns their submissions.
+     */
+    private static List<GameSubmission> playGames(Topology.Type type, int games) {
+        Topology topology = Topology.create(type, WIDTH, HEIGHT, new int[] {
+                (HEIGHT / 2) * WIDTH + 2, (HEIGHT / 2) * WIDTH + WIDTH - 3,
+                3 * WIDTH + WIDTH / 2, (HEIGHT - 4) * WIDTH + WIDTH / 2});
+        Level level = type == Topology.Type.TORUS ? Level.create(WIDTH, HEIGHT) : Level.bordered(WIDTH, HEIGHT);
+        GameEngine engine = new GameEngine(level, topology, 0, false, new Properties(), 0);
+
+        Random random = new Random(type.ordinal());
+        List<GameSubmission> submissions = new ArrayList<GameSubmission>();
+        while (submissions.size() < games) {
+            engine.reset(random.nextLong());
+            while (!engine.getSnake().isDead() && engine.getTickCounter() < 100000) {
+                if (random.nextInt(12) == 0)
+                    engine.queueDirection(Direction.values()[random.nextInt(4)]);
+                engine.update();
+            }
+
+            if (engine.getSnake().isDead())
+                submissions.add(engine.toSubmission());
+        }
+
+        return submissions;
+    }
+
+    private static GameSubmission copy(GameSubmission submission, int inputCount, int score) {
+        int[] ticks = new int[inputCount];
+        byte[] directions = new byte[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            ticks[i] = submission.getInputTick(i);
+            directions[i] = (byte) submission.getInputDirection(i);
+        }
+
+        return new GameSubmission(submission.getSeed(), submission.getItemWeightsHash(), submission.getLevel(),
+                submission.getTopology(), ticks, directions, score, submission.getEndTick());
+    }
+
+    private static GameSubmission roundTrip(GameSubmission submission) throws IOException {
+        return GameSubmission.readFrom(new DataInputStream(new ByteArrayInputStream(toBytes(submission))));
+    }
+
+    private static byte[] toBytes(GameSubmission submission) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        submission.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}